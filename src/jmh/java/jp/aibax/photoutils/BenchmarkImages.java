@@ -0,0 +1,73 @@
+package jp.aibax.photoutils;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import jp.aibax.image.ImageUtils;
+
+import static jp.aibax.image.ImageFormat.JPEG;
+
+/**
+ * ベンチマークで使用する画像
+ *
+ * testdata のファイル名、または "幅x高さ" の形式で指定したサイズの合成画像 (JPEG) を読み込みます。
+ */
+class BenchmarkImages
+{
+    private static final Pattern SIZE = Pattern.compile("^(\\d+)x(\\d+)$");
+
+    private BenchmarkImages()
+    {
+    }
+
+    /**
+     * 画像データを読み込みます
+     *
+     * @param source testdata のファイル名、または合成画像のサイズ（"幅x高さ"）
+     * @return 画像データ
+     * @throws IOException
+     */
+    static byte[] load(String source) throws IOException
+    {
+        Matcher matcher = SIZE.matcher(source);
+
+        if (!matcher.matches())
+        {
+            return Files.readAllBytes(Paths.get("testdata", source));
+        }
+
+        int width = Integer.parseInt(matcher.group(1));
+        int height = Integer.parseInt(matcher.group(2));
+
+        return ImageUtils.writeImage(_synthesize(width, height), JPEG);
+    }
+
+    /**
+     * 写真に近い圧縮率となるように、グラデーションにノイズを加えた画像を生成します
+     */
+    private static BufferedImage _synthesize(int width, int height)
+    {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(width * 31L + height);
+
+        for (int y = 0; y < height; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                int noise = random.nextInt(16);
+                int r = (x * 255 / width + noise) & 0xFF;
+                int g = (y * 255 / height + noise) & 0xFF;
+                int b = ((x + y) * 255 / (width + height) + noise) & 0xFF;
+
+                image.setRGB(x, y, (r << 16) | (g << 8) | b);
+            }
+        }
+
+        return image;
+    }
+}
@@ -0,0 +1,63 @@
+package jp.aibax.photoutils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jp.aibax.image.Exif;
+
+/**
+ * Exif のベンチマーク
+ *
+ * EXIFデータの有無と、ファイルサイズ（合成画像）による処理時間の違いを計測します。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ExifBenchmark
+{
+    @Param({ "sample_exif.jpg", "sample_noexif.jpg", "dog.jpg", "640x480", "4032x3024", "8192x6144" })
+    public String source;
+
+    private Path directory;
+
+    private Path file;
+
+    @Setup
+    public void setUp() throws IOException
+    {
+        /* 計測用のファイルは testdata ではなく一時ディレクトリに作成 */
+        directory = Files.createTempDirectory("benchmark");
+        file = Files.write(directory.resolve("image.jpg"), BenchmarkImages.load(source));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException
+    {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(directory);
+    }
+
+    @Benchmark
+    public Exif decode() throws IOException
+    {
+        return Exif.decode(file);
+    }
+}
@@ -0,0 +1,82 @@
+package jp.aibax.photoutils;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jp.aibax.image.ImageFormat;
+import jp.aibax.image.ImageUtils;
+
+/**
+ * ImageUtils のベンチマーク
+ *
+ * testdata の画像と、640x480 から 50M ピクセルまでの合成画像で計測します。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ImageUtilsBenchmark
+{
+    @Param({ "image.jpg", "image.png", "image.gif", "image.bmp", "dog.jpg", "1920x1080.png", "1080x1440.png",
+        "640x480", "2048x1536", "4032x3024", "8192x6144" })
+    public String source;
+
+    private byte[] image;
+
+    @Setup
+    public void setUp() throws IOException
+    {
+        image = BenchmarkImages.load(source);
+    }
+
+    @Benchmark
+    public ImageFormat getImageFormat()
+    {
+        return ImageUtils.getImageFormat(image);
+    }
+
+    @Benchmark
+    public BufferedImage readImage() throws IOException
+    {
+        return ImageUtils.readImage(image);
+    }
+
+    @Benchmark
+    public byte[] resize() throws IOException
+    {
+        return ImageUtils.resize(image, 640);
+    }
+
+    @Benchmark
+    public byte[] resize_WidthAndHeight() throws IOException
+    {
+        return ImageUtils.resize(image, 640, 480);
+    }
+
+    @Benchmark
+    public byte[] trim() throws IOException
+    {
+        return ImageUtils.trim(image, 16f / 9f);
+    }
+
+    @Benchmark
+    public byte[] square() throws IOException
+    {
+        return ImageUtils.square(image);
+    }
+}
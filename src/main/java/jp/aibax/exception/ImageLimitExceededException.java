@@ -0,0 +1,18 @@
+package jp.aibax.exception;
+
+import java.io.IOException;
+
+public class ImageLimitExceededException extends IOException
+{
+    private static final long serialVersionUID = 1L;
+
+    public ImageLimitExceededException()
+    {
+        super();
+    }
+
+    public ImageLimitExceededException(String message)
+    {
+        super(message);
+    }
+}
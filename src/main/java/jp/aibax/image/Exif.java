@@ -2,12 +2,21 @@ package jp.aibax.image;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.text.DateFormat;
-import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.apache.commons.imaging.ImageReadException;
 import org.apache.commons.imaging.Imaging;
@@ -16,6 +25,8 @@ import org.apache.commons.imaging.formats.jpeg.JpegImageMetadata;
 import org.apache.commons.imaging.formats.tiff.TiffField;
 import org.apache.commons.imaging.formats.tiff.taginfos.TagInfo;
 
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
 import static org.apache.commons.imaging.formats.tiff.constants.ExifTagConstants.EXIF_TAG_DATE_TIME_ORIGINAL;
 import static org.apache.commons.imaging.formats.tiff.constants.ExifTagConstants.EXIF_TAG_SUB_SEC_TIME_ORIGINAL;
 import static org.apache.commons.imaging.formats.tiff.constants.TiffTagConstants.TIFF_TAG_MAKE;
@@ -23,8 +34,31 @@ import static org.apache.commons.imaging.formats.tiff.constants.TiffTagConstants
 import static org.apache.commons.lang3.StringUtils.isEmpty;
 import static org.apache.commons.lang3.time.DateUtils.setMilliseconds;
 
+/**
+ * 画像のEXIFデータ
+ *
+ * JPEG の場合は APP1 (Exif) セグメントを読み込んだ時に全ての IFD のタグの位置の索引のみを作成し、
+ * Make・Model・DateTimeOriginal・SubSecTimeOriginal 以外の値はアクセスした時にデコードします。
+ * 読み込んだセグメントを保持するため、追加の値を取得する際にファイルを再度読み込むことはありません。
+ * JPEG 以外の画像（commons-imaging で解析した場合）は上記の4つの値のみを取得できます。
+ *
+ * 任意のタグは {@link #getString(Directory, int)} などで取得できます（タグの番号は commons-imaging の
+ * TiffTagConstants・ExifTagConstants・GpsTagConstants などの {@code TagInfo.tag} を使用できます）。
+ */
 public class Exif
 {
+    /**
+     * IFD の種類
+     */
+    public enum Directory
+    {
+        IFD0, EXIF, GPS, INTEROP, IFD1
+    }
+
+    /**
+     * @deprecated SimpleDateFormat はスレッドセーフではないため {@link ExifDates} を使用してください
+     */
+    @Deprecated
     public static final DateFormat EXIF_DATE_FORMAT = new SimpleDateFormat("yyyy:MM:dd HH:mm:ss");
 
     private Path file = null;
@@ -39,10 +73,30 @@ public class Exif
 
     private Integer subSecTimeOriginal = null;
 
+    /** APP1 (Exif) セグメントのタグの索引（JPEG 以外の画像・EXIFデータがない場合はnull） */
+    private ExifReader reader = null;
+
+    /** キャッシュから返したEXIFデータでタグの索引をまだ読み込んでいない場合はtrue */
+    private boolean deferred = false;
+
     private Exif()
     {
     }
 
+    /**
+     * キャッシュしたEXIFデータ（その他のタグは初めてアクセスした時にファイルから読み込みます）
+     */
+    Exif(Path file, Date lastModified, String make, String model, String dateTimeOriginal,
+        Integer subSecTimeOriginal)
+    {
+        this.deferred = true;
+        this.file = file;
+        this.lastModified = lastModified;
+
+        _setValues(this, make, model, dateTimeOriginal, (subSecTimeOriginal != null) ? subSecTimeOriginal.toString()
+            : null);
+    }
+
     /**
      * 指定した画像のEXIFデータを読み込みます
      *
@@ -51,68 +105,392 @@ public class Exif
      * @throws IOException
      */
     public static Exif decode(Path file) throws IOException
+    {
+        return decode(file, null);
+    }
+
+    /**
+     * キャッシュを使用して指定した画像のEXIFデータを読み込みます
+     *
+     * キャッシュから返すEXIFデータは Make・Model・DateTimeOriginal・SubSecTimeOriginal・更新時刻のみを保持し、
+     * その他のタグ（{@link #getOrientation()} など）は初めてアクセスした時にファイルから読み込みます。
+     *
+     * @param file      EXIFデータを読み込む画像ファイルのパス
+     * @param exifCache キャッシュ（nullの場合はキャッシュを使用しない）
+     * @return EXIFデータ
+     * @throws IOException
+     */
+    public static Exif decode(Path file, ExifCache exifCache) throws IOException
     {
         if (file == null)
         {
             throw new IllegalArgumentException("Path is not defined.");
         }
 
-        if (!Files.exists(file))
+        BasicFileAttributes attributes;
+
+        try
+        {
+            attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        }
+        catch (NoSuchFileException e)
         {
             throw new FileNotFoundException();
         }
 
-        if (Files.isDirectory(file))
+        if (attributes.isDirectory())
         {
             throw new IllegalArgumentException("File is directory.");
         }
 
+        if (exifCache != null)
+        {
+            Exif cached = exifCache.get(file, attributes);
+
+            if (cached != null)
+            {
+                return cached;
+            }
+        }
+
+        Exif exif = new Exif();
+        exif.file = file;
+
         try
         {
-            return _decode(file);
+            /* APP1 (Exif) セグメントのみを読み込んで解析 */
+            try (FileChannel channel = FileChannel.open(file, READ))
+            {
+                _decode(exif, ExifReader.read(channel));
+            }
         }
         catch (ImageReadException e)
         {
-            throw new RuntimeException("Cannot read metadata. (" + file + ")", e);
+            /* JPEG 以外のファイルや構造が壊れているファイル → commons-imaging で解析 */
+            try
+            {
+                exif = new Exif();
+                exif.file = file;
+
+                _decode(exif, Imaging.getMetadata(file.toFile()));
+            }
+            catch (ImageReadException e2)
+            {
+                throw new RuntimeException("Cannot read metadata. (" + file + ")", e2);
+            }
+        }
+
+        exif.lastModified = new Date(attributes.lastModifiedTime().toMillis());
+
+        if (exifCache != null)
+        {
+            exifCache.put(file, attributes, exif);
         }
+
+        return exif;
     }
 
-    private static Exif _decode(Path file) throws ImageReadException, IOException
+    /**
+     * ASCII 型のタグの値をファイルを書き換えずに上書きします
+     *
+     * JPEG の APP1 (Exif) セグメントに全てのタグが同じ長さの値で存在する場合（値がnullのタグは存在しない場合）のみ、
+     * 値の位置に直接書き込みます。撮影時刻の変更などではファイル全体を書き換えずに数十バイトの書き込みで済みます。
+     * 書き込んだ後は更新時刻が必ず変わるため、キャッシュ（{@link ExifCache}）や索引は変更を検出します。
+     *
+     * @param file      画像ファイル
+     * @param directory タグの IFD
+     * @param values    タグ番号と値（値がnullの場合はタグが存在しないこと）
+     * @return 上書きした場合はtrue（条件を満たさない場合はファイルを変更せずにfalse）
+     * @throws IOException
+     */
+    public static boolean patch(Path file, Directory directory, Map<Integer, String> values) throws IOException
+    {
+        if (directory == null)
+        {
+            throw new IllegalArgumentException("Directory is not defined.");
+        }
+
+        return patch(file, Collections.singletonMap(directory, values));
+    }
+
+    /**
+     * 複数の IFD の ASCII 型のタグの値をファイルを書き換えずに上書きします
+     *
+     * APP1 (Exif) セグメントを1回だけ解析し、全ての IFD の全てのタグが上書きできる場合のみ書き込みます
+     * （一部のタグのみを書き込むことはありません）。
+     *
+     * @param file   画像ファイル
+     * @param values IFD ごとのタグ番号と値（値がnullの場合はタグが存在しないこと）
+     * @return 上書きした場合はtrue（条件を満たさない場合はファイルを変更せずにfalse）
+     * @throws IOException
+     */
+    public static boolean patch(Path file, Map<Directory, Map<Integer, String>> values) throws IOException
+    {
+        if (file == null)
+        {
+            throw new IllegalArgumentException("Path is not defined.");
+        }
+
+        try (FileChannel channel = FileChannel.open(file, READ, WRITE))
+        {
+            ExifReader reader = ExifReader.read(channel);
+
+            if (reader == null)
+            {
+                return false;
+            }
+
+            /* 全てのタグの書き込み位置を確認してから書き込む */
+            Map<Long, byte[]> writes = new LinkedHashMap<>();
+
+            for (Map.Entry<Directory, Map<Integer, String>> directory : values.entrySet())
+            {
+                if (!_preparePatch(reader, directory.getKey(), directory.getValue(), writes))
+                {
+                    return false;
+                }
+            }
+
+            FileTime lastModified = Files.getLastModifiedTime(file);
+
+            for (Map.Entry<Long, byte[]> write : writes.entrySet())
+            {
+                ByteBuffer buffer = ByteBuffer.wrap(write.getValue());
+                long position = write.getKey();
+
+                while (buffer.hasRemaining())
+                {
+                    position += channel.write(buffer, position);
+                }
+            }
+
+            if (Files.getLastModifiedTime(file).toMillis() == lastModified.toMillis())
+            {
+                /* サイズ・ファイルキーが変わらないため、更新時刻の分解能が粗い場合も変更を検出できるようにする */
+                Files.setLastModifiedTime(file, FileTime.fromMillis(lastModified.toMillis() + 1000));
+            }
+
+            return true;
+        }
+        catch (ImageReadException e)
+        {
+            /* JPEG 以外のファイルや構造が壊れているファイル */
+            return false;
+        }
+    }
+
+    /**
+     * 1つの IFD のタグの書き込み位置と値を追加します
+     *
+     * @return 全てのタグが上書きできる場合はtrue
+     */
+    private static boolean _preparePatch(ExifReader reader, Directory directory, Map<Integer, String> values,
+        Map<Long, byte[]> writes) throws ImageReadException
     {
+        for (Map.Entry<Integer, String> value : values.entrySet())
+        {
+            int entry = reader.findEntry(directory, value.getKey());
+
+            if (value.getValue() == null)
+            {
+                if (entry >= 0)
+                {
+                    /* タグの削除はセグメントの構造が変わる */
+                    return false;
+                }
+
+                continue;
+            }
+
+            if ((entry < 0) || !StandardCharsets.US_ASCII.newEncoder().canEncode(value.getValue()))
+            {
+                return false;
+            }
+
+            byte[] bytes = (value.getValue() + "\0").getBytes(StandardCharsets.US_ASCII);
+            long position = reader.getValuePosition(entry, bytes.length);
+
+            if (position < 0)
+            {
+                /* 型または長さが異なる */
+                return false;
+            }
+
+            writes.put(position, bytes);
+        }
+
+        return true;
+    }
+
+    /**
+     * メモリ上の画像データのEXIFデータを読み込みます（ファイルを作成せずに解析するため、更新時刻はnull）
+     *
+     * @param image 画像データ
+     * @return EXIFデータ
+     */
+    public static Exif decode(byte[] image)
+    {
+        if (image == null)
+        {
+            throw new IllegalArgumentException("Image is not defined.");
+        }
+
+        return decode(ByteBuffer.wrap(image));
+    }
+
+    /**
+     * メモリ上の画像データのEXIFデータを読み込みます（ファイルを作成せずに解析するため、更新時刻はnull）
+     *
+     * @param image 画像データ（position から limit まで / position と limit は変更しない）
+     * @return EXIFデータ
+     */
+    public static Exif decode(ByteBuffer image)
+    {
+        if (image == null)
+        {
+            throw new IllegalArgumentException("Image is not defined.");
+        }
+
         Exif exif = new Exif();
-        exif.file = file;
 
-        /* EXIFデータの取得 */
-        IImageMetadata imageMetadata = Imaging.getMetadata(file.toFile());
+        try
+        {
+            /* APP1 (Exif) セグメントのみを解析 */
+            _decode(exif, ExifReader.read(image));
+        }
+        catch (ImageReadException e)
+        {
+            /* JPEG 以外のデータや構造が壊れているデータ → commons-imaging で解析 */
+            try
+            {
+                exif = new Exif();
+
+                _decode(exif, Imaging.getMetadata(_toByteArray(image)));
+            }
+            catch (ImageReadException | IOException e2)
+            {
+                throw new RuntimeException("Cannot read metadata.", e2);
+            }
+        }
+
+        return exif;
+    }
+
+    private static byte[] _toByteArray(ByteBuffer image)
+    {
+        if (image.hasArray() && (image.arrayOffset() == 0) && (image.position() == 0)
+            && (image.remaining() == image.array().length))
+        {
+            return image.array();
+        }
+
+        byte[] bytes = new byte[image.remaining()];
+        image.duplicate().get(bytes);
+
+        return bytes;
+    }
+
+    /**
+     * ストリームから画像のEXIFデータを読み込みます（ファイルを作成せずに解析するため、更新時刻はnull）
+     *
+     * JPEG の場合は APP1 (Exif) セグメントまでのみを読み込みます。ストリームは閉じません。
+     *
+     * @param inputStream 画像データのストリーム
+     * @return EXIFデータ
+     * @throws IOException
+     */
+    public static Exif decode(InputStream inputStream) throws IOException
+    {
+        if (inputStream == null)
+        {
+            throw new IllegalArgumentException("InputStream is not defined.");
+        }
+
+        Exif exif = new Exif();
+
+        ExifReader.StreamSource source = new ExifReader.StreamSource(inputStream);
+
+        try
+        {
+            /* APP1 (Exif) セグメントまでのみを読み込んで解析 */
+            _decode(exif, ExifReader.read(source));
+        }
+        catch (ImageReadException e)
+        {
+            /* JPEG 以外のデータや構造が壊れているデータ → 読み込み済みのデータから commons-imaging で解析 */
+            try
+            {
+                exif = new Exif();
+
+                _decode(exif, Imaging.getMetadata(source.replay(), null));
+            }
+            catch (ImageReadException e2)
+            {
+                throw new RuntimeException("Cannot read metadata.", e2);
+            }
+        }
+
+        return exif;
+    }
+
+    private static void _decode(Exif exif, ExifReader reader) throws ImageReadException
+    {
+        if (reader == null)
+        {
+            // No Metadata
+            return;
+        }
+
+        exif.reader = reader;
 
+        _setValues(exif, _readString(reader, Directory.IFD0, ExifReader.TAG_MAKE),
+            _readString(reader, Directory.IFD0, ExifReader.TAG_MODEL),
+            _readString(reader, Directory.EXIF, ExifReader.TAG_DATE_TIME_ORIGINAL),
+            _readString(reader, Directory.EXIF, ExifReader.TAG_SUB_SEC_TIME_ORIGINAL));
+    }
+
+    private static String _readString(ExifReader reader, Directory directory, int tag) throws ImageReadException
+    {
+        int entry = reader.findEntry(directory, tag);
+
+        return (entry >= 0) ? reader.getString(entry) : null;
+    }
+
+    private static void _decode(Exif exif, IImageMetadata imageMetadata)
+    {
         if (imageMetadata == null)
         {
             // No Metadata
-            return exif;
+            return;
         }
 
         if (!(imageMetadata instanceof JpegImageMetadata))
         {
             // Unsupported Image Type
-            return exif;
+            return;
         }
 
         /* EXIFデータの解析 */
         JpegImageMetadata jpegImageMetadata = (JpegImageMetadata)imageMetadata;
 
-        exif.make = readMetadataAsString(jpegImageMetadata, TIFF_TAG_MAKE);
-        exif.model = readMetadataAsString(jpegImageMetadata, TIFF_TAG_MODEL);
-        exif.dateTimeOriginal = readMetadataAsDate(jpegImageMetadata, EXIF_TAG_DATE_TIME_ORIGINAL);
-        exif.subSecTimeOriginal = readMetadataAsInteger(jpegImageMetadata, EXIF_TAG_SUB_SEC_TIME_ORIGINAL);
+        _setValues(exif, readMetadataAsString(jpegImageMetadata, TIFF_TAG_MAKE),
+            readMetadataAsString(jpegImageMetadata, TIFF_TAG_MODEL),
+            readMetadataAsString(jpegImageMetadata, EXIF_TAG_DATE_TIME_ORIGINAL),
+            readMetadataAsString(jpegImageMetadata, EXIF_TAG_SUB_SEC_TIME_ORIGINAL));
+    }
+
+    private static void _setValues(Exif exif, String make, String model, String dateTimeOriginal,
+        String subSecTimeOriginal)
+    {
+        exif.make = make;
+        exif.model = model;
+        exif.dateTimeOriginal = parseDate(dateTimeOriginal);
+        exif.subSecTimeOriginal = parseInteger(subSecTimeOriginal);
 
         if ((exif.dateTimeOriginal != null) && (exif.subSecTimeOriginal != null))
         {
             exif.dateTimeOriginal = setMilliseconds(exif.dateTimeOriginal, exif.subSecTimeOriginal);
         }
-
-        exif.lastModified = new Date(Files.getLastModifiedTime(file).toMillis());
-
-        return exif;
     }
 
     private static String readMetadataAsString(final JpegImageMetadata jpegImageMetadata, final TagInfo tagInfo)
@@ -151,10 +529,8 @@ public class Exif
         }
     }
 
-    private static Integer readMetadataAsInteger(final JpegImageMetadata jpegImageMetadata, final TagInfo tagInfo)
+    private static Integer parseInteger(final String stringValue)
     {
-        String stringValue = readMetadataAsString(jpegImageMetadata, tagInfo);
-
         if (isEmpty(stringValue))
         {
             return null;
@@ -170,10 +546,8 @@ public class Exif
         }
     }
 
-    private static Date readMetadataAsDate(final JpegImageMetadata jpegImageMetadata, final TagInfo tagInfo)
+    private static Date parseDate(final String stringValue)
     {
-        String stringValue = readMetadataAsString(jpegImageMetadata, tagInfo);
-
         if (isEmpty(stringValue))
         {
             return null;
@@ -181,9 +555,9 @@ public class Exif
 
         try
         {
-            return EXIF_DATE_FORMAT.parse(stringValue);
+            return ExifDates.parse(stringValue);
         }
-        catch (ParseException e)
+        catch (IllegalArgumentException e)
         {
             throw new RuntimeException("Could not parse to Date. ('" + stringValue + "')", e);
         }
@@ -229,10 +603,366 @@ public class Exif
         return this.subSecTimeOriginal;
     }
 
+    /**
+     * 'Orientation' タグのデータを返します
+     *
+     * @return 'Orientation' タグのデータ（1～8 / タグがない場合は0）
+     */
+    public int getOrientation()
+    {
+        return (int)getLong(Directory.IFD0, ExifReader.TAG_ORIENTATION, 0);
+    }
+
+    /**
+     * 'Software' タグのデータを返します
+     *
+     * @return 'Software' タグのデータ（タグがない場合はnull）
+     */
+    public String getSoftware()
+    {
+        return getString(Directory.IFD0, ExifReader.TAG_SOFTWARE);
+    }
+
+    /**
+     * 'ExposureTime' タグのデータを返します
+     *
+     * @return 露出時間（秒 / タグがない場合は NaN）
+     */
+    public double getExposureTime()
+    {
+        return getDouble(Directory.EXIF, ExifReader.TAG_EXPOSURE_TIME, Double.NaN);
+    }
+
+    /**
+     * 'FNumber' タグのデータを返します
+     *
+     * @return F値（タグがない場合は NaN）
+     */
+    public double getFNumber()
+    {
+        return getDouble(Directory.EXIF, ExifReader.TAG_F_NUMBER, Double.NaN);
+    }
+
+    /**
+     * 'ISOSpeedRatings' (PhotographicSensitivity) タグのデータを返します
+     *
+     * @return ISO感度（タグがない場合は0）
+     */
+    public int getIsoSpeed()
+    {
+        return (int)getLong(Directory.EXIF, ExifReader.TAG_ISO_SPEED, 0);
+    }
+
+    /**
+     * 'Flash' タグのデータを返します
+     *
+     * @return フラッシュの状態（タグがない場合は-1）
+     */
+    public int getFlash()
+    {
+        return (int)getLong(Directory.EXIF, ExifReader.TAG_FLASH, -1);
+    }
+
+    /**
+     * 'FocalLength' タグのデータを返します
+     *
+     * @return 焦点距離（mm / タグがない場合は NaN）
+     */
+    public double getFocalLength()
+    {
+        return getDouble(Directory.EXIF, ExifReader.TAG_FOCAL_LENGTH, Double.NaN);
+    }
+
+    /**
+     * 'FocalLengthIn35mmFilm' タグのデータを返します
+     *
+     * @return 35mm 換算の焦点距離（mm / タグがない場合は0）
+     */
+    public int getFocalLengthIn35mm()
+    {
+        return (int)getLong(Directory.EXIF, ExifReader.TAG_FOCAL_LENGTH_IN_35MM, 0);
+    }
+
+    /**
+     * 'PixelXDimension' タグのデータを返します
+     *
+     * @return 画像の幅（タグがない場合は0）
+     */
+    public int getPixelXDimension()
+    {
+        return (int)getLong(Directory.EXIF, ExifReader.TAG_PIXEL_X_DIMENSION, 0);
+    }
+
+    /**
+     * 'PixelYDimension' タグのデータを返します
+     *
+     * @return 画像の高さ（タグがない場合は0）
+     */
+    public int getPixelYDimension()
+    {
+        return (int)getLong(Directory.EXIF, ExifReader.TAG_PIXEL_Y_DIMENSION, 0);
+    }
+
+    /**
+     * 'LensMake' タグのデータを返します
+     *
+     * @return 'LensMake' タグのデータ（タグがない場合はnull）
+     */
+    public String getLensMake()
+    {
+        return getString(Directory.EXIF, ExifReader.TAG_LENS_MAKE);
+    }
+
+    /**
+     * 'LensModel' タグのデータを返します
+     *
+     * @return 'LensModel' タグのデータ（タグがない場合はnull）
+     */
+    public String getLensModel()
+    {
+        return getString(Directory.EXIF, ExifReader.TAG_LENS_MODEL);
+    }
+
+    /**
+     * GPS の緯度・経度があるかを返します
+     *
+     * @return 緯度・経度がある場合はtrue
+     */
+    public boolean hasGpsLocation()
+    {
+        return hasTag(Directory.GPS, ExifReader.TAG_GPS_LATITUDE)
+            && hasTag(Directory.GPS, ExifReader.TAG_GPS_LONGITUDE);
+    }
+
+    /**
+     * GPS の緯度を返します
+     *
+     * @return 緯度（度 / 南緯は負の値 / タグがない場合は NaN）
+     */
+    public double getGpsLatitude()
+    {
+        return _getCoordinate(ExifReader.TAG_GPS_LATITUDE, ExifReader.TAG_GPS_LATITUDE_REF, "S");
+    }
+
+    /**
+     * GPS の経度を返します
+     *
+     * @return 経度（度 / 西経は負の値 / タグがない場合は NaN）
+     */
+    public double getGpsLongitude()
+    {
+        return _getCoordinate(ExifReader.TAG_GPS_LONGITUDE, ExifReader.TAG_GPS_LONGITUDE_REF, "W");
+    }
+
+    private double _getCoordinate(int tag, int refTag, String negative)
+    {
+        double degrees = getDouble(Directory.GPS, tag, 0, Double.NaN);
+        double minutes = getDouble(Directory.GPS, tag, 1, 0);
+        double seconds = getDouble(Directory.GPS, tag, 2, 0);
+
+        double value = degrees + minutes / 60 + seconds / 3600;
+
+        return negative.equalsIgnoreCase(getString(Directory.GPS, refTag)) ? -value : value;
+    }
+
+    /**
+     * GPS の高度を返します
+     *
+     * @return 高度（m / 海面下は負の値 / タグがない場合は NaN）
+     */
+    public double getGpsAltitude()
+    {
+        double value = getDouble(Directory.GPS, ExifReader.TAG_GPS_ALTITUDE, Double.NaN);
+
+        return (getLong(Directory.GPS, ExifReader.TAG_GPS_ALTITUDE_REF, 0) == 1) ? -value : value;
+    }
+
+    /**
+     * 'InteroperabilityIndex' タグのデータを返します
+     *
+     * @return 'InteroperabilityIndex' タグのデータ（"R98" など / タグがない場合はnull）
+     */
+    public String getInteroperabilityIndex()
+    {
+        return getString(Directory.INTEROP, ExifReader.TAG_INTEROP_INDEX);
+    }
+
+    /**
+     * IFD1 のサムネイル画像 (JPEG) を返します
+     *
+     * @return サムネイル画像のデータ（サムネイルがない場合はnull）
+     */
+    public byte[] getThumbnail()
+    {
+        long offset = getLong(Directory.IFD1, ExifReader.TAG_THUMBNAIL_OFFSET, -1);
+        long length = getLong(Directory.IFD1, ExifReader.TAG_THUMBNAIL_LENGTH, -1);
+
+        if ((offset < 0) || (length <= 0))
+        {
+            return null;
+        }
+
+        try
+        {
+            return _reader().getBytes(offset, length);
+        }
+        catch (ImageReadException e)
+        {
+            throw new RuntimeException("Cannot read thumbnail. (" + _name() + ")", e);
+        }
+    }
+
+    /**
+     * 指定したタグがあるかを返します
+     *
+     * @param directory IFD
+     * @param tag       タグ
+     * @return タグがある場合はtrue
+     */
+    public boolean hasTag(Directory directory, int tag)
+    {
+        ExifReader reader = _reader();
+
+        return (reader != null) && (reader.findEntry(directory, tag) >= 0);
+    }
+
+    /**
+     * ASCII 型のタグのデータを返します
+     *
+     * @param directory IFD
+     * @param tag       タグ
+     * @return データ（タグがない場合、ASCII 型ではない場合はnull）
+     */
+    public String getString(Directory directory, int tag)
+    {
+        ExifReader reader = _reader();
+        int entry = (reader != null) ? reader.findEntry(directory, tag) : -1;
+
+        if (entry < 0)
+        {
+            return null;
+        }
+
+        try
+        {
+            return reader.getString(entry);
+        }
+        catch (ImageReadException e)
+        {
+            throw new RuntimeException(_message(directory, tag), e);
+        }
+    }
+
+    /**
+     * 整数型（BYTE・SHORT・LONG とその符号付きの型）のタグの最初のデータを返します
+     *
+     * @param directory    IFD
+     * @param tag          タグ
+     * @param defaultValue タグがない場合の値
+     * @return データ
+     */
+    public long getLong(Directory directory, int tag, long defaultValue)
+    {
+        ExifReader reader = _reader();
+        int entry = (reader != null) ? reader.findEntry(directory, tag) : -1;
+
+        if (entry < 0)
+        {
+            return defaultValue;
+        }
+
+        try
+        {
+            return reader.getInt(entry, 0);
+        }
+        catch (ImageReadException e)
+        {
+            throw new RuntimeException(_message(directory, tag), e);
+        }
+    }
+
+    /**
+     * 数値型（整数型・RATIONAL・SRATIONAL）のタグの最初のデータを返します
+     *
+     * @param directory    IFD
+     * @param tag          タグ
+     * @param defaultValue タグがない場合の値
+     * @return データ
+     */
+    public double getDouble(Directory directory, int tag, double defaultValue)
+    {
+        return getDouble(directory, tag, 0, defaultValue);
+    }
+
+    /**
+     * 数値型（整数型・RATIONAL・SRATIONAL）のタグのデータを返します
+     *
+     * @param directory    IFD
+     * @param tag          タグ
+     * @param index        データのインデックス
+     * @param defaultValue タグがない場合、インデックスのデータがない場合の値
+     * @return データ
+     */
+    public double getDouble(Directory directory, int tag, int index, double defaultValue)
+    {
+        ExifReader reader = _reader();
+        int entry = (reader != null) ? reader.findEntry(directory, tag) : -1;
+
+        try
+        {
+            if ((entry < 0) || (index >= reader.getCount(entry)))
+            {
+                return defaultValue;
+            }
+
+            return reader.getDouble(entry, index);
+        }
+        catch (ImageReadException e)
+        {
+            throw new RuntimeException(_message(directory, tag), e);
+        }
+    }
+
+    /**
+     * タグの索引を返します（キャッシュから返したEXIFデータは初めてアクセスした時にファイルから読み込みます）
+     */
+    private synchronized ExifReader _reader()
+    {
+        if (deferred)
+        {
+            deferred = false;
+
+            try (FileChannel channel = FileChannel.open(file, READ))
+            {
+                reader = ExifReader.read(channel);
+            }
+            catch (ImageReadException e)
+            {
+                /* JPEG 以外のファイル（commons-imaging で解析した場合と同様にタグの索引はない） */
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException("Cannot read metadata. (" + file + ")", e);
+            }
+        }
+
+        return reader;
+    }
+
+    private String _message(Directory directory, int tag)
+    {
+        return "Cannot read tag. (" + directory + " 0x" + Integer.toHexString(tag) + " / " + _name() + ")";
+    }
+
+    private String _name()
+    {
+        return (file != null) ? file.toString() : "memory";
+    }
+
     /**
      * 画像ファイルの更新時刻を返します
      *
-     * @return 画像ファイルの更新時刻
+     * @return 画像ファイルの更新時刻（メモリ上の画像データ・ストリームから読み込んだ場合はnull）
      */
     public Date getLastModified()
     {
@@ -245,14 +975,17 @@ public class Exif
         String nl = "\n";
 
         StringBuilder s = new StringBuilder();
-        s.append("[").append(file.getFileName()).append("]").append(nl);
+        if (file != null)
+        {
+            s.append("[").append(file.getFileName()).append("]").append(nl);
+        }
+
         s.append("Make: ").append(make).append(nl);
         s.append("Model: ").append(model).append(nl);
-        s.append("DateTimeOriginal: ")
-            .append((dateTimeOriginal != null) ? EXIF_DATE_FORMAT.format(dateTimeOriginal) : "").append(nl);
-        s.append("SubSecTimeOriginal: ").append(subSecTimeOriginal).append(nl);
-        s.append("LastModified: ").append((lastModified != null) ? EXIF_DATE_FORMAT.format(lastModified) : "")
+        s.append("DateTimeOriginal: ").append((dateTimeOriginal != null) ? ExifDates.format(dateTimeOriginal) : "")
             .append(nl);
+        s.append("SubSecTimeOriginal: ").append(subSecTimeOriginal).append(nl);
+        s.append("LastModified: ").append((lastModified != null) ? ExifDates.format(lastModified) : "").append(nl);
 
         return s.toString();
     }
@@ -0,0 +1,279 @@
+package jp.aibax.image;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jp.aibax.util.AppendLog;
+
+/**
+ * デコードしたEXIFデータのキャッシュ
+ *
+ * ファイルのパス・サイズ・更新時刻・ファイルキー（inode）が一致する場合は、前回デコードした値を
+ * ファイルを読み込まずに返します。キャッシュは追記のみのログ（{@link AppendLog}）としてファイルに記録します。
+ *
+ * キャッシュするのは Make・Model・DateTimeOriginal・SubSecTimeOriginal と更新時刻のみです。キャッシュから
+ * 返すEXIFデータでは、その他のタグ（{@link Exif#getOrientation()} など）は初めてアクセスした時にファイルから
+ * 読み込みます。キャッシュは {@link Exif#decode(Path, ExifCache)} に指定して使用します。
+ *
+ * [形式]
+ * サイズ TAB 更新時刻（ミリ秒） TAB ファイルキー TAB 撮影時刻 TAB SubSecTimeOriginal TAB Make TAB Model TAB パス
+ * （値がない場合は \N / Make・Model のタブ・改行・バックスラッシュはエスケープ）
+ * 撮影時刻はタイムゾーンに依存しないよう、EXIFと同じ "yyyy:MM:dd HH:mm:ss" 形式で記録します（{@link ExifDates}）。
+ */
+public class ExifCache implements Closeable
+{
+    private static final String HEADER = "# photoutils exif cache 2";
+
+    private static final String NULL = "\\N";
+
+    private final AppendLog<Record> log;
+
+    private final AtomicInteger hits = new AtomicInteger();
+
+    private final AtomicInteger misses = new AtomicInteger();
+
+    private ExifCache(Path file) throws IOException
+    {
+        this.log = AppendLog.open(file, HEADER, Record.FORMAT);
+    }
+
+    /**
+     * キャッシュを開きます（ファイルが存在しない場合は作成します）
+     *
+     * @param file キャッシュのファイル
+     * @return キャッシュ
+     * @throws IOException
+     */
+    public static ExifCache open(Path file) throws IOException
+    {
+        if (file == null)
+        {
+            throw new IllegalArgumentException("File is not defined");
+        }
+
+        return new ExifCache(file);
+    }
+
+    /**
+     * キャッシュしたEXIFデータを返します
+     *
+     * @param target     画像ファイル
+     * @param attributes 画像ファイルの属性
+     * @return EXIFデータ（キャッシュにない場合、ファイルが変更された場合はnull）
+     */
+    Exif get(Path target, BasicFileAttributes attributes)
+    {
+        Record record = log.get(_key(target));
+
+        if ((record == null) || (record.size != attributes.size())
+            || (record.lastModified != attributes.lastModifiedTime().toMillis())
+            || !record.fileKey.equals(_fileKey(attributes)))
+        {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        hits.incrementAndGet();
+
+        return new Exif(target, new Date(record.lastModified), record.make, record.model, record.dateTimeOriginal,
+            record.subSecTimeOriginal);
+    }
+
+    /**
+     * デコードしたEXIFデータをキャッシュに追加します
+     *
+     * @param target     画像ファイル
+     * @param attributes デコードする前に取得した画像ファイルの属性
+     * @param exif       EXIFデータ
+     * @throws IOException
+     */
+    void put(Path target, BasicFileAttributes attributes, Exif exif) throws IOException
+    {
+        Date dateTimeOriginal = exif.getDateTimeOriginal();
+
+        Record record = new Record(_key(target), attributes.size(), attributes.lastModifiedTime().toMillis(),
+            _fileKey(attributes), (dateTimeOriginal != null) ? ExifDates.format(dateTimeOriginal) : null,
+            exif.getSubSecTimeOriginal(), exif.getMake(), exif.getModel());
+
+        log.append(record);
+    }
+
+    private static String _key(Path target)
+    {
+        return target.toAbsolutePath().normalize().toString();
+    }
+
+    private static String _fileKey(BasicFileAttributes attributes)
+    {
+        Object fileKey = attributes.fileKey();
+
+        return (fileKey != null) ? fileKey.toString().replace('\t', ' ') : "";
+    }
+
+    /**
+     * @return キャッシュされているファイルの数
+     */
+    public int size()
+    {
+        return log.size();
+    }
+
+    /**
+     * @return キャッシュから返した件数
+     */
+    public int getHits()
+    {
+        return hits.get();
+    }
+
+    /**
+     * @return キャッシュになかった件数（ファイルが変更された場合を含む）
+     */
+    public int getMisses()
+    {
+        return misses.get();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        log.close();
+    }
+
+    private static class Record
+    {
+        static final AppendLog.Format<Record> FORMAT = new AppendLog.Format<Record>()
+        {
+            @Override
+            public Record parse(String line)
+            {
+                return Record.parse(line);
+            }
+
+            @Override
+            public String format(Record record)
+            {
+                return record.toString();
+            }
+
+            @Override
+            public String key(Record record)
+            {
+                return record.path;
+            }
+        };
+
+        private final String path;
+
+        private final long size;
+
+        private final long lastModified;
+
+        private final String fileKey;
+
+        /** 撮影時刻（EXIFの日時の文字列） */
+        private final String dateTimeOriginal;
+
+        private final Integer subSecTimeOriginal;
+
+        private final String make;
+
+        private final String model;
+
+        Record(String path, long size, long lastModified, String fileKey, String dateTimeOriginal,
+            Integer subSecTimeOriginal, String make, String model)
+        {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.fileKey = fileKey;
+            this.dateTimeOriginal = dateTimeOriginal;
+            this.subSecTimeOriginal = subSecTimeOriginal;
+            this.make = make;
+            this.model = model;
+        }
+
+        static Record parse(String line)
+        {
+            String[] fields = line.split("\t", 8);
+
+            if (fields.length != 8)
+            {
+                return null;
+            }
+
+            try
+            {
+                return new Record(fields[7], Long.parseLong(fields[0]), Long.parseLong(fields[1]), fields[2],
+                    NULL.equals(fields[3]) ? null : _dateTime(fields[3]),
+                    NULL.equals(fields[4]) ? null : Integer.valueOf(fields[4]), _unescape(fields[5]),
+                    _unescape(fields[6]));
+            }
+            catch (IllegalArgumentException e)
+            {
+                /* 書き込み途中で終了した行などは無視（NumberFormatException を含む） */
+                return null;
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return size + "\t" + lastModified + "\t" + fileKey + "\t"
+                + ((dateTimeOriginal != null) ? dateTimeOriginal : NULL) + "\t"
+                + ((subSecTimeOriginal != null) ? subSecTimeOriginal : NULL) + "\t" + _escape(make) + "\t"
+                + _escape(model) + "\t" + path;
+        }
+
+        /**
+         * 撮影時刻の形式を確認します（以前の形式のミリ秒の値などは IllegalArgumentException）
+         */
+        private static String _dateTime(String value)
+        {
+            ExifDates.parse(value);
+
+            return value;
+        }
+
+        private static String _escape(String value)
+        {
+            if (value == null)
+            {
+                return NULL;
+            }
+
+            return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+        }
+
+        private static String _unescape(String value)
+        {
+            if (NULL.equals(value))
+            {
+                return null;
+            }
+
+            StringBuilder result = new StringBuilder(value.length());
+
+            for (int i = 0; i < value.length(); i++)
+            {
+                char c = value.charAt(i);
+
+                if ((c == '\\') && (i + 1 < value.length()))
+                {
+                    char next = value.charAt(++i);
+                    result.append((next == 't') ? '\t' : (next == 'n') ? '\n' : (next == 'r') ? '\r' : next);
+                }
+                else
+                {
+                    result.append(c);
+                }
+            }
+
+            return result.toString();
+        }
+    }
+}
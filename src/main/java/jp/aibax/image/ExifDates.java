@@ -0,0 +1,126 @@
+package jp.aibax.image;
+
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+
+/**
+ * EXIFの日時（"yyyy:MM:dd HH:mm:ss" 形式の固定長の文字列）の変換
+ *
+ * SimpleDateFormat を使用せずに桁ごとに変換するため、複数のスレッドから同時に呼び出すことができます。
+ * EXIFの日時はタイムゾーンを持たないため、システムのデフォルトのタイムゾーンの日時として扱います。
+ */
+public final class ExifDates
+{
+    /** EXIFの日時の文字列の長さ */
+    private static final int LENGTH = "yyyy:MM:dd HH:mm:ss".length();
+
+    private ExifDates()
+    {
+    }
+
+    /**
+     * EXIFの日時の文字列を変換します
+     *
+     * @param value EXIFの日時の文字列（末尾の余分な文字は無視）
+     * @return 日時（空の場合、日時が不明 "0000:00:00 00:00:00" の場合はnull）
+     * @throws IllegalArgumentException EXIFの日時の形式ではない場合
+     */
+    public static Date parse(String value)
+    {
+        if ((value == null) || value.trim().isEmpty())
+        {
+            return null;
+        }
+
+        if ((value.length() < LENGTH) || (value.charAt(4) != ':') || (value.charAt(7) != ':')
+            || (value.charAt(10) != ' ') || (value.charAt(13) != ':') || (value.charAt(16) != ':'))
+        {
+            throw new IllegalArgumentException("Invalid date format. ('" + value + "')");
+        }
+
+        int year = _digits(value, 0, 4);
+        int month = _digits(value, 5, 2);
+        int day = _digits(value, 8, 2);
+        int hour = _digits(value, 11, 2);
+        int minute = _digits(value, 14, 2);
+        int second = _digits(value, 17, 2);
+
+        if ((year == 0) && (month == 0) && (day == 0))
+        {
+            /* 日時が不明 */
+            return null;
+        }
+
+        try
+        {
+            LocalDateTime dateTime = LocalDateTime.of(year, month, day, hour, minute, second);
+
+            return Date.from(dateTime.atZone(ZoneId.systemDefault()).toInstant());
+        }
+        catch (DateTimeException e)
+        {
+            throw new IllegalArgumentException("Invalid date. ('" + value + "')", e);
+        }
+    }
+
+    private static int _digits(String value, int offset, int length)
+    {
+        int result = 0;
+
+        for (int i = offset; i < offset + length; i++)
+        {
+            char c = value.charAt(i);
+
+            if ((c < '0') || (c > '9'))
+            {
+                throw new IllegalArgumentException("Invalid date format. ('" + value + "')");
+            }
+
+            result = result * 10 + (c - '0');
+        }
+
+        return result;
+    }
+
+    /**
+     * 日時をEXIFの日時の文字列に変換します
+     *
+     * @param date 日時
+     * @return EXIFの日時の文字列（"yyyy:MM:dd HH:mm:ss"）
+     */
+    public static String format(Date date)
+    {
+        if (date == null)
+        {
+            throw new IllegalArgumentException("Date is not defined.");
+        }
+
+        LocalDateTime dateTime = LocalDateTime.ofInstant(date.toInstant(), ZoneId.systemDefault());
+
+        char[] chars = new char[LENGTH];
+        _append(chars, 0, dateTime.getYear(), 4);
+        chars[4] = ':';
+        _append(chars, 5, dateTime.getMonthValue(), 2);
+        chars[7] = ':';
+        _append(chars, 8, dateTime.getDayOfMonth(), 2);
+        chars[10] = ' ';
+        _append(chars, 11, dateTime.getHour(), 2);
+        chars[13] = ':';
+        _append(chars, 14, dateTime.getMinute(), 2);
+        chars[16] = ':';
+        _append(chars, 17, dateTime.getSecond(), 2);
+
+        return new String(chars);
+    }
+
+    private static void _append(char[] chars, int offset, int value, int length)
+    {
+        for (int i = offset + length - 1; i >= offset; i--)
+        {
+            chars[i] = (char)('0' + (value % 10));
+            value /= 10;
+        }
+    }
+}
@@ -0,0 +1,839 @@
+package jp.aibax.image;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.apache.commons.imaging.ImageReadException;
+
+/**
+ * JPEG の APP1 (Exif) セグメントのみを読み込む EXIF パーサー
+ *
+ * ファイル・メモリ上の画像データ・ストリームの先頭から APP1 セグメントまでのみを読み込み（ファイルの場合は
+ * 通常は先頭の 64KB のみ）、全ての IFD（IFD0・EXIF・GPS・Interoperability・IFD1）のエントリの索引を1回の走査で
+ * 作成します。値は要求されたタグのみをデコードします。
+ * JPEG 以外のファイルや構造が壊れているファイルは {@link ImageReadException} を送出するため、呼び出し元で
+ * commons-imaging による解析に切り替えます。
+ */
+final class ExifReader
+{
+    /** 最初に読み込むバイト数（通常は APP1 セグメント全体を含む） */
+    private static final int HEAD_SIZE = 64 * 1024;
+
+    private static final int MARKER_SOI = 0xD8;
+
+    private static final int MARKER_APP1 = 0xE1;
+
+    private static final int MARKER_SOS = 0xDA;
+
+    private static final int MARKER_EOI = 0xD9;
+
+    private static final byte[] EXIF_HEADER = { 'E', 'x', 'i', 'f', 0, 0 };
+
+    /** IFD0 */
+    static final int TAG_MAKE = 0x010F;
+
+    static final int TAG_MODEL = 0x0110;
+
+    static final int TAG_ORIENTATION = 0x0112;
+
+    static final int TAG_SOFTWARE = 0x0131;
+
+    static final int TAG_EXIF_IFD_POINTER = 0x8769;
+
+    static final int TAG_GPS_IFD_POINTER = 0x8825;
+
+    /** EXIF IFD */
+    static final int TAG_EXPOSURE_TIME = 0x829A;
+
+    static final int TAG_F_NUMBER = 0x829D;
+
+    static final int TAG_ISO_SPEED = 0x8827;
+
+    static final int TAG_DATE_TIME_ORIGINAL = 0x9003;
+
+    static final int TAG_FLASH = 0x9209;
+
+    static final int TAG_FOCAL_LENGTH = 0x920A;
+
+    static final int TAG_SUB_SEC_TIME_ORIGINAL = 0x9291;
+
+    static final int TAG_PIXEL_X_DIMENSION = 0xA002;
+
+    static final int TAG_PIXEL_Y_DIMENSION = 0xA003;
+
+    static final int TAG_INTEROP_IFD_POINTER = 0xA005;
+
+    static final int TAG_FOCAL_LENGTH_IN_35MM = 0xA405;
+
+    static final int TAG_LENS_MAKE = 0xA433;
+
+    static final int TAG_LENS_MODEL = 0xA434;
+
+    /** GPS IFD */
+    static final int TAG_GPS_LATITUDE_REF = 0x0001;
+
+    static final int TAG_GPS_LATITUDE = 0x0002;
+
+    static final int TAG_GPS_LONGITUDE_REF = 0x0003;
+
+    static final int TAG_GPS_LONGITUDE = 0x0004;
+
+    static final int TAG_GPS_ALTITUDE_REF = 0x0005;
+
+    static final int TAG_GPS_ALTITUDE = 0x0006;
+
+    /** Interoperability IFD */
+    static final int TAG_INTEROP_INDEX = 0x0001;
+
+    /** IFD1 */
+    static final int TAG_THUMBNAIL_OFFSET = 0x0201;
+
+    static final int TAG_THUMBNAIL_LENGTH = 0x0202;
+
+    private static final int TYPE_BYTE = 1;
+
+    private static final int TYPE_ASCII = 2;
+
+    private static final int TYPE_SHORT = 3;
+
+    private static final int TYPE_LONG = 4;
+
+    private static final int TYPE_RATIONAL = 5;
+
+    private static final int TYPE_SBYTE = 6;
+
+    private static final int TYPE_SSHORT = 8;
+
+    private static final int TYPE_SLONG = 9;
+
+    private static final int TYPE_SRATIONAL = 10;
+
+    /** TIFF ヘッダから始まる APP1 セグメントのデータ */
+    private final ByteBuffer tiff;
+
+    /** 読み込み元の先頭から TIFF ヘッダまでのバイト数 */
+    private final long position;
+
+    /** IFD ごとのエントリの索引（上位32ビットがタグ、下位32ビットがエントリのオフセット / タグ順） */
+    private final long[][] index = new long[Exif.Directory.values().length][];
+
+    private ExifReader(ByteBuffer tiff, long position) throws ImageReadException
+    {
+        this.tiff = tiff;
+        this.position = position;
+
+        _index();
+    }
+
+    /**
+     * 画像ファイルの APP1 (Exif) セグメントを読み込みます
+     *
+     * @param channel 画像ファイル
+     * @return EXIFデータ（APP1 (Exif) セグメントがない場合はnull）
+     * @throws ImageReadException JPEG ではない場合、ファイルの構造が壊れている場合
+     * @throws IOException
+     */
+    static ExifReader read(FileChannel channel) throws ImageReadException, IOException
+    {
+        return _read(new ChannelSource(channel));
+    }
+
+    /**
+     * メモリ上の画像データの APP1 (Exif) セグメントを読み込みます（画像データの position と limit は変更しません）
+     *
+     * @param image 画像データ（position から limit まで）
+     * @return EXIFデータ（APP1 (Exif) セグメントがない場合はnull）
+     * @throws ImageReadException JPEG ではない場合、画像データの構造が壊れている場合
+     */
+    static ExifReader read(ByteBuffer image) throws ImageReadException
+    {
+        try
+        {
+            return _read(new BufferSource(image));
+        }
+        catch (IOException e)
+        {
+            /* メモリ上のデータの読み込みでは発生しない */
+            throw new ImageReadException("Cannot read image.", e);
+        }
+    }
+
+    /**
+     * ストリームから APP1 (Exif) セグメントまでを読み込みます
+     *
+     * @param source ストリーム（読み込んだデータは {@link StreamSource#replay()} で再度読み込み可能）
+     * @return EXIFデータ（APP1 (Exif) セグメントがない場合はnull）
+     * @throws ImageReadException JPEG ではない場合、画像データの構造が壊れている場合
+     * @throws IOException
+     */
+    static ExifReader read(StreamSource source) throws ImageReadException, IOException
+    {
+        return _read(source);
+    }
+
+    private static ExifReader _read(Source source) throws ImageReadException, IOException
+    {
+        ByteBuffer soi = source.read(0, 2);
+
+        if ((soi.remaining() < 2) || ((soi.get(0) & 0xFF) != 0xFF) || ((soi.get(1) & 0xFF) != MARKER_SOI))
+        {
+            throw new ImageReadException("Not a JPEG file.");
+        }
+
+        long position = 2;
+
+        while (true)
+        {
+            ByteBuffer header = source.read(position, 4);
+
+            if (header.remaining() < 4)
+            {
+                /* 画像データの前に終端に達した */
+                return null;
+            }
+
+            if ((header.get(0) & 0xFF) != 0xFF)
+            {
+                throw new ImageReadException("Invalid JPEG marker at " + position);
+            }
+
+            int marker = header.get(1) & 0xFF;
+
+            if (marker == 0xFF)
+            {
+                /* フィルバイト */
+                position++;
+                continue;
+            }
+
+            if ((marker == MARKER_SOS) || (marker == MARKER_EOI))
+            {
+                /* 画像データの前に APP1 (Exif) セグメントがない */
+                return null;
+            }
+
+            int length = header.getShort(2) & 0xFFFF;
+
+            if (length < 2)
+            {
+                throw new ImageReadException("Invalid JPEG segment length at " + position);
+            }
+
+            if ((marker == MARKER_APP1) && (length >= 2 + EXIF_HEADER.length + 8))
+            {
+                ByteBuffer segment = source.read(position + 4, length - 2);
+
+                if (segment.remaining() < length - 2)
+                {
+                    throw new ImageReadException("Unexpected end of file.");
+                }
+
+                if (_startsWith(segment, EXIF_HEADER))
+                {
+                    /* 読み込み元のバッファを保持しないように TIFF ヘッダ以降をコピー */
+                    segment.position(segment.position() + EXIF_HEADER.length);
+
+                    ByteBuffer tiff = ByteBuffer.allocate(segment.remaining());
+                    tiff.put(segment).flip();
+
+                    return new ExifReader(_parseTiffHeader(tiff), position + 4 + EXIF_HEADER.length);
+                }
+            }
+
+            position += 2 + length;
+        }
+    }
+
+    private static boolean _startsWith(ByteBuffer buffer, byte[] prefix)
+    {
+        if (buffer.remaining() < prefix.length)
+        {
+            return false;
+        }
+
+        for (int i = 0; i < prefix.length; i++)
+        {
+            if (buffer.get(buffer.position() + i) != prefix[i])
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * TIFF ヘッダからバイトオーダーを判定します
+     */
+    private static ByteBuffer _parseTiffHeader(ByteBuffer tiff) throws ImageReadException
+    {
+        if (tiff.remaining() < 8)
+        {
+            throw new ImageReadException("Invalid TIFF header.");
+        }
+
+        if ((tiff.get(0) == 'I') && (tiff.get(1) == 'I'))
+        {
+            tiff.order(ByteOrder.LITTLE_ENDIAN);
+        }
+        else if ((tiff.get(0) == 'M') && (tiff.get(1) == 'M'))
+        {
+            tiff.order(ByteOrder.BIG_ENDIAN);
+        }
+        else
+        {
+            throw new ImageReadException("Invalid TIFF byte order.");
+        }
+
+        if (tiff.getShort(2) != 42)
+        {
+            throw new ImageReadException("Invalid TIFF magic number.");
+        }
+
+        return tiff;
+    }
+
+    /**
+     * 全ての IFD のエントリの索引を1回の走査で作成します（値はデコードしない）
+     *
+     * IFD0 と EXIF IFD が壊れている場合は例外を送出します。GPS IFD・Interoperability IFD・IFD1 が壊れている場合は
+     * その IFD を無視します。
+     */
+    private void _index() throws ImageReadException
+    {
+        int ifd0 = _offset(tiff.getInt(4));
+
+        _index(Exif.Directory.IFD0, ifd0);
+        _index(Exif.Directory.EXIF, _pointer(Exif.Directory.IFD0, TAG_EXIF_IFD_POINTER));
+
+        try
+        {
+            _index(Exif.Directory.GPS, _pointer(Exif.Directory.IFD0, TAG_GPS_IFD_POINTER));
+        }
+        catch (ImageReadException e)
+        {
+            index[Exif.Directory.GPS.ordinal()] = null;
+        }
+
+        try
+        {
+            _index(Exif.Directory.INTEROP, _pointer(Exif.Directory.EXIF, TAG_INTEROP_IFD_POINTER));
+        }
+        catch (ImageReadException e)
+        {
+            index[Exif.Directory.INTEROP.ordinal()] = null;
+        }
+
+        try
+        {
+            /* IFD0 の次の IFD */
+            int next = ifd0 + 2 + _u16(ifd0) * 12;
+            long ifd1 = (next + 4 <= tiff.limit()) ? (tiff.getInt(next) & 0xFFFFFFFFL) : 0;
+
+            _index(Exif.Directory.IFD1, (ifd1 != 0) ? _offset(ifd1) : -1);
+        }
+        catch (ImageReadException e)
+        {
+            index[Exif.Directory.IFD1.ordinal()] = null;
+        }
+    }
+
+    private void _index(Exif.Directory directory, int ifd) throws ImageReadException
+    {
+        if (ifd < 0)
+        {
+            return;
+        }
+
+        int count = _u16(ifd);
+
+        if (ifd + 2 + count * 12 > tiff.limit())
+        {
+            throw new ImageReadException("Invalid IFD at " + ifd);
+        }
+
+        long[] entries = new long[count];
+
+        for (int i = 0; i < count; i++)
+        {
+            int entry = ifd + 2 + i * 12;
+            entries[i] = ((long)_u16(entry) << 32) | entry;
+        }
+
+        Arrays.sort(entries);
+
+        index[directory.ordinal()] = entries;
+    }
+
+    private int _pointer(Exif.Directory directory, int tag) throws ImageReadException
+    {
+        int entry = findEntry(directory, tag);
+
+        if (entry < 0)
+        {
+            return -1;
+        }
+
+        return _offset(getInt(entry, 0));
+    }
+
+    /**
+     * IFD から指定したタグのエントリを検索します
+     *
+     * @param directory IFD
+     * @param tag       タグ
+     * @return エントリのオフセット（IFD またはタグがない場合は-1）
+     */
+    int findEntry(Exif.Directory directory, int tag)
+    {
+        long[] entries = index[directory.ordinal()];
+
+        if (entries == null)
+        {
+            return -1;
+        }
+
+        int i = Arrays.binarySearch(entries, (long)tag << 32);
+
+        if (i < 0)
+        {
+            i = -i - 1;
+        }
+
+        if ((i < entries.length) && ((int)(entries[i] >>> 32) == tag))
+        {
+            return (int)entries[i];
+        }
+
+        return -1;
+    }
+
+    /**
+     * ASCII 型のエントリの値を返します（前後の空白と終端の NUL は除去します）
+     *
+     * @param entry エントリのオフセット
+     * @return 値（ASCII 型ではない場合はnull）
+     * @throws ImageReadException 値のオフセットが範囲外の場合
+     */
+    String getString(int entry) throws ImageReadException
+    {
+        if (_u16(entry + 2) != TYPE_ASCII)
+        {
+            return null;
+        }
+
+        long count = getCount(entry);
+        int offset = _valueOffset(entry, 1);
+
+        int length = 0;
+
+        while ((length < count) && (tiff.get(offset + length) != 0))
+        {
+            length++;
+        }
+
+        byte[] bytes = new byte[length];
+
+        for (int i = 0; i < length; i++)
+        {
+            bytes[i] = tiff.get(offset + i);
+        }
+
+        return new String(bytes, StandardCharsets.ISO_8859_1).trim();
+    }
+
+    /**
+     * ASCII 型のエントリの値の読み込み元での位置を返します（同じ長さの値で上書きする場合に使用します）
+     *
+     * @param entry エントリのオフセット
+     * @param count 値の個数（終端の NUL を含むバイト数）
+     * @return 読み込み元の先頭からの位置（ASCII 型ではない場合、値の個数が異なる場合は-1）
+     * @throws ImageReadException 値のオフセットが範囲外の場合
+     */
+    long getValuePosition(int entry, long count) throws ImageReadException
+    {
+        if ((_u16(entry + 2) != TYPE_ASCII) || (getCount(entry) != count))
+        {
+            return -1;
+        }
+
+        return position + _valueOffset(entry, 1);
+    }
+
+    /**
+     * エントリの値の個数を返します
+     *
+     * @param entry エントリのオフセット
+     * @return 値の個数
+     */
+    long getCount(int entry) throws ImageReadException
+    {
+        if (entry + 12 > tiff.limit())
+        {
+            throw new ImageReadException("Invalid offset " + entry);
+        }
+
+        return tiff.getInt(entry + 4) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * 整数型（BYTE・SHORT・LONG とその符号付きの型）のエントリの値を返します
+     *
+     * @param entry エントリのオフセット
+     * @param i     値のインデックス
+     * @return 値
+     * @throws ImageReadException 整数型ではない場合、インデックスが範囲外の場合
+     */
+    long getInt(int entry, int i) throws ImageReadException
+    {
+        int type = _u16(entry + 2);
+        int size;
+
+        switch (type)
+        {
+            case TYPE_BYTE:
+            case TYPE_SBYTE:
+            case TYPE_SHORT:
+            case TYPE_SSHORT:
+            case TYPE_LONG:
+            case TYPE_SLONG:
+                size = _size(type);
+                break;
+
+            default:
+                throw new ImageReadException("Invalid value type " + type + " at " + entry);
+        }
+
+        _checkIndex(entry, i);
+
+        int offset = _valueOffset(entry, size) + i * size;
+
+        if ((offset < 0) || (offset + size > tiff.limit()))
+        {
+            throw new ImageReadException("Invalid value offset at " + entry);
+        }
+
+        switch (type)
+        {
+            case TYPE_BYTE:
+                return tiff.get(offset) & 0xFF;
+
+            case TYPE_SBYTE:
+                return tiff.get(offset);
+
+            case TYPE_SHORT:
+                return tiff.getShort(offset) & 0xFFFF;
+
+            case TYPE_SSHORT:
+                return tiff.getShort(offset);
+
+            case TYPE_LONG:
+                return tiff.getInt(offset) & 0xFFFFFFFFL;
+
+            default:
+                return tiff.getInt(offset);
+        }
+    }
+
+    /**
+     * 数値型（整数型・RATIONAL・SRATIONAL）のエントリの値を返します
+     *
+     * @param entry エントリのオフセット
+     * @param i     値のインデックス
+     * @return 値（分母が0の場合は NaN）
+     * @throws ImageReadException 数値型ではない場合、インデックスが範囲外の場合
+     */
+    double getDouble(int entry, int i) throws ImageReadException
+    {
+        int type = _u16(entry + 2);
+
+        if ((type != TYPE_RATIONAL) && (type != TYPE_SRATIONAL))
+        {
+            return getInt(entry, i);
+        }
+
+        int offset = _valueOffset(entry, 8) + _checkIndex(entry, i) * 8;
+
+        double numerator;
+        double denominator;
+
+        if (type == TYPE_RATIONAL)
+        {
+            numerator = tiff.getInt(offset) & 0xFFFFFFFFL;
+            denominator = tiff.getInt(offset + 4) & 0xFFFFFFFFL;
+        }
+        else
+        {
+            numerator = tiff.getInt(offset);
+            denominator = tiff.getInt(offset + 4);
+        }
+
+        return (denominator != 0) ? numerator / denominator : Double.NaN;
+    }
+
+    /**
+     * TIFF ヘッダからのオフセットで指定したデータを返します（IFD1 のサムネイルなど）
+     *
+     * @param offset TIFF ヘッダの先頭からのオフセット
+     * @param length バイト数
+     * @return データ
+     * @throws ImageReadException 範囲外の場合
+     */
+    byte[] getBytes(long offset, long length) throws ImageReadException
+    {
+        if ((offset < 0) || (length < 0) || (offset + length > tiff.limit()))
+        {
+            throw new ImageReadException("Invalid data range " + offset + "+" + length);
+        }
+
+        byte[] bytes = new byte[(int)length];
+
+        ByteBuffer data = tiff.duplicate();
+        data.position((int)offset);
+        data.get(bytes);
+
+        return bytes;
+    }
+
+    private static int _size(int type)
+    {
+        switch (type)
+        {
+            case TYPE_BYTE:
+            case TYPE_ASCII:
+            case TYPE_SBYTE:
+                return 1;
+
+            case TYPE_SHORT:
+            case TYPE_SSHORT:
+                return 2;
+
+            case TYPE_LONG:
+            case TYPE_SLONG:
+                return 4;
+
+            case TYPE_RATIONAL:
+            case TYPE_SRATIONAL:
+                return 8;
+
+            default:
+                return 0;
+        }
+    }
+
+    private int _checkIndex(int entry, int i) throws ImageReadException
+    {
+        if ((i < 0) || (i >= getCount(entry)))
+        {
+            throw new ImageReadException("Invalid value index " + i + " at " + entry);
+        }
+
+        return i;
+    }
+
+    /**
+     * エントリの値の位置を返します（4バイト以下の値はエントリ内に格納）
+     */
+    private int _valueOffset(int entry, int size) throws ImageReadException
+    {
+        long length = getCount(entry) * size;
+
+        if (length > tiff.limit())
+        {
+            throw new ImageReadException("Invalid value count at " + entry);
+        }
+
+        int offset = (length <= 4) ? entry + 8 : _offset(tiff.getInt(entry + 8));
+
+        if (offset + length > tiff.limit())
+        {
+            throw new ImageReadException("Invalid value offset at " + entry);
+        }
+
+        return offset;
+    }
+
+    private int _u16(int offset) throws ImageReadException
+    {
+        if ((offset < 0) || (offset + 2 > tiff.limit()))
+        {
+            throw new ImageReadException("Invalid offset " + offset);
+        }
+
+        return tiff.getShort(offset) & 0xFFFF;
+    }
+
+    private int _offset(long offset) throws ImageReadException
+    {
+        long value = offset & 0xFFFFFFFFL;
+
+        if (value + 2 > tiff.limit())
+        {
+            throw new ImageReadException("Invalid offset " + value);
+        }
+
+        return (int)value;
+    }
+
+    /**
+     * 画像データの読み込み元（先頭から順に読み込む）
+     */
+    private interface Source
+    {
+        /**
+         * @param position 読み込む位置
+         * @param length   読み込むバイト数
+         * @return 読み込んだデータ（終端に達した場合は length より短い）
+         */
+        ByteBuffer read(long position, int length) throws IOException;
+    }
+
+    /**
+     * ファイルからの読み込み（先頭の {@link #HEAD_SIZE} バイトを1回で読み込み、範囲外のみ追加で読み込む）
+     */
+    private static class ChannelSource implements Source
+    {
+        private final FileChannel channel;
+
+        private ByteBuffer head;
+
+        ChannelSource(FileChannel channel)
+        {
+            this.channel = channel;
+        }
+
+        @Override
+        public ByteBuffer read(long position, int length) throws IOException
+        {
+            if (head == null)
+            {
+                head = _readFully(0, (int)Math.min(channel.size(), HEAD_SIZE));
+            }
+
+            if (position + length <= head.limit())
+            {
+                return _slice(head, (int)position, length);
+            }
+
+            return _readFully(position, length);
+        }
+
+        private ByteBuffer _readFully(long position, int length) throws IOException
+        {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+
+            while (buffer.hasRemaining())
+            {
+                if (channel.read(buffer, position + buffer.position()) < 0)
+                {
+                    break;
+                }
+            }
+
+            buffer.flip();
+
+            return buffer;
+        }
+    }
+
+    /**
+     * メモリ上の画像データからの読み込み
+     */
+    private static class BufferSource implements Source
+    {
+        private final ByteBuffer image;
+
+        BufferSource(ByteBuffer image)
+        {
+            this.image = image.slice();
+        }
+
+        @Override
+        public ByteBuffer read(long position, int length)
+        {
+            if (position >= image.limit())
+            {
+                return ByteBuffer.allocate(0);
+            }
+
+            return _slice(image, (int)position, (int)Math.min(length, image.limit() - position));
+        }
+    }
+
+    /**
+     * ストリームからの読み込み（読み込んだデータを保持し、解析に失敗した場合に最初から読み直せるようにする）
+     */
+    static class StreamSource implements Source
+    {
+        private final InputStream inputStream;
+
+        private byte[] data = new byte[4096];
+
+        private int count = 0;
+
+        StreamSource(InputStream inputStream)
+        {
+            this.inputStream = inputStream;
+        }
+
+        @Override
+        public ByteBuffer read(long position, int length) throws IOException
+        {
+            long end = position + length;
+
+            if (end > Integer.MAX_VALUE)
+            {
+                throw new IOException("Stream is too large.");
+            }
+
+            if (end > data.length)
+            {
+                data = Arrays.copyOf(data, (int)Math.max(end, data.length * 2L));
+            }
+
+            while (count < end)
+            {
+                int read = inputStream.read(data, count, (int)end - count);
+
+                if (read < 0)
+                {
+                    break;
+                }
+
+                count += read;
+            }
+
+            if (position >= count)
+            {
+                return ByteBuffer.allocate(0);
+            }
+
+            return ByteBuffer.wrap(data, (int)position, (int)Math.min(length, count - position)).slice();
+        }
+
+        /**
+         * 読み込んだデータとストリームの残りを先頭から読み込むストリームを返します
+         *
+         * @return ストリーム
+         */
+        InputStream replay()
+        {
+            return new SequenceInputStream(new ByteArrayInputStream(data, 0, count), inputStream);
+        }
+    }
+
+    private static ByteBuffer _slice(ByteBuffer buffer, int position, int length)
+    {
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(position).limit(position + length);
+
+        return slice.slice();
+    }
+}
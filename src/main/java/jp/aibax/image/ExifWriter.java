@@ -0,0 +1,286 @@
+package jp.aibax.image;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.imaging.ImageReadException;
+import org.apache.commons.imaging.ImageWriteException;
+import org.apache.commons.imaging.formats.tiff.write.TiffImageWriterLossless;
+import org.apache.commons.imaging.formats.tiff.write.TiffImageWriterLossy;
+import org.apache.commons.imaging.formats.tiff.write.TiffOutputSet;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * JPEG の APP1 (Exif) セグメントのみを置き換える書き込み
+ *
+ * 画像データの前のセグメント（APPn・COM）の位置のみを走査し、SOI と置き換えた APP1 セグメントを書き込んだ後、
+ * それ以外のセグメントと画像データ（DQT から EOI まで）を {@link FileChannel#transferTo} でコピーします。
+ * 画像データはカーネル内でコピーされ、Java のストリームを経由しないため、大きなファイルのEXIFデータの変更も
+ * ディスクの速度で書き込めます。
+ * 既存の APP1 (Exif) セグメントがある場合はその位置に（MakerNote などのオフセットを維持するため既存のデータを
+ * 元に書き込みます）、ない場合は APP0 (JFIF) セグメントの後に追加します。
+ */
+public final class ExifWriter
+{
+    private static final int MARKER_SOI = 0xD8;
+
+    private static final int MARKER_APP0 = 0xE0;
+
+    private static final int MARKER_APP1 = 0xE1;
+
+    private static final int MARKER_APP15 = 0xEF;
+
+    private static final int MARKER_COM = 0xFE;
+
+    private static final byte[] EXIF_HEADER = { 'E', 'x', 'i', 'f', 0, 0 };
+
+    /** セグメントの長さの最大値（長さのフィールド自身を含む） */
+    private static final int MAX_SEGMENT_LENGTH = 0xFFFF;
+
+    private ExifWriter()
+    {
+    }
+
+    /**
+     * APP1 (Exif) セグメントを置き換えたファイルを作成します
+     *
+     * @param source    読み込む JPEG ファイル
+     * @param target    書き込むファイル（既存のファイルは上書き）
+     * @param outputSet 書き込むEXIFデータ
+     * @return 書き込んだバイト数
+     * @throws ImageReadException  JPEG ではない場合、ファイルの構造が壊れている場合
+     * @throws ImageWriteException EXIFデータが APP1 セグメントに格納できない場合
+     * @throws IOException
+     */
+    public static long write(Path source, Path target, TiffOutputSet outputSet)
+        throws ImageReadException, ImageWriteException, IOException
+    {
+        if ((source == null) || (target == null) || (outputSet == null))
+        {
+            throw new IllegalArgumentException("Source, target or EXIF data is not defined.");
+        }
+
+        try (FileChannel in = FileChannel.open(source, READ);
+            FileChannel out = FileChannel.open(target, WRITE, CREATE, TRUNCATE_EXISTING))
+        {
+            ByteBuffer soi = _read(in, 0, 2);
+
+            if ((soi.remaining() < 2) || ((soi.get(0) & 0xFF) != 0xFF) || ((soi.get(1) & 0xFF) != MARKER_SOI))
+            {
+                throw new ImageReadException("Not a JPEG file.");
+            }
+
+            /*
+             * 画像データの前のセグメントの位置（先頭・長さ）
+             */
+            List<long[]> segments = new ArrayList<>();
+            int exifSegment = -1;
+            int insertAt = 0;
+            byte[] exif = null;
+
+            long position = 2;
+
+            while (true)
+            {
+                ByteBuffer header = _read(in, position, 4);
+
+                if (header.remaining() < 4)
+                {
+                    throw new ImageReadException("Unexpected end of file.");
+                }
+
+                if ((header.get(0) & 0xFF) != 0xFF)
+                {
+                    throw new ImageReadException("Invalid JPEG marker at " + position);
+                }
+
+                int marker = header.get(1) & 0xFF;
+
+                if (marker == 0xFF)
+                {
+                    /* フィルバイト */
+                    position++;
+                    continue;
+                }
+
+                if (((marker < MARKER_APP0) || (marker > MARKER_APP15)) && (marker != MARKER_COM))
+                {
+                    /* DQT・SOF などの画像データのセグメント以降はそのままコピー */
+                    break;
+                }
+
+                int length = header.getShort(2) & 0xFFFF;
+
+                if (length < 2)
+                {
+                    throw new ImageReadException("Invalid JPEG segment length at " + position);
+                }
+
+                if ((marker == MARKER_APP1) && (exifSegment < 0) && (length >= 2 + EXIF_HEADER.length))
+                {
+                    ByteBuffer segment = _read(in, position + 4, length - 2);
+
+                    if (segment.remaining() < length - 2)
+                    {
+                        throw new ImageReadException("Unexpected end of file.");
+                    }
+
+                    if (_startsWith(segment, EXIF_HEADER))
+                    {
+                        exif = new byte[segment.remaining() - EXIF_HEADER.length];
+                        segment.position(EXIF_HEADER.length);
+                        segment.get(exif);
+
+                        exifSegment = segments.size();
+                    }
+                }
+
+                if ((marker == MARKER_APP0) && (insertAt == segments.size()))
+                {
+                    /* APP0 (JFIF・JFXX) セグメントは SOI の直後に配置 */
+                    insertAt++;
+                }
+
+                segments.add(new long[] { position, 2 + length });
+                position += 2 + length;
+            }
+
+            ByteBuffer app1 = _encode(outputSet, exif);
+
+            /*
+             * SOI・APPn・COM セグメント
+             */
+            _write(out, ByteBuffer.wrap(new byte[] { (byte)0xFF, (byte)MARKER_SOI }));
+
+            for (int i = 0; i <= segments.size(); i++)
+            {
+                if ((i == exifSegment) || ((exifSegment < 0) && (i == insertAt)))
+                {
+                    _write(out, app1);
+                }
+
+                if ((i < segments.size()) && (i != exifSegment))
+                {
+                    _transfer(in, segments.get(i)[0], segments.get(i)[1], out);
+                }
+            }
+
+            /*
+             * 画像データ（DQT から EOI まで）
+             */
+            _transfer(in, position, in.size() - position, out);
+
+            return out.position();
+        }
+    }
+
+    /**
+     * EXIFデータを APP1 セグメントに変換します
+     *
+     * @param exif 既存の APP1 (Exif) セグメントの TIFF ヘッダ以降のデータ（ない場合はnull）
+     */
+    private static ByteBuffer _encode(TiffOutputSet outputSet, byte[] exif) throws ImageWriteException, IOException
+    {
+        ByteArrayOutputStream tiff = new ByteArrayOutputStream();
+
+        if (exif != null)
+        {
+            new TiffImageWriterLossless(outputSet.byteOrder, exif).write(tiff, outputSet);
+        }
+        else
+        {
+            new TiffImageWriterLossy(outputSet.byteOrder).write(tiff, outputSet);
+        }
+
+        int length = 2 + EXIF_HEADER.length + tiff.size();
+
+        if (length > MAX_SEGMENT_LENGTH)
+        {
+            throw new ImageWriteException("EXIF data is too large for an APP1 segment. (" + length + " bytes)");
+        }
+
+        ByteBuffer segment = ByteBuffer.allocate(2 + length);
+        segment.put((byte)0xFF).put((byte)MARKER_APP1).putShort((short)length);
+        segment.put(EXIF_HEADER).put(tiff.toByteArray());
+        segment.flip();
+
+        return segment;
+    }
+
+    private static boolean _startsWith(ByteBuffer buffer, byte[] prefix)
+    {
+        if (buffer.remaining() < prefix.length)
+        {
+            return false;
+        }
+
+        for (int i = 0; i < prefix.length; i++)
+        {
+            if (buffer.get(buffer.position() + i) != prefix[i])
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * 指定した位置から指定したバイト数を読み込みます（終端に達した場合はそこまで）
+     */
+    private static ByteBuffer _read(FileChannel channel, long position, int length) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+
+        while (buffer.hasRemaining())
+        {
+            int read = channel.read(buffer, position + buffer.position());
+
+            if (read < 0)
+            {
+                break;
+            }
+        }
+
+        buffer.flip();
+
+        return buffer;
+    }
+
+    private static void _write(FileChannel channel, ByteBuffer buffer) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * 指定した範囲をカーネル内でコピーします
+     */
+    private static void _transfer(FileChannel in, long position, long count, FileChannel out)
+        throws ImageReadException, IOException
+    {
+        while (count > 0)
+        {
+            long transferred = in.transferTo(position, count, out);
+
+            if (transferred <= 0)
+            {
+                throw new ImageReadException("Unexpected end of file.");
+            }
+
+            position += transferred;
+            count -= transferred;
+        }
+    }
+}
@@ -6,7 +6,8 @@ public enum ImageFormat
     JPEG("jpeg", "image/jpeg"),
     PNG("png", "image/png"),
     GIF("gif", "image/gif"),
-    BMP("bmp", "image/bmp");
+    BMP("bmp", "image/bmp"),
+    TIFF("tiff", "image/tiff");
     // @formatter:on
 
     private final String name;
@@ -0,0 +1,157 @@
+package jp.aibax.image;
+
+import java.awt.Dimension;
+
+import jp.aibax.exception.ImageLimitExceededException;
+
+/**
+ * デコードする画像の上限（ピクセル数・幅と高さ・デコード後のバイト数・デコードの制限時間）
+ *
+ * 数KBのデータで巨大なサイズを宣言した画像（解凍爆弾）をデコードしないように、画像全体をデコードする前に
+ * ヘッダから取得したサイズを上限と比較します。各値が0の場合は制限しません。
+ */
+public final class ImageLimits
+{
+    /** デコードした画像の1ピクセルあたりのバイト数の見積もり（TYPE_INT_ARGB / TYPE_4BYTE_ABGR） */
+    public static final int BYTES_PER_PIXEL = 4;
+
+    /** 制限なし */
+    public static final ImageLimits UNLIMITED = new ImageLimits(0, 0, 0, 0);
+
+    /** 上限の初期値（約1億8千万ピクセル / 幅・高さ 65500 ピクセル） */
+    public static final ImageLimits DEFAULT = new ImageLimits(178956970L, 65500, 0, 0);
+
+    private static volatile ImageLimits defaultLimits = DEFAULT;
+
+    private final long maxPixels;
+
+    private final int maxDimension;
+
+    private final long maxDecodedBytes;
+
+    private final long decodeTimeout;
+
+    /**
+     * @param maxPixels       ピクセル数の上限
+     * @param maxDimension    幅と高さの上限
+     * @param maxDecodedBytes デコード後の画像のバイト数の上限
+     * @param decodeTimeout   1枚の画像のデコードの制限時間 (ミリ秒)
+     */
+    public ImageLimits(long maxPixels, int maxDimension, long maxDecodedBytes, long decodeTimeout)
+    {
+        if ((maxPixels < 0) || (maxDimension < 0) || (maxDecodedBytes < 0) || (decodeTimeout < 0))
+        {
+            throw new IllegalArgumentException();
+        }
+
+        this.maxPixels = maxPixels;
+        this.maxDimension = maxDimension;
+        this.maxDecodedBytes = maxDecodedBytes;
+        this.decodeTimeout = decodeTimeout;
+    }
+
+    /**
+     * ImageUtils が画像をデコードする際の上限を返します
+     *
+     * @return 上限
+     */
+    public static ImageLimits getDefault()
+    {
+        return defaultLimits;
+    }
+
+    /**
+     * ImageUtils が画像をデコードする際の上限を設定します
+     *
+     * @param limits 上限（nullの場合は初期値に戻す）
+     */
+    public static void setDefault(ImageLimits limits)
+    {
+        defaultLimits = (limits != null) ? limits : DEFAULT;
+    }
+
+    /**
+     * デコードした画像のバイト数を見積もります
+     *
+     * @param size 画像のサイズ
+     * @return バイト数
+     */
+    public static long getDecodedBytes(Dimension size)
+    {
+        return (long)size.width * size.height * BYTES_PER_PIXEL;
+    }
+
+    public long getMaxPixels()
+    {
+        return maxPixels;
+    }
+
+    public int getMaxDimension()
+    {
+        return maxDimension;
+    }
+
+    public long getMaxDecodedBytes()
+    {
+        return maxDecodedBytes;
+    }
+
+    public long getDecodeTimeout()
+    {
+        return decodeTimeout;
+    }
+
+    /**
+     * デコードの期限を返します
+     *
+     * @return 期限（System.nanoTime() の値 / 制限しない場合は0）
+     */
+    public long getDeadline()
+    {
+        if (decodeTimeout == 0)
+        {
+            return 0;
+        }
+
+        /* 0 は制限なしを表すため避ける */
+        long deadline = System.nanoTime() + decodeTimeout * 1000000L;
+
+        return (deadline != 0) ? deadline : 1;
+    }
+
+    /**
+     * ヘッダから取得した画像のサイズが上限以内かを検査します
+     *
+     * @param size 画像のサイズ
+     * @throws ImageLimitExceededException 上限を超える場合
+     */
+    public void check(Dimension size) throws ImageLimitExceededException
+    {
+        if ((size.width <= 0) || (size.height <= 0))
+        {
+            throw new ImageLimitExceededException("Invalid image size (" + size.width + "x" + size.height + ")");
+        }
+
+        if ((maxDimension > 0) && ((size.width > maxDimension) || (size.height > maxDimension)))
+        {
+            throw new ImageLimitExceededException(
+                "Image dimension exceeds the limit (" + size.width + "x" + size.height + " > " + maxDimension + ")");
+        }
+
+        long pixels = (long)size.width * size.height;
+
+        if ((maxPixels > 0) && (pixels > maxPixels))
+        {
+            throw new ImageLimitExceededException(
+                "Image pixels exceed the limit (" + pixels + " > " + maxPixels + ")");
+        }
+
+        long decodedBytes = getDecodedBytes(size);
+
+        if ((maxDecodedBytes > 0) && (decodedBytes > maxDecodedBytes))
+        {
+            throw new ImageLimitExceededException(
+                "Decoded image size exceeds the limit (" + decodedBytes + " > " + maxDecodedBytes + " bytes)");
+        }
+    }
+}
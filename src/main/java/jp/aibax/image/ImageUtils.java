@@ -1,7 +1,9 @@
 package jp.aibax.image;
 
+import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Image;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -9,44 +11,22 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Arrays;
-import java.util.LinkedHashMap;
-import java.util.Map;
-import javax.imageio.IIOException;
+import java.util.Iterator;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
 
+import jp.aibax.exception.ImageLimitExceededException;
 import jp.aibax.exception.UnsupportedImageFormatException;
+import jp.aibax.image.codec.ImageCodec;
+import jp.aibax.image.codec.ImageCodecRegistry;
 
 import static java.awt.Image.SCALE_AREA_AVERAGING;
-import static jp.aibax.image.ImageFormat.BMP;
-import static jp.aibax.image.ImageFormat.GIF;
-import static jp.aibax.image.ImageFormat.JPEG;
-import static jp.aibax.image.ImageFormat.PNG;
+import static jp.aibax.image.codec.ImageCodec.Capability.REGION_DECODE;
 
 public class ImageUtils
 {
-    /**
-     * ヘッダと画像のフォーマットの対応リスト
-     */
-    private static final Map<byte[], ImageFormat> HEADER = new LinkedHashMap<>();
-
-    static
-    {
-        /* JPEG */
-        HEADER.put(new byte[] { (byte)0xFF, (byte)0xD8 }, JPEG);
-
-        /* PNG */
-        HEADER.put(new byte[] { (byte)0x89, (byte)0x50, (byte)0x4E, (byte)0x47, (byte)0x0D, (byte)0x0A, (byte)0x1A,
-            (byte)0x0A }, PNG);
-
-        /* GIF */
-        HEADER.put(new byte[] { (byte)0x47, (byte)0x49, (byte)0x46, (byte)0x38, (byte)0x37, (byte)0x61 }, GIF);
-        HEADER.put(new byte[] { (byte)0x47, (byte)0x49, (byte)0x46, (byte)0x38, (byte)0x39, (byte)0x61 }, GIF);
-
-        /* BMP */
-        HEADER.put(new byte[] { (byte)0x42, (byte)0x4D }, BMP);
-    }
-
     /**
      * 指定されたファイルを全てバイト配列に読み込みます
      *
@@ -92,6 +72,7 @@ public class ImageUtils
      *
      * @param image 読み込む画像データ
      * @return 読み込んだ画像
+     * @throws ImageLimitExceededException 画像のサイズが上限を超える場合、デコードの制限時間を過ぎた場合
      * @throws IOException
      */
     public static BufferedImage readImage(byte[] image) throws IOException
@@ -101,21 +82,40 @@ public class ImageUtils
             throw new IllegalArgumentException("Image is not defined");
         }
 
-        BufferedImage bufferedImage = null;
+        ImageCodec codec = ImageCodecRegistry.detect(image);
 
-        try
+        if (codec != null)
         {
-            try (ByteArrayInputStream inputStream = new ByteArrayInputStream(image))
-            {
-                bufferedImage = ImageIO.read(inputStream);
-            }
+            return _decode(codec, image, null);
         }
-        catch (IIOException e)
+
+        /* 一時ファイルを作成しないようにメモリキャッシュのストリームを使用 */
+        try (ImageInputStream inputStream = new MemoryCacheImageInputStream(new ByteArrayInputStream(image)))
         {
-            throw e;
-        }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(inputStream);
 
-        return bufferedImage;
+            if (!readers.hasNext())
+            {
+                /* ImageIO.read() と同様に読み込めない画像はnull */
+                return null;
+            }
+
+            ImageReader reader = readers.next();
+
+            try
+            {
+                reader.setInput(inputStream, true, true);
+
+                /* 画像全体をデコードする前にヘッダから取得したサイズを検査 */
+                ImageLimits.getDefault().check(new Dimension(reader.getWidth(0), reader.getHeight(0)));
+
+                return reader.read(0, reader.getDefaultReadParam());
+            }
+            finally
+            {
+                reader.dispose();
+            }
+        }
     }
 
     /**
@@ -142,23 +142,130 @@ public class ImageUtils
             throw new IllegalArgumentException("Image is not defined");
         }
 
-        try
+        ImageCodec codec = ImageCodecRegistry.detect(image);
+
+        return (codec != null) ? codec.getFormat() : null;
+    }
+
+    /**
+     * 画像のフォーマットに対応するコーデックを返します
+     *
+     * @param image 画像データ
+     * @return コーデック
+     * @throws UnsupportedImageFormatException 非対応の画像形式
+     */
+    private static ImageCodec _getCodec(byte[] image) throws UnsupportedImageFormatException
+    {
+        ImageCodec codec = ImageCodecRegistry.detect(image);
+
+        if (codec == null)
         {
-            for (byte[] header : HEADER.keySet())
-            {
-                /* may throws ArrayIndexOutOfBoundsException */
-                if (Arrays.equals(Arrays.copyOfRange(image, 0, header.length), header))
-                {
-                    return HEADER.get(header);
-                }
-            }
+            throw new UnsupportedImageFormatException("Unsupported image format.");
+        }
+
+        return codec;
+    }
+
+    /**
+     * 画像をデコードします
+     *
+     * 画像全体をデコードする前に、ヘッダから取得したサイズ（指定された領域のみをデコードする場合は領域のサイズ）を
+     * {@link ImageLimits#getDefault()} の上限と比較し、デコードの制限時間を過ぎた場合は中断します。
+     *
+     * @param codec  コーデック
+     * @param image  画像データ
+     * @param region 読み込む領域（nullの場合は全体）
+     * @return デコードした画像
+     * @throws ImageLimitExceededException 上限を超える場合
+     * @throws IOException
+     */
+    private static BufferedImage _decode(ImageCodec codec, byte[] image, Rectangle region) throws IOException
+    {
+        ImageLimits limits = ImageLimits.getDefault();
+
+        boolean regionDecode = (region != null) && codec.getCapabilities().contains(REGION_DECODE);
+
+        limits.check(regionDecode ? region.getSize() : codec.getSize(image));
+
+        BufferedImage bufferedImage = codec.read(image, regionDecode ? region : null, 1, limits.getDeadline());
+
+        if ((region != null) && !regionDecode)
+        {
+            return bufferedImage.getSubimage(region.x, region.y, region.width, region.height);
         }
-        catch (ArrayIndexOutOfBoundsException e)
+
+        return bufferedImage;
+    }
+
+    /**
+     * 画像をデコードせずにヘッダから画像のサイズを取得します
+     *
+     * @param image 画像データ
+     * @return 画像のサイズ
+     * @throws UnsupportedImageFormatException 非対応の画像形式
+     * @throws IOException
+     */
+    public static Dimension getImageSize(byte[] image) throws UnsupportedImageFormatException, IOException
+    {
+        if ((image == null) || (image.length == 0))
         {
-            return null;
+            throw new IllegalArgumentException();
+        }
+
+        return _getCodec(image).getSize(image);
+    }
+
+    /**
+     * 画像の指定された領域を読み込みます（コーデックが対応している場合は指定された領域のみをデコード）
+     *
+     * @param image  読み込む画像データ
+     * @param region 読み込む領域（nullの場合は全体）
+     * @return 読み込んだ画像
+     * @throws UnsupportedImageFormatException 非対応の画像形式
+     * @throws ImageLimitExceededException     画像のサイズが上限を超える場合、デコードの制限時間を過ぎた場合
+     * @throws IOException
+     */
+    public static BufferedImage readImage(byte[] image, Rectangle region)
+        throws UnsupportedImageFormatException, IOException
+    {
+        if ((image == null) || (image.length == 0))
+        {
+            throw new IllegalArgumentException();
+        }
+
+        return _decode(_getCodec(image), image, region);
+    }
+
+    /**
+     * 画像を指定されたフォーマットで書き込みます
+     *
+     * @param image  書き込む画像
+     * @param format 画像のフォーマット
+     * @return 画像データ
+     * @throws UnsupportedImageFormatException 非対応の画像形式
+     * @throws IOException
+     */
+    public static byte[] writeImage(BufferedImage image, ImageFormat format)
+        throws UnsupportedImageFormatException, IOException
+    {
+        if ((image == null) || (format == null))
+        {
+            throw new IllegalArgumentException();
+        }
+
+        ImageCodec codec = ImageCodecRegistry.getCodec(format);
+
+        if (codec == null)
+        {
+            throw new UnsupportedImageFormatException("Unsupported image format.");
         }
 
-        return null;
+        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream())
+        {
+            codec.write(image, outputStream);
+
+            return outputStream.toByteArray();
+        }
     }
 
     /**
@@ -191,16 +298,10 @@ public class ImageUtils
             throw new IllegalArgumentException();
         }
 
-        ImageFormat imageFormat = ImageUtils.getImageFormat(image);
-
-        if (imageFormat == null)
-        {
-            throw new UnsupportedImageFormatException("Unsupported image format.");
-        }
-
-        BufferedImage sourceImage = readImage(image);
+        /* 画像全体をデコードせずにヘッダからサイズを取得 */
+        Dimension size = _getCodec(image).getSize(image);
 
-        float aspectRatio = (float)sourceImage.getWidth() / (float)sourceImage.getHeight();
+        float aspectRatio = (float)size.width / (float)size.height;
 
         if (aspectRatio > 1)
         {
@@ -246,46 +347,95 @@ public class ImageUtils
             throw new IllegalArgumentException();
         }
 
-        ImageFormat imageFormat = ImageUtils.getImageFormat(image);
+        ImageCodec codec = _getCodec(image);
+
+        BufferedImage resizedImage = resizeImage(_decode(codec, image, null), width, height);
+
+        return writeImage(resizedImage, codec.getFormat());
+    }
 
-        if (imageFormat == null)
+    /**
+     * デコード済みの画像を指定された長辺の長さにリサイズします
+     *
+     * @param image            リサイズする画像
+     * @param lengthOfLongSide リサイズ後の長辺の長さ
+     * @return リサイズされた画像
+     */
+    public static BufferedImage resizeImage(BufferedImage image, int lengthOfLongSide)
+    {
+        if (image == null)
         {
-            throw new UnsupportedImageFormatException("Unsupported image format.");
+            throw new IllegalArgumentException();
         }
 
-        BufferedImage sourceImage = readImage(image);
+        float aspectRatio = (float)image.getWidth() / (float)image.getHeight();
 
-        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream())
+        if (aspectRatio > 1)
+        {
+            /* 横長 */
+            return resizeImage(image, lengthOfLongSide, 0);
+        }
+        else
+        {
+            /* 縦長 */
+            return resizeImage(image, 0, lengthOfLongSide);
+        }
+    }
+
+    /**
+     * デコード済みの画像を指定された幅と高さにリサイズします
+     *
+     * @param image  リサイズする画像
+     * @param width  リサイズ後の幅（0の場合は縦横比を維持して自動計算）
+     * @param height リサイズ後の高さ（0の場合は縦横比を維持して自動計算）
+     * @return リサイズされた画像
+     */
+    public static BufferedImage resizeImage(BufferedImage image, int width, int height)
+    {
+        if (image == null)
         {
-            width = (0 < width) ? width : -1;
-            height = (0 < height) ? height : -1;
+            throw new IllegalArgumentException();
+        }
 
-            Image scaledImage = sourceImage.getScaledInstance(width, height, SCALE_AREA_AVERAGING);
+        width = (0 < width) ? width : -1;
+        height = (0 < height) ? height : -1;
 
-            width = scaledImage.getWidth(null);
-            height = scaledImage.getHeight(null);
+        Image scaledImage = image.getScaledInstance(width, height, SCALE_AREA_AVERAGING);
 
-            BufferedImage resizedImage = new BufferedImage(width, height, sourceImage.getType());
+        width = scaledImage.getWidth(null);
+        height = scaledImage.getHeight(null);
 
-            Graphics g = null;
+        BufferedImage resizedImage = new BufferedImage(width, height, _getImageType(image));
 
-            try
-            {
-                g = resizedImage.createGraphics();
-                g.drawImage(scaledImage, 0, 0, width, height, null);
-            }
-            finally
+        Graphics g = null;
+
+        try
+        {
+            g = resizedImage.createGraphics();
+            g.drawImage(scaledImage, 0, 0, width, height, null);
+        }
+        finally
+        {
+            if (g != null)
             {
-                if (g != null)
-                {
-                    g.dispose();
-                }
+                g.dispose();
             }
+        }
 
-            ImageIO.write(resizedImage, imageFormat.getName(), outputStream);
+        return resizedImage;
+    }
 
-            return outputStream.toByteArray();
+    /**
+     * 変換後の画像の種類を返します（TYPE_CUSTOM の画像は同じ種類で作成できないため ARGB または RGB）
+     */
+    private static int _getImageType(BufferedImage image)
+    {
+        if (image.getType() != BufferedImage.TYPE_CUSTOM)
+        {
+            return image.getType();
         }
+
+        return image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
     }
 
     /**
@@ -318,68 +468,80 @@ public class ImageUtils
             throw new IllegalArgumentException();
         }
 
-        ImageFormat imageFormat = ImageUtils.getImageFormat(image);
+        ImageCodec codec = _getCodec(image);
+
+        /* 画像全体をデコードせずにヘッダからサイズを取得 */
+        Rectangle region = getTrimRegion(codec.getSize(image), aspectRatio);
 
-        if (imageFormat == null)
+        if (region == null)
         {
-            throw new UnsupportedImageFormatException("Unsupported image format.");
+            /* アスペクト比が一致 */
+            return image;
         }
 
-        BufferedImage sourceImage = readImage(image);
+        /* 画像のトリミング（コーデックが対応している場合はトリミングする領域のみをデコード） */
+        return writeImage(readImage(image, region), codec.getFormat());
+    }
 
-        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream())
+    /**
+     * 画像を指定されたアスペクト比（縦横比）でトリミングする領域を返します
+     *
+     * @param sourceSize  元画像のサイズ
+     * @param aspectRatio アスペクト比（幅/高さ） 例) 1:1 = 1 / 4:3 = 1.33 / 16:9 = 1.78
+     * @return トリミングする領域（アスペクト比が一致する場合はnull）
+     */
+    public static Rectangle getTrimRegion(Dimension sourceSize, float aspectRatio)
+    {
+        if ((sourceSize == null) || (aspectRatio < 0))
         {
-            int width = sourceImage.getWidth();
-            int height = sourceImage.getHeight();
-            int x = 0;
-            int y = 0;
-
-            float sourceAspectRatio = (float)width / (float)height;
-
-            if (sourceAspectRatio == aspectRatio)
-            {
-                /* アスペクト比が一致 */
-                return image;
-            }
+            throw new IllegalArgumentException();
+        }
 
-            if (sourceAspectRatio > aspectRatio)
-            {
-                /* 元画像のアスペクト比の方が大きい（元画像の方が横長） → 元画像の高さを基準に幅を計算 */
+        int width = sourceSize.width;
+        int height = sourceSize.height;
+        int x = 0;
+        int y = 0;
 
-                /*
-                 * [計算例]
-                 * 元画像のサイズ 1920x1080 → アスペクト比 16:9 = 1.78
-                 * トリミングするアスペクト比 4:3 = 1.33
-                 * トリミング後の画像の幅 1080 x (4/3) = 1440
-                 */
+        float sourceAspectRatio = (float)width / (float)height;
 
-                width = Math.round(height * aspectRatio);
+        if (sourceAspectRatio == aspectRatio)
+        {
+            /* アスペクト比が一致 */
+            return null;
+        }
 
-                x = Math.round((float)(sourceImage.getWidth() - width) / 2);
-            }
-            else
-            {
-                /* 元画像のアスペクト比の方が小さい（元画像の方が縦長） → 元画像の幅を基準に幅を計算 */
+        if (sourceAspectRatio > aspectRatio)
+        {
+            /* 元画像のアスペクト比の方が大きい（元画像の方が横長） → 元画像の高さを基準に幅を計算 */
 
-                /*
-                 * [計算例]
-                 * 元画像のサイズ 1440x1080 → アスペクト比 4:3 = 1.33
-                 * トリミングするアスペクト比 16:9 = 1.78
-                 * トリミング後の画像の高さ 1440 / (16/9) = 810
-                 */
+            /*
+             * [計算例]
+             * 元画像のサイズ 1920x1080 → アスペクト比 16:9 = 1.78
+             * トリミングするアスペクト比 4:3 = 1.33
+             * トリミング後の画像の幅 1080 x (4/3) = 1440
+             */
 
-                height = Math.round(width / aspectRatio);
+            width = Math.round(height * aspectRatio);
 
-                y = Math.round((float)(sourceImage.getHeight() - height) / 2);
-            }
+            x = Math.round((float)(sourceSize.width - width) / 2);
+        }
+        else
+        {
+            /* 元画像のアスペクト比の方が小さい（元画像の方が縦長） → 元画像の幅を基準に幅を計算 */
 
-            /* 画像のトリミング */
-            BufferedImage squaredImage = sourceImage.getSubimage(x, y, width, height);
+            /*
+             * [計算例]
+             * 元画像のサイズ 1440x1080 → アスペクト比 4:3 = 1.33
+             * トリミングするアスペクト比 16:9 = 1.78
+             * トリミング後の画像の高さ 1440 / (16/9) = 810
+             */
 
-            ImageIO.write(squaredImage, imageFormat.getName(), outputStream);
+            height = Math.round(width / aspectRatio);
 
-            return outputStream.toByteArray();
+            y = Math.round((float)(sourceSize.height - height) / 2);
         }
+
+        return new Rectangle(x, y, width, height);
     }
 
     /**
@@ -0,0 +1,166 @@
+package jp.aibax.image;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+import jp.aibax.exception.UnsupportedImageFormatException;
+
+/**
+ * 同じ画像に対する同じ変換処理が同時に要求された場合に、1回だけ処理して結果を共有します
+ *
+ * 元画像の実パス・サイズ・更新時刻・ファイルキーと処理内容をキーとして、処理中の要求に後から同じ要求が
+ * 来た場合は先の処理の完了を待ってその結果を返します。処理が完了した時点でキーは削除されるため、
+ * 結果をキャッシュすることはありません。
+ *
+ * 返される画像データは要求元の間で共有されるため、呼び出し側で変更しないでください。
+ */
+public class RenditionCoalescer
+{
+    /**
+     * 画像を変換する処理
+     */
+    public interface Rendition
+    {
+        byte[] render(Path file) throws IOException;
+    }
+
+    private final ConcurrentMap<String, CompletableFuture<byte[]>> inflight = new ConcurrentHashMap<>();
+
+    /**
+     * 画像を指定された長辺の長さにリサイズします
+     *
+     * @param file             リサイズする画像ファイル
+     * @param lengthOfLongSide リサイズ後の長辺の長さ
+     * @return リサイズされた画像
+     * @throws UnsupportedImageFormatException 非対応の画像形式
+     * @throws IOException
+     */
+    public byte[] resize(Path file, int lengthOfLongSide) throws UnsupportedImageFormatException, IOException
+    {
+        return render(file, "resize:" + lengthOfLongSide, f -> ImageUtils.resize(f, lengthOfLongSide));
+    }
+
+    /**
+     * 画像を指定された幅と高さにリサイズします
+     *
+     * @param file   リサイズする画像ファイル
+     * @param width  リサイズ後の幅（0の場合は縦横比を維持して自動計算）
+     * @param height リサイズ後の高さ（0の場合は縦横比を維持して自動計算）
+     * @return リサイズされた画像
+     * @throws UnsupportedImageFormatException 非対応の画像形式
+     * @throws IOException
+     */
+    public byte[] resize(Path file, int width, int height) throws UnsupportedImageFormatException, IOException
+    {
+        return render(file, "resize:" + width + "x" + height, f -> ImageUtils.resize(f, width, height));
+    }
+
+    /**
+     * 画像を指定されたアスペクト比（縦横比）でトリミングします
+     *
+     * @param file        トリミングする画像ファイル
+     * @param aspectRatio アスペクト比（幅/高さ）
+     * @return トリミングされた画像
+     * @throws UnsupportedImageFormatException 非対応の画像形式
+     * @throws IOException
+     */
+    public byte[] trim(Path file, float aspectRatio) throws UnsupportedImageFormatException, IOException
+    {
+        return render(file, "trim:" + aspectRatio, f -> ImageUtils.trim(f, aspectRatio));
+    }
+
+    /**
+     * 画像を変換します（同じ画像に対する同じ処理が実行中の場合はその結果を待って返します）
+     *
+     * @param file      変換する画像ファイル
+     * @param operation 処理内容を識別する文字列（処理の種類とパラメータ）
+     * @param rendition 変換処理
+     * @return 変換された画像
+     * @throws IOException
+     */
+    public byte[] render(Path file, String operation, Rendition rendition) throws IOException
+    {
+        if (file == null)
+        {
+            throw new IllegalArgumentException("File is not defined");
+        }
+
+        Path realPath = file.toRealPath();
+        BasicFileAttributes attributes = Files.readAttributes(realPath, BasicFileAttributes.class);
+
+        String key = realPath + "\n" + attributes.size() + "\n" + attributes.lastModifiedTime().toMillis() + "\n"
+            + attributes.fileKey() + "\n" + operation;
+
+        CompletableFuture<byte[]> future = new CompletableFuture<>();
+        CompletableFuture<byte[]> running = inflight.putIfAbsent(key, future);
+
+        if (running == null)
+        {
+            /* 最初の要求 → 変換処理を実行して結果を待っている要求に渡す */
+            try
+            {
+                byte[] bytes = rendition.render(realPath);
+                future.complete(bytes);
+                return bytes;
+            }
+            catch (IOException | RuntimeException | Error e)
+            {
+                future.completeExceptionally(e);
+                throw e;
+            }
+            finally
+            {
+                inflight.remove(key, future);
+            }
+        }
+
+        /* 同じ要求が実行中 → 結果を待つ */
+        try
+        {
+            return running.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof IOException)
+            {
+                throw (IOException)cause;
+            }
+
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException)cause;
+            }
+
+            if (cause instanceof Error)
+            {
+                throw (Error)cause;
+            }
+
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * 実行中の変換処理の数を返します
+     *
+     * @return 実行中の変換処理の数
+     */
+    public int getInflightCount()
+    {
+        return inflight.size();
+    }
+}
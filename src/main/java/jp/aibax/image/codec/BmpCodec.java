@@ -0,0 +1,20 @@
+package jp.aibax.image.codec;
+
+import java.util.EnumSet;
+
+import static jp.aibax.image.ImageFormat.BMP;
+import static jp.aibax.image.codec.ImageCodec.Capability.LOSSLESS_CROP;
+import static jp.aibax.image.codec.ImageCodec.Capability.REGION_DECODE;
+import static jp.aibax.image.codec.ImageCodec.Capability.SUBSAMPLED_DECODE;
+
+/**
+ * BMP のコーデック
+ */
+public class BmpCodec extends ImageIOCodec
+{
+    public BmpCodec()
+    {
+        super(BMP, extensions("bmp"), EnumSet.of(LOSSLESS_CROP, REGION_DECODE, SUBSAMPLED_DECODE),
+            header(0x42, 0x4D));
+    }
+}
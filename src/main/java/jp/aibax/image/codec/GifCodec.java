@@ -0,0 +1,20 @@
+package jp.aibax.image.codec;
+
+import java.util.EnumSet;
+
+import static jp.aibax.image.ImageFormat.GIF;
+import static jp.aibax.image.codec.ImageCodec.Capability.LOSSLESS_CROP;
+import static jp.aibax.image.codec.ImageCodec.Capability.REGION_DECODE;
+import static jp.aibax.image.codec.ImageCodec.Capability.SUBSAMPLED_DECODE;
+
+/**
+ * GIF のコーデック
+ */
+public class GifCodec extends ImageIOCodec
+{
+    public GifCodec()
+    {
+        super(GIF, extensions("gif"), EnumSet.of(LOSSLESS_CROP, REGION_DECODE, SUBSAMPLED_DECODE),
+            header(0x47, 0x49, 0x46, 0x38, 0x37, 0x61), header(0x47, 0x49, 0x46, 0x38, 0x39, 0x61));
+    }
+}
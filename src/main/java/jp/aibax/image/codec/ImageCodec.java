@@ -0,0 +1,126 @@
+package jp.aibax.image.codec;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Set;
+
+import jp.aibax.exception.ImageLimitExceededException;
+import jp.aibax.image.ImageFormat;
+
+/**
+ * 画像フォーマットごとの読み込み／書き込み処理を提供するコーデック（SPI）
+ *
+ * 実装クラスは META-INF/services/jp.aibax.image.codec.ImageCodec に登録すると
+ * {@link ImageCodecRegistry} から ServiceLoader 経由で読み込まれます。
+ */
+public interface ImageCodec
+{
+    /**
+     * コーデックが対応する処理
+     */
+    enum Capability
+    {
+        /** トリミング時に画質が劣化しない */
+        LOSSLESS_CROP,
+
+        /** 画像の一部の領域のみをデコードできる */
+        REGION_DECODE,
+
+        /** 画素を間引いてデコードできる */
+        SUBSAMPLED_DECODE
+    }
+
+    /**
+     * 対応する画像のフォーマットを返します
+     *
+     * @return 画像のフォーマット
+     */
+    ImageFormat getFormat();
+
+    /**
+     * 対応するファイルの拡張子（小文字・ドットなし）を返します
+     *
+     * @return 拡張子のリスト
+     */
+    List<String> getExtensions();
+
+    /**
+     * コーデックが対応する処理を返します
+     *
+     * @return 対応する処理
+     */
+    Set<Capability> getCapabilities();
+
+    /**
+     * コーデックの優先度を返します（同じフォーマットのコーデックが複数ある場合は値の大きい方を使用）
+     *
+     * @return 優先度
+     */
+    int getPriority();
+
+    /**
+     * 画像データの先頭（マジックナンバー）がこのコーデックのフォーマットと一致するかを返します
+     *
+     * @param image 画像データ
+     * @return 一致する場合はtrue
+     */
+    boolean matches(byte[] image);
+
+    /**
+     * 画像をデコードせずにヘッダから画像のサイズを取得します
+     *
+     * @param image 画像データ
+     * @return 画像のサイズ
+     * @throws IOException
+     */
+    Dimension getSize(byte[] image) throws IOException;
+
+    /**
+     * 画像を読み込みます
+     *
+     * @param image       画像データ
+     * @param region      読み込む領域（nullの場合は全体／{@link Capability#REGION_DECODE} に対応する場合のみ指定可）
+     * @param subsampling 画素の間引き間隔（1の場合は間引きなし／{@link Capability#SUBSAMPLED_DECODE} に対応する場合のみ指定可）
+     * @return 読み込んだ画像
+     * @throws IOException
+     */
+    BufferedImage read(byte[] image, Rectangle region, int subsampling) throws IOException;
+
+    /**
+     * 期限までに画像を読み込みます
+     *
+     * デコードを中断できないコーデックは、読み込んだ後に期限を過ぎていた場合に読み込んだ画像を破棄して例外を送出します。
+     *
+     * @param image       画像データ
+     * @param region      読み込む領域（nullの場合は全体／{@link Capability#REGION_DECODE} に対応する場合のみ指定可）
+     * @param subsampling 画素の間引き間隔（1の場合は間引きなし／{@link Capability#SUBSAMPLED_DECODE} に対応する場合のみ指定可）
+     * @param deadline    期限（System.nanoTime() の値 / 0の場合は期限なし）
+     * @return 読み込んだ画像
+     * @throws ImageLimitExceededException 期限を過ぎた場合
+     * @throws IOException
+     */
+    default BufferedImage read(byte[] image, Rectangle region, int subsampling, long deadline) throws IOException
+    {
+        BufferedImage bufferedImage = read(image, region, subsampling);
+
+        if ((deadline != 0) && (System.nanoTime() - deadline > 0))
+        {
+            throw new ImageLimitExceededException("Decoding timed out.");
+        }
+
+        return bufferedImage;
+    }
+
+    /**
+     * 画像を書き込みます
+     *
+     * @param image        書き込む画像
+     * @param outputStream 出力先
+     * @throws IOException
+     */
+    void write(BufferedImage image, OutputStream outputStream) throws IOException;
+}
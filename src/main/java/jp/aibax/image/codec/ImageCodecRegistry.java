@@ -0,0 +1,134 @@
+package jp.aibax.image.codec;
+
+import java.nio.file.DirectoryStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.ServiceLoader;
+import java.util.Set;
+
+import jp.aibax.image.ImageFormat;
+
+/**
+ * 利用可能な {@link ImageCodec} の一覧を管理します
+ *
+ * コーデックは ServiceLoader で読み込まれ、優先度の高い順に並べて保持します。
+ */
+public final class ImageCodecRegistry
+{
+    /** 優先度の高い順に並べたコーデック（変更不可のリストを登録ごとに置き換える） */
+    private static volatile List<ImageCodec> codecs = Collections.emptyList();
+
+    static
+    {
+        for (ImageCodec codec : ServiceLoader.load(ImageCodec.class, ImageCodecRegistry.class.getClassLoader()))
+        {
+            register(codec);
+        }
+    }
+
+    private ImageCodecRegistry()
+    {
+    }
+
+    /**
+     * コーデックを登録します
+     *
+     * @param codec 登録するコーデック
+     */
+    public static synchronized void register(ImageCodec codec)
+    {
+        if (codec == null)
+        {
+            throw new IllegalArgumentException("Codec is not defined");
+        }
+
+        List<ImageCodec> sorted = new ArrayList<>(codecs);
+        sorted.add(codec);
+        sorted.sort((a, b) -> Integer.compare(b.getPriority(), a.getPriority()));
+
+        /* 参照中のリストを変更せず、並べ替えたリストを1回の代入で公開 */
+        codecs = Collections.unmodifiableList(sorted);
+    }
+
+    /**
+     * 登録されているコーデックを優先度の高い順に返します
+     *
+     * @return コーデックのリスト
+     */
+    public static List<ImageCodec> getCodecs()
+    {
+        return codecs;
+    }
+
+    /**
+     * 指定したフォーマットに対応するコーデックのうち、最も優先度の高いものを返します
+     *
+     * @param format 画像のフォーマット
+     * @return コーデック（対応するコーデックがない場合はnull）
+     */
+    public static ImageCodec getCodec(ImageFormat format)
+    {
+        for (ImageCodec codec : codecs)
+        {
+            if (codec.getFormat() == format)
+            {
+                return codec;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * 画像データのマジックナンバーから対応するコーデックを返します
+     *
+     * @param image 画像データ
+     * @return コーデック（フォーマットが識別できない場合はnull）
+     */
+    public static ImageCodec detect(byte[] image)
+    {
+        for (ImageCodec codec : codecs)
+        {
+            if (codec.matches(image))
+            {
+                return codec;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * 指定したフォーマットの拡張子を持つファイルを選択するフィルタを返します
+     *
+     * @param formats 画像のフォーマット（指定しない場合は登録されている全てのフォーマット）
+     * @return ファイルのフィルタ
+     */
+    public static DirectoryStream.Filter<Path> newFileFilter(ImageFormat... formats)
+    {
+        Set<ImageFormat> targets = new HashSet<>(Arrays.asList(formats));
+        Set<String> extensions = new HashSet<>();
+
+        for (ImageCodec codec : codecs)
+        {
+            if (targets.isEmpty() || targets.contains(codec.getFormat()))
+            {
+                extensions.addAll(codec.getExtensions());
+            }
+        }
+
+        return entry -> {
+
+            String filename = entry.getFileName().toString();
+            int index = filename.lastIndexOf(".");
+
+            return (index >= 0) && extensions.contains(filename.substring(index + 1).toLowerCase(Locale.ROOT));
+
+        };
+    }
+}
@@ -0,0 +1,380 @@
+package jp.aibax.image.codec;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import javax.imageio.IIOException;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.event.IIOReadProgressListener;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import jp.aibax.exception.ImageLimitExceededException;
+import jp.aibax.exception.UnsupportedImageFormatException;
+import jp.aibax.image.ImageFormat;
+
+/**
+ * Java Image I/O (javax.imageio) を使用するコーデックの基底クラス
+ *
+ * ImageReader / ImageWriter はスレッドごとに保持し、リセットして再利用します。
+ * また、一時ファイルが作成されないように入出力にはメモリキャッシュのストリームを使用します。
+ */
+public abstract class ImageIOCodec implements ImageCodec
+{
+    private final ImageFormat format;
+
+    private final List<String> extensions;
+
+    private final Set<Capability> capabilities;
+
+    private final byte[][] headers;
+
+    private final ThreadLocal<ImageReader> readers = new ThreadLocal<>();
+
+    private final ThreadLocal<ImageWriter> writers = new ThreadLocal<>();
+
+    protected ImageIOCodec(ImageFormat format, List<String> extensions, Set<Capability> capabilities,
+        byte[]... headers)
+    {
+        this.format = format;
+        this.extensions = Collections.unmodifiableList(extensions);
+        this.capabilities = Collections.unmodifiableSet(EnumSet.copyOf(capabilities));
+        this.headers = headers;
+    }
+
+    @Override
+    public ImageFormat getFormat()
+    {
+        return this.format;
+    }
+
+    @Override
+    public List<String> getExtensions()
+    {
+        return this.extensions;
+    }
+
+    @Override
+    public Set<Capability> getCapabilities()
+    {
+        return this.capabilities;
+    }
+
+    @Override
+    public int getPriority()
+    {
+        return 0;
+    }
+
+    @Override
+    public boolean matches(byte[] image)
+    {
+        if (image == null)
+        {
+            return false;
+        }
+
+        for (byte[] header : headers)
+        {
+            if ((image.length >= header.length) && Arrays.equals(Arrays.copyOf(image, header.length), header))
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    @Override
+    public Dimension getSize(byte[] image) throws IOException
+    {
+        ImageReader reader = _acquireReader();
+        boolean completed = false;
+
+        try (ImageInputStream inputStream = new MemoryCacheImageInputStream(new ByteArrayInputStream(image)))
+        {
+            reader.setInput(inputStream, true, true);
+
+            Dimension size = new Dimension(reader.getWidth(0), reader.getHeight(0));
+            completed = true;
+
+            return size;
+        }
+        finally
+        {
+            _releaseReader(reader, completed);
+        }
+    }
+
+    @Override
+    public BufferedImage read(byte[] image, Rectangle region, int subsampling) throws IOException
+    {
+        return read(image, region, subsampling, 0);
+    }
+
+    /**
+     * 期限までに画像を読み込みます（期限を過ぎた場合は ImageReader.abort() でデコードを中断します）
+     */
+    @Override
+    public BufferedImage read(byte[] image, Rectangle region, int subsampling, long deadline) throws IOException
+    {
+        ImageReader reader = _acquireReader();
+        boolean completed = false;
+        Deadline listener = null;
+
+        if (deadline != 0)
+        {
+            /* デコードの進捗の通知ごとに期限を確認（リスナーは reset() で解除される） */
+            listener = new Deadline(deadline);
+            reader.addIIOReadProgressListener(listener);
+        }
+
+        try (ImageInputStream inputStream = new MemoryCacheImageInputStream(new ByteArrayInputStream(image)))
+        {
+            reader.setInput(inputStream, true, true);
+
+            ImageReadParam param = reader.getDefaultReadParam();
+
+            if (region != null)
+            {
+                param.setSourceRegion(region);
+            }
+
+            if (subsampling > 1)
+            {
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+            }
+
+            BufferedImage bufferedImage = reader.read(0, param);
+
+            if ((listener != null) && listener.aborted)
+            {
+                throw new ImageLimitExceededException("Decoding timed out.");
+            }
+
+            completed = true;
+
+            return bufferedImage;
+        }
+        finally
+        {
+            _releaseReader(reader, completed);
+        }
+    }
+
+    @Override
+    public void write(BufferedImage image, OutputStream outputStream) throws IOException
+    {
+        ImageWriter writer = _acquireWriter();
+        boolean completed = false;
+
+        try
+        {
+            if (!writer.getOriginatingProvider().canEncodeImage(image))
+            {
+                /* 空のデータで元のファイルを置き換えないよう、出力せずに例外を送出 */
+                completed = true;
+                throw new UnsupportedImageFormatException(
+                    "Image cannot be encoded as " + getFormat().getName() + " (type: " + image.getType() + ")");
+            }
+
+            _write(writer, image, outputStream);
+            completed = true;
+        }
+        finally
+        {
+            _releaseWriter(writer, completed);
+        }
+    }
+
+    private static void _write(ImageWriter writer, BufferedImage image, OutputStream outputStream) throws IOException
+    {
+        try (ImageOutputStream imageOutputStream = new MemoryCacheImageOutputStream(outputStream))
+        {
+            writer.setOutput(imageOutputStream);
+            writer.write(null, new IIOImage(image, null, null), null);
+            imageOutputStream.flush();
+        }
+    }
+
+    /**
+     * 現在のスレッドで使用する ImageReader を返します
+     */
+    private ImageReader _acquireReader() throws IIOException
+    {
+        ImageReader reader = readers.get();
+
+        if (reader == null)
+        {
+            Iterator<ImageReader> iterator = ImageIO.getImageReadersByFormatName(getFormat().getName());
+
+            if (!iterator.hasNext())
+            {
+                throw new IIOException("ImageReader is not found (" + getFormat().getName() + ")");
+            }
+
+            reader = iterator.next();
+            readers.set(reader);
+        }
+
+        return reader;
+    }
+
+    /**
+     * 使用済みの ImageReader をリセットします（処理に失敗した場合は破棄します）
+     */
+    private void _releaseReader(ImageReader reader, boolean reusable)
+    {
+        if (reusable)
+        {
+            reader.reset();
+        }
+        else
+        {
+            readers.remove();
+            reader.dispose();
+        }
+    }
+
+    /**
+     * 現在のスレッドで使用する ImageWriter を返します
+     */
+    private ImageWriter _acquireWriter() throws IIOException
+    {
+        ImageWriter writer = writers.get();
+
+        if (writer == null)
+        {
+            Iterator<ImageWriter> iterator = ImageIO.getImageWritersByFormatName(getFormat().getName());
+
+            if (!iterator.hasNext())
+            {
+                throw new IIOException("ImageWriter is not found (" + getFormat().getName() + ")");
+            }
+
+            writer = iterator.next();
+            writers.set(writer);
+        }
+
+        return writer;
+    }
+
+    /**
+     * 使用済みの ImageWriter をリセットします（処理に失敗した場合は破棄します）
+     */
+    private void _releaseWriter(ImageWriter writer, boolean reusable)
+    {
+        if (reusable)
+        {
+            writer.reset();
+        }
+        else
+        {
+            writers.remove();
+            writer.dispose();
+        }
+    }
+
+    /**
+     * 期限を過ぎた場合にデコードを中断するリスナー
+     */
+    private static class Deadline implements IIOReadProgressListener
+    {
+        private final long deadline;
+
+        private volatile boolean aborted = false;
+
+        Deadline(long deadline)
+        {
+            this.deadline = deadline;
+        }
+
+        @Override
+        public void imageStarted(ImageReader source, int imageIndex)
+        {
+            _check(source);
+        }
+
+        @Override
+        public void imageProgress(ImageReader source, float percentageDone)
+        {
+            _check(source);
+        }
+
+        @Override
+        public void sequenceStarted(ImageReader source, int minIndex)
+        {
+        }
+
+        @Override
+        public void sequenceComplete(ImageReader source)
+        {
+        }
+
+        @Override
+        public void imageComplete(ImageReader source)
+        {
+        }
+
+        @Override
+        public void thumbnailStarted(ImageReader source, int imageIndex, int thumbnailIndex)
+        {
+        }
+
+        @Override
+        public void thumbnailProgress(ImageReader source, float percentageDone)
+        {
+        }
+
+        @Override
+        public void thumbnailComplete(ImageReader source)
+        {
+        }
+
+        @Override
+        public void readAborted(ImageReader source)
+        {
+        }
+
+        private void _check(ImageReader source)
+        {
+            if (!aborted && (System.nanoTime() - deadline > 0))
+            {
+                aborted = true;
+                source.abort();
+            }
+        }
+    }
+
+    protected static List<String> extensions(String... extensions)
+    {
+        return Arrays.asList(extensions);
+    }
+
+    protected static byte[] header(int... values)
+    {
+        byte[] header = new byte[values.length];
+
+        for (int i = 0; i < values.length; i++)
+        {
+            header[i] = (byte)values[i];
+        }
+
+        return header;
+    }
+}
@@ -0,0 +1,18 @@
+package jp.aibax.image.codec;
+
+import java.util.EnumSet;
+
+import static jp.aibax.image.ImageFormat.JPEG;
+import static jp.aibax.image.codec.ImageCodec.Capability.REGION_DECODE;
+import static jp.aibax.image.codec.ImageCodec.Capability.SUBSAMPLED_DECODE;
+
+/**
+ * JPEG のコーデック
+ */
+public class JpegCodec extends ImageIOCodec
+{
+    public JpegCodec()
+    {
+        super(JPEG, extensions("jpg", "jpeg"), EnumSet.of(REGION_DECODE, SUBSAMPLED_DECODE), header(0xFF, 0xD8));
+    }
+}
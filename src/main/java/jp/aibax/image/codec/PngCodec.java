@@ -0,0 +1,20 @@
+package jp.aibax.image.codec;
+
+import java.util.EnumSet;
+
+import static jp.aibax.image.ImageFormat.PNG;
+import static jp.aibax.image.codec.ImageCodec.Capability.LOSSLESS_CROP;
+import static jp.aibax.image.codec.ImageCodec.Capability.REGION_DECODE;
+import static jp.aibax.image.codec.ImageCodec.Capability.SUBSAMPLED_DECODE;
+
+/**
+ * PNG のコーデック
+ */
+public class PngCodec extends ImageIOCodec
+{
+    public PngCodec()
+    {
+        super(PNG, extensions("png"), EnumSet.of(LOSSLESS_CROP, REGION_DECODE, SUBSAMPLED_DECODE),
+            header(0x89, 0x50, 0x4E, 0x47, 0x0D, 0x0A, 0x1A, 0x0A));
+    }
+}
@@ -0,0 +1,169 @@
+package jp.aibax.image.codec;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.imaging.ImageFormats;
+import org.apache.commons.imaging.ImageReadException;
+import org.apache.commons.imaging.ImageWriteException;
+import org.apache.commons.imaging.Imaging;
+
+import jp.aibax.image.ImageFormat;
+
+import static jp.aibax.image.codec.ImageCodec.Capability.LOSSLESS_CROP;
+
+/**
+ * TIFF のコーデック（Apache Commons Imaging を使用）
+ */
+public class TiffCodec implements ImageCodec
+{
+    private static final List<String> EXTENSIONS = Collections.unmodifiableList(Arrays.asList("tif", "tiff"));
+
+    private static final Set<Capability> CAPABILITIES = Collections.unmodifiableSet(EnumSet.of(LOSSLESS_CROP));
+
+    @Override
+    public ImageFormat getFormat()
+    {
+        return ImageFormat.TIFF;
+    }
+
+    @Override
+    public List<String> getExtensions()
+    {
+        return EXTENSIONS;
+    }
+
+    @Override
+    public Set<Capability> getCapabilities()
+    {
+        return CAPABILITIES;
+    }
+
+    @Override
+    public int getPriority()
+    {
+        return 0;
+    }
+
+    @Override
+    public boolean matches(byte[] image)
+    {
+        if ((image == null) || (image.length < 4))
+        {
+            return false;
+        }
+
+        /* Little Endian ("II" 42) */
+        if ((image[0] == 0x49) && (image[1] == 0x49) && (image[2] == 0x2A) && (image[3] == 0x00))
+        {
+            return true;
+        }
+
+        /* Big Endian ("MM" 42) */
+        if ((image[0] == 0x4D) && (image[1] == 0x4D) && (image[2] == 0x00) && (image[3] == 0x2A))
+        {
+            return true;
+        }
+
+        return false;
+    }
+
+    @Override
+    public Dimension getSize(byte[] image) throws IOException
+    {
+        try
+        {
+            return Imaging.getImageSize(image);
+        }
+        catch (ImageReadException e)
+        {
+            throw new IOException("Cannot read image size.", e);
+        }
+    }
+
+    /**
+     * 画像を読み込みます
+     *
+     * 一部の領域のみ・画素を間引いたデコードには対応していないため（{@link Capability#REGION_DECODE}・
+     * {@link Capability#SUBSAMPLED_DECODE} は宣言しない）、領域・間引き間隔を指定した場合は画像全体をデコードした後に
+     * 切り出し・間引きを行います。
+     */
+    @Override
+    public BufferedImage read(byte[] image, Rectangle region, int subsampling) throws IOException
+    {
+        BufferedImage bufferedImage;
+
+        try
+        {
+            bufferedImage = Imaging.getBufferedImage(image);
+        }
+        catch (ImageReadException e)
+        {
+            throw new IOException("Cannot read image.", e);
+        }
+
+        if ((region == null) && (subsampling <= 1))
+        {
+            return bufferedImage;
+        }
+
+        return _sample(bufferedImage, region, Math.max(subsampling, 1));
+    }
+
+    /**
+     * 画像の領域を切り出し、画素を間引いた画像を作成します（ImageReadParam と同様に領域の左上の画素から間引く）
+     */
+    private static BufferedImage _sample(BufferedImage image, Rectangle region, int subsampling)
+    {
+        Rectangle bounds = new Rectangle(0, 0, image.getWidth(), image.getHeight());
+        Rectangle source = (region != null) ? region.intersection(bounds) : bounds;
+
+        if (source.isEmpty())
+        {
+            throw new IllegalArgumentException("Region is outside of the image.");
+        }
+
+        int width = (source.width + subsampling - 1) / subsampling;
+        int height = (source.height + subsampling - 1) / subsampling;
+
+        ColorModel colorModel = image.getColorModel();
+        WritableRaster sourceRaster = image.getRaster();
+        WritableRaster raster = colorModel.createCompatibleWritableRaster(width, height);
+
+        Object pixel = null;
+
+        for (int y = 0; y < height; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                pixel = sourceRaster.getDataElements(source.x + x * subsampling, source.y + y * subsampling, pixel);
+                raster.setDataElements(x, y, pixel);
+            }
+        }
+
+        return new BufferedImage(colorModel, raster, image.isAlphaPremultiplied(), null);
+    }
+
+    @Override
+    public void write(BufferedImage image, OutputStream outputStream) throws IOException
+    {
+        try
+        {
+            Imaging.writeImage(image, outputStream, ImageFormats.TIFF, null);
+        }
+        catch (ImageWriteException e)
+        {
+            throw new IOException("Cannot write image.", e);
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package jp.aibax.photoutils;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.ClassParser;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+import org.kohsuke.args4j.spi.StringArrayOptionHandler;
+
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static org.apache.commons.lang3.BooleanUtils.isTrue;
+import static jp.aibax.photoutils.RunReport.Stage.WRITE;
+
+/**
+ * 各コマンドの --plan で作成した計画ファイルの変更を実行するコマンド
+ *
+ * 変換後の画像のデータやEXIFタグの値は計画ファイルに記録されているため、デコードやエンコードをやり直さずに
+ * 書き込みのみを並列に実行します。リネームは書き込みが全て完了してから実行します。
+ * 計画の作成後に変更されたファイルはスキップします。
+ */
+public class ApplyCommand
+{
+    private static final String VERSION = "apply version 1.0.0-SNAPSHOT";
+
+    @Option(name = "-?", aliases = "--help", help = true, usage = "このメッセージを表示")
+    private Boolean usageFlag;
+
+    @Option(name = "-v", aliases = "--version", usage = "バージョンを表示")
+    private Boolean versionFlag;
+
+    @Option(name = "--dry-run", usage = "実際に実行せずに計画の内容を表示")
+    private Boolean dryrunFlag;
+
+    @Argument(metaVar = "plans...", handler = StringArrayOptionHandler.class)
+    private String[] arguments;
+
+    private final BatchOptions batchOptions = new BatchOptions();
+
+    private final ManifestOptions manifestOptions = new ManifestOptions();
+
+    private BatchExecutor executor = new BatchExecutor(1);
+
+    private Manifest manifest = null;
+
+    public static void main(String[] args)
+    {
+        run(args, System.out, System.err);
+    }
+
+    /**
+     * コマンドを実行します
+     *
+     * @param args 引数
+     * @param out  標準出力の出力先
+     * @param err  標準エラー出力の出力先
+     * @return 終了コード（引数が不正な場合や変更に失敗したファイルがある場合は 1）
+     */
+    static int run(String[] args, PrintStream out, PrintStream err)
+    {
+        ApplyCommand command = new ApplyCommand();
+
+        CmdLineParser parser = new CmdLineParser(command);
+        new ClassParser().parse(command.batchOptions, parser);
+        new ClassParser().parse(command.manifestOptions, parser);
+
+        try
+        {
+            parser.parseArgument(args);
+        }
+        catch (CmdLineException e)
+        {
+            e.printStackTrace(err);
+            return 1;
+        }
+
+        if (isTrue(command.versionFlag))
+        {
+            out.println(VERSION);
+            return 0;
+        }
+
+        if (isTrue(command.usageFlag) || (command.arguments == null) || (command.arguments.length == 0)
+            || !command.batchOptions.validate())
+        {
+            out.println("Usage of apply:");
+            out.println("apply [OPTIONS] PLANS...");
+            parser.printUsage(out);
+            return isTrue(command.usageFlag) ? 0 : 1;
+        }
+
+        boolean dryrun = isTrue(command.dryrunFlag);
+
+        int status = 0;
+
+        try (Manifest manifest = command.manifestOptions.open();
+            BatchExecutor executor = command.batchOptions.newExecutor())
+        {
+            executor.setOutput(out, err);
+            command.manifest = manifest;
+            command.executor = executor;
+
+            for (String argument : command.arguments)
+            {
+                try
+                {
+                    command.apply(Paths.get(argument), dryrun);
+                }
+                catch (Exception e)
+                {
+                    e.printStackTrace(err);
+                    status = 1;
+                }
+            }
+
+            if (executor.getErrorCount() > 0)
+            {
+                status = 1;
+            }
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace(err);
+            status = 1;
+        }
+
+        return status;
+    }
+
+    /**
+     * 計画ファイルに記録された変更を実行します
+     *
+     * @param planFile 計画ファイル
+     * @param dryrun   実際に実行しない場合はtrue
+     * @throws IOException
+     */
+    public void apply(Path planFile, boolean dryrun) throws IOException
+    {
+        List<ChangePlan.Action> actions = ChangePlan.read(planFile);
+
+        List<RenamePlan.Move> moves = new ArrayList<>();
+        Map<Path, ChangePlan.Action> renames = new HashMap<>();
+
+        for (ChangePlan.Action action : actions)
+        {
+            if (action.isRename())
+            {
+                if (executor.isFinished(action.target, action.operation))
+                {
+                    /* 前回までにリネーム済み */
+                    continue;
+                }
+
+                if (!action.isUpToDate())
+                {
+                    executor.getOutput().printf("[SKIP] %s : Modified after planning\n", action.file.getFileName());
+                    continue;
+                }
+
+                moves.add(new RenamePlan.Move(action.file, action.target));
+                renames.put(action.file, action);
+                continue;
+            }
+
+            if (executor.isFinished(action.file, action.operation))
+            {
+                continue;
+            }
+
+            executor.submit(action.file, out -> {
+
+                if (_apply(action, dryrun, out))
+                {
+                    executor.finish(action.file, action.operation);
+                }
+
+            });
+        }
+
+        /* リネーム先のファイルに書き込まないよう全ての書き込みの完了を待つ */
+        executor.await();
+
+        if (moves.isEmpty())
+        {
+            return;
+        }
+
+        for (RenamePlan.Move move : moves)
+        {
+            executor.getOutput().printf("[RENAME] %s => %s\n", move.source.getFileName(), move.target.getFileName());
+        }
+
+        if (!dryrun)
+        {
+            /* 入れ替えを含むリネームは移動先が空いている順に実行 */
+            RenamePlan.of(moves).execute(move -> executor.finish(move.target, renames.get(move.source).operation));
+        }
+    }
+
+    /**
+     * 書き込み・EXIFタグの変更を実行します
+     *
+     * @return 変更を実行した場合はtrue
+     */
+    private boolean _apply(ChangePlan.Action action, boolean dryrun, PrintStream out) throws Exception
+    {
+        Path target = action.file;
+
+        if (!action.isUpToDate())
+        {
+            out.printf("[SKIP] %s : Modified after planning\n", target.getFileName());
+            return false;
+        }
+
+        if ((manifest != null) && (action.operation != null) && manifest.isUpToDate(target, action.operation))
+        {
+            /* 計画の作成後に別の実行で処理済み（処理前の状態を照合して他の処理内容を引き継ぐ） */
+            return true;
+        }
+
+        if (action.isWrite())
+        {
+            out.printf("[WRITE] %s : %d bytes\n", target.getFileName(), Math.max(action.getLength(), 0));
+
+            if (dryrun)
+            {
+                return false;
+            }
+
+            if (action.getLength() >= 0)
+            {
+                RunReport.Span span = RunReport.start(WRITE);
+                Path tmpfile = Files.createTempFile(target.getParent(), ".", "");
+
+                try
+                {
+                    action.writeTo(tmpfile);
+                    Files.move(tmpfile, target, REPLACE_EXISTING);
+                }
+                finally
+                {
+                    Files.deleteIfExists(tmpfile);
+                    span.stop();
+                }
+
+                RunReport.addBytesOut(action.getLength());
+            }
+        }
+        else if (action.isExif())
+        {
+            String tags = action.getTags().entrySet().stream()
+                .map(tag -> String.format("0x%04x=%s", tag.getKey(), tag.getValue()))
+                .collect(Collectors.joining(", "));
+
+            out.printf("[EXIF] %s : %s\n", target.getFileName(), tags);
+
+            if (dryrun)
+            {
+                return false;
+            }
+
+            /* 全てのタグを1回の読み込み・書き込みで変更 */
+            ExifEdit.of(target, action.getTags()).apply();
+        }
+
+        if ((manifest != null) && (action.operation != null))
+        {
+            manifest.record(target, action.operation);
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,642 @@
+package jp.aibax.photoutils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ファイルごとの処理を実行します
+ *
+ * 並列数が1の場合は呼び出し元のスレッドでそのまま実行し、例外も呼び出し元に送出します。
+ * 並列数が2以上の場合はスレッドプールで実行し、同時に処理中のファイルの数を並列数の2倍までに、処理が完了して
+ * 出力待ちのファイルを含めた数を並列数の4倍までに制限します（先頭のファイルの処理に時間がかかる場合は、後続の
+ * ファイルの登録を待たせて出力待ちが増え続けないようにします）。
+ * 各ファイルの出力は処理を登録した順に表示し、処理中に発生した例外はそのファイルのエラーとして表示して
+ * 他のファイルの処理を続けます。
+ *
+ * ディレクトリを再帰的に処理する場合は、全てのファイルを列挙するのを待たずに見つけたファイルから順に処理します。
+ * 読み込めないファイル・ディレクトリはエラーとして表示して走査を続けます。
+ *
+ * チェックポイントを設定した場合は、処理内容を指定して登録したファイルの完了をチェックポイントに記録し、
+ * 前回までに完了しているファイルをスキップします。
+ */
+class BatchExecutor implements Closeable
+{
+    /**
+     * ファイルごとの処理
+     */
+    interface Task
+    {
+        /**
+         * @param out 処理結果の出力先
+         */
+        void run(PrintStream out) throws Exception;
+    }
+
+    /**
+     * ディレクトリ内のファイルごとの処理
+     */
+    interface Visitor
+    {
+        void visit(Path file) throws Exception;
+    }
+
+    private final int jobs;
+
+    private final boolean recursive;
+
+    private final ExecutorService executor;
+
+    private final Semaphore inflight;
+
+    private final Deque<Entry> pending = new ArrayDeque<>();
+
+    /** 出力待ちのファイルの数の上限 */
+    private final int maxPending;
+
+    private int outstanding = 0;
+
+    private final AtomicInteger errors = new AtomicInteger();
+
+    private Checkpoint checkpoint;
+
+    private RunReport report;
+
+    private PrintStream out = System.out;
+
+    private PrintStream err = System.err;
+
+    BatchExecutor(int jobs)
+    {
+        this(jobs, false);
+    }
+
+    BatchExecutor(int jobs, boolean recursive)
+    {
+        this.jobs = Math.max(jobs, 1);
+        this.recursive = recursive;
+        this.maxPending = this.jobs * 4;
+
+        if (this.jobs > 1)
+        {
+            AtomicInteger count = new AtomicInteger();
+
+            this.executor = Executors.newFixedThreadPool(this.jobs, runnable -> {
+
+                Thread thread = new Thread(runnable, "batch-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+
+            });
+            this.inflight = new Semaphore(this.jobs * 2);
+        }
+        else
+        {
+            this.executor = null;
+            this.inflight = null;
+        }
+    }
+
+    /**
+     * 並列数を返します
+     *
+     * @return 並列数
+     */
+    int getJobs()
+    {
+        return jobs;
+    }
+
+    /**
+     * 処理結果とエラーの出力先を設定します（設定しない場合は標準出力と標準エラー出力）
+     *
+     * @param out 処理結果の出力先
+     * @param err エラーの出力先
+     */
+    void setOutput(PrintStream out, PrintStream err)
+    {
+        this.out = out;
+        this.err = err;
+    }
+
+    /**
+     * 処理結果の出力先を返します
+     *
+     * @return 処理結果の出力先
+     */
+    PrintStream getOutput()
+    {
+        return out;
+    }
+
+    /**
+     * 処理が完了したファイルを記録するチェックポイントを設定します（チェックポイントは close() で閉じられます）
+     *
+     * @param checkpoint チェックポイント（nullの場合は記録しない）
+     */
+    void setCheckpoint(Checkpoint checkpoint)
+    {
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * 実行結果を集計するレポートを設定します（レポートは close() で出力されます）
+     *
+     * @param report レポート（nullの場合は集計しない）
+     */
+    void setReport(RunReport report)
+    {
+        this.report = report;
+
+        if (report != null)
+        {
+            report.setJobs(jobs);
+        }
+    }
+
+    /**
+     * レポートにファイルの処理の開始を記録します
+     *
+     * @param file 処理するファイル
+     * @return ファイルごとの記録（レポートが設定されていない場合はnull）
+     */
+    RunReport.FileRecord beginRecord(Path file)
+    {
+        return (report != null) ? report.begin(file) : null;
+    }
+
+    /**
+     * ファイルの処理が前回までに完了しているかを返します
+     *
+     * @param file      処理するファイル
+     * @param operation 処理内容
+     * @return 完了している場合はtrue（チェックポイントが設定されていない場合は常にfalse）
+     * @throws IOException
+     */
+    boolean isFinished(Path file, String operation) throws IOException
+    {
+        if ((checkpoint == null) || (operation == null))
+        {
+            return false;
+        }
+
+        /* 再開する場合は中断された処理が残した一時ファイルを削除 */
+        checkpoint.cleanup(file.getParent(), out);
+
+        return checkpoint.isFinished(file, operation);
+    }
+
+    /**
+     * ファイルの処理が完了したことをチェックポイントに記録します
+     *
+     * @param file      処理したファイル
+     * @param operation 処理内容（nullの場合は記録しない）
+     * @throws IOException
+     */
+    void finish(Path file, String operation) throws IOException
+    {
+        if ((checkpoint != null) && (operation != null))
+        {
+            checkpoint.finish(file, operation);
+        }
+    }
+
+    /**
+     * 並列に処理するスレッドプールを返します
+     *
+     * @return スレッドプール（並列数が1の場合はnull）
+     */
+    ExecutorService getExecutorService()
+    {
+        return executor;
+    }
+
+    /**
+     * 処理に失敗したファイルの数を返します
+     *
+     * @return 処理に失敗したファイルの数
+     */
+    int getErrorCount()
+    {
+        return errors.get();
+    }
+
+    /**
+     * ディレクトリ内のファイルを走査します（再帰的に処理する場合はサブディレクトリ内のファイルも走査します）
+     *
+     * @param directory 走査するディレクトリ
+     * @param filter    処理するファイルのフィルタ
+     * @param visitor   ファイルごとの処理
+     * @throws IOException
+     */
+    void walk(Path directory, DirectoryStream.Filter<Path> filter, Visitor visitor) throws IOException
+    {
+        if (!recursive)
+        {
+            _cleanup(directory);
+
+            try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(directory, filter))
+            {
+                for (Path file : directoryStream)
+                {
+                    _visit(visitor, file);
+                }
+            }
+
+            return;
+        }
+
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) throws IOException
+            {
+                _cleanup(dir);
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException
+            {
+                if (attributes.isRegularFile() && filter.accept(file))
+                {
+                    _visit(visitor, file);
+                }
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e)
+            {
+                _skip(file, e);
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e)
+            {
+                if (e != null)
+                {
+                    _skip(dir, e);
+                }
+
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * 走査中に読み込めなかったファイル・ディレクトリをエラーとして表示します
+     */
+    private void _skip(Path file, IOException e)
+    {
+        errors.incrementAndGet();
+
+        synchronized (pending)
+        {
+            err.printf("[ERROR] %s\n", file);
+            e.printStackTrace(err);
+        }
+    }
+
+    private void _cleanup(Path directory) throws IOException
+    {
+        if (checkpoint != null)
+        {
+            checkpoint.cleanup(directory, out);
+        }
+    }
+
+    private static void _visit(Visitor visitor, Path file) throws IOException
+    {
+        try
+        {
+            visitor.visit(file);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            throw e;
+        }
+        catch (Exception e)
+        {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * ファイルの処理を登録します（前回までに完了しているファイルはスキップし、完了したらチェックポイントに記録します）
+     *
+     * @param file      処理するファイル
+     * @param operation 処理内容を識別する文字列（nullの場合はチェックポイントを使用しない）
+     * @param task      処理
+     * @throws IOException 並列数が1の場合に処理中に発生した例外
+     */
+    void submit(Path file, String operation, Task task) throws IOException
+    {
+        if (isFinished(file, operation))
+        {
+            return;
+        }
+
+        submit(file, out -> {
+
+            task.run(out);
+            finish(file, operation);
+
+        });
+    }
+
+    /**
+     * ファイルの処理を登録します
+     *
+     * @param file 処理するファイル
+     * @param task 処理
+     * @throws IOException 並列数が1の場合に処理中に発生した例外
+     */
+    void submit(Path file, Task task) throws IOException
+    {
+        RunReport.FileRecord record = beginRecord(file);
+
+        if ((record != null) && Files.isRegularFile(file))
+        {
+            record.addBytesIn(Files.size(file));
+        }
+
+        if (executor == null)
+        {
+            _runInline(record, task);
+            return;
+        }
+
+        try
+        {
+            inflight.acquire();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+
+        Entry entry;
+
+        try
+        {
+            entry = begin(file);
+        }
+        catch (InterruptedIOException e)
+        {
+            inflight.release();
+            throw e;
+        }
+
+        executor.execute(() -> {
+
+            Throwable error = null;
+
+            RunReport.attach(record);
+
+            try (PrintStream out = new PrintStream(entry.output, true))
+            {
+                task.run(out);
+            }
+            catch (Throwable e)
+            {
+                error = e;
+            }
+            finally
+            {
+                RunReport.attach(null);
+
+                if (record != null)
+                {
+                    record.end(error);
+                }
+
+                inflight.release();
+                complete(entry, error);
+            }
+
+        });
+    }
+
+    /**
+     * 処理を開始するファイルを出力待ちの末尾に追加します（出力待ちが上限に達している場合は空くまで待ちます）
+     *
+     * @param file 処理するファイル
+     * @return 処理結果を保持する Entry
+     * @throws InterruptedIOException 待機中に割り込まれた場合
+     */
+    Entry begin(Path file) throws InterruptedIOException
+    {
+        Entry entry = new Entry(file);
+
+        synchronized (pending)
+        {
+            try
+            {
+                while (pending.size() >= maxPending)
+                {
+                    pending.wait();
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+
+            pending.addLast(entry);
+            outstanding++;
+        }
+
+        return entry;
+    }
+
+    /**
+     * ファイルの処理の完了を記録し、完了したファイルの出力を登録した順に表示します
+     *
+     * @param entry 処理結果を保持する Entry
+     * @param error 処理中に発生した例外（正常に完了した場合はnull）
+     */
+    void complete(Entry entry, Throwable error)
+    {
+        if (error != null)
+        {
+            entry.error = error;
+            errors.incrementAndGet();
+        }
+
+        synchronized (pending)
+        {
+            entry.done = true;
+            outstanding--;
+
+            _drain();
+
+            pending.notifyAll();
+        }
+    }
+
+    private void _runInline(RunReport.FileRecord record, Task task) throws IOException
+    {
+        Throwable error = null;
+
+        RunReport.attach(record);
+
+        try
+        {
+            task.run(out);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            error = e;
+            throw e;
+        }
+        catch (Exception e)
+        {
+            error = e;
+            throw new IOException(e);
+        }
+        finally
+        {
+            RunReport.attach(null);
+
+            if (record != null)
+            {
+                record.end(error);
+            }
+        }
+    }
+
+    /**
+     * 処理が完了したファイルの出力を登録した順に表示します
+     */
+    private void _drain()
+    {
+        synchronized (pending)
+        {
+            while (!pending.isEmpty() && pending.peekFirst().done)
+            {
+                Entry entry = pending.removeFirst();
+
+                out.write(entry.output.toByteArray(), 0, entry.output.size());
+                out.flush();
+
+                if (entry.error != null)
+                {
+                    err.printf("[ERROR] %s\n", entry.file);
+                    entry.error.printStackTrace(err);
+                }
+            }
+        }
+    }
+
+    /**
+     * 登録した全てのファイルの処理が完了するまで待ちます
+     *
+     * @throws IOException
+     */
+    void await() throws IOException
+    {
+        synchronized (pending)
+        {
+            try
+            {
+                while (outstanding > 0)
+                {
+                    pending.wait();
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+
+            _drain();
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        try
+        {
+            if (executor != null)
+            {
+                try
+                {
+                    await();
+                }
+                finally
+                {
+                    executor.shutdown();
+
+                    try
+                    {
+                        executor.awaitTermination(1, TimeUnit.MINUTES);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }
+        finally
+        {
+            try
+            {
+                if (report != null)
+                {
+                    report.close();
+                }
+            }
+            finally
+            {
+                if (checkpoint != null)
+                {
+                    checkpoint.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * 処理を登録したファイルと処理結果
+     */
+    static class Entry
+    {
+        private final Path file;
+
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        private volatile Throwable error;
+
+        private volatile boolean done;
+
+        Entry(Path file)
+        {
+            this.file = file;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package jp.aibax.photoutils;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+import org.kohsuke.args4j.Option;
+
+import static org.apache.commons.lang3.BooleanUtils.isTrue;
+
+/**
+ * 複数のファイルを処理するコマンドに共通のオプション
+ *
+ * 各コマンドの CmdLineParser に ClassParser で追加して使用します。
+ */
+class BatchOptions
+{
+    @Option(name = "-j", aliases = "--jobs", usage = "並列に処理するファイルの数")
+    int jobs = 1;
+
+    @Option(name = "-R", aliases = "--recursive", usage = "ディレクトリを再帰的に処理")
+    Boolean recursiveFlag;
+
+    @Option(name = "--checkpoint", metaVar = "FILE", usage = "処理が完了したファイルを記録するジャーナル")
+    String checkpoint;
+
+    @Option(name = "--resume", depends = "--checkpoint", usage = "ジャーナルに記録されたファイルをスキップして中断した処理を再開")
+    Boolean resumeFlag;
+
+    @Option(name = "--report", metaVar = "FILE", usage = "処理時間・スループット・メモリ使用量のレポート (JSON) の出力先")
+    String report;
+
+    /**
+     * オプションの値が正しいかを返します
+     *
+     * @return 正しい場合はtrue
+     */
+    boolean validate()
+    {
+        if (jobs < 1)
+        {
+            /* 並列数が1未満 */
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * オプションに従ってファイルを処理する BatchExecutor を生成します
+     *
+     * @return BatchExecutor
+     * @throws IOException チェックポイントまたはレポートを開けない場合
+     */
+    BatchExecutor newExecutor() throws IOException
+    {
+        return configure(new BatchExecutor(jobs, isTrue(recursiveFlag)));
+    }
+
+    /**
+     * オプションに従って BatchExecutor にチェックポイントとレポートを設定します
+     *
+     * @param executor BatchExecutor
+     * @return 設定した BatchExecutor
+     * @throws IOException チェックポイントまたはレポートを開けない場合
+     */
+    <T extends BatchExecutor> T configure(T executor) throws IOException
+    {
+        try
+        {
+            if (checkpoint != null)
+            {
+                executor.setCheckpoint(Checkpoint.open(Paths.get(checkpoint), isTrue(resumeFlag)));
+            }
+
+            if (report != null)
+            {
+                executor.setReport(RunReport.open(Paths.get(report)));
+            }
+        }
+        catch (IOException e)
+        {
+            executor.close();
+            throw e;
+        }
+
+        return executor;
+    }
+}
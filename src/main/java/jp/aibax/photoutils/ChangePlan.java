@@ -0,0 +1,467 @@
+package jp.aibax.photoutils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * 各コマンドが計算した変更内容を記録する計画ファイル
+ *
+ * --plan を指定したコマンドは、ファイルを変更する代わりにリネーム先・変換後の画像のデータ・EXIFタグの値を
+ * 計画ファイルに記録します。apply コマンドは記録された変更をデコードやエンコードをやり直さずに実行します。
+ * 変更するファイルごとに計画時のサイズと更新時刻を記録し、計画の作成後に変更されたファイルには適用しません。
+ *
+ * 作成中の計画は一時ファイルに書き込み、{@link #commit()} で終端を書き込んでから置き換えます。
+ * commit() せずに閉じた場合（例外で中断した場合など）は一時ファイルを削除するため、中断した計画が
+ * 実行されることはありません。
+ *
+ * [形式]
+ * マジックナンバー (8バイト) に続けて変更ごとに
+ * 種類 (1バイト) / パス / サイズ / 更新時刻（ミリ秒） / 処理内容 / 種類ごとのデータ
+ * を記録し、種類 0 で終端します。
+ * （リネーム: リネーム後のパス / 書き込み: データのバイト数（-1 は記録のみ）とデータ /
+ * EXIF: タグの数とタグ番号・値（値がない場合はタグを削除））
+ */
+class ChangePlan implements Closeable
+{
+    private static final byte[] MAGIC = "PUPLAN01".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte END = 0;
+
+    private static final byte RENAME = 1;
+
+    private static final byte WRITE_DATA = 2;
+
+    private static final byte EXIF = 3;
+
+    private final Path file;
+
+    private final Path tmpfile;
+
+    private final DataOutputStream out;
+
+    private int count = 0;
+
+    private ChangePlan(Path file) throws IOException
+    {
+        this.file = file.toAbsolutePath();
+        this.tmpfile = Files.createTempFile(this.file.getParent(), ".", "");
+        this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpfile)));
+
+        out.write(MAGIC);
+    }
+
+    /**
+     * 計画ファイルを作成します（{@link #commit()} するまでは既存の計画ファイルを置き換えません）
+     *
+     * @param file 計画ファイル
+     * @return 計画
+     * @throws IOException
+     */
+    static ChangePlan create(Path file) throws IOException
+    {
+        if (file == null)
+        {
+            throw new IllegalArgumentException("File is not defined");
+        }
+
+        return new ChangePlan(file);
+    }
+
+    /**
+     * リネームを記録します
+     *
+     * @param source     リネームするファイル
+     * @param attributes リネームするファイルの属性
+     * @param operation  処理内容を識別する文字列（チェックポイントに記録）
+     * @param target     リネーム後のファイル
+     * @throws IOException
+     */
+    synchronized void rename(Path source, BasicFileAttributes attributes, String operation, Path target)
+        throws IOException
+    {
+        _writeHeader(RENAME, source, attributes, operation);
+        out.writeUTF(target.toAbsolutePath().toString());
+    }
+
+    /**
+     * ファイルの書き込みを記録します
+     *
+     * @param target     書き込むファイル
+     * @param attributes 変換前のファイルの属性
+     * @param operation  処理内容を識別する文字列（マニフェスト・チェックポイントに記録）
+     * @param data       書き込むデータ（nullの場合は書き込まずにマニフェスト・チェックポイントにのみ記録）
+     * @throws IOException
+     */
+    synchronized void write(Path target, BasicFileAttributes attributes, String operation, byte[] data)
+        throws IOException
+    {
+        _writeHeader(WRITE_DATA, target, attributes, operation);
+
+        if (data == null)
+        {
+            out.writeInt(-1);
+            return;
+        }
+
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    /**
+     * EXIFタグの変更を記録します
+     *
+     * @param target     変更するファイル
+     * @param attributes 変更前のファイルの属性
+     * @param operation  処理内容を識別する文字列（マニフェスト・チェックポイントに記録）
+     * @param tags       タグ番号と値（値がnullの場合はタグを削除）
+     * @throws IOException
+     */
+    synchronized void exif(Path target, BasicFileAttributes attributes, String operation, Map<Integer, String> tags)
+        throws IOException
+    {
+        _writeHeader(EXIF, target, attributes, operation);
+
+        out.writeShort(tags.size());
+
+        for (Map.Entry<Integer, String> tag : tags.entrySet())
+        {
+            out.writeShort(tag.getKey());
+            out.writeBoolean(tag.getValue() != null);
+
+            if (tag.getValue() != null)
+            {
+                out.writeUTF(tag.getValue());
+            }
+        }
+    }
+
+    private void _writeHeader(byte type, Path target, BasicFileAttributes attributes, String operation)
+        throws IOException
+    {
+        out.writeByte(type);
+        out.writeUTF(target.toAbsolutePath().toString());
+        out.writeLong(attributes.size());
+        out.writeLong(attributes.lastModifiedTime().toMillis());
+        out.writeUTF((operation != null) ? operation : "");
+
+        count++;
+    }
+
+    /**
+     * @return 記録した変更の数
+     */
+    synchronized int size()
+    {
+        return count;
+    }
+
+    /**
+     * 終端を書き込んで計画ファイルを置き換えます（以降は変更を記録できません）
+     *
+     * @throws IOException
+     */
+    synchronized void commit() throws IOException
+    {
+        out.writeByte(END);
+        out.close();
+
+        Files.move(tmpfile, file, REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+
+    /**
+     * 計画を閉じます（{@link #commit()} していない場合は一時ファイルを削除し、計画ファイルを変更しません）
+     */
+    @Override
+    public synchronized void close() throws IOException
+    {
+        try
+        {
+            out.close();
+        }
+        finally
+        {
+            Files.deleteIfExists(tmpfile);
+        }
+    }
+
+    /**
+     * 計画ファイルを読み込みます（書き込むデータは読み込まずに位置のみを記録します）
+     *
+     * @param file 計画ファイル
+     * @return 記録された順の変更
+     * @throws IOException 計画ファイルの形式が正しくない場合
+     */
+    static List<Action> read(Path file) throws IOException
+    {
+        List<Action> actions = new ArrayList<>();
+
+        try (PositionInputStream position = new PositionInputStream(Files.newInputStream(file));
+            DataInputStream in = new DataInputStream(position))
+        {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+
+            if (!Arrays.equals(magic, MAGIC))
+            {
+                throw new IOException("Not a plan file: " + file);
+            }
+
+            while (true)
+            {
+                byte type = in.readByte();
+
+                if (type == END)
+                {
+                    break;
+                }
+
+                Action action = new Action(file.toAbsolutePath(), type, Paths.get(in.readUTF()), in.readLong(),
+                    in.readLong(), in.readUTF());
+
+                switch (type)
+                {
+                    case RENAME:
+                        action.target = Paths.get(in.readUTF());
+                        break;
+
+                    case WRITE_DATA:
+                        action.length = in.readInt();
+                        action.offset = position.getPosition();
+
+                        if (action.length > 0)
+                        {
+                            _skipFully(position, action.length);
+                        }
+                        break;
+
+                    case EXIF:
+                        int tags = in.readUnsignedShort();
+
+                        for (int i = 0; i < tags; i++)
+                        {
+                            int tag = in.readUnsignedShort();
+                            action.tags.put(tag, in.readBoolean() ? in.readUTF() : null);
+                        }
+                        break;
+
+                    default:
+                        throw new IOException("Unknown change type (" + type + "): " + file);
+                }
+
+                actions.add(action);
+            }
+        }
+        catch (EOFException e)
+        {
+            throw new IOException("Incomplete plan file: " + file, e);
+        }
+
+        return actions;
+    }
+
+    private static void _skipFully(InputStream in, long length) throws IOException
+    {
+        while (length > 0)
+        {
+            long skipped = in.skip(length);
+
+            if (skipped <= 0)
+            {
+                throw new EOFException();
+            }
+
+            length -= skipped;
+        }
+    }
+
+    /**
+     * 計画ファイルに記録された変更
+     */
+    static class Action
+    {
+        private final Path planFile;
+
+        private final byte type;
+
+        final Path file;
+
+        private final long size;
+
+        private final long lastModified;
+
+        /** 処理内容を識別する文字列（指定がない場合はnull） */
+        final String operation;
+
+        /** リネーム後のファイル */
+        Path target;
+
+        private long offset;
+
+        private int length;
+
+        private final Map<Integer, String> tags = new LinkedHashMap<>();
+
+        Action(Path planFile, byte type, Path file, long size, long lastModified, String operation)
+        {
+            this.planFile = planFile;
+            this.type = type;
+            this.file = file;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.operation = operation.isEmpty() ? null : operation;
+        }
+
+        boolean isRename()
+        {
+            return type == RENAME;
+        }
+
+        boolean isWrite()
+        {
+            return type == WRITE_DATA;
+        }
+
+        boolean isExif()
+        {
+            return type == EXIF;
+        }
+
+        /**
+         * @return ファイルが計画の作成時から変更されていない場合はtrue
+         * @throws IOException
+         */
+        boolean isUpToDate() throws IOException
+        {
+            if (!Files.isRegularFile(file))
+            {
+                return false;
+            }
+
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+
+            return (attributes.size() == size) && (attributes.lastModifiedTime().toMillis() == lastModified);
+        }
+
+        /**
+         * @return 書き込むデータのバイト数（書き込まない場合は-1）
+         */
+        int getLength()
+        {
+            return length;
+        }
+
+        /**
+         * 計画ファイルに記録されたデータを書き込みます（計画ファイルから一時ファイルへカーネル内でコピーします）
+         *
+         * @throws IOException
+         */
+        void writeTo(Path target) throws IOException
+        {
+            try (FileChannel source = FileChannel.open(planFile, READ);
+                FileChannel destination = FileChannel.open(target, WRITE))
+            {
+                destination.truncate(0);
+
+                long position = offset;
+                long remaining = length;
+
+                while (remaining > 0)
+                {
+                    long transferred = source.transferTo(position, remaining, destination);
+
+                    if (transferred <= 0)
+                    {
+                        throw new EOFException("Incomplete plan file: " + planFile);
+                    }
+
+                    position += transferred;
+                    remaining -= transferred;
+                }
+            }
+        }
+
+        /**
+         * @return タグ番号と値（値がnullの場合はタグを削除）
+         */
+        Map<Integer, String> getTags()
+        {
+            return Collections.unmodifiableMap(tags);
+        }
+    }
+
+    /**
+     * 読み込んだバイト数を数える入力ストリーム
+     */
+    private static class PositionInputStream extends FilterInputStream
+    {
+        private long position = 0;
+
+        PositionInputStream(InputStream in)
+        {
+            super(new BufferedInputStream(in));
+        }
+
+        long getPosition()
+        {
+            return position;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            int b = super.read();
+
+            if (b >= 0)
+            {
+                position++;
+            }
+
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            int read = super.read(b, off, len);
+
+            if (read > 0)
+            {
+                position += read;
+            }
+
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException
+        {
+            long skipped = super.skip(n);
+            position += skipped;
+            return skipped;
+        }
+    }
+}
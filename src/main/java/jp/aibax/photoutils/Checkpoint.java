@@ -0,0 +1,279 @@
+package jp.aibax.photoutils;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * 処理が完了したファイルを記録するチェックポイント（ジャーナル）
+ *
+ * 処理が完了したファイルは一旦メモリに溜め、一定間隔でまとめてジャーナルに書き込んでディスクに同期します
+ * （グループコミット）。異常終了した場合に失われるのは最後の同期以降に完了した処理のみです。
+ * 再開する場合はジャーナルを読み込んで完了済みのファイルをスキップし、中断された処理が残した一時ファイル
+ * （Files.createTempFile(target.getParent(), ".", "") で作成した "." で始まるファイル）を削除します。
+ *
+ * [形式]
+ * 処理内容 TAB パス（1行に1ファイル）
+ */
+class Checkpoint implements Closeable
+{
+    /** ジャーナルをディスクに同期する間隔 (ミリ秒) */
+    static final long COMMIT_INTERVAL = 1000;
+
+    /** 中断された処理が残した一時ファイル */
+    private static final Pattern TEMPORARY_FILE = Pattern.compile("^\\.\\d+$");
+
+    private final FileChannel channel;
+
+    private final boolean resume;
+
+    private final long startTime = System.currentTimeMillis();
+
+    private final Set<String> finished = ConcurrentHashMap.newKeySet();
+
+    private final Set<Path> cleaned = ConcurrentHashMap.newKeySet();
+
+    private final StringBuilder buffer = new StringBuilder();
+
+    private final ScheduledExecutorService committer;
+
+    private volatile IOException error;
+
+    private Checkpoint(Path file, boolean resume) throws IOException
+    {
+        this.resume = resume;
+
+        if (resume && Files.exists(file))
+        {
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8))
+            {
+                String line;
+
+                while ((line = reader.readLine()) != null)
+                {
+                    if (line.indexOf('\t') > 0)
+                    {
+                        finished.add(line);
+                    }
+                }
+            }
+
+            this.channel = FileChannel.open(file, CREATE, READ, WRITE);
+            this.channel.position(this.channel.size());
+
+            if (_endsWithoutNewLine())
+            {
+                /* 書き込み途中で終了した行の後ろに追記しない */
+                buffer.append('\n');
+            }
+        }
+        else
+        {
+            this.channel = FileChannel.open(file, CREATE, WRITE, TRUNCATE_EXISTING);
+        }
+
+        this.committer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+
+            Thread thread = new Thread(runnable, "checkpoint");
+            thread.setDaemon(true);
+            return thread;
+
+        });
+
+        this.committer.scheduleWithFixedDelay(() -> {
+
+            try
+            {
+                commit();
+            }
+            catch (IOException e)
+            {
+                error = e;
+            }
+
+        }, COMMIT_INTERVAL, COMMIT_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * チェックポイントを開きます
+     *
+     * @param file   ジャーナルのファイル
+     * @param resume 前回の処理を再開する場合はtrue（falseの場合はジャーナルを空にします）
+     * @return チェックポイント
+     * @throws IOException
+     */
+    static Checkpoint open(Path file, boolean resume) throws IOException
+    {
+        if (file == null)
+        {
+            throw new IllegalArgumentException("File is not defined");
+        }
+
+        return new Checkpoint(file, resume);
+    }
+
+    private boolean _endsWithoutNewLine() throws IOException
+    {
+        long size = channel.size();
+
+        if (size == 0)
+        {
+            return false;
+        }
+
+        ByteBuffer last = ByteBuffer.allocate(1);
+        channel.read(last, size - 1);
+
+        return last.get(0) != '\n';
+    }
+
+    private static String _key(Path file, String operation)
+    {
+        return operation + "\t" + file.toAbsolutePath().normalize();
+    }
+
+    /**
+     * ファイルの処理が完了済みかを返します
+     *
+     * @param file      処理するファイル
+     * @param operation 処理内容
+     * @return 前回までに処理が完了している場合はtrue
+     */
+    boolean isFinished(Path file, String operation)
+    {
+        return finished.contains(_key(file, operation));
+    }
+
+    /**
+     * ファイルの処理が完了したことを記録します（ジャーナルへの書き込みは次の同期時にまとめて行います）
+     *
+     * @param file      処理したファイル
+     * @param operation 処理内容
+     * @throws IOException 前回の同期に失敗した場合
+     */
+    void finish(Path file, String operation) throws IOException
+    {
+        if (error != null)
+        {
+            throw error;
+        }
+
+        String key = _key(file, operation);
+
+        finished.add(key);
+
+        synchronized (buffer)
+        {
+            buffer.append(key).append('\n');
+        }
+    }
+
+    /**
+     * 記録した内容をジャーナルに書き込んでディスクに同期します
+     *
+     * @throws IOException
+     */
+    void commit() throws IOException
+    {
+        byte[] bytes;
+
+        synchronized (buffer)
+        {
+            if (buffer.length() == 0)
+            {
+                return;
+            }
+
+            bytes = buffer.toString().getBytes(StandardCharsets.UTF_8);
+            buffer.setLength(0);
+        }
+
+        synchronized (channel)
+        {
+            ByteBuffer data = ByteBuffer.wrap(bytes);
+
+            while (data.hasRemaining())
+            {
+                channel.write(data);
+            }
+
+            channel.force(false);
+        }
+    }
+
+    /**
+     * 再開する場合に、ディレクトリ内に中断された処理が残した一時ファイルを削除します（ディレクトリごとに1回のみ）
+     *
+     * 他のプロセスが使用中の一時ファイルを削除しないように、再開した時刻より前に更新されたファイルのみを削除します。
+     *
+     * @param directory 処理するファイルのディレクトリ
+     * @param out       削除したファイルの出力先
+     * @throws IOException
+     */
+    void cleanup(Path directory, PrintStream out) throws IOException
+    {
+        if (!resume || (directory == null) || !cleaned.add(directory.toAbsolutePath().normalize()))
+        {
+            return;
+        }
+
+        DirectoryStream.Filter<Path> filter = path -> TEMPORARY_FILE.matcher(path.getFileName().toString()).matches()
+            && Files.isRegularFile(path) && (Files.getLastModifiedTime(path).toMillis() < startTime);
+
+        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(directory, filter))
+        {
+            for (Path file : directoryStream)
+            {
+                Files.deleteIfExists(file);
+                out.printf("[CLEANUP] %s\n", file);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        committer.shutdown();
+
+        try
+        {
+            committer.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        try
+        {
+            commit();
+        }
+        finally
+        {
+            channel.close();
+        }
+
+        if (error != null)
+        {
+            throw error;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package jp.aibax.photoutils;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+import org.kohsuke.args4j.Option;
+
+import jp.aibax.image.ExifCache;
+
+/**
+ * デコードしたEXIFデータのキャッシュを使用するコマンドに共通のオプション
+ *
+ * 各コマンドの CmdLineParser に ClassParser で追加して使用します。
+ */
+class ExifCacheOptions
+{
+    @Option(name = "--exif-cache", metaVar = "FILE", usage = "デコードしたEXIFデータのキャッシュ（変更されていないファイルはEXIFデータを読み込まない）")
+    String exifCache;
+
+    /**
+     * キャッシュを開きます（Exif.decode(Path, ExifCache) に指定して使用）
+     *
+     * @return キャッシュ（オプションの指定がない場合はnull）
+     * @throws IOException
+     */
+    ExifCache open() throws IOException
+    {
+        if (exifCache == null)
+        {
+            return null;
+        }
+
+        return ExifCache.open(Paths.get(exifCache));
+    }
+}
@@ -0,0 +1,282 @@
+package jp.aibax.photoutils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.imaging.ImageReadException;
+import org.apache.commons.imaging.ImageWriteException;
+import org.apache.commons.imaging.ImageFormats;
+import org.apache.commons.imaging.Imaging;
+import org.apache.commons.imaging.common.IImageMetadata;
+import org.apache.commons.imaging.formats.jpeg.JpegImageMetadata;
+import org.apache.commons.imaging.formats.tiff.TiffImageMetadata;
+import org.apache.commons.imaging.formats.tiff.constants.TiffDirectoryType;
+import org.apache.commons.imaging.formats.tiff.taginfos.TagInfoAscii;
+import org.apache.commons.imaging.formats.tiff.write.TiffOutputDirectory;
+import org.apache.commons.imaging.formats.tiff.write.TiffOutputSet;
+
+import jp.aibax.image.Exif;
+import jp.aibax.image.ExifDates;
+import jp.aibax.image.ExifWriter;
+
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static org.apache.commons.imaging.formats.tiff.constants.ExifTagConstants.EXIF_TAG_DATE_TIME_DIGITIZED;
+import static org.apache.commons.imaging.formats.tiff.constants.ExifTagConstants.EXIF_TAG_DATE_TIME_ORIGINAL;
+import static org.apache.commons.imaging.formats.tiff.constants.ExifTagConstants.EXIF_TAG_SUB_SEC_TIME;
+import static org.apache.commons.imaging.formats.tiff.constants.ExifTagConstants.EXIF_TAG_SUB_SEC_TIME_DIGITIZED;
+import static org.apache.commons.imaging.formats.tiff.constants.ExifTagConstants.EXIF_TAG_SUB_SEC_TIME_ORIGINAL;
+import static org.apache.commons.imaging.formats.tiff.constants.TiffTagConstants.TIFF_TAG_DATE_TIME;
+import static jp.aibax.photoutils.RunReport.Stage.WRITE;
+
+/**
+ * 1つの画像ファイルのEXIFタグの変更をまとめて1回の読み込み・書き込みで適用します
+ *
+ * 全ての変更が既存のタグを同じ長さの値で上書きするものである場合は APP1 セグメント内の値のみを書き込み
+ * （{@link Exif#patch}）、それ以外の場合は APP1 セグメントのみを置き換えてファイルを1回だけ書き換えます
+ * （{@link ExifWriter} / 画像データは再エンコードしません）。EXIFデータがないファイルには新しく追加します。
+ * 同じタグを複数回変更した場合は最後の値を適用します。
+ */
+class ExifEdit
+{
+    /** OffsetTime（commons-imaging に定義がないタグ / "+09:00" 形式） */
+    static final TagInfoAscii EXIF_TAG_OFFSET_TIME = new TagInfoAscii("OffsetTime", 0x9010, 7,
+        TiffDirectoryType.EXIF_DIRECTORY_EXIF_IFD);
+
+    /** OffsetTimeOriginal */
+    static final TagInfoAscii EXIF_TAG_OFFSET_TIME_ORIGINAL = new TagInfoAscii("OffsetTimeOriginal", 0x9011, 7,
+        TiffDirectoryType.EXIF_DIRECTORY_EXIF_IFD);
+
+    /** OffsetTimeDigitized */
+    static final TagInfoAscii EXIF_TAG_OFFSET_TIME_DIGITIZED = new TagInfoAscii("OffsetTimeDigitized", 0x9012, 7,
+        TiffDirectoryType.EXIF_DIRECTORY_EXIF_IFD);
+
+    /** 変更できるタグ（DateTime は IFD0、その他は EXIF IFD） */
+    private static final TagInfoAscii[] TAGS = { TIFF_TAG_DATE_TIME, EXIF_TAG_DATE_TIME_ORIGINAL,
+        EXIF_TAG_DATE_TIME_DIGITIZED, EXIF_TAG_SUB_SEC_TIME, EXIF_TAG_SUB_SEC_TIME_ORIGINAL,
+        EXIF_TAG_SUB_SEC_TIME_DIGITIZED, EXIF_TAG_OFFSET_TIME, EXIF_TAG_OFFSET_TIME_ORIGINAL,
+        EXIF_TAG_OFFSET_TIME_DIGITIZED };
+
+    private final Path file;
+
+    /** タグと値（値がnullの場合はタグを削除） */
+    private final Map<TagInfoAscii, String> values = new LinkedHashMap<>();
+
+    /**
+     * @param file 変更する画像ファイル
+     */
+    ExifEdit(Path file)
+    {
+        this.file = file;
+    }
+
+    /**
+     * 計画ファイルなどに記録したタグ番号と値から変更を作成します
+     *
+     * @param file 変更する画像ファイル
+     * @param tags タグ番号と値（値がnullの場合はタグを削除）
+     * @return 変更
+     */
+    static ExifEdit of(Path file, Map<Integer, String> tags)
+    {
+        ExifEdit edit = new ExifEdit(file);
+
+        tags.forEach((tag, value) -> edit.set(findTag(tag), value));
+
+        return edit;
+    }
+
+    /**
+     * タグ番号に対応する変更できるタグを返します
+     *
+     * @param tag タグ番号
+     * @return タグ
+     * @throws IllegalArgumentException 変更できないタグの場合
+     */
+    static TagInfoAscii findTag(int tag)
+    {
+        for (TagInfoAscii tagInfo : TAGS)
+        {
+            if (tagInfo.tag == tag)
+            {
+                return tagInfo;
+            }
+        }
+
+        throw new IllegalArgumentException("Tag '" + tag + "' is not supported.");
+    }
+
+    /**
+     * タグの値を設定します
+     *
+     * @param tagInfo タグ
+     * @param value   値（nullの場合はタグを削除）
+     * @return この変更
+     */
+    ExifEdit set(TagInfoAscii tagInfo, String value)
+    {
+        values.put(tagInfo, value);
+        return this;
+    }
+
+    /**
+     * 日時のタグの値を設定します
+     *
+     * @param tagInfo タグ
+     * @param value   日時（nullの場合はタグを削除）
+     * @return この変更
+     */
+    ExifEdit set(TagInfoAscii tagInfo, Date value)
+    {
+        return set(tagInfo, (value != null) ? ExifDates.format(value) : null);
+    }
+
+    /**
+     * 整数のタグの値（SubSecTime など）を設定します
+     *
+     * @param tagInfo タグ
+     * @param value   値（nullの場合はタグを削除）
+     * @return この変更
+     */
+    ExifEdit set(TagInfoAscii tagInfo, Integer value)
+    {
+        return set(tagInfo, (value != null) ? String.valueOf(value) : null);
+    }
+
+    /**
+     * @return 変更がない場合はtrue
+     */
+    boolean isEmpty()
+    {
+        return values.isEmpty();
+    }
+
+    /**
+     * @return タグ番号と値（値がnullの場合はタグを削除）
+     */
+    Map<Integer, String> getTags()
+    {
+        Map<Integer, String> tags = new LinkedHashMap<>();
+
+        values.forEach((tagInfo, value) -> tags.put(tagInfo.tag, value));
+
+        return Collections.unmodifiableMap(tags);
+    }
+
+    /**
+     * 変更をファイルに適用します
+     *
+     * @throws ImageReadException
+     * @throws ImageWriteException
+     * @throws IOException
+     */
+    void apply() throws ImageReadException, ImageWriteException, IOException
+    {
+        if (values.isEmpty())
+        {
+            return;
+        }
+
+        if (_patch())
+        {
+            return;
+        }
+
+        if (Imaging.guessFormat(file.toFile()) != ImageFormats.JPEG)
+        {
+            return;
+        }
+
+        /*
+         * EXIFデータの取得（EXIFデータがない場合は新しく作成）
+         */
+        IImageMetadata imageMetadata = Imaging.getMetadata(file.toFile());
+        TiffImageMetadata tiffImageMetadata = (imageMetadata instanceof JpegImageMetadata)
+            ? ((JpegImageMetadata)imageMetadata).getExif() : null;
+        TiffOutputSet outputSet = (tiffImageMetadata != null) ? tiffImageMetadata.getOutputSet() : new TiffOutputSet();
+
+        /*
+         * EXIFデータの更新
+         */
+
+        for (Map.Entry<TagInfoAscii, String> value : values.entrySet())
+        {
+            TagInfoAscii tagInfo = value.getKey();
+            TiffOutputDirectory directory = (_getDirectory(tagInfo) == Exif.Directory.IFD0)
+                ? outputSet.getOrCreateRootDirectory() : outputSet.getOrCreateExifDirectory();
+
+            if (directory.findField(tagInfo) != null)
+            {
+                directory.removeField(tagInfo);
+            }
+
+            if (value.getValue() != null)
+            {
+                directory.add(tagInfo, value.getValue());
+            }
+        }
+
+        /*
+         * APP1 (Exif) セグメントを置き換えたファイルを保存（画像データはカーネル内でコピー）
+         */
+        RunReport.Span span = RunReport.start(WRITE);
+        Path tmpfile = Files.createTempFile(file.getParent(), ".", "");
+        long length;
+
+        try
+        {
+            length = ExifWriter.write(file, tmpfile, outputSet);
+            Files.move(tmpfile, file, REPLACE_EXISTING);
+        }
+        finally
+        {
+            Files.deleteIfExists(tmpfile);
+            span.stop();
+        }
+
+        RunReport.addBytesOut(length);
+    }
+
+    /**
+     * 既存のタグを同じ長さの値で上書きする場合は、ファイルを書き換えずに APP1 セグメント内の値のみを書き込みます
+     *
+     * APP1 セグメントは1回だけ解析し、全ての IFD の全てのタグが上書きできる場合のみ書き込みます。
+     *
+     * @return 全ての変更を書き込んだ場合はtrue（falseの場合はファイルを変更しない）
+     */
+    private boolean _patch() throws IOException
+    {
+        Map<Exif.Directory, Map<Integer, String>> directories = new EnumMap<>(Exif.Directory.class);
+
+        values.forEach((tagInfo, value) -> directories.computeIfAbsent(_getDirectory(tagInfo),
+            directory -> new LinkedHashMap<>()).put(tagInfo.tag, value));
+
+        RunReport.Span span = RunReport.start(WRITE);
+
+        try
+        {
+            if (!Exif.patch(file, directories))
+            {
+                return false;
+            }
+        }
+        finally
+        {
+            span.stop();
+        }
+
+        RunReport.addBytesOut(values.values().stream().filter(v -> v != null).mapToInt(v -> v.length() + 1).sum());
+
+        return true;
+    }
+
+    private static Exif.Directory _getDirectory(TagInfoAscii tagInfo)
+    {
+        return (tagInfo == TIFF_TAG_DATE_TIME) ? Exif.Directory.IFD0 : Exif.Directory.EXIF;
+    }
+}
@@ -0,0 +1,942 @@
+package jp.aibax.photoutils;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import jp.aibax.image.Exif;
+import jp.aibax.image.codec.ImageCodecRegistry;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.READ;
+import static jp.aibax.image.ImageFormat.JPEG;
+
+/**
+ * ディレクトリ以下の写真のEXIFデータの索引
+ *
+ * パス・サイズ・更新時刻と、撮影時刻・メーカー・機種・向き・サイズ・GPS の位置を列ごとの固定長の配列として
+ * 1つのファイルに保存します。検索時はファイルをメモリマップして必要な列のみを参照するため、数百万件の写真でも
+ * ファイルを開かずに検索できます。更新時はサイズと更新時刻が変わったファイルのみEXIFデータを読み込みます。
+ *
+ * [形式]（数値はビッグエンディアン）
+ * ヘッダ: マジックナンバー (8) / 件数 (int) / 予約 (int) / 文字列の位置 (long) / パスの位置 (long)
+ * 列: サイズ・更新時刻・撮影時刻 (long) / 緯度・経度 (double) / メーカー・機種（辞書の番号）・向き・幅・高さ (int)
+ * / 撮影時刻順の行番号 (int)
+ * 文字列: ルートディレクトリ / 辞書の件数 (int) / 辞書（メーカー・機種）の各文字列（長さ (short) + UTF-8）
+ * パス: 各行のパスの位置 (int × 件数 + 1) / ルートディレクトリからの相対パス（'/' 区切りの UTF-8 / パス順）
+ */
+public class ExifIndex implements Closeable
+{
+    /** 索引ファイルの名前の初期値（索引を作成するディレクトリに作成） */
+    public static final String DEFAULT_FILENAME = ".exifindex";
+
+    /** 撮影時刻がない場合の値 */
+    public static final long NO_DATE = Long.MIN_VALUE;
+
+    private static final byte[] MAGIC = "PUEXIDX1".getBytes(StandardCharsets.US_ASCII);
+
+    private static final int HEADER_SIZE = 32;
+
+    private final FileChannel channel;
+
+    private final MappedByteBuffer buffer;
+
+    private final int count;
+
+    private final Path root;
+
+    private final String[] dictionary;
+
+    private final Map<String, Integer> dictionaryIndex = new LinkedHashMap<>();
+
+    /** 各列の位置 */
+    private final int sizes;
+
+    private final int lastModifieds;
+
+    private final int dateTimeOriginals;
+
+    private final int latitudes;
+
+    private final int longitudes;
+
+    private final int makes;
+
+    private final int models;
+
+    private final int orientations;
+
+    private final int widths;
+
+    private final int heights;
+
+    private final int byDate;
+
+    private final int pathOffsets;
+
+    private final int pathData;
+
+    /** 直前の更新でEXIFデータを読み込んだ件数・前回の索引から再利用した件数 */
+    private int parsedCount = 0;
+
+    private int reusedCount = 0;
+
+    private ExifIndex(Path file) throws IOException
+    {
+        this.channel = FileChannel.open(file, READ);
+
+        try
+        {
+            if (channel.size() > Integer.MAX_VALUE)
+            {
+                throw new IOException("Index file is too large. (" + file + ")");
+            }
+
+            this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            byte[] magic = new byte[MAGIC.length];
+
+            if (buffer.limit() >= HEADER_SIZE)
+            {
+                buffer.get(magic);
+            }
+
+            if (!Arrays.equals(magic, MAGIC))
+            {
+                throw new IOException("Invalid index file. (" + file + ")");
+            }
+
+            this.count = buffer.getInt(8);
+
+            int strings = (int)buffer.getLong(16);
+            int paths = (int)buffer.getLong(24);
+
+            /* 8バイトの列 → 4バイトの列 */
+            int position = HEADER_SIZE;
+            this.sizes = position;
+            this.lastModifieds = (position += count * 8);
+            this.dateTimeOriginals = (position += count * 8);
+            this.latitudes = (position += count * 8);
+            this.longitudes = (position += count * 8);
+            this.makes = (position += count * 8);
+            this.models = (position += count * 4);
+            this.orientations = (position += count * 4);
+            this.widths = (position += count * 4);
+            this.heights = (position += count * 4);
+            this.byDate = (position += count * 4);
+
+            ByteBuffer data = buffer.duplicate();
+            data.position(strings);
+
+            this.root = Paths.get(_readString(data));
+            this.dictionary = new String[data.getInt()];
+
+            for (int i = 0; i < dictionary.length; i++)
+            {
+                dictionary[i] = _readString(data);
+                dictionaryIndex.put(dictionary[i], i);
+            }
+
+            this.pathOffsets = paths;
+            this.pathData = paths + (count + 1) * 4;
+        }
+        catch (IOException | RuntimeException e)
+        {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static String _readString(ByteBuffer buffer)
+    {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 索引ファイルを開きます
+     *
+     * @param file 索引ファイル
+     * @return 索引
+     * @throws IOException
+     */
+    public static ExifIndex open(Path file) throws IOException
+    {
+        if (file == null)
+        {
+            throw new IllegalArgumentException("File is not defined.");
+        }
+
+        return new ExifIndex(file);
+    }
+
+    /**
+     * ディレクトリ以下の JPEG ファイルの索引を作成・更新して開きます
+     *
+     * 索引ファイルが既にある場合は、パス・サイズ・更新時刻が一致するファイルの値を再利用します。
+     * EXIFデータを読み込めないファイルはEXIFデータがないファイルとして記録します。
+     *
+     * @param directory 索引を作成するディレクトリ
+     * @param file      索引ファイル（nullの場合はディレクトリの {@link #DEFAULT_FILENAME}）
+     * @return 更新後の索引
+     * @throws IOException
+     */
+    public static ExifIndex update(Path directory, Path file) throws IOException
+    {
+        if (directory == null)
+        {
+            throw new IllegalArgumentException("Directory is not defined.");
+        }
+
+        if (!Files.isDirectory(directory))
+        {
+            throw new IllegalArgumentException("Not a directory. (" + directory + ")");
+        }
+
+        Path root = directory.toRealPath();
+        Path indexFile = ((file != null) ? file : root.resolve(DEFAULT_FILENAME)).toAbsolutePath();
+
+        ExifIndex previous = null;
+
+        if (Files.exists(indexFile))
+        {
+            try
+            {
+                previous = open(indexFile);
+            }
+            catch (IOException e)
+            {
+                /* 壊れた索引は作成し直す */
+                previous = null;
+            }
+
+            if ((previous != null) && !previous.root.equals(root))
+            {
+                previous.close();
+                previous = null;
+            }
+        }
+
+        List<Row> rows = new ArrayList<>();
+        int[] counts = new int[2];
+
+        try
+        {
+            ExifIndex _previous = previous;
+            DirectoryStream.Filter<Path> filter = ImageCodecRegistry.newFileFilter(JPEG);
+
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>()
+            {
+                @Override
+                public FileVisitResult visitFile(Path path, BasicFileAttributes attributes) throws IOException
+                {
+                    if (!attributes.isRegularFile() || !filter.accept(path))
+                    {
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    String relativePath = _relativize(root, path);
+                    long size = attributes.size();
+                    long lastModified = attributes.lastModifiedTime().toMillis();
+
+                    int row = (_previous != null) ? _previous._find(relativePath) : -1;
+
+                    if ((row >= 0) && (_previous.getSize(row) == size)
+                        && (_previous.getLastModified(row) == lastModified))
+                    {
+                        rows.add(_previous._row(row, relativePath));
+                        counts[1]++;
+                    }
+                    else
+                    {
+                        rows.add(Row.parse(path, relativePath, size, lastModified));
+                        counts[0]++;
+                    }
+
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        finally
+        {
+            if (previous != null)
+            {
+                previous.close();
+            }
+        }
+
+        _write(indexFile, root, rows);
+
+        ExifIndex index = open(indexFile);
+        index.parsedCount = counts[0];
+        index.reusedCount = counts[1];
+
+        return index;
+    }
+
+    private static String _relativize(Path root, Path path)
+    {
+        return root.relativize(path).toString().replace(path.getFileSystem().getSeparator(), "/");
+    }
+
+    private static void _write(Path file, Path root, List<Row> rows) throws IOException
+    {
+        rows.sort((a, b) -> a.path.compareTo(b.path));
+
+        int count = rows.size();
+
+        /* メーカー・機種の辞書 */
+        Map<String, Integer> dictionary = new LinkedHashMap<>();
+
+        for (Row row : rows)
+        {
+            row.makeId = _intern(dictionary, row.make);
+            row.modelId = _intern(dictionary, row.model);
+        }
+
+        Integer[] byDate = new Integer[count];
+
+        for (int i = 0; i < count; i++)
+        {
+            byDate[i] = i;
+        }
+
+        Arrays.sort(byDate, (a, b) -> Long.compare(rows.get(a).dateTimeOriginal, rows.get(b).dateTimeOriginal));
+
+        byte[][] paths = new byte[count][];
+        byte[] rootBytes = _encode(root.toString());
+        int stringsSize = 2 + rootBytes.length + 4;
+
+        for (String value : dictionary.keySet())
+        {
+            stringsSize += 2 + _encode(value).length;
+        }
+
+        long strings = HEADER_SIZE + count * (8L * 5 + 4L * 6);
+        long pathOffsets = strings + stringsSize;
+        long pathData = pathOffsets + (count + 1) * 4L;
+        long pathSize = 0;
+
+        for (int i = 0; i < count; i++)
+        {
+            paths[i] = rows.get(i).path.getBytes(StandardCharsets.UTF_8);
+            pathSize += paths[i].length;
+        }
+
+        if (pathData + pathSize > Integer.MAX_VALUE)
+        {
+            throw new IOException("Too many files to index. (" + count + ")");
+        }
+
+        Path tmpfile = Files.createTempFile(file.getParent(), ".", "");
+
+        try
+        {
+            try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tmpfile), 64 * 1024)))
+            {
+                out.write(MAGIC);
+                out.writeInt(count);
+                out.writeInt(0);
+                out.writeLong(strings);
+                out.writeLong(pathOffsets);
+
+                for (Row row : rows)
+                {
+                    out.writeLong(row.size);
+                }
+
+                for (Row row : rows)
+                {
+                    out.writeLong(row.lastModified);
+                }
+
+                for (Row row : rows)
+                {
+                    out.writeLong(row.dateTimeOriginal);
+                }
+
+                for (Row row : rows)
+                {
+                    out.writeDouble(row.latitude);
+                }
+
+                for (Row row : rows)
+                {
+                    out.writeDouble(row.longitude);
+                }
+
+                for (Row row : rows)
+                {
+                    out.writeInt(row.makeId);
+                }
+
+                for (Row row : rows)
+                {
+                    out.writeInt(row.modelId);
+                }
+
+                for (Row row : rows)
+                {
+                    out.writeInt(row.orientation);
+                }
+
+                for (Row row : rows)
+                {
+                    out.writeInt(row.width);
+                }
+
+                for (Row row : rows)
+                {
+                    out.writeInt(row.height);
+                }
+
+                for (Integer row : byDate)
+                {
+                    out.writeInt(row);
+                }
+
+                out.writeShort(rootBytes.length);
+                out.write(rootBytes);
+                out.writeInt(dictionary.size());
+
+                for (String value : dictionary.keySet())
+                {
+                    byte[] bytes = _encode(value);
+                    out.writeShort(bytes.length);
+                    out.write(bytes);
+                }
+
+                int offset = 0;
+
+                for (byte[] path : paths)
+                {
+                    out.writeInt(offset);
+                    offset += path.length;
+                }
+
+                out.writeInt(offset);
+
+                for (byte[] path : paths)
+                {
+                    out.write(path);
+                }
+            }
+
+            Files.move(tmpfile, file, REPLACE_EXISTING, ATOMIC_MOVE);
+        }
+        finally
+        {
+            Files.deleteIfExists(tmpfile);
+        }
+    }
+
+    private static int _intern(Map<String, Integer> dictionary, String value)
+    {
+        if (value == null)
+        {
+            return -1;
+        }
+
+        return dictionary.computeIfAbsent(value, key -> dictionary.size());
+    }
+
+    private static byte[] _encode(String value)
+    {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+
+        /* 長さは short で記録するため切り詰める */
+        return (bytes.length <= 0xFFFF) ? bytes : Arrays.copyOf(bytes, 0xFFFF);
+    }
+
+    /**
+     * @return 索引を作成したディレクトリ
+     */
+    public Path getRoot()
+    {
+        return root;
+    }
+
+    /**
+     * @return 件数
+     */
+    public int size()
+    {
+        return count;
+    }
+
+    /**
+     * @return 直前の {@link #update(Path, Path)} でEXIFデータを読み込んだ件数
+     */
+    public int getParsedCount()
+    {
+        return parsedCount;
+    }
+
+    /**
+     * @return 直前の {@link #update(Path, Path)} で前回の索引の値を再利用した件数
+     */
+    public int getReusedCount()
+    {
+        return reusedCount;
+    }
+
+    /**
+     * ファイルの行番号を検索します
+     *
+     * @param file ファイル
+     * @return 行番号（索引にない場合は-1）
+     */
+    public int find(Path file)
+    {
+        Path path = file.toAbsolutePath().normalize();
+
+        if (!path.startsWith(root))
+        {
+            return -1;
+        }
+
+        return _find(_relativize(root, path));
+    }
+
+    private int _find(String relativePath)
+    {
+        int low = 0;
+        int high = count - 1;
+
+        while (low <= high)
+        {
+            int middle = (low + high) >>> 1;
+            int compare = _getRelativePath(middle).compareTo(relativePath);
+
+            if (compare < 0)
+            {
+                low = middle + 1;
+            }
+            else if (compare > 0)
+            {
+                high = middle - 1;
+            }
+            else
+            {
+                return middle;
+            }
+        }
+
+        return -1;
+    }
+
+    private String _getRelativePath(int row)
+    {
+        int start = buffer.getInt(pathOffsets + row * 4);
+        int end = buffer.getInt(pathOffsets + (row + 1) * 4);
+
+        byte[] bytes = new byte[end - start];
+
+        ByteBuffer data = buffer.duplicate();
+        data.position(pathData + start);
+        data.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private Row _row(int row, String relativePath)
+    {
+        Row result = new Row();
+        result.path = relativePath;
+        result.size = getSize(row);
+        result.lastModified = getLastModified(row);
+        result.dateTimeOriginal = getDateTimeOriginal(row);
+        result.make = getMake(row);
+        result.model = getModel(row);
+        result.orientation = getOrientation(row);
+        result.width = getWidth(row);
+        result.height = getHeight(row);
+        result.latitude = getLatitude(row);
+        result.longitude = getLongitude(row);
+
+        return result;
+    }
+
+    /**
+     * @param row 行番号
+     * @return ファイルのパス
+     */
+    public Path getPath(int row)
+    {
+        return root.resolve(_getRelativePath(_check(row)));
+    }
+
+    public long getSize(int row)
+    {
+        return buffer.getLong(sizes + _check(row) * 8);
+    }
+
+    /**
+     * @param row 行番号
+     * @return ファイルの更新時刻（ミリ秒）
+     */
+    public long getLastModified(int row)
+    {
+        return buffer.getLong(lastModifieds + _check(row) * 8);
+    }
+
+    /**
+     * @param row 行番号
+     * @return 撮影時刻（ミリ秒 / 撮影時刻がない場合は {@link #NO_DATE}）
+     */
+    public long getDateTimeOriginal(int row)
+    {
+        return buffer.getLong(dateTimeOriginals + _check(row) * 8);
+    }
+
+    /**
+     * @param row 行番号
+     * @return メーカー（タグがない場合はnull）
+     */
+    public String getMake(int row)
+    {
+        int id = buffer.getInt(makes + _check(row) * 4);
+
+        return (id >= 0) ? dictionary[id] : null;
+    }
+
+    /**
+     * @param row 行番号
+     * @return 機種（タグがない場合はnull）
+     */
+    public String getModel(int row)
+    {
+        int id = buffer.getInt(models + _check(row) * 4);
+
+        return (id >= 0) ? dictionary[id] : null;
+    }
+
+    /**
+     * @param row 行番号
+     * @return 向き（タグがない場合は0）
+     */
+    public int getOrientation(int row)
+    {
+        return buffer.getInt(orientations + _check(row) * 4);
+    }
+
+    /**
+     * @param row 行番号
+     * @return 画像の幅（タグがない場合は0）
+     */
+    public int getWidth(int row)
+    {
+        return buffer.getInt(widths + _check(row) * 4);
+    }
+
+    /**
+     * @param row 行番号
+     * @return 画像の高さ（タグがない場合は0）
+     */
+    public int getHeight(int row)
+    {
+        return buffer.getInt(heights + _check(row) * 4);
+    }
+
+    /**
+     * @param row 行番号
+     * @return 緯度（位置がない場合は NaN）
+     */
+    public double getLatitude(int row)
+    {
+        return buffer.getDouble(latitudes + _check(row) * 8);
+    }
+
+    /**
+     * @param row 行番号
+     * @return 経度（位置がない場合は NaN）
+     */
+    public double getLongitude(int row)
+    {
+        return buffer.getDouble(longitudes + _check(row) * 8);
+    }
+
+    private int _check(int row)
+    {
+        if ((row < 0) || (row >= count))
+        {
+            throw new IndexOutOfBoundsException("Row: " + row + ", Size: " + count);
+        }
+
+        return row;
+    }
+
+    /**
+     * 条件に一致する行を検索します
+     *
+     * 撮影時刻の範囲を指定した場合は撮影時刻順の列を二分探索し、範囲内の行のみを他の条件と比較します。
+     *
+     * @param query 条件
+     * @return 行番号（撮影時刻の範囲を指定した場合は撮影時刻順、それ以外はパス順）
+     */
+    public int[] select(Query query)
+    {
+        int makeId = _lookup(query.make);
+        int modelId = _lookup(query.model);
+
+        if ((makeId == -2) || (modelId == -2))
+        {
+            /* 辞書にない値 → 一致する行なし */
+            return new int[0];
+        }
+
+        boolean byDateRange = (query.from != NO_DATE) || (query.to != Long.MAX_VALUE);
+
+        int start = 0;
+        int end = count;
+
+        if (byDateRange)
+        {
+            start = _lowerBound(Math.max(query.from, NO_DATE + 1));
+            end = _lowerBound(query.to);
+        }
+
+        int[] result = new int[Math.max(end - start, 0)];
+        int size = 0;
+
+        for (int i = start; i < end; i++)
+        {
+            int row = byDateRange ? buffer.getInt(byDate + i * 4) : i;
+
+            if ((makeId >= 0) && (buffer.getInt(makes + row * 4) != makeId))
+            {
+                continue;
+            }
+
+            if ((modelId >= 0) && (buffer.getInt(models + row * 4) != modelId))
+            {
+                continue;
+            }
+
+            if ((query.orientation > 0) && (buffer.getInt(orientations + row * 4) != query.orientation))
+            {
+                continue;
+            }
+
+            if (query.gps && Double.isNaN(buffer.getDouble(latitudes + row * 8)))
+            {
+                continue;
+            }
+
+            result[size++] = row;
+        }
+
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * @return 辞書の番号（条件がない場合は-1、辞書にない場合は-2）
+     */
+    private int _lookup(String value)
+    {
+        if (value == null)
+        {
+            return -1;
+        }
+
+        Integer id = dictionaryIndex.get(value);
+
+        return (id != null) ? id : -2;
+    }
+
+    /**
+     * 撮影時刻順の列で指定した時刻以上の最初の位置を返します
+     */
+    private int _lowerBound(long time)
+    {
+        int low = 0;
+        int high = count;
+
+        while (low < high)
+        {
+            int middle = (low + high) >>> 1;
+            int row = buffer.getInt(byDate + middle * 4);
+
+            if (buffer.getLong(dateTimeOriginals + row * 8) < time)
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+
+    /**
+     * 検索条件（指定しない条件は全ての行に一致）
+     */
+    public static class Query
+    {
+        private String make = null;
+
+        private String model = null;
+
+        private long from = NO_DATE;
+
+        private long to = Long.MAX_VALUE;
+
+        private int orientation = 0;
+
+        private boolean gps = false;
+
+        /**
+         * @param make メーカー（完全一致）
+         */
+        public Query make(String make)
+        {
+            this.make = make;
+            return this;
+        }
+
+        /**
+         * @param model 機種（完全一致）
+         */
+        public Query model(String model)
+        {
+            this.model = model;
+            return this;
+        }
+
+        /**
+         * @param from 撮影時刻の開始（この時刻を含む / nullの場合は指定なし）
+         * @param to   撮影時刻の終了（この時刻を含まない / nullの場合は指定なし）
+         */
+        public Query dateTimeOriginal(Date from, Date to)
+        {
+            this.from = (from != null) ? from.getTime() : NO_DATE;
+            this.to = (to != null) ? to.getTime() : Long.MAX_VALUE;
+            return this;
+        }
+
+        /**
+         * @param orientation 向き（1～8 / 0の場合は指定なし）
+         */
+        public Query orientation(int orientation)
+        {
+            this.orientation = orientation;
+            return this;
+        }
+
+        /**
+         * GPS の位置がある写真のみに限定します
+         */
+        public Query hasGpsLocation()
+        {
+            this.gps = true;
+            return this;
+        }
+    }
+
+    /**
+     * 索引を作成する際の1件分のデータ
+     */
+    private static class Row
+    {
+        String path;
+
+        long size;
+
+        long lastModified;
+
+        long dateTimeOriginal = NO_DATE;
+
+        String make;
+
+        String model;
+
+        int orientation;
+
+        int width;
+
+        int height;
+
+        double latitude = Double.NaN;
+
+        double longitude = Double.NaN;
+
+        int makeId;
+
+        int modelId;
+
+        static Row parse(Path file, String relativePath, long size, long lastModified)
+        {
+            Row row = new Row();
+            row.path = relativePath;
+            row.size = size;
+            row.lastModified = lastModified;
+
+            Exif exif;
+
+            try
+            {
+                exif = Exif.decode(file);
+            }
+            catch (IOException | RuntimeException e)
+            {
+                /* EXIFデータを読み込めないファイルはEXIFデータなしとして記録 */
+                return row;
+            }
+
+            try
+            {
+
+                Date dateTimeOriginal = exif.getDateTimeOriginal();
+
+                row.dateTimeOriginal = (dateTimeOriginal != null) ? dateTimeOriginal.getTime() : NO_DATE;
+                row.make = exif.getMake();
+                row.model = exif.getModel();
+                row.orientation = exif.getOrientation();
+                row.width = exif.getPixelXDimension();
+                row.height = exif.getPixelYDimension();
+
+                if (exif.hasGpsLocation())
+                {
+                    row.latitude = exif.getGpsLatitude();
+                    row.longitude = exif.getGpsLongitude();
+                }
+            }
+            catch (RuntimeException e)
+            {
+                /* 値が壊れているタグ以降は記録しない */
+            }
+
+            return row;
+        }
+    }
+}
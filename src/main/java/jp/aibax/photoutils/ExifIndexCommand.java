@@ -0,0 +1,207 @@
+package jp.aibax.photoutils;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+
+import static org.apache.commons.lang3.BooleanUtils.isTrue;
+
+/**
+ * ディレクトリ以下の写真のEXIFデータの索引を作成・検索するコマンド
+ *
+ * 検索条件を指定しない場合は索引を作成・更新し、検索条件を指定した場合は索引から一致するファイルのパスを表示します。
+ */
+public class ExifIndexCommand
+{
+    private static final String VERSION = "exifindex version 1.0.0-SNAPSHOT";
+
+    @Option(name = "-?", aliases = "--help", help = true, usage = "このメッセージを表示")
+    private Boolean usageFlag;
+
+    @Option(name = "-v", aliases = "--version", usage = "バージョンを表示")
+    private Boolean versionFlag;
+
+    @Option(name = "-i", aliases = "--index", metaVar = "FILE", usage = "索引ファイル（初期値: DIRECTORY/.exifindex）")
+    private String index;
+
+    @Option(name = "-u", aliases = "--update", usage = "検索する前に索引を更新")
+    private Boolean updateFlag;
+
+    @Option(name = "--make", usage = "メーカーが一致する写真を検索")
+    private String make;
+
+    @Option(name = "--model", usage = "機種が一致する写真を検索")
+    private String model;
+
+    @Option(name = "--from", metaVar = "DATE", usage = "撮影時刻がこの日時以降の写真を検索（yyyy-MM-dd / yyyy-MM-ddTHH:mm:ss）")
+    private String from;
+
+    @Option(name = "--to", metaVar = "DATE", usage = "撮影時刻がこの日時より前の写真を検索（yyyy-MM-dd / yyyy-MM-ddTHH:mm:ss）")
+    private String to;
+
+    @Option(name = "--orientation", usage = "向き (1～8) が一致する写真を検索")
+    private int orientation = 0;
+
+    @Option(name = "--gps", usage = "GPS の位置がある写真を検索")
+    private Boolean gpsFlag;
+
+    @Option(name = "--count", usage = "パスを表示せずに件数のみを表示")
+    private Boolean countFlag;
+
+    @Argument(metaVar = "DIRECTORY")
+    private String directory;
+
+    public static void main(String[] args)
+    {
+        run(args, System.out, System.err);
+    }
+
+    /**
+     * コマンドを実行します
+     *
+     * @param args 引数
+     * @param out  標準出力の出力先
+     * @param err  標準エラー出力の出力先
+     * @return 終了コード（引数が不正な場合や索引の作成・検索に失敗した場合は 1）
+     */
+    static int run(String[] args, PrintStream out, PrintStream err)
+    {
+        ExifIndexCommand command = new ExifIndexCommand();
+
+        CmdLineParser parser = new CmdLineParser(command);
+
+        try
+        {
+            parser.parseArgument(args);
+        }
+        catch (CmdLineException e)
+        {
+            e.printStackTrace(err);
+            return 1;
+        }
+
+        if (isTrue(command.versionFlag))
+        {
+            out.println(VERSION);
+            return 0;
+        }
+
+        if (isTrue(command.usageFlag) || (command.directory == null) || (command.orientation < 0)
+            || (command.orientation > 8))
+        {
+            out.println("Usage of exifindex:");
+            out.println("exifindex [OPTIONS] DIRECTORY");
+            parser.printUsage(out);
+            return isTrue(command.usageFlag) ? 0 : 1;
+        }
+
+        ExifIndex.Query query;
+
+        try
+        {
+            query = command._buildQuery();
+        }
+        catch (DateTimeParseException e)
+        {
+            err.println("Invalid date: " + e.getParsedString());
+            return 1;
+        }
+
+        Path directory = Paths.get(command.directory);
+        Path indexFile = (command.index != null) ? Paths.get(command.index)
+            : directory.resolve(ExifIndex.DEFAULT_FILENAME);
+
+        try
+        {
+            if ((query == null) || isTrue(command.updateFlag) || !Files.exists(indexFile))
+            {
+                long start = System.nanoTime();
+
+                try (ExifIndex exifIndex = ExifIndex.update(directory, indexFile))
+                {
+                    out.printf("[INDEX] %s : %d files (parsed %d / reused %d) in %.3fs\n", exifIndex.getRoot(),
+                        exifIndex.size(), exifIndex.getParsedCount(), exifIndex.getReusedCount(),
+                        (System.nanoTime() - start) / 1e9);
+                }
+            }
+
+            if (query != null)
+            {
+                command._select(indexFile, query, out, err);
+            }
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace(err);
+            return 1;
+        }
+
+        return 0;
+    }
+
+    /**
+     * @return 検索条件（条件の指定がない場合はnull）
+     */
+    private ExifIndex.Query _buildQuery()
+    {
+        if ((make == null) && (model == null) && (from == null) && (to == null) && (orientation == 0)
+            && !isTrue(gpsFlag))
+        {
+            return null;
+        }
+
+        ExifIndex.Query query = new ExifIndex.Query().make(make).model(model)
+            .dateTimeOriginal(_parseDate(from), _parseDate(to)).orientation(orientation);
+
+        return isTrue(gpsFlag) ? query.hasGpsLocation() : query;
+    }
+
+    private static Date _parseDate(String value)
+    {
+        if (value == null)
+        {
+            return null;
+        }
+
+        LocalDateTime dateTime = (value.indexOf('T') > 0) ? LocalDateTime.parse(value)
+            : LocalDate.parse(value).atStartOfDay();
+
+        return Date.from(dateTime.atZone(ZoneId.systemDefault()).toInstant());
+    }
+
+    private void _select(Path indexFile, ExifIndex.Query query, PrintStream out, PrintStream err) throws IOException
+    {
+        try (ExifIndex exifIndex = ExifIndex.open(indexFile))
+        {
+            long start = System.nanoTime();
+            int[] rows = exifIndex.select(query);
+            long elapsed = System.nanoTime() - start;
+
+            if (isTrue(countFlag))
+            {
+                out.println(rows.length);
+            }
+            else
+            {
+                for (int row : rows)
+                {
+                    out.println(exifIndex.getPath(row));
+                }
+            }
+
+            err.printf("[QUERY] %d / %d files in %.3fms\n", rows.length, exifIndex.size(), elapsed / 1e6);
+        }
+    }
+}
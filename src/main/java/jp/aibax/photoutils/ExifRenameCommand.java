@@ -2,35 +2,48 @@ package jp.aibax.photoutils;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.text.DateFormat;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.text.NumberFormat;
-import java.text.SimpleDateFormat;
-import java.util.Arrays;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Collection;
 import java.util.Date;
-import java.util.regex.Pattern;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.ClassParser;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
 import org.kohsuke.args4j.spi.StringArrayOptionHandler;
 
 import jp.aibax.image.Exif;
+import jp.aibax.image.ExifCache;
+import jp.aibax.image.codec.ImageCodecRegistry;
 
 import static org.apache.commons.lang3.BooleanUtils.isTrue;
 import static org.apache.commons.lang3.StringUtils.isNotEmpty;
+import static jp.aibax.image.ImageFormat.JPEG;
+import static jp.aibax.photoutils.RunReport.Stage.EXIF;
 
 public class ExifRenameCommand
 {
     private static final String VERSION = "exifrename version 1.0.0-SNAPSHOT (using Apache Commons Imaging 1.0 RC7)";
 
-    private static final DateFormat TIMESTAMP_FORMAT = new SimpleDateFormat("yyyyMMdd_HHmmss");
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss");
 
-    private static final DateFormat MILLISECOND_FORMAT = new SimpleDateFormat("_SSS");
+    private static final DateTimeFormatter MILLISECOND_FORMAT = DateTimeFormatter.ofPattern("_SSS");
+
+    /** チェックポイントに記録する処理内容 */
+    private static final String RENAME_OPERATION = "exifrename";
 
     private enum TextCase
     {
@@ -67,14 +80,49 @@ public class ExifRenameCommand
     @Option(name = "--dry-run", usage = "実際に実行せずに実行結果を表示")
     private Boolean dryrunFlag;
 
+    @Option(name = "--index", metaVar = "FILE", usage = "exifindex で作成した索引から撮影時刻と機種を取得（変更されたファイルは読み込む）")
+    private String index;
+
     @Argument(metaVar = "arguments...", handler = StringArrayOptionHandler.class)
     private String[] arguments;
 
+    private final BatchOptions batchOptions = new BatchOptions();
+
+    private final ExifCacheOptions exifCacheOptions = new ExifCacheOptions();
+
+    private final PlanOptions planOptions = new PlanOptions();
+
+    private BatchExecutor executor = new BatchExecutor(1);
+
+    private ExifIndex exifIndex = null;
+
+    /** デコードしたEXIFデータのキャッシュ（指定がない場合はnull） */
+    private ExifCache exifCache = null;
+
+    /** リネームする代わりに記録する計画 */
+    private ChangePlan changePlan = null;
+
     public static void main(String[] args)
+    {
+        run(args, System.out, System.err);
+    }
+
+    /**
+     * コマンドを実行します
+     *
+     * @param args 引数
+     * @param out  標準出力の出力先
+     * @param err  標準エラー出力の出力先
+     * @return 終了コード（引数が不正な場合や処理に失敗したファイルがある場合は 1）
+     */
+    static int run(String[] args, PrintStream out, PrintStream err)
     {
         ExifRenameCommand command = new ExifRenameCommand();
 
         CmdLineParser parser = new CmdLineParser(command);
+        new ClassParser().parse(command.batchOptions, parser);
+        new ClassParser().parse(command.exifCacheOptions, parser);
+        new ClassParser().parse(command.planOptions, parser);
 
         try
         {
@@ -82,22 +130,23 @@ public class ExifRenameCommand
         }
         catch (CmdLineException e)
         {
-            e.printStackTrace();
-            return;
+            e.printStackTrace(err);
+            return 1;
         }
 
         if (isTrue(command.versionFlag))
         {
-            System.out.println(VERSION);
-            return;
+            out.println(VERSION);
+            return 0;
         }
 
-        if (isTrue(command.usageFlag) || (command.arguments == null) || (command.arguments.length == 0))
+        if (isTrue(command.usageFlag) || (command.arguments == null) || (command.arguments.length == 0)
+            || !command.batchOptions.validate())
         {
-            System.out.println("Usage of exifrename:");
-            System.out.println("exifrename [OPTIONS] FILES...");
-            parser.printUsage(System.out);
-            return;
+            out.println("Usage of exifrename:");
+            out.println("exifrename [OPTIONS] FILES...");
+            parser.printUsage(out);
+            return isTrue(command.usageFlag) ? 0 : 1;
         }
 
         boolean enableMillisecond = isTrue(command.enableMillisecondFlag);
@@ -108,26 +157,75 @@ public class ExifRenameCommand
         boolean lowercaseExtension = isTrue(command.lowercaseExtensionFlag);
         boolean uppercaseExtension = isTrue(command.uppercaseExtensionFlag);
         TextCase textCase = uppercaseExtension ? TextCase.Uppercase : lowercaseExtension ? TextCase.Lowercase : null;
-        boolean dryrun = isTrue(command.dryrunFlag);
+        boolean dryrun = isTrue(command.dryrunFlag) || (command.planOptions.plan != null);
+
+        int status = 0;
+
+        try (ExifIndex exifIndex = (command.index != null) ? ExifIndex.open(Paths.get(command.index)) : null;
+            ExifCache exifCache = command.exifCacheOptions.open();
+            ChangePlan plan = command.planOptions.create();
+            BatchExecutor executor = command.batchOptions.newExecutor())
+        {
+            executor.setOutput(out, err);
+            command.exifIndex = exifIndex;
+            command.exifCache = exifCache;
+            command.changePlan = plan;
+            command.executor = executor;
 
-        Arrays.asList(command.arguments).forEach(argument -> {
+            Map<Path, RenamePlan.Candidate> candidates = new ConcurrentHashMap<>();
+
+            for (String argument : command.arguments)
+            {
+                Path target = Paths.get(argument);
+
+                try
+                {
+                    command.collect(target, addModel, textCase, dryrun, candidates);
+                }
+                catch (Exception e)
+                {
+                    e.printStackTrace(err);
+                    status = 1;
+                }
+            }
 
-            Path target = Paths.get(argument);
+            /* 全てのファイルの撮影時刻を取得してからリネーム後のファイル名を決定 */
+            executor.await();
 
-            try
+            if (executor.getErrorCount() > 0)
             {
-                command.rename(target, enableMillisecond, counterLength, addModel, prefix, suffix, textCase, dryrun);
+                status = 1;
             }
-            catch (Exception e)
+
+            command.rename(candidates.values(), enableMillisecond, counterLength, prefix, suffix, dryrun);
+
+            if ((plan != null) && (status == 0))
             {
-                e.printStackTrace();
+                /* 全てのファイルの変更を記録できた場合のみ計画ファイルを置き換え */
+                plan.commit();
             }
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace(err);
+            status = 1;
+        }
 
-        });
+        return status;
     }
 
-    public void rename(Path target, boolean enableMillisecond, int counterLength, boolean addModel, String prefix,
-        String suffix, TextCase extension, boolean dryrun) throws IOException
+    /**
+     * リネームするファイルの撮影時刻を取得します（並列数が2以上の場合は並列に取得します）
+     *
+     * @param target     リネームするファイルまたはディレクトリ
+     * @param addModel   撮影したカメラの機種名をファイル名に追加する場合はtrue
+     * @param extension  拡張子の変換
+     * @param dryrun     実際に実行しない場合はtrue
+     * @param candidates 撮影時刻を取得したファイルの追加先
+     * @throws IOException
+     */
+    public void collect(Path target, boolean addModel, TextCase extension, boolean dryrun,
+        Map<Path, RenamePlan.Candidate> candidates) throws IOException
     {
         if (target == null)
         {
@@ -141,58 +239,68 @@ public class ExifRenameCommand
 
         if (Files.isDirectory(target))
         {
-            DirectoryStream.Filter<Path> filter = new DirectoryStream.Filter<Path>()
-            {
-                @Override
-                public boolean accept(Path entry) throws IOException
-                {
-                    return Pattern.matches("(?i).*\\.(jpg|jpeg)$", entry.getFileName().toString());
-                }
-            };
+            DirectoryStream.Filter<Path> filter = ImageCodecRegistry.newFileFilter(JPEG);
 
-            try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(target, filter))
-            {
-                for (Path file : directoryStream)
-                {
-                    rename(file, enableMillisecond, counterLength, addModel, prefix, suffix, extension, dryrun);
-                }
-            }
+            executor.walk(target, filter, file -> collect(file, addModel, extension, dryrun, candidates));
 
             return;
         }
 
         Path _target = target.toRealPath();
-        int _counterLength = (counterLength > 0) ? counterLength : 0;
-        String _prefix = (prefix != null) ? prefix : "";
-        String _suffix = (suffix != null) ? suffix : "";
 
-        _renameFile(_target, enableMillisecond, _counterLength, addModel, _prefix, _suffix, extension, dryrun);
+        if (!dryrun && executor.isFinished(_target, RENAME_OPERATION))
+        {
+            /* 前回までにリネーム済み */
+            return;
+        }
+
+        executor.submit(_target, out -> candidates.put(_target, _decode(_target, addModel, extension)));
     }
 
-    private void _renameFile(Path target, boolean enableMillisecond, int counterLength, boolean addModel, String prefix,
-        String suffix, TextCase extension, boolean dryrun) throws IOException
+    private RenamePlan.Candidate _decode(Path target, boolean addModel, TextCase extension) throws IOException
     {
-        Exif exif = Exif.decode(target);
+        Date dateTimeOriginal;
+        String model;
+
+        RunReport.Span span = RunReport.start(EXIF);
+        int row = _findIndex(target);
+
+        if (row >= 0)
+        {
+            /* 索引から取得（ファイルを開かない） */
+            long time = exifIndex.getDateTimeOriginal(row);
+
+            dateTimeOriginal = (time != ExifIndex.NO_DATE) ? new Date(time) : null;
+            model = exifIndex.getModel(row);
+        }
+        else
+        {
+            Exif exif = Exif.decode(target, exifCache);
+
+            dateTimeOriginal = exif.getDateTimeOriginal();
+            model = exif.getModel();
+        }
+
+        span.stop();
 
         /*
          * 撮影時刻
          */
-        Date dateTimeOriginal = exif.getDateTimeOriginal();
-
         if (dateTimeOriginal == null)
         {
             // Exifから撮影時刻が取得できない場合 => ファイルの更新時刻を使用
-            dateTimeOriginal = exif.getLastModified();
+            dateTimeOriginal = new Date(Files.getLastModifiedTime(target).toMillis());
         }
 
         /* モデル名 */
-        String model = null;
-
         if (addModel)
         {
-            model = exif.getModel();
             model = model.replace(" ", "_");
         }
+        else
+        {
+            model = null;
+        }
 
         /* 拡張子 */
         String ext = parseExtention(target);
@@ -211,54 +319,106 @@ public class ExifRenameCommand
             }
         }
 
-        /* ファイル名の抜けを防ぐため一時的なファイル名にリネーム */
-        String tmpname = String.valueOf(System.currentTimeMillis()) + ext;
-        Path tmpfile = target.getParent().resolve(tmpname);
-
-        if (!dryrun)
-        {
-            Files.move(target, tmpfile);
-        }
-
-        /* タイムスタンプ */
-        String timestamp = TIMESTAMP_FORMAT.format(dateTimeOriginal);
+        return new RenamePlan.Candidate(target, dateTimeOriginal.getTime(), model, ext);
+    }
 
-        if (enableMillisecond)
-        {
-            timestamp += MILLISECOND_FORMAT.format(dateTimeOriginal);
-        }
+    /**
+     * 撮影時刻を取得したファイルのリネーム後のファイル名を決定してリネームします
+     *
+     * ディレクトリごとにファイル名を1回だけ列挙し、撮影時刻順（同じ時刻はファイル名順）にカウンタを割り当てます。
+     *
+     * @param candidates        撮影時刻を取得したファイル
+     * @param enableMillisecond ファイル名の時刻にミリ秒を含める場合はtrue
+     * @param counterLength     カウンタ部分の桁数
+     * @param prefix            ファイル名の先頭に付与するプレフィックス
+     * @param suffix            ファイル名の末尾に付与するサフィックス
+     * @param dryrun            実際に実行しない場合はtrue
+     * @throws IOException
+     */
+    public void rename(Collection<RenamePlan.Candidate> candidates, boolean enableMillisecond, int counterLength,
+        String prefix, String suffix, boolean dryrun) throws IOException
+    {
+        int _counterLength = (counterLength > 0) ? counterLength : 0;
+        String _prefix = (prefix != null) ? prefix : "";
+        String _suffix = (suffix != null) ? suffix : "";
 
         /* 連番 */
         NumberFormat counterFormat = NumberFormat.getIntegerInstance();
         counterFormat.setGroupingUsed(false);
-        counterFormat.setMinimumIntegerDigits(counterLength);
+        counterFormat.setMinimumIntegerDigits(_counterLength);
 
-        int count = 0;
         String counterPrefix = enableMillisecond ? "" : "_";
 
-        String counter = (counterLength > 0) ? (counterPrefix + counterFormat.format(count)) : null;
-        String newname = buildFilename(timestamp, counter, model, prefix, suffix, ext);
-        Path newfile = target.getParent().resolve(newname);
+        RenamePlan plan = RenamePlan.create(candidates, (candidate, count) -> {
 
-        while (true)
+            /* タイムスタンプ */
+            LocalDateTime dateTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(candidate.time),
+                ZoneId.systemDefault());
+            String timestamp = TIMESTAMP_FORMAT.format(dateTime);
+
+            if (enableMillisecond)
+            {
+                timestamp += MILLISECOND_FORMAT.format(dateTime);
+            }
+
+            String counter = ((count > 0) || (_counterLength > 0)) ? (counterPrefix + counterFormat.format(count))
+                : null;
+
+            return buildFilename(timestamp, counter, candidate.model, _prefix, _suffix, candidate.extension);
+
+        });
+
+        for (RenamePlan.Move move : plan.getMoves())
+        {
+            executor.getOutput().printf("[RENAME] %s => %s\n", move.source.getFileName(), move.target.getFileName());
+        }
+
+        if (changePlan != null)
         {
-            if (!Files.exists(newfile))
+            for (RenamePlan.Move move : plan.getMoves())
             {
-                break;
+                if (!move.isNoop())
+                {
+                    changePlan.rename(move.source, Files.readAttributes(move.source, BasicFileAttributes.class),
+                        RENAME_OPERATION, move.target);
+                }
             }
+        }
+        else if (!dryrun)
+        {
+            /* 再開した場合にリネーム後のファイルを再度リネームしないように記録 */
+            plan.execute(move -> executor.finish(move.target, RENAME_OPERATION));
+        }
+    }
+
+    /**
+     * 索引の行番号を検索します
+     *
+     * @return 行番号（索引がない場合、索引にない場合、索引の作成後にサイズ・更新時刻が変更された場合は-1）
+     */
+    private int _findIndex(Path target) throws IOException
+    {
+        if (exifIndex == null)
+        {
+            return -1;
+        }
 
-            count++;
-            counter = counterPrefix + counterFormat.format(count);
-            newname = buildFilename(timestamp, counter, model, prefix, suffix, ext);
-            newfile = target.getParent().resolve(newname);
+        int row = exifIndex.find(target);
+
+        if (row < 0)
+        {
+            return -1;
         }
 
-        System.out.printf("[RENAME] %s => %s\n", target.getFileName(), newfile.getFileName());
+        BasicFileAttributes attributes = Files.readAttributes(target, BasicFileAttributes.class);
 
-        if (!dryrun)
+        if ((attributes.size() != exifIndex.getSize(row))
+            || (attributes.lastModifiedTime().toMillis() != exifIndex.getLastModified(row)))
         {
-            Files.move(tmpfile, newfile);
+            return -1;
         }
+
+        return row;
     }
 
     private String parseExtention(Path path)
@@ -0,0 +1,682 @@
+package jp.aibax.photoutils;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.imaging.util.IoUtils;
+
+import jp.aibax.exception.UnsupportedImageFormatException;
+import jp.aibax.image.ImageFormat;
+import jp.aibax.image.ImageUtils;
+
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static jp.aibax.photoutils.RunReport.Stage.DECODE;
+import static jp.aibax.photoutils.RunReport.Stage.ENCODE;
+import static jp.aibax.photoutils.RunReport.Stage.READ;
+import static jp.aibax.photoutils.RunReport.Stage.SNIFF;
+import static jp.aibax.photoutils.RunReport.Stage.TRANSFORM;
+import static jp.aibax.photoutils.RunReport.Stage.WRITE;
+
+/**
+ * 画像の変換を 読み込み → デコード・変換 → エンコード → 書き込み の段階に分けて実行します
+ *
+ * 各段階はそれぞれのスレッドプールで実行し、段階の間の待ち行列の容量をバイト数で制限します。
+ * 次の段階の待ち行列が一杯の場合は前の段階のスレッドが空くのを待つため、メモリの使用量は待ち行列の容量の合計と
+ * 処理中の画像の分に抑えられます。読み込みと書き込みは I/O 用のスレッド、デコード・変換とエンコードは並列数の
+ * スレッドで実行するため、ネットワーク越しのストレージでもディスクと CPU の両方を使い切ることができます。
+ * デコードする前にヘッダから取得したサイズでメモリ使用量を見積もり、上限（{@link MemoryBudget}）を超える場合は
+ * 他の画像の変換が終わるまでデコードを待ちます。
+ *
+ * 並列数が1の場合は全ての段階を呼び出し元のスレッドで順に実行し、例外も呼び出し元に送出します。
+ */
+class ImagePipeline extends BatchExecutor
+{
+    /** I/O 用のスレッド数の初期値 */
+    static final int DEFAULT_IO_THREADS = 2;
+
+    /** 各段階の待ち行列の容量の初期値 (バイト) */
+    static final long DEFAULT_QUEUE_BYTES = 64L * 1024 * 1024;
+
+    /**
+     * 画像のデコード処理
+     */
+    interface Decoder
+    {
+        /**
+         * @param image 元画像のデータ
+         * @param size  元画像のサイズ
+         * @return デコードした画像（変換の必要がない場合はnull）
+         */
+        BufferedImage decode(byte[] image, Dimension size) throws IOException;
+    }
+
+    /**
+     * デコードした画像の変換処理
+     */
+    interface Transform
+    {
+        /**
+         * @param image デコードした画像
+         * @return 変換した画像
+         */
+        BufferedImage apply(BufferedImage image) throws IOException;
+    }
+
+    /**
+     * 処理結果の出力
+     */
+    interface Reporter
+    {
+        /**
+         * @param out    処理結果の出力先
+         * @param file   処理したファイル
+         * @param source 元画像のサイズ
+         * @param result 変換後の画像のサイズ
+         */
+        void report(PrintStream out, Path file, Dimension source, Dimension result);
+    }
+
+    private final Stage reader;
+
+    private final Stage transformer;
+
+    private final Stage encoder;
+
+    private final Stage writer;
+
+    private final MemoryBudget budget;
+
+    private Manifest manifest;
+
+    private ChangePlan plan;
+
+    ImagePipeline(int jobs)
+    {
+        this(jobs, false, DEFAULT_IO_THREADS, DEFAULT_QUEUE_BYTES);
+    }
+
+    ImagePipeline(int jobs, boolean recursive, int ioThreads, long queueBytes)
+    {
+        this(jobs, recursive, ioThreads, queueBytes, MemoryBudget.getDefault());
+    }
+
+    /**
+     * @param jobs       デコード・変換とエンコードを並列に行うスレッド数
+     * @param recursive  ディレクトリを再帰的に処理する場合はtrue
+     * @param ioThreads  読み込みと書き込みを行うスレッド数
+     * @param queueBytes 各段階の待ち行列の容量 (バイト)
+     * @param heapBudget デコードする画像のメモリ使用量の上限 (バイト)
+     */
+    ImagePipeline(int jobs, boolean recursive, int ioThreads, long queueBytes, long heapBudget)
+    {
+        super(jobs, recursive);
+
+        boolean parallel = (getExecutorService() != null);
+
+        /* デコード・変換は BatchExecutor のスレッドプール（並列数）で実行 */
+        this.reader = new Stage("read", parallel ? _newThreadPool("read", ioThreads) : null, queueBytes);
+        this.transformer = new Stage("transform", getExecutorService(), queueBytes);
+        this.encoder = new Stage("encode", parallel ? _newThreadPool("encode", getJobs()) : null, queueBytes);
+        this.writer = new Stage("write", parallel ? _newThreadPool("write", ioThreads) : null, queueBytes);
+        this.budget = new MemoryBudget(heapBudget);
+    }
+
+    private static ExecutorService _newThreadPool(String name, int threads)
+    {
+        AtomicInteger count = new AtomicInteger();
+
+        return Executors.newFixedThreadPool(Math.max(threads, 1), runnable -> {
+
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+
+        });
+    }
+
+    /**
+     * 処理済みのファイルを記録するマニフェストを設定します
+     *
+     * @param manifest マニフェスト（nullの場合は記録しない）
+     */
+    void setManifest(Manifest manifest)
+    {
+        this.manifest = manifest;
+    }
+
+    /**
+     * 変換後の画像を書き込む代わりに記録する計画を設定します
+     *
+     * @param plan 計画（nullの場合はファイルに書き込む）
+     */
+    void setPlan(ChangePlan plan)
+    {
+        this.plan = plan;
+    }
+
+    @Override
+    void setReport(RunReport report)
+    {
+        super.setReport(report);
+
+        if (report != null)
+        {
+            report.setPipeline(getStages());
+            report.setMemoryBudget(budget);
+        }
+    }
+
+    /**
+     * 各段階を返します
+     *
+     * @return 読み込み・デコード・変換・エンコード・書き込みの各段階
+     */
+    List<Stage> getStages()
+    {
+        return Collections.unmodifiableList(Arrays.asList(reader, transformer, encoder, writer));
+    }
+
+    /**
+     * 画像の変換を登録します（読み込みの待ち行列が一杯の場合は空くまで待ちます）
+     *
+     * マニフェストが設定されている場合は、前回の実行から変更されておらず同じ処理を適用済みのファイルを読み込まずに
+     * スキップし、ファイルを書き込んだ後に処理内容を記録します。チェックポイントについても同様です。
+     *
+     * @param file      変換する画像ファイル
+     * @param operation 処理内容を識別する文字列（処理の種類とパラメータ）
+     * @param decoder   デコード処理
+     * @param transform 変換処理
+     * @param reporter  処理結果の出力
+     * @param dryrun    ファイルを書き込まない場合はtrue
+     * @throws IOException 並列数が1の場合に処理中に発生した例外
+     */
+    void submit(Path file, String operation, Decoder decoder, Transform transform, Reporter reporter,
+        boolean dryrun) throws IOException
+    {
+        if (isFinished(file, operation) || ((manifest != null) && manifest.isUpToDate(file, operation)))
+        {
+            return;
+        }
+
+        Job job = new Job(file, operation, decoder, transform, reporter, dryrun);
+        job.record = beginRecord(file);
+
+        if (getExecutorService() == null)
+        {
+            job.out = getOutput();
+
+            RunReport.attach(job.record);
+
+            try
+            {
+                _read(job);
+            }
+            catch (IOException | RuntimeException e)
+            {
+                _fail(job, e);
+                throw e;
+            }
+            catch (Exception e)
+            {
+                _fail(job, e);
+                throw new IOException(e);
+            }
+            finally
+            {
+                RunReport.attach(null);
+            }
+
+            return;
+        }
+
+        job.entry = begin(file);
+        job.out = new PrintStream(job.entry.output, true);
+
+        try
+        {
+            _next(reader, job, Files.size(file), () -> _read(job));
+        }
+        catch (Exception e)
+        {
+            _fail(job, e);
+        }
+    }
+
+    private void _fail(Job job, Throwable error)
+    {
+        _release(job);
+
+        if (job.record != null)
+        {
+            job.record.end(error);
+        }
+
+        if (job.entry != null)
+        {
+            complete(job.entry, error);
+        }
+    }
+
+    /**
+     * 次の段階の待ち行列に処理を追加します（待ち行列が一杯の場合は空くまで待ちます）
+     */
+    private void _next(Stage stage, Job job, long bytes, StageTask task) throws Exception
+    {
+        if (stage.executor == null)
+        {
+            task.run();
+            return;
+        }
+
+        int permits = stage.acquire(bytes);
+
+        stage.executor.execute(() -> {
+
+            stage.release(permits);
+
+            RunReport.attach(job.record);
+
+            try
+            {
+                task.run();
+            }
+            catch (Throwable e)
+            {
+                _fail(job, e);
+            }
+            finally
+            {
+                RunReport.attach(null);
+            }
+
+        });
+    }
+
+    private void _read(Job job) throws Exception
+    {
+        reader.run(() -> {
+
+            RunReport.Span span = RunReport.start(READ);
+
+            if (plan != null)
+            {
+                /* 計画の実行時に変更されていないことを確認するため読み込む前の属性を記録 */
+                job.attributes = Files.readAttributes(job.file, BasicFileAttributes.class);
+            }
+
+            job.source = Files.readAllBytes(job.file);
+            span.stop();
+
+            RunReport.addBytesIn(job.source.length);
+            return job.source.length;
+
+        });
+
+        _next(transformer, job, job.source.length, () -> _transform(job));
+    }
+
+    private void _transform(Job job) throws Exception
+    {
+        transformer.run(() -> {
+
+            RunReport.Span span = RunReport.start(SNIFF);
+            job.format = ImageUtils.getImageFormat(job.source);
+
+            if (job.format == null)
+            {
+                throw new UnsupportedImageFormatException("Unsupported image format.");
+            }
+
+            /* 画像全体をデコードせずにヘッダからサイズを取得 */
+            job.size = ImageUtils.getImageSize(job.source);
+            span.stop();
+
+            /* メモリ使用量の上限に空きができるまでデコードを待つ */
+            job.admitted = budget.acquire(MemoryBudget.estimate(job.size, job.source.length));
+
+            span = RunReport.start(DECODE);
+            BufferedImage image = job.decoder.decode(job.source, job.size);
+            span.stop();
+
+            if (image != null)
+            {
+                span = RunReport.start(TRANSFORM);
+                job.result = job.transform.apply(image);
+                span.stop();
+            }
+
+            long bytes = job.source.length;
+            job.source = null;
+            return bytes;
+
+        });
+
+        long bytes = (job.result != null) ? (long)job.result.getWidth() * job.result.getHeight() * 4 : 0;
+
+        _next(encoder, job, bytes, () -> _encode(job));
+    }
+
+    private void _encode(Job job) throws Exception
+    {
+        encoder.run(() -> {
+
+            if (job.result == null)
+            {
+                /* 変換の必要なし */
+                job.resultSize = job.size;
+                return 0;
+            }
+
+            long bytes = (long)job.result.getWidth() * job.result.getHeight() * 4;
+
+            RunReport.Span span = RunReport.start(ENCODE);
+            job.resultSize = new Dimension(job.result.getWidth(), job.result.getHeight());
+            job.encoded = ImageUtils.writeImage(job.result, job.format);
+            job.result = null;
+            span.stop();
+
+            return bytes;
+
+        });
+
+        _release(job);
+
+        long bytes = (job.encoded != null) ? job.encoded.length : 0;
+
+        _next(writer, job, bytes, () -> _write(job));
+    }
+
+    /**
+     * デコードした画像のメモリ使用量の上限から確保した容量を解放します
+     */
+    private void _release(Job job)
+    {
+        budget.release(job.admitted);
+        job.admitted = 0;
+    }
+
+    private void _write(Job job) throws Exception
+    {
+        writer.run(() -> {
+
+            job.reporter.report(job.out, job.file, job.size, job.resultSize);
+
+            if (plan != null)
+            {
+                /* エンコードした画像を計画に記録（変換の必要がない場合は処理内容のみ） */
+                long bytes = (job.encoded != null) ? job.encoded.length : 0;
+                plan.write(job.file, job.attributes, job.operation, job.encoded);
+                job.encoded = null;
+
+                return bytes;
+            }
+
+            if (job.dryrun)
+            {
+                return 0;
+            }
+
+            long bytes = 0;
+
+            /*
+             * ファイル出力
+             */
+            if (job.encoded != null)
+            {
+                RunReport.Span span = RunReport.start(WRITE);
+                Path tmpfile = Files.createTempFile(job.file.getParent(), ".", "");
+                IoUtils.writeToFile(job.encoded, tmpfile.toFile());
+                Files.move(tmpfile, job.file, REPLACE_EXISTING);
+                span.stop();
+
+                bytes = job.encoded.length;
+                job.encoded = null;
+
+                RunReport.addBytesOut(bytes);
+            }
+
+            if (manifest != null)
+            {
+                manifest.record(job.file, job.operation);
+            }
+
+            finish(job.file, job.operation);
+
+            return bytes;
+
+        });
+
+        if (job.record != null)
+        {
+            job.record.end(null);
+        }
+
+        if (job.entry != null)
+        {
+            complete(job.entry, null);
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        try
+        {
+            super.close();
+        }
+        finally
+        {
+            for (Stage stage : Arrays.asList(reader, encoder, writer))
+            {
+                if (stage.executor != null)
+                {
+                    stage.executor.shutdown();
+                }
+            }
+        }
+    }
+
+    /**
+     * 段階ごとの処理
+     */
+    private interface StageTask
+    {
+        void run() throws Exception;
+    }
+
+    /**
+     * 段階ごとの処理（計測用に処理したデータのバイト数を返す）
+     */
+    private interface Work
+    {
+        long run() throws Exception;
+    }
+
+    /**
+     * 処理の段階（スレッドプールと容量をバイト数で制限した待ち行列）と処理件数・処理時間の計測値
+     */
+    static class Stage
+    {
+        private final String name;
+
+        private final ExecutorService executor;
+
+        /** 待ち行列の空き容量 (KiB) */
+        private final Semaphore queue;
+
+        private final int capacity;
+
+        private final AtomicLong count = new AtomicLong();
+
+        private final AtomicLong bytes = new AtomicLong();
+
+        private final AtomicLong busyNanos = new AtomicLong();
+
+        private final AtomicLong blockedNanos = new AtomicLong();
+
+        Stage(String name, ExecutorService executor, long queueBytes)
+        {
+            this.name = name;
+            this.executor = executor;
+            this.capacity = (int)Math.max(Math.min(queueBytes / 1024, Integer.MAX_VALUE), 1);
+            this.queue = new Semaphore(capacity);
+        }
+
+        /**
+         * 待ち行列に空きができるまで待って容量を確保します（容量より大きいデータは他のデータが全て処理されるまで待ちます）
+         *
+         * @return 確保した容量 (KiB)
+         */
+        int acquire(long bytes) throws InterruptedIOException
+        {
+            int permits = (int)Math.max(Math.min((bytes + 1023) / 1024, capacity), 1);
+
+            long start = System.nanoTime();
+
+            try
+            {
+                queue.acquire(permits);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            finally
+            {
+                blockedNanos.addAndGet(System.nanoTime() - start);
+            }
+
+            return permits;
+        }
+
+        void release(int permits)
+        {
+            queue.release(permits);
+        }
+
+        void run(Work work) throws Exception
+        {
+            long start = System.nanoTime();
+
+            try
+            {
+                bytes.addAndGet(work.run());
+            }
+            finally
+            {
+                busyNanos.addAndGet(System.nanoTime() - start);
+                count.incrementAndGet();
+            }
+        }
+
+        String getName()
+        {
+            return name;
+        }
+
+        /**
+         * @return 処理した件数
+         */
+        long getCount()
+        {
+            return count.get();
+        }
+
+        /**
+         * @return 処理したデータのバイト数の合計
+         */
+        long getBytes()
+        {
+            return bytes.get();
+        }
+
+        /**
+         * @return 処理に要した時間の合計（ナノ秒）
+         */
+        long getBusyNanos()
+        {
+            return busyNanos.get();
+        }
+
+        /**
+         * @return 待ち行列が一杯で前の段階が待たされた時間の合計（ナノ秒）
+         */
+        long getBlockedNanos()
+        {
+            return blockedNanos.get();
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%s : %d files / %.1f MB / busy %.3fs / blocked %.3fs", name, getCount(),
+                getBytes() / (1024.0 * 1024.0), getBusyNanos() / 1e9, getBlockedNanos() / 1e9);
+        }
+    }
+
+    /**
+     * 処理中の画像と各段階の処理結果
+     */
+    private static class Job
+    {
+        private final Path file;
+
+        private final String operation;
+
+        private final Decoder decoder;
+
+        private final Transform transform;
+
+        private final Reporter reporter;
+
+        private final boolean dryrun;
+
+        private Entry entry;
+
+        private RunReport.FileRecord record;
+
+        private PrintStream out;
+
+        private byte[] source;
+
+        private ImageFormat format;
+
+        private BasicFileAttributes attributes;
+
+        private Dimension size;
+
+        /** メモリ使用量の上限から確保した容量 (KiB) */
+        private int admitted;
+
+        private BufferedImage result;
+
+        private Dimension resultSize;
+
+        private byte[] encoded;
+
+        Job(Path file, String operation, Decoder decoder, Transform transform, Reporter reporter, boolean dryrun)
+        {
+            this.file = file;
+            this.operation = operation;
+            this.decoder = decoder;
+            this.transform = transform;
+            this.reporter = reporter;
+            this.dryrun = dryrun;
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package jp.aibax.photoutils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import jp.aibax.util.AppendLog;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * 処理済みのファイルを記録するマニフェスト
+ *
+ * ファイルごとにサイズ・更新時刻・内容全体のフィンガープリントと適用済みの処理内容を1行ずつ記録し
+ * （{@link AppendLog}）、前回の実行から変更されていないファイルを読み込まずに判定できるようにします。
+ *
+ * 処理内容はコマンドごとに保持し（resizeimg・trimimg・modexif で同じマニフェストを共有できる）、
+ * 処理前のファイルが記録と一致していた場合は他のコマンドの処理内容を引き継ぎます。
+ * 同じコマンドの処理内容は新しいもので置き換えます。
+ *
+ * [形式]
+ * サイズ TAB 更新時刻（ミリ秒） TAB フィンガープリント TAB 処理内容（空白区切り） TAB パス（マニフェストのディレクトリからの相対パス）
+ */
+class Manifest implements Closeable
+{
+    private static final String HEADER = "# photoutils manifest 1";
+
+    /** フィンガープリントの計算時に1回に読み込むバイト数 */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path root;
+
+    private final AppendLog<Record> log;
+
+    /** 処理前の状態が記録と一致していたファイル（処理後に適用済みの処理内容を引き継ぐ） */
+    private final Set<String> verified = ConcurrentHashMap.newKeySet();
+
+    private Manifest(Path file) throws IOException
+    {
+        this.log = AppendLog.open(file, HEADER, Record.FORMAT);
+        this.root = log.getFile().getParent().toRealPath();
+    }
+
+    /**
+     * マニフェストを開きます（ファイルが存在しない場合は作成します）
+     *
+     * @param file マニフェストのファイル
+     * @return マニフェスト
+     * @throws IOException
+     */
+    static Manifest open(Path file) throws IOException
+    {
+        if (file == null)
+        {
+            throw new IllegalArgumentException("File is not defined");
+        }
+
+        return new Manifest(file);
+    }
+
+    /**
+     * ファイルが前回の実行から変更されておらず、同じ処理が適用済みかを返します
+     *
+     * サイズと更新時刻が記録と一致する場合はファイルを読み込まずに判定します。
+     * 更新時刻のみが異なる場合はファイル全体のフィンガープリントを比較し、一致すれば更新時刻を記録し直します
+     * （同じサイズのままファイルの途中を書き換えた場合も変更を検出するため、一部のデータのみでは比較しない）。
+     *
+     * @param target    判定するファイル
+     * @param operation 処理内容
+     * @return 処理済みの場合はtrue
+     * @throws IOException
+     */
+    boolean isUpToDate(Path target, String operation) throws IOException
+    {
+        String path = _relativize(target);
+
+        Record record = log.get(path);
+
+        if (record == null)
+        {
+            return false;
+        }
+
+        BasicFileAttributes attributes = Files.readAttributes(target, BasicFileAttributes.class);
+
+        if (attributes.size() != record.size)
+        {
+            return false;
+        }
+
+        if (attributes.lastModifiedTime().toMillis() != record.lastModified)
+        {
+            if (!_fingerprint(target, attributes.size()).equals(record.fingerprint))
+            {
+                return false;
+            }
+
+            /* 内容が変わっていないファイル（コピーや touch で更新時刻のみ変更された場合）は更新時刻を記録し直す */
+            record = new Record(path, attributes.size(), attributes.lastModifiedTime().toMillis(),
+                record.fingerprint, record.operations);
+            log.append(record);
+        }
+
+        if (record.operations.contains(operation))
+        {
+            return true;
+        }
+
+        /* 他の処理のみ適用済みの場合は、処理後の記録に適用済みの処理内容を引き継ぐ */
+        verified.add(path);
+
+        return false;
+    }
+
+    /**
+     * ファイルに処理を適用したことを記録します
+     *
+     * @param target    処理したファイル
+     * @param operation 処理内容
+     * @throws IOException
+     */
+    void record(Path target, String operation) throws IOException
+    {
+        String path = _relativize(target);
+        BasicFileAttributes attributes = Files.readAttributes(target, BasicFileAttributes.class);
+
+        Set<String> operations = new LinkedHashSet<>();
+        Record previous = log.get(path);
+
+        if (verified.remove(path) && (previous != null))
+        {
+            /* 同じコマンドの処理内容は置き換え */
+            String command = _command(operation);
+            previous.operations.stream().filter(o -> !_command(o).equals(command)).forEach(operations::add);
+        }
+
+        operations.add(operation);
+
+        log.append(new Record(path, attributes.size(), attributes.lastModifiedTime().toMillis(),
+            _fingerprint(target, attributes.size()), operations));
+    }
+
+    private static String _command(String operation)
+    {
+        int index = operation.indexOf(':');
+
+        return (index < 0) ? operation : operation.substring(0, index);
+    }
+
+    private String _relativize(Path target) throws IOException
+    {
+        Path path = target.toRealPath();
+
+        return path.startsWith(root) ? root.relativize(path).toString() : path.toString();
+    }
+
+    /**
+     * ファイルのサイズと内容全体からフィンガープリントを計算します
+     */
+    private static String _fingerprint(Path target, long size) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(target, READ))
+        {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(ByteBuffer.allocate(8).putLong(0, size));
+
+            ByteBuffer buffer = ByteBuffer.allocate((int)Math.min(Math.max(size, 1), BUFFER_SIZE));
+            long position = 0;
+
+            while (true)
+            {
+                int read = channel.read(buffer, position);
+
+                if (read < 0)
+                {
+                    break;
+                }
+
+                position += read;
+
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+
+            StringBuilder fingerprint = new StringBuilder();
+
+            for (byte b : digest.digest())
+            {
+                fingerprint.append(String.format("%02x", b));
+            }
+
+            return fingerprint.toString();
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 記録されているファイルの数を返します
+     *
+     * @return ファイルの数
+     */
+    int size()
+    {
+        return log.size();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        log.close();
+    }
+
+    /**
+     * ファイルごとの記録
+     */
+    private static class Record
+    {
+        static final AppendLog.Format<Record> FORMAT = new AppendLog.Format<Record>()
+        {
+            @Override
+            public Record parse(String line)
+            {
+                return Record.parse(line);
+            }
+
+            @Override
+            public String format(Record record)
+            {
+                return record.toString();
+            }
+
+            @Override
+            public String key(Record record)
+            {
+                return record.path;
+            }
+        };
+
+        private final String path;
+
+        private final long size;
+
+        private final long lastModified;
+
+        private final String fingerprint;
+
+        private final Set<String> operations;
+
+        Record(String path, long size, long lastModified, String fingerprint, Set<String> operations)
+        {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.fingerprint = fingerprint;
+            this.operations = operations;
+        }
+
+        static Record parse(String line)
+        {
+            String[] fields = line.split("\t", 5);
+
+            if (fields.length != 5)
+            {
+                return null;
+            }
+
+            try
+            {
+                return new Record(fields[4], Long.parseLong(fields[0]), Long.parseLong(fields[1]), fields[2],
+                    new LinkedHashSet<>(Arrays.asList(fields[3].split(" "))));
+            }
+            catch (NumberFormatException e)
+            {
+                /* 書き込み途中で終了した行などは無視 */
+                return null;
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return size + "\t" + lastModified + "\t" + fingerprint + "\t" + String.join(" ", operations) + "\t"
+                + path;
+        }
+    }
+}
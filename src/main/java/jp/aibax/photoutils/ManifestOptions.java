@@ -0,0 +1,28 @@
+package jp.aibax.photoutils;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+import org.kohsuke.args4j.Option;
+
+/**
+ * 処理済みのファイルを記録するマニフェストを使用するコマンドに共通のオプション
+ *
+ * 各コマンドの CmdLineParser に ClassParser で追加して使用します。
+ */
+class ManifestOptions
+{
+    @Option(name = "--manifest", metaVar = "FILE", usage = "処理済みのファイルを記録するマニフェスト（前回から変更されていないファイルは処理しない）")
+    String manifest;
+
+    /**
+     * マニフェストを開きます
+     *
+     * @return マニフェスト（オプションの指定がない場合はnull）
+     * @throws IOException
+     */
+    Manifest open() throws IOException
+    {
+        return (manifest != null) ? Manifest.open(Paths.get(manifest)) : null;
+    }
+}
@@ -0,0 +1,147 @@
+package jp.aibax.photoutils;
+
+import java.awt.Dimension;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jp.aibax.image.ImageLimits;
+
+/**
+ * デコードする画像のメモリ使用量の上限
+ *
+ * 画像をデコードする前にヘッダから取得したサイズでメモリ使用量を見積もり、上限までの容量を確保できた画像から
+ * デコードします。大きな画像は他の画像の処理が終わって容量が空くまで待ち、小さな画像は上限に達するまで
+ * 並列に処理されます。上限より大きな画像は他の画像が全て処理されるまで待ってから単独で処理します。
+ * 容量は待っている順に割り当てるため、小さな画像が続いても先に待っている大きな画像が後回しにされることはありません。
+ */
+class MemoryBudget
+{
+    /**
+     * リサイズの中間バッファと変換後の画像の見積もり（元画像のサイズに対する倍率）
+     *
+     * Image.getScaledInstance() は縮小した画像を内部のバッファに保持し、さらに変換後の画像に描画するため、
+     * 元画像以下のサイズに縮小する場合は元画像の2倍を上限として見積もります。
+     */
+    static final int RESAMPLE_FACTOR = 2;
+
+    /** 空き容量 (KiB) */
+    private final Semaphore permits;
+
+    private final int capacity;
+
+    private final AtomicLong waits = new AtomicLong();
+
+    private final AtomicLong waitNanos = new AtomicLong();
+
+    /**
+     * @param bytes メモリ使用量の上限 (バイト)
+     */
+    MemoryBudget(long bytes)
+    {
+        this.capacity = (int)Math.max(Math.min(bytes / 1024, Integer.MAX_VALUE), 1);
+        this.permits = new Semaphore(capacity, true);
+    }
+
+    /**
+     * メモリ使用量の上限の初期値（最大ヒープサイズの半分。残りは各段階の待ち行列とエンコードに使用）
+     *
+     * @return メモリ使用量の上限 (バイト)
+     */
+    static long getDefault()
+    {
+        return Runtime.getRuntime().maxMemory() / 2;
+    }
+
+    /**
+     * 画像の変換に必要なメモリ使用量を見積もります
+     *
+     * @param size        元画像のサイズ（ヘッダから取得）
+     * @param sourceBytes 元画像のデータのバイト数
+     * @return メモリ使用量 (バイト)
+     */
+    static long estimate(Dimension size, long sourceBytes)
+    {
+        return sourceBytes + ImageLimits.getDecodedBytes(size) * (1 + RESAMPLE_FACTOR);
+    }
+
+    /**
+     * 容量が空くまで待って確保します
+     *
+     * @param bytes 確保するメモリ使用量 (バイト)
+     * @return 確保した容量 (KiB)
+     * @throws InterruptedIOException 待機中に割り込まれた場合
+     */
+    int acquire(long bytes) throws InterruptedIOException
+    {
+        int size = (int)Math.max(Math.min((bytes + 1023) / 1024, capacity), 1);
+
+        try
+        {
+            /* 待っている画像がある場合は空き容量があっても割り込まない（時間指定の tryAcquire は公平性を守る） */
+            if (permits.tryAcquire(size, 0, TimeUnit.NANOSECONDS))
+            {
+                return size;
+            }
+
+            long start = System.nanoTime();
+
+            try
+            {
+                permits.acquire(size);
+            }
+            finally
+            {
+                waits.incrementAndGet();
+                waitNanos.addAndGet(System.nanoTime() - start);
+            }
+
+            return size;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    void release(int size)
+    {
+        if (size > 0)
+        {
+            permits.release(size);
+        }
+    }
+
+    /**
+     * @return メモリ使用量の上限 (バイト)
+     */
+    long getCapacity()
+    {
+        return capacity * 1024L;
+    }
+
+    /**
+     * @return 容量が空くのを待った件数
+     */
+    long getWaits()
+    {
+        return waits.get();
+    }
+
+    /**
+     * @return 容量が空くのを待った時間の合計（ナノ秒）
+     */
+    long getWaitNanos()
+    {
+        return waitNanos.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("heap budget %.1f MB : %d files waited / %.3fs", getCapacity() / (1024.0 * 1024.0),
+            getWaits(), getWaitNanos() / 1e9);
+    }
+}
@@ -2,53 +2,53 @@ package jp.aibax.photoutils;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.PrintStream;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Arrays;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
 import java.util.Calendar;
 import java.util.Date;
-import java.util.regex.Pattern;
 
 import org.apache.commons.imaging.ImageReadException;
 import org.apache.commons.imaging.ImageWriteException;
-import org.apache.commons.imaging.Imaging;
-import org.apache.commons.imaging.common.IImageMetadata;
-import org.apache.commons.imaging.formats.jpeg.JpegImageMetadata;
-import org.apache.commons.imaging.formats.jpeg.exif.ExifRewriter;
-import org.apache.commons.imaging.formats.tiff.TiffImageMetadata;
-import org.apache.commons.imaging.formats.tiff.taginfos.TagInfo;
-import org.apache.commons.imaging.formats.tiff.taginfos.TagInfoAscii;
-import org.apache.commons.imaging.formats.tiff.write.TiffOutputDirectory;
-import org.apache.commons.imaging.formats.tiff.write.TiffOutputSet;
 import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.ClassParser;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
 import org.kohsuke.args4j.spi.StringArrayOptionHandler;
 
 import jp.aibax.image.Exif;
+import jp.aibax.image.ExifCache;
+import jp.aibax.image.ExifDates;
+import jp.aibax.image.codec.ImageCodecRegistry;
 
-import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
-import static java.util.Calendar.MILLISECOND;
+import static java.time.temporal.ChronoField.MILLI_OF_SECOND;
 import static java.util.Calendar.SECOND;
 import static org.apache.commons.imaging.formats.tiff.constants.ExifTagConstants.EXIF_TAG_DATE_TIME_ORIGINAL;
 import static org.apache.commons.imaging.formats.tiff.constants.ExifTagConstants.EXIF_TAG_SUB_SEC_TIME_ORIGINAL;
 import static org.apache.commons.lang3.BooleanUtils.isTrue;
-import static jp.aibax.image.Exif.EXIF_DATE_FORMAT;
+import static jp.aibax.image.ImageFormat.JPEG;
+import static jp.aibax.photoutils.RunReport.Stage.EXIF;
 
 public class ModifyExifCommand
 {
     private static final String VERSION = "modexif version 1.0.0-SNAPSHOT (using Apache Commons Imaging 1.0 RC7)";
 
-    private static final DateFormat YYYYMMDDHHMMSS = new SimpleDateFormat("yyyyMMddHHmmss");
+    private static final DateTimeFormatter YYYYMMDDHHMMSS = DateTimeFormatter.ofPattern("uuuuMMddHHmmss")
+        .withResolverStyle(ResolverStyle.STRICT);
 
-    private static final DateFormat YYYYMMDDHHMMSSSSS = new SimpleDateFormat("yyyyMMddHHmmssSSS");
+    /* Java 8 の DateTimeFormatter.ofPattern() は秒とミリ秒が隣接するパターンを解析できないため桁数を指定して組み立てる */
+    private static final DateTimeFormatter YYYYMMDDHHMMSSSSS = new DateTimeFormatterBuilder().appendPattern(
+        "uuuuMMddHHmmss").appendValue(MILLI_OF_SECOND, 3).toFormatter().withResolverStyle(ResolverStyle.STRICT);
 
     @Option(name = "-?", aliases = "--help", help = true, usage = "このメッセージを表示")
     private Boolean usageFlag;
@@ -77,11 +77,49 @@ public class ModifyExifCommand
     @Argument(metaVar = "arguments...", handler = StringArrayOptionHandler.class)
     private String[] arguments;
 
+    private final BatchOptions batchOptions = new BatchOptions();
+
+    private final ManifestOptions manifestOptions = new ManifestOptions();
+
+    private final ExifCacheOptions exifCacheOptions = new ExifCacheOptions();
+
+    private final PlanOptions planOptions = new PlanOptions();
+
+    private BatchExecutor executor = new BatchExecutor(1);
+
+    private Manifest manifest = null;
+
+    /** デコードしたEXIFデータのキャッシュ（指定がない場合はnull） */
+    private ExifCache exifCache = null;
+
+    /** ファイルを変更する代わりに記録する計画 */
+    private ChangePlan changePlan = null;
+
+    /** マニフェストに記録する処理内容 */
+    private String operation = null;
+
     public static void main(String[] args)
+    {
+        run(args, System.out, System.err);
+    }
+
+    /**
+     * コマンドを実行します
+     *
+     * @param args 引数
+     * @param out  標準出力の出力先
+     * @param err  標準エラー出力の出力先
+     * @return 終了コード（引数が不正な場合や処理に失敗したファイルがある場合は 1）
+     */
+    static int run(String[] args, PrintStream out, PrintStream err)
     {
         ModifyExifCommand command = new ModifyExifCommand();
 
         CmdLineParser parser = new CmdLineParser(command);
+        new ClassParser().parse(command.batchOptions, parser);
+        new ClassParser().parse(command.manifestOptions, parser);
+        new ClassParser().parse(command.exifCacheOptions, parser);
+        new ClassParser().parse(command.planOptions, parser);
 
         try
         {
@@ -89,22 +127,23 @@ public class ModifyExifCommand
         }
         catch (CmdLineException e)
         {
-            e.printStackTrace();
-            return;
+            e.printStackTrace(err);
+            return 1;
         }
 
         if (isTrue(command.versionFlag))
         {
-            System.out.println(VERSION);
-            return;
+            out.println(VERSION);
+            return 0;
         }
 
-        if (isTrue(command.usageFlag) || (command.arguments == null) || (command.arguments.length == 0))
+        if (isTrue(command.usageFlag) || (command.arguments == null) || (command.arguments.length == 0)
+            || !command.batchOptions.validate())
         {
-            System.out.println("Usage of modexif:");
-            System.out.println("modexif [OPTIONS] FILES...");
-            parser.printUsage(System.out);
-            return;
+            out.println("Usage of modexif:");
+            out.println("modexif [OPTIONS] FILES...");
+            parser.printUsage(out);
+            return isTrue(command.usageFlag) ? 0 : 1;
         }
 
         Date date = null;
@@ -116,20 +155,19 @@ public class ModifyExifCommand
             {
                 if (command.datetime.length() == "yyyyMMddHHmmss".length())
                 {
-                    date = YYYYMMDDHHMMSS.parse(command.datetime);
+                    LocalDateTime dateTime = LocalDateTime.parse(command.datetime, YYYYMMDDHHMMSS);
+                    date = Date.from(dateTime.atZone(ZoneId.systemDefault()).toInstant());
                     millisecond = null;
                 }
 
                 if (command.datetime.length() == "yyyyMMddHHmmssSSS".length())
                 {
-                    date = YYYYMMDDHHMMSSSSS.parse(command.datetime);
-
-                    Calendar calendar = Calendar.getInstance();
-                    calendar.setTime(date);
-                    millisecond = calendar.get(MILLISECOND);
+                    LocalDateTime dateTime = LocalDateTime.parse(command.datetime, YYYYMMDDHHMMSSSSS);
+                    date = Date.from(dateTime.atZone(ZoneId.systemDefault()).toInstant());
+                    millisecond = dateTime.get(MILLI_OF_SECOND);
                 }
             }
-            catch (ParseException e)
+            catch (DateTimeParseException e)
             {
                 date = null;
                 millisecond = null;
@@ -137,10 +175,10 @@ public class ModifyExifCommand
 
             if (date == null)
             {
-                System.out.println("Usage of modexif:");
-                System.out.println("modexif [OPTIONS] FILES...");
-                parser.printUsage(System.out);
-                return;
+                out.println("Usage of modexif:");
+                out.println("modexif [OPTIONS] FILES...");
+                parser.printUsage(out);
+                return 1;
             }
         }
 
@@ -150,101 +188,122 @@ public class ModifyExifCommand
         int addHours = command.addHours;
         int addMinutes = command.addMinutes;
         int addSeconds = command.addSeconds;
-        boolean dryrun = isTrue(command.dryrunFlag);
+        boolean dryrun = isTrue(command.dryrunFlag) || (command.planOptions.plan != null);
 
-        Arrays.asList(command.arguments).forEach(argument -> {
+        command.operation = _operation(command.datetime, addDays, addHours, addMinutes, addSeconds);
 
-            Path target = Paths.get(argument);
+        int status = 0;
 
-            try
+        try (Manifest manifest = command.manifestOptions.open();
+            ExifCache exifCache = command.exifCacheOptions.open();
+            ChangePlan changePlan = command.planOptions.create();
+            BatchExecutor executor = command.batchOptions.newExecutor())
+        {
+            executor.setOutput(out, err);
+            command.manifest = manifest;
+            command.exifCache = exifCache;
+            command.changePlan = changePlan;
+            command.executor = executor;
+
+            for (String argument : command.arguments)
             {
-                if (dateTimeOriginal != null)
+                Path target = Paths.get(argument);
+
+                try
                 {
-                    command.set(target, dateTimeOriginal, subSecTimeOriginal, dryrun);
+                    /* 時刻設定と時刻補正の両方を指定した場合もファイルごとに1回の読み込み・書き込みで変更 */
+                    command._modify(target, dateTimeOriginal != null, dateTimeOriginal, subSecTimeOriginal,
+                        _toSeconds(addDays, addHours, addMinutes, addSeconds), dryrun);
                 }
-
-                if ((addDays != 0) || (addHours != 0) || (addMinutes != 0) || (addSeconds != 0))
+                catch (Exception e)
                 {
-                    command.adjust(target, addDays, addHours, addMinutes, addSeconds, dryrun);
+                    e.printStackTrace(err);
+                    status = 1;
                 }
             }
-            catch (Exception e)
+
+            executor.await();
+
+            if (executor.getErrorCount() > 0)
             {
-                e.printStackTrace();
+                status = 1;
             }
 
-        });
+            if ((changePlan != null) && (status == 0))
+            {
+                /* 全てのファイルの変更を記録できた場合のみ計画ファイルを置き換え */
+                changePlan.commit();
+            }
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace(err);
+            status = 1;
+        }
+
+        return status;
+    }
+
+    /**
+     * 撮影時刻の取得に使用するキャッシュを設定します
+     *
+     * @param exifCache キャッシュ（nullの場合はキャッシュを使用しない）
+     */
+    void setExifCache(ExifCache exifCache)
+    {
+        this.exifCache = exifCache;
     }
 
     public void set(Path target, Date dateTimeOriginal, Integer subSecTimeOriginal, boolean dryrun)
         throws IOException, ImageWriteException, ImageReadException
     {
-        if (target == null)
-        {
-            return;
-        }
-
-        if (!Files.exists(target))
-        {
-            throw new FileNotFoundException();
-        }
+        String datetime = (dateTimeOriginal != null) ? YYYYMMDDHHMMSS.format(LocalDateTime.ofInstant(
+            dateTimeOriginal.toInstant(), ZoneId.systemDefault())) : "";
 
-        if (Files.isDirectory(target))
+        if ((dateTimeOriginal != null) && (subSecTimeOriginal != null))
         {
-            DirectoryStream.Filter<Path> filter = new DirectoryStream.Filter<Path>()
-            {
-                @Override
-                public boolean accept(Path entry) throws IOException
-                {
-                    return Pattern.matches("(?i).*\\.(jpg|jpeg)$", entry.getFileName().toString());
-                }
-            };
-
-            try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(target, filter))
-            {
-                for (Path file : directoryStream)
-                {
-                    set(file, dateTimeOriginal, subSecTimeOriginal, dryrun);
-                }
-            }
-
-            return;
+            datetime += String.format("%03d", subSecTimeOriginal);
         }
 
-        Path _target = target.toRealPath();
+        operation = _operation(datetime, 0, 0, 0, 0);
 
-        _set(_target, dateTimeOriginal, subSecTimeOriginal, dryrun);
+        _modify(target, true, dateTimeOriginal, subSecTimeOriginal, 0, dryrun);
     }
 
-    private void _set(Path target, Date dateTimeOriginal, Integer subSecTimeOriginal, boolean dryrun)
-        throws IOException, ImageWriteException, ImageReadException
+    public void adjust(Path target, int addDays, int addHours, int addMinutes, int addSeconds, boolean dryrun)
+        throws ImageReadException, ImageWriteException, IOException
     {
-        Exif exif = Exif.decode(target);
+        operation = _operation(null, addDays, addHours, addMinutes, addSeconds);
 
-        /*
-         * 撮影時刻
-         */
-        Date currentDateTimeOriginal = exif.getDateTimeOriginal();
-        Integer currentSubSecTimeOriginal = exif.getSubSecTimeOriginal();
+        _modify(target, false, null, null, _toSeconds(addDays, addHours, addMinutes, addSeconds), dryrun);
+    }
 
-        System.out.printf("[SET] %s : %s%s => %s%s\n", target.getFileName(),
-            (currentDateTimeOriginal != null) ? EXIF_DATE_FORMAT.format(currentDateTimeOriginal) : "Undefined",
-            (currentSubSecTimeOriginal != null) ? " (" + currentSubSecTimeOriginal + ")" : "",
-            (dateTimeOriginal != null) ? EXIF_DATE_FORMAT.format(dateTimeOriginal) : "Undefined",
-            (subSecTimeOriginal != null) ? " (" + subSecTimeOriginal + ")" : "");
+    /**
+     * マニフェスト・チェックポイント・計画に記録する処理内容を返します
+     *
+     * @param datetime 設定する撮影時刻（コマンドラインで指定した文字列 / 設定しない場合はnull）
+     * @return 処理内容（"modexif:set=yyyyMMddHHmmss;adjust=0d0h0m0s" 形式）
+     */
+    private static String _operation(String datetime, int addDays, int addHours, int addMinutes, int addSeconds)
+    {
+        boolean adjust = (addDays != 0) || (addHours != 0) || (addMinutes != 0) || (addSeconds != 0);
 
-        /*
-         * 時刻設定
-         */
-        if (!dryrun)
-        {
-            _updateMetadata(target, new ExifMetadata(EXIF_TAG_DATE_TIME_ORIGINAL, dateTimeOriginal),
-                new ExifMetadata(EXIF_TAG_SUB_SEC_TIME_ORIGINAL, subSecTimeOriginal));
-        }
+        return "modexif:" + ((datetime != null) ? "set=" + datetime : "")
+            + (adjust ? ";adjust=" + addDays + "d" + addHours + "h" + addMinutes + "m" + addSeconds + "s" : "");
     }
 
-    public void adjust(Path target, int addDays, int addHours, int addMinutes, int addSeconds, boolean dryrun)
-        throws ImageReadException, ImageWriteException, IOException
+    /**
+     * 撮影時刻を設定・補正します
+     *
+     * @param target             変更するファイルまたはディレクトリ
+     * @param set                撮影時刻を設定する場合はtrue
+     * @param dateTimeOriginal   設定する撮影時刻（nullの場合はタグを削除）
+     * @param subSecTimeOriginal 設定する撮影時刻のミリ秒（nullの場合はタグを削除）
+     * @param addSeconds         撮影時刻を補正する秒数（撮影時刻を設定する場合は設定後の時刻を補正）
+     * @param dryrun             実際に実行しない場合はtrue
+     */
+    private void _modify(Path target, boolean set, Date dateTimeOriginal, Integer subSecTimeOriginal, int addSeconds,
+        boolean dryrun) throws IOException
     {
         if (target == null)
         {
@@ -258,214 +317,125 @@ public class ModifyExifCommand
 
         if (Files.isDirectory(target))
         {
-            DirectoryStream.Filter<Path> filter = new DirectoryStream.Filter<Path>()
-            {
-                @Override
-                public boolean accept(Path entry) throws IOException
-                {
-                    return Pattern.matches("(?i).*\\.(jpg|jpeg)$", entry.getFileName().toString());
-                }
-            };
+            DirectoryStream.Filter<Path> filter = ImageCodecRegistry.newFileFilter(JPEG);
 
-            try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(target, filter))
-            {
-                for (Path file : directoryStream)
-                {
-                    adjust(file, addDays, addHours, addMinutes, addSeconds, dryrun);
-                }
-            }
+            executor.walk(target, filter,
+                file -> _modify(file, set, dateTimeOriginal, subSecTimeOriginal, addSeconds, dryrun));
 
             return;
         }
 
         Path _target = target.toRealPath();
 
-        int second = 1;
-        int minute = 60 * second;
-        int hour = 60 * minute;
-        int day = 24 * hour;
-        int _addSeconds = (addDays * day) + (addHours * hour) + (addMinutes * minute) + (addSeconds * second);
-
-        _adjust(_target, _addSeconds, dryrun);
-    }
-
-    private void _adjust(Path target, int addSeconds, boolean dryrun)
-        throws ImageReadException, ImageWriteException, IOException
-    {
-        Exif exif = Exif.decode(target);
-
-        /*
-         * 撮影時刻
-         */
-        Date dateTimeOriginal = exif.getDateTimeOriginal();
-
-        if (dateTimeOriginal == null)
+        if ((manifest != null) && manifest.isUpToDate(_target, operation))
         {
-            // Exifから撮影時刻が取得できない場合 => 処理終了
+            /* 前回の実行から変更されていない */
             return;
         }
 
-        /*
-         * 補正後時刻
-         */
-        Date dateTimeAdjusted = dateTimeOriginal;
+        /* マニフェスト・計画と同じ処理内容をチェックポイントに記録 */
+        executor.submit(_target, dryrun ? null : operation, out -> {
 
-        if (addSeconds != 0)
-        {
-            Calendar cal = Calendar.getInstance();
-            cal.setTime(dateTimeOriginal);
-            cal.add(SECOND, addSeconds);
-            dateTimeAdjusted = cal.getTime();
-        }
-
-        System.out.printf("[ADJUST] %s : %s => %s\n", target.getFileName(), EXIF_DATE_FORMAT.format(dateTimeOriginal),
-            EXIF_DATE_FORMAT.format(dateTimeAdjusted));
+            _modifyFile(_target, set, dateTimeOriginal, subSecTimeOriginal, addSeconds, dryrun, out);
+            _record(_target, dryrun);
 
-        /*
-         * 時刻補正
-         */
-        if (!dryrun && !dateTimeAdjusted.equals(dateTimeOriginal))
-        {
-            _updateMetadata(target, new ExifMetadata(EXIF_TAG_DATE_TIME_ORIGINAL, dateTimeAdjusted));
-        }
+        });
     }
 
-    class ExifMetadata
+    private static int _toSeconds(int addDays, int addHours, int addMinutes, int addSeconds)
     {
-        private TagInfo tagInfo;
-
-        private Object value;
-
-        public ExifMetadata(TagInfo tagInfo, Object value)
-        {
-            this.tagInfo = tagInfo;
-            this.value = value;
-        }
+        int second = 1;
+        int minute = 60 * second;
+        int hour = 60 * minute;
+        int day = 24 * hour;
 
-        public TagInfo getTagInfo()
-        {
-            return tagInfo;
-        }
+        return (addDays * day) + (addHours * hour) + (addMinutes * minute) + (addSeconds * second);
+    }
 
-        public Object getValue()
+    /**
+     * 処理したファイルをマニフェストに記録します
+     */
+    private void _record(Path target, boolean dryrun) throws IOException
+    {
+        if ((manifest != null) && !dryrun)
         {
-            return value;
+            manifest.record(target, operation);
         }
     }
 
-    private void _updateMetadata(Path target, ExifMetadata... metadata)
-        throws ImageReadException, ImageWriteException, IOException
+    private void _modifyFile(Path target, boolean set, Date dateTimeOriginal, Integer subSecTimeOriginal,
+        int addSeconds, boolean dryrun, PrintStream out) throws ImageReadException, ImageWriteException, IOException
     {
-        if ((metadata == null) || (metadata.length == 0))
-        {
-            return;
-        }
+        /* 計画の実行時に変更されていないことを確認するため読み込む前の属性を記録 */
+        BasicFileAttributes attributes = (changePlan != null)
+            ? Files.readAttributes(target, BasicFileAttributes.class) : null;
 
-        /*
-         * EXIFデータの取得
-         */
-        IImageMetadata imageMetadata = Imaging.getMetadata(target.toFile());
+        RunReport.Span span = RunReport.start(EXIF);
+        Exif exif = Exif.decode(target, exifCache);
+        span.stop();
 
-        if (imageMetadata == null)
-        {
-            return;
-        }
+        ExifEdit edit = new ExifEdit(target);
 
-        if (!(imageMetadata instanceof JpegImageMetadata))
-        {
-            return;
-        }
+        /*
+         * 撮影時刻
+         */
+        Date currentDateTimeOriginal = exif.getDateTimeOriginal();
 
         /*
-         * EXIFデータの更新
+         * 時刻設定
          */
-        TiffImageMetadata tiffImageMetadata = ((JpegImageMetadata)imageMetadata).getExif();
-        TiffOutputSet outputSet = tiffImageMetadata.getOutputSet();
-        TiffOutputDirectory exifDirectory = outputSet.getOrCreateExifDirectory();
+        if (set)
+        {
+            Integer currentSubSecTimeOriginal = exif.getSubSecTimeOriginal();
 
-        Arrays.asList(metadata).forEach(v -> {
+            out.printf("[SET] %s : %s%s => %s%s\n", target.getFileName(),
+                (currentDateTimeOriginal != null) ? _format(currentDateTimeOriginal) : "Undefined",
+                (currentSubSecTimeOriginal != null) ? " (" + currentSubSecTimeOriginal + ")" : "",
+                (dateTimeOriginal != null) ? _format(dateTimeOriginal) : "Undefined",
+                (subSecTimeOriginal != null) ? " (" + subSecTimeOriginal + ")" : "");
 
-            try
-            {
-                _updateExifMetadata(exifDirectory, v.getTagInfo(), v.getValue());
-            }
-            catch (ImageWriteException e)
-            {
-                e.printStackTrace();
-            }
+            edit.set(EXIF_TAG_DATE_TIME_ORIGINAL, dateTimeOriginal);
+            edit.set(EXIF_TAG_SUB_SEC_TIME_ORIGINAL, subSecTimeOriginal);
 
-        });
+            currentDateTimeOriginal = dateTimeOriginal;
+        }
 
         /*
-         * EXIFデータを更新したファイルを保存
+         * 時刻補正（撮影時刻が取得できない場合は補正しない）
          */
-        Path tmpfile = Files.createTempFile(target.getParent(), ".", "");
-
-        try (OutputStream outputStream = Files.newOutputStream(tmpfile))
+        if ((addSeconds != 0) && (currentDateTimeOriginal != null))
         {
-            new ExifRewriter().updateExifMetadataLossless(target.toFile(), outputStream, outputSet);
-        }
+            Calendar cal = Calendar.getInstance();
+            cal.setTime(currentDateTimeOriginal);
+            cal.add(SECOND, addSeconds);
+            Date dateTimeAdjusted = cal.getTime();
 
-        Files.move(tmpfile, target, REPLACE_EXISTING);
-    }
+            out.printf("[ADJUST] %s : %s => %s\n", target.getFileName(), _format(currentDateTimeOriginal),
+                _format(dateTimeAdjusted));
 
-    private void _updateExifMetadata(TiffOutputDirectory directory, TagInfo tagInfo, Object value)
-        throws ImageWriteException
-    {
-        if (directory == null)
-        {
-            return;
+            edit.set(EXIF_TAG_DATE_TIME_ORIGINAL, dateTimeAdjusted);
         }
 
-        if (tagInfo == null)
+        if (edit.isEmpty())
         {
             return;
         }
 
-        if (tagInfo instanceof TagInfoAscii)
+        if (changePlan != null)
         {
-            __updateExifMetadata(directory, (TagInfoAscii)tagInfo, value);
+            changePlan.exif(target, attributes, operation, edit.getTags());
         }
-        else
+        else if (!dryrun)
         {
-            //TODO: 必要に応じて別の型の処理を追加
-            throw new UnsupportedOperationException(
-                "Type '" + tagInfo.getClass().getSimpleName() + "' is not supported.");
+            edit.apply();
         }
     }
 
-    private void __updateExifMetadata(TiffOutputDirectory directory, TagInfoAscii tagInfo, Object value)
-        throws ImageWriteException
+    /**
+     * EXIFの日時の形式に変換します
+     */
+    private static String _format(Date date)
     {
-        if (directory.findField(tagInfo) != null)
-        {
-            directory.removeField(tagInfo);
-        }
-
-        if (value != null)
-        {
-            String stringValue = null;
-
-            if (value instanceof String)
-            {
-                stringValue = (String)value;
-            }
-            else if (value instanceof Integer)
-            {
-                stringValue = String.valueOf(value);
-            }
-            else if (value instanceof Date)
-            {
-                stringValue = EXIF_DATE_FORMAT.format((Date)value);
-            }
-            else
-            {
-                //TODO: 必要に応じて別の型の処理を追加
-                throw new UnsupportedOperationException(
-                    "Type '" + value.getClass().getSimpleName() + "' is not supported.");
-            }
-
-            directory.add(tagInfo, stringValue);
-        }
+        return ExifDates.format(date);
     }
 }
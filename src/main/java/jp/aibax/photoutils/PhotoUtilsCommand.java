@@ -0,0 +1,264 @@
+package jp.aibax.photoutils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 各コマンドをサブコマンドとして実行するランチャー
+ *
+ * --daemon を指定するとコマンドを常駐した JVM で実行するデーモンを起動し、
+ * --remote を指定すると起動済みのデーモンにコマンドラインを転送して実行します。
+ * JVM の起動や ImageIO の初期化、JIT コンパイルのコストを実行ごとに支払わずに済みます。
+ */
+public class PhotoUtilsCommand
+{
+    private static final String VERSION = "photoutils version 1.0.0-SNAPSHOT";
+
+    /** デーモンが待ち受けるポート番号の初期値 */
+    static final int DEFAULT_PORT = 17580;
+
+    /** HTTP サーバーを起動するサブコマンド（デーモンでは実行できない） */
+    static final String SERVE = "serveimg";
+
+    /**
+     * サブコマンドの処理
+     */
+    interface Command
+    {
+        /**
+         * @param args 引数
+         * @param out  標準出力の出力先
+         * @param err  標準エラー出力の出力先
+         * @return 終了コード
+         */
+        int run(String[] args, PrintStream out, PrintStream err);
+    }
+
+    /** サブコマンド */
+    private static final Map<String, Command> COMMANDS = new LinkedHashMap<>();
+
+    static
+    {
+        COMMANDS.put("exifrename", ExifRenameCommand::run);
+        COMMANDS.put("modexif", ModifyExifCommand::run);
+        COMMANDS.put("exifindex", ExifIndexCommand::run);
+        COMMANDS.put("resizeimg", ResizeCommand::run);
+        COMMANDS.put("trimimg", TrimCommand::run);
+        COMMANDS.put(SERVE, ServeCommand::run);
+        COMMANDS.put("apply", ApplyCommand::run);
+    }
+
+    public static void main(String[] args)
+    {
+        boolean daemon = false;
+        boolean remote = false;
+        int port = DEFAULT_PORT;
+
+        int index = 0;
+
+        for (; index < args.length; index++)
+        {
+            if ("--daemon".equals(args[index]))
+            {
+                daemon = true;
+            }
+            else if ("--remote".equals(args[index]))
+            {
+                remote = true;
+            }
+            else if ("--port".equals(args[index]) && (index + 1 < args.length))
+            {
+                try
+                {
+                    port = Integer.parseInt(args[++index]);
+                }
+                catch (NumberFormatException e)
+                {
+                    _printUsage(System.out);
+                    return;
+                }
+            }
+            else
+            {
+                break;
+            }
+        }
+
+        String[] commandArgs = Arrays.copyOfRange(args, index, args.length);
+
+        try
+        {
+            if (daemon)
+            {
+                try (PhotoUtilsDaemon photoUtilsDaemon = new PhotoUtilsDaemon(port))
+                {
+                    System.out.printf("[DAEMON] Listening on %s:%d\n",
+                        InetAddress.getLoopbackAddress().getHostAddress(), photoUtilsDaemon.getPort());
+                    photoUtilsDaemon.serve();
+                }
+
+                return;
+            }
+
+            if (remote)
+            {
+                int status = execute(port, commandArgs, System.out, System.err);
+
+                if (status != 0)
+                {
+                    System.exit(status);
+                }
+
+                return;
+            }
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            return;
+        }
+
+        int status = run(commandArgs, System.out, System.err);
+
+        if (status != 0)
+        {
+            System.exit(status);
+        }
+    }
+
+    private static void _printUsage(PrintStream out)
+    {
+        out.println(VERSION);
+        out.println("Usage of photoutils:");
+        out.println("photoutils [--remote] [--port PORT] COMMAND [OPTIONS] FILES...");
+        out.println("photoutils --daemon [--port PORT]");
+        out.println("photoutils --remote [--port PORT] " + PhotoUtilsDaemon.STOP);
+        out.println();
+        out.println("Commands:");
+        COMMANDS.keySet().forEach(name -> out.println("  " + name));
+    }
+
+    /**
+     * サブコマンドを現在の JVM で実行します
+     *
+     * @param args サブコマンド名とその引数（サブコマンド名が一致しない場合は exifrename の引数として扱う）
+     * @param out  標準出力の出力先
+     * @param err  標準エラー出力の出力先
+     * @return 終了コード
+     */
+    static int run(String[] args, PrintStream out, PrintStream err)
+    {
+        if ((args == null) || (args.length == 0))
+        {
+            _printUsage(out);
+            return 1;
+        }
+
+        Command command = COMMANDS.get(args[0]);
+
+        if (command == null)
+        {
+            /* 互換性のためサブコマンドの指定がない場合は exifrename として実行 */
+            return ExifRenameCommand.run(args, out, err);
+        }
+
+        return command.run(Arrays.copyOfRange(args, 1, args.length), out, err);
+    }
+
+    /**
+     * 起動済みのデーモンにコマンドラインを転送して実行します
+     *
+     * @param port   デーモンのポート番号
+     * @param args   サブコマンド名とその引数
+     * @param stdout 標準出力の出力先
+     * @param stderr 標準エラー出力の出力先
+     * @return 終了コード
+     * @throws IOException
+     */
+    public static int execute(int port, String[] args, OutputStream stdout, OutputStream stderr) throws IOException
+    {
+        return execute(port, PhotoUtilsDaemon.getTokenFile(port), args, stdout, stderr);
+    }
+
+    /**
+     * 起動済みのデーモンにコマンドラインを転送して実行します
+     *
+     * @param port      デーモンのポート番号
+     * @param tokenFile デーモンが作成した認証用のトークンのファイル
+     * @param args      サブコマンド名とその引数
+     * @param stdout    標準出力の出力先
+     * @param stderr    標準エラー出力の出力先
+     * @return 終了コード
+     * @throws IOException
+     */
+    public static int execute(int port, Path tokenFile, String[] args, OutputStream stdout, OutputStream stderr)
+        throws IOException
+    {
+        String token = new String(Files.readAllBytes(tokenFile), StandardCharsets.US_ASCII).trim();
+
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port))
+        {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+            /* トークンを読み込めるのはデーモンを起動したユーザーのみ */
+            out.writeUTF(token);
+            /* 相対パスの引数はデーモンがこの作業ディレクトリを基準に解決 */
+            out.writeUTF(Paths.get("").toAbsolutePath().toString());
+            out.writeInt(args.length);
+
+            for (String arg : args)
+            {
+                out.writeUTF(arg);
+            }
+
+            out.flush();
+
+            byte[] buffer = new byte[8192];
+
+            while (true)
+            {
+                int channel = in.readByte();
+                int length = in.readInt();
+
+                if (channel == PhotoUtilsDaemon.EXIT)
+                {
+                    stdout.flush();
+                    stderr.flush();
+                    return length;
+                }
+
+                OutputStream target = (channel == PhotoUtilsDaemon.STDERR) ? stderr : stdout;
+
+                while (length > 0)
+                {
+                    int read = in.read(buffer, 0, Math.min(buffer.length, length));
+
+                    if (read < 0)
+                    {
+                        throw new IOException("Connection closed.");
+                    }
+
+                    target.write(buffer, 0, read);
+                    length -= read;
+                }
+
+                target.flush();
+            }
+        }
+    }
+}
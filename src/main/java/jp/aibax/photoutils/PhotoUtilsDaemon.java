@@ -0,0 +1,414 @@
+package jp.aibax.photoutils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * コマンドを常駐した JVM で実行するデーモン
+ *
+ * ローカルホストのソケットでクライアント（{@link PhotoUtilsCommand}）からコマンドラインを受け取り、
+ * 実行結果の標準出力／標準エラー出力をクライアントに転送します。
+ * 起動時に作成する所有者のみが読み書きできるトークンのファイル（{@link #getTokenFile(int)}）の内容を要求の先頭で
+ * 照合し、他のユーザーからの要求は受け付けません。
+ * 要求は受け付けた順に1件ずつ実行し、一定時間内に要求を送らないクライアントは切断します。
+ * 相対パスの引数はクライアントの作業ディレクトリを基準に解決します。
+ * 終了コードはコマンドの戻り値です。HTTP サーバーを起動する serveimg はデーモンでは実行できません。
+ * 途中で切断したクライアントや不正な要求は接続ごとに破棄し、待ち受けを続けます。
+ *
+ * [プロトコル]
+ * 要求: トークン (UTF) + 作業ディレクトリ (UTF) + 引数の数 (int) + 引数 (UTF) x 引数の数
+ * 応答: チャネル (byte) + データ長 (int) + データ の繰り返し（チャネル {@link #EXIT} のデータ長は終了コード）
+ */
+public class PhotoUtilsDaemon implements Closeable
+{
+    /** 標準出力 */
+    static final int STDOUT = 1;
+
+    /** 標準エラー出力 */
+    static final int STDERR = 2;
+
+    /** 終了 */
+    static final int EXIT = 0;
+
+    /** デーモンを停止するコマンド */
+    static final String STOP = "stop";
+
+    /** 1回の要求で受け付ける引数の数の上限 */
+    private static final int MAX_ARGUMENTS = 65536;
+
+    /** 要求を受信するまでの制限時間の初期値 (ミリ秒) */
+    static final int DEFAULT_REQUEST_TIMEOUT = 10000;
+
+    /** トークンのバイト数 */
+    private static final int TOKEN_BYTES = 32;
+
+    /** ファイルを値とするオプション（存在しないファイルも作業ディレクトリからの相対パスとして解決） */
+    private static final Set<String> FILE_OPTIONS = Collections.unmodifiableSet(new HashSet<>(
+        Arrays.asList("--exif-cache", "-i", "--index", "--manifest", "--checkpoint", "--report", "--plan")));
+
+    private final ServerSocket serverSocket;
+
+    private final Path tokenFile;
+
+    private final String token;
+
+    private int requestTimeout = DEFAULT_REQUEST_TIMEOUT;
+
+    public PhotoUtilsDaemon(int port) throws IOException
+    {
+        this(port, null);
+    }
+
+    /**
+     * @param port      待ち受けるポート番号（0の場合は空いているポート）
+     * @param tokenFile トークンのファイル（nullの場合は {@link #getTokenFile(int)}）
+     * @throws IOException
+     */
+    public PhotoUtilsDaemon(int port, Path tokenFile) throws IOException
+    {
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+
+        try
+        {
+            this.tokenFile = (tokenFile != null) ? tokenFile : getTokenFile(serverSocket.getLocalPort());
+            this.token = _createToken(this.tokenFile);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            serverSocket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * ポート番号に対応するトークンのファイルを返します（ホームディレクトリの .photoutils 以下）
+     *
+     * @param port ポート番号
+     * @return トークンのファイル
+     */
+    static Path getTokenFile(int port)
+    {
+        return Paths.get(System.getProperty("user.home"), ".photoutils", "daemon-" + port + ".token");
+    }
+
+    /**
+     * 所有者のみが読み書きできるファイルにランダムなトークンを書き込みます
+     */
+    private static String _createToken(Path tokenFile) throws IOException
+    {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(bytes);
+
+        StringBuilder token = new StringBuilder();
+
+        for (byte b : bytes)
+        {
+            token.append(String.format("%02x", b & 0xFF));
+        }
+
+        Path directory = tokenFile.toAbsolutePath().getParent();
+        boolean posix = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+
+        if (!Files.isDirectory(directory))
+        {
+            if (posix)
+            {
+                Files.createDirectories(directory, PosixFilePermissions.asFileAttribute(
+                    PosixFilePermissions.fromString("rwx------")));
+            }
+            else
+            {
+                Files.createDirectories(directory);
+            }
+        }
+
+        /* 既存のファイルの権限を引き継がないように作成し直す */
+        Files.deleteIfExists(tokenFile);
+
+        if (posix)
+        {
+            Files.createFile(tokenFile, PosixFilePermissions.asFileAttribute(
+                PosixFilePermissions.fromString("rw-------")));
+        }
+        else
+        {
+            Files.createFile(tokenFile);
+        }
+
+        Files.write(tokenFile, token.toString().getBytes(StandardCharsets.US_ASCII));
+
+        return token.toString();
+    }
+
+    /**
+     * 接続してから要求を受信するまでの制限時間を設定します
+     *
+     * @param requestTimeout 制限時間 (ミリ秒)
+     */
+    void setRequestTimeout(int requestTimeout)
+    {
+        this.requestTimeout = requestTimeout;
+    }
+
+    /**
+     * 待ち受けているポート番号を返します
+     *
+     * @return ポート番号
+     */
+    public int getPort()
+    {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * デーモンを停止するまでクライアントからの要求を処理します
+     *
+     * @throws IOException
+     */
+    public void serve() throws IOException
+    {
+        while (!serverSocket.isClosed())
+        {
+            try (Socket socket = serverSocket.accept())
+            {
+                /* 接続したまま要求を送らないクライアントが他の要求を妨げないように制限時間を設定 */
+                socket.setSoTimeout(requestTimeout);
+                _handle(socket);
+            }
+            catch (IOException e)
+            {
+                if (serverSocket.isClosed())
+                {
+                    break;
+                }
+
+                /* 途中で切断したクライアントや不正な要求 → この接続のみを破棄 */
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void _handle(Socket socket) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+        byte[] received = in.readUTF().getBytes(StandardCharsets.UTF_8);
+
+        if (!MessageDigest.isEqual(received, token.getBytes(StandardCharsets.UTF_8)))
+        {
+            throw new IOException("Invalid token.");
+        }
+
+        Path workingDirectory;
+
+        try
+        {
+            workingDirectory = Paths.get(in.readUTF());
+        }
+        catch (InvalidPathException e)
+        {
+            throw new IOException("Invalid working directory.", e);
+        }
+
+        int count = in.readInt();
+
+        if ((count < 0) || (count > MAX_ARGUMENTS))
+        {
+            throw new IOException("Invalid number of arguments: " + count);
+        }
+
+        String[] args = new String[count];
+
+        for (int i = 0; i < args.length; i++)
+        {
+            args[i] = in.readUTF();
+        }
+
+        args = resolve(workingDirectory, args);
+
+        if ((args.length == 1) && STOP.equals(args[0]))
+        {
+            _exit(out, 0);
+            close();
+            return;
+        }
+
+        int status;
+
+        try (PrintStream remoteOut = new PrintStream(new FrameOutputStream(out, STDOUT), true);
+            PrintStream remoteErr = new PrintStream(new FrameOutputStream(out, STDERR), true))
+        {
+            if ((args.length > 0) && PhotoUtilsCommand.SERVE.equals(args[0]))
+            {
+                /* デーモンの停止後も残るサーバーを起動しない */
+                remoteErr.println(PhotoUtilsCommand.SERVE + " cannot be run in the daemon.");
+                status = 1;
+            }
+            else
+            {
+                try
+                {
+                    status = PhotoUtilsCommand.run(args, remoteOut, remoteErr);
+                }
+                catch (RuntimeException e)
+                {
+                    e.printStackTrace(remoteErr);
+                    status = 1;
+                }
+            }
+        }
+
+        _exit(out, status);
+    }
+
+    /**
+     * 相対パスの引数をクライアントの作業ディレクトリを基準に解決します
+     *
+     * ファイルを値とするオプション（--plan・--report など）の値は、まだ存在しないファイルも解決します。
+     * それ以外の引数は、作業ディレクトリを基準として存在するファイルを指す場合のみ解決します。
+     *
+     * @param workingDirectory クライアントの作業ディレクトリ
+     * @param args             サブコマンド名とその引数
+     * @return 解決した引数
+     */
+    static String[] resolve(Path workingDirectory, String[] args)
+    {
+        String[] resolved = new String[args.length];
+
+        for (int i = 0; i < args.length; i++)
+        {
+            String arg = args[i];
+            int separator = arg.indexOf('=');
+
+            if (arg.startsWith("-") && (separator > 0) && FILE_OPTIONS.contains(arg.substring(0, separator)))
+            {
+                /* --plan=FILE */
+                resolved[i] = arg.substring(0, separator + 1)
+                    + _resolve(workingDirectory, arg.substring(separator + 1), true);
+            }
+            else if (!arg.startsWith("-"))
+            {
+                resolved[i] = _resolve(workingDirectory, arg, (i > 0) && FILE_OPTIONS.contains(args[i - 1]));
+            }
+            else
+            {
+                resolved[i] = arg;
+            }
+        }
+
+        return resolved;
+    }
+
+    private static String _resolve(Path workingDirectory, String arg, boolean file)
+    {
+        try
+        {
+            Path path = workingDirectory.resolve(arg);
+
+            return (file || Files.exists(path)) ? path.toString() : arg;
+        }
+        catch (InvalidPathException e)
+        {
+            return arg;
+        }
+    }
+
+    private void _exit(DataOutputStream out, int status) throws IOException
+    {
+        synchronized (out)
+        {
+            out.writeByte(EXIT);
+            out.writeInt(status);
+            out.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        try
+        {
+            serverSocket.close();
+        }
+        finally
+        {
+            Files.deleteIfExists(tokenFile);
+        }
+    }
+
+    /**
+     * 書き込まれたデータをチャネル番号付きのフレームとして送信する出力ストリーム
+     */
+    private static class FrameOutputStream extends OutputStream
+    {
+        private final DataOutputStream out;
+
+        private final int channel;
+
+        FrameOutputStream(DataOutputStream out, int channel)
+        {
+            this.out = out;
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            write(new byte[] { (byte)b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            if (len == 0)
+            {
+                return;
+            }
+
+            synchronized (out)
+            {
+                out.writeByte(channel);
+                out.writeInt(len);
+                out.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            synchronized (out)
+            {
+                out.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package jp.aibax.photoutils;
+
+import java.io.IOException;
+
+import org.kohsuke.args4j.Option;
+
+import static org.apache.commons.lang3.BooleanUtils.isTrue;
+
+/**
+ * 画像を変換するコマンドに共通のオプション
+ *
+ * 各コマンドの CmdLineParser に ClassParser で追加して使用します。
+ */
+class PipelineOptions
+{
+    @Option(name = "--io-threads", usage = "ファイルの読み込み／書き込みを行うスレッドの数")
+    int ioThreads = ImagePipeline.DEFAULT_IO_THREADS;
+
+    @Option(name = "--queue-size", usage = "処理の段階ごとの待ち行列の容量 (MB)")
+    int queueSize = (int)(ImagePipeline.DEFAULT_QUEUE_BYTES / (1024 * 1024));
+
+    @Option(name = "--heap-budget", usage = "デコードする画像のメモリ使用量の上限 (MB / 省略時は最大ヒープサイズの半分)")
+    int heapBudget = 0;
+
+    /**
+     * オプションの値が正しいかを返します
+     *
+     * @return 正しい場合はtrue
+     */
+    boolean validate()
+    {
+        if (ioThreads < 1)
+        {
+            /* スレッド数が1未満 */
+            return false;
+        }
+
+        if (queueSize < 1)
+        {
+            /* 待ち行列の容量が1MB未満 */
+            return false;
+        }
+
+        if (heapBudget < 0)
+        {
+            /* メモリ使用量の上限が負の値 */
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * オプションに従って画像を変換する ImagePipeline を生成します
+     *
+     * @param batchOptions 複数のファイルを処理するコマンドに共通のオプション
+     * @return ImagePipeline
+     * @throws IOException チェックポイントまたはレポートを開けない場合
+     */
+    ImagePipeline newPipeline(BatchOptions batchOptions) throws IOException
+    {
+        long heapBudgetBytes = (heapBudget > 0) ? heapBudget * 1024L * 1024L : MemoryBudget.getDefault();
+
+        return batchOptions.configure(new ImagePipeline(batchOptions.jobs, isTrue(batchOptions.recursiveFlag),
+            ioThreads, queueSize * 1024L * 1024L, heapBudgetBytes));
+    }
+}
@@ -0,0 +1,28 @@
+package jp.aibax.photoutils;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+import org.kohsuke.args4j.Option;
+
+/**
+ * 変更内容を計画ファイルに記録するコマンドに共通のオプション
+ *
+ * 各コマンドの CmdLineParser に ClassParser で追加して使用します。
+ */
+class PlanOptions
+{
+    @Option(name = "--plan", metaVar = "FILE", usage = "実際に実行せずに変更内容を計画ファイルに記録（apply コマンドで実行）")
+    String plan;
+
+    /**
+     * 計画ファイルを作成します
+     *
+     * @return 計画（オプションの指定がない場合はnull）
+     * @throws IOException
+     */
+    ChangePlan create() throws IOException
+    {
+        return (plan != null) ? ChangePlan.create(Paths.get(plan)) : null;
+    }
+}
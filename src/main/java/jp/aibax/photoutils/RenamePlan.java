@@ -0,0 +1,297 @@
+package jp.aibax.photoutils;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * リネームの計画
+ *
+ * ディレクトリごとにファイル名を1回だけ列挙し、撮影時刻順（同じ時刻はファイル名順）にカウンタを割り当てて
+ * リネーム後のファイル名をメモリ上で決定します。リネームするファイルの現在のファイル名は空くものとして扱います。
+ * 実行時は移動先が空いている順にリネームし、入れ替え（循環）は1件だけ一時的なファイル名を経由するため、
+ * リネームの回数は変更するファイルの数（循環ごとに+1）になります。
+ */
+class RenamePlan
+{
+    /** 循環を解消する際の一時的なファイル名の接頭辞（中断した場合も次回の実行で拡張子からリネーム対象になる） */
+    private static final String TEMPORARY_PREFIX = ".exifrename-";
+
+    /**
+     * リネームするファイル
+     */
+    static class Candidate
+    {
+        final Path file;
+
+        /** 撮影時刻（ミリ秒） */
+        final long time;
+
+        final String model;
+
+        final String extension;
+
+        Candidate(Path file, long time, String model, String extension)
+        {
+            this.file = file;
+            this.time = time;
+            this.model = model;
+            this.extension = extension;
+        }
+    }
+
+    /**
+     * リネーム後のファイル名の作成
+     */
+    interface Namer
+    {
+        /**
+         * @param candidate リネームするファイル
+         * @param count     カウンタ（同じファイル名がある場合に1ずつ増やす）
+         * @return ファイル名
+         */
+        String getName(Candidate candidate, int count);
+    }
+
+    /**
+     * リネームが完了したファイルごとの処理
+     */
+    interface Listener
+    {
+        void moved(Move move) throws IOException;
+    }
+
+    /**
+     * 1件分のリネーム
+     */
+    static class Move
+    {
+        final Path source;
+
+        final Path target;
+
+        Move(Path source, Path target)
+        {
+            this.source = source;
+            this.target = target;
+        }
+
+        /**
+         * @return ファイル名が変わらない場合はtrue
+         */
+        boolean isNoop()
+        {
+            return source.equals(target);
+        }
+    }
+
+    private final List<Move> moves;
+
+    private RenamePlan(List<Move> moves)
+    {
+        this.moves = moves;
+    }
+
+    /**
+     * リネーム後のファイル名を決定します
+     *
+     * @param candidates リネームするファイル
+     * @param namer      リネーム後のファイル名の作成
+     * @return リネームの計画（ディレクトリごとに撮影時刻順）
+     * @throws IOException
+     */
+    static RenamePlan create(Collection<Candidate> candidates, Namer namer) throws IOException
+    {
+        Map<Path, List<Candidate>> directories = new LinkedHashMap<>();
+
+        for (Candidate candidate : candidates)
+        {
+            directories.computeIfAbsent(candidate.file.getParent(), key -> new ArrayList<>()).add(candidate);
+        }
+
+        List<Move> moves = new ArrayList<>();
+
+        for (Map.Entry<Path, List<Candidate>> entry : directories.entrySet())
+        {
+            Path directory = entry.getKey();
+            List<Candidate> files = entry.getValue();
+
+            files.sort(Comparator.<Candidate>comparingLong(candidate -> candidate.time)
+                .thenComparing(candidate -> candidate.file.getFileName().toString()));
+
+            /* 使用中のファイル名（リネームするファイルの現在のファイル名は除く） */
+            Set<String> occupied = _list(directory);
+
+            for (Candidate candidate : files)
+            {
+                occupied.remove(candidate.file.getFileName().toString());
+            }
+
+            /* 同じファイル名（カウンタが0の場合）ごとに次に試すカウンタ */
+            Map<String, Integer> counters = new HashMap<>();
+
+            for (Candidate candidate : files)
+            {
+                String base = namer.getName(candidate, 0);
+                int count = counters.getOrDefault(base, 0);
+                String name = (count == 0) ? base : namer.getName(candidate, count);
+
+                while (occupied.contains(name))
+                {
+                    count++;
+                    name = namer.getName(candidate, count);
+                }
+
+                occupied.add(name);
+                counters.put(base, count + 1);
+
+                moves.add(new Move(candidate.file, directory.resolve(name)));
+            }
+        }
+
+        return new RenamePlan(moves);
+    }
+
+    /**
+     * 決定済みのリネームから計画を作成します（計画ファイルに記録したリネームの実行に使用します）
+     *
+     * @param moves リネーム
+     * @return リネームの計画
+     */
+    static RenamePlan of(List<Move> moves)
+    {
+        return new RenamePlan(new ArrayList<>(moves));
+    }
+
+    private static Set<String> _list(Path directory) throws IOException
+    {
+        Set<String> names = new HashSet<>();
+
+        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(directory))
+        {
+            for (Path path : directoryStream)
+            {
+                names.add(path.getFileName().toString());
+            }
+        }
+
+        return names;
+    }
+
+    /**
+     * @return リネーム（ディレクトリごとに撮影時刻順）
+     */
+    List<Move> getMoves()
+    {
+        return Collections.unmodifiableList(moves);
+    }
+
+    /**
+     * 計画どおりにリネームします
+     *
+     * 移動先のファイル名を使用しているファイルを先にリネームし、循環する場合は1件を一時的なファイル名に退避します。
+     * 計画の作成後に移動先にファイルが作成された場合は上書きせずに例外を送出します。
+     *
+     * @param listener リネームが完了したファイルごとの処理（ファイル名が変わらないファイルを含む）
+     * @return リネームを実行した回数
+     * @throws IOException
+     */
+    int execute(Listener listener) throws IOException
+    {
+        Map<Path, Move> pending = new LinkedHashMap<>();
+
+        for (Move move : moves)
+        {
+            if (move.isNoop())
+            {
+                listener.moved(move);
+            }
+            else
+            {
+                pending.put(move.source, move);
+            }
+        }
+
+        int renames = 0;
+
+        while (!pending.isEmpty())
+        {
+            Move first = pending.values().iterator().next();
+
+            /* 移動先を使用しているファイルをたどる（末尾の移動先は空いているか、先頭のファイルに戻る） */
+            List<Move> chain = new ArrayList<>();
+            Move move = first;
+
+            while (move != null)
+            {
+                chain.add(move);
+                move = pending.get(move.target);
+
+                if (move == first)
+                {
+                    break;
+                }
+            }
+
+            boolean cycle = (move == first);
+            Path temporary = null;
+
+            if (cycle)
+            {
+                temporary = _temporary(first);
+                Files.move(first.source, temporary);
+                renames++;
+            }
+
+            for (int i = chain.size() - 1; i >= (cycle ? 1 : 0); i--)
+            {
+                Move m = chain.get(i);
+
+                Files.move(m.source, m.target);
+                renames++;
+
+                pending.remove(m.source);
+                listener.moved(m);
+            }
+
+            if (cycle)
+            {
+                Files.move(temporary, first.target);
+                renames++;
+
+                pending.remove(first.source);
+                listener.moved(first);
+            }
+        }
+
+        return renames;
+    }
+
+    private static Path _temporary(Move move)
+    {
+        String filename = move.target.getFileName().toString();
+        int index = filename.lastIndexOf(".");
+        String extension = (index > 0) ? filename.substring(index) : "";
+
+        for (int i = 0; ; i++)
+        {
+            Path temporary = move.source.resolveSibling(TEMPORARY_PREFIX + i + extension);
+
+            if (!Files.exists(temporary))
+            {
+                return temporary;
+            }
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package jp.aibax.photoutils;
+
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import jp.aibax.exception.ImageLimitExceededException;
+import jp.aibax.exception.UnsupportedImageFormatException;
+import jp.aibax.image.ImageFormat;
+import jp.aibax.image.ImageUtils;
+import jp.aibax.image.RenditionCoalescer;
+import jp.aibax.image.RenditionCoalescer.Rendition;
+
+/**
+ * 指定したディレクトリ以下の画像をリサイズ／トリミングして返す HTTP サーバ
+ *
+ * [URL]
+ * /r/{幅}x{高さ}/{パス} : 幅と高さを指定してリサイズ（0の場合は縦横比を維持して自動計算）
+ * /r/{長辺の長さ}/{パス} : 長辺の長さを指定してリサイズ
+ * /t/{アスペクト比}/{パス} : アスペクト比を指定してトリミング
+ *
+ * 処理はスレッド数と待ち行列の長さを制限したスレッドプールで行い、待ち行列が一杯の場合は
+ * 受付スレッドで処理することで新しい接続の受け付けを抑制します。
+ */
+public class RenditionServer implements HttpHandler, Closeable
+{
+    private static final Pattern RESIZE = Pattern.compile("^/r/(\\d+)(?:x(\\d+))?/(.+)$");
+
+    private static final Pattern TRIM = Pattern.compile("^/t/(\\d+(?:\\.\\d+)?)/(.+)$");
+
+    private final Path root;
+
+    private final HttpServer server;
+
+    private final ThreadPoolExecutor executor;
+
+    private final RenditionCoalescer coalescer = new RenditionCoalescer();
+
+    /**
+     * @param root      公開するディレクトリ
+     * @param port      待ち受けるポート番号（0の場合は空いているポート）
+     * @param threads   処理を行うスレッド数
+     * @param queueSize 処理待ちの要求の最大数
+     * @throws IOException
+     */
+    public RenditionServer(Path root, int port, int threads, int queueSize) throws IOException
+    {
+        if ((root == null) || !Files.isDirectory(root))
+        {
+            throw new IllegalArgumentException("Root is not directory (" + root + ")");
+        }
+
+        this.root = root.toRealPath();
+
+        this.executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(queueSize), new ThreadPoolExecutor.CallerRunsPolicy());
+
+        /* ローカルのサーバのためループバックアドレスのみで待ち受ける */
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.server.createContext("/", this);
+        this.server.setExecutor(executor);
+    }
+
+    /**
+     * サーバを開始します
+     */
+    public void start()
+    {
+        server.start();
+    }
+
+    /**
+     * 待ち受けているポート番号を返します
+     *
+     * @return ポート番号
+     */
+    public int getPort()
+    {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close()
+    {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException
+    {
+        try
+        {
+            String method = exchange.getRequestMethod();
+
+            if (!"GET".equals(method) && !"HEAD".equals(method))
+            {
+                _sendError(exchange, 405);
+                return;
+            }
+
+            String requestPath = exchange.getRequestURI().getPath();
+
+            Matcher resize = RESIZE.matcher(requestPath);
+            Matcher trim = TRIM.matcher(requestPath);
+
+            if (resize.matches())
+            {
+                int width = Integer.parseInt(resize.group(1));
+                int height = (resize.group(2) != null) ? Integer.parseInt(resize.group(2)) : -1;
+
+                String operation = (height < 0) ? ("r/" + width) : ("r/" + width + "x" + height);
+
+                _render(exchange, resize.group(3), operation,
+                    file -> (height < 0) ? ImageUtils.resize(file, width) : ImageUtils.resize(file, width, height));
+            }
+            else if (trim.matches())
+            {
+                float aspectRatio = Float.parseFloat(trim.group(1));
+
+                _render(exchange, trim.group(2), "t/" + trim.group(1), file -> ImageUtils.trim(file, aspectRatio));
+            }
+            else
+            {
+                _sendError(exchange, 404);
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            _sendError(exchange, 400);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            /* 壊れた画像など想定外のエラー（応答の送信前であれば 500 を返す） */
+            e.printStackTrace();
+
+            if (exchange.getResponseCode() < 0)
+            {
+                _sendError(exchange, 500);
+            }
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+    private void _render(HttpExchange exchange, String relativePath, String operation, Rendition rendition)
+        throws IOException
+    {
+        Path file = root.resolve(relativePath).normalize();
+
+        if (!file.startsWith(root) || !Files.isRegularFile(file))
+        {
+            _sendError(exchange, 404);
+            return;
+        }
+
+        /* 元画像のサイズと更新時刻、処理内容から ETag を生成（画像を変換せずに判定できる） */
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        String etag = _etag(root.relativize(file) + "\n" + attributes.size() + "\n" + attributes.lastModifiedTime()
+            .toMillis() + "\n" + operation);
+
+        exchange.getResponseHeaders().set("ETag", etag);
+
+        if (_matches(exchange.getRequestHeaders().getFirst("If-None-Match"), etag))
+        {
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+
+        byte[] bytes;
+
+        try
+        {
+            /* 同じ画像に対する同じ処理が同時に要求された場合は1回だけ処理して結果を共有 */
+            bytes = coalescer.render(file, operation, rendition);
+        }
+        catch (UnsupportedImageFormatException e)
+        {
+            _sendError(exchange, 415);
+            return;
+        }
+        catch (ImageLimitExceededException e)
+        {
+            /* 解凍爆弾など、サイズが上限を超える画像 */
+            _sendError(exchange, 413);
+            return;
+        }
+        catch (FileNotFoundException | NoSuchFileException e)
+        {
+            _sendError(exchange, 404);
+            return;
+        }
+        catch (IllegalArgumentException e)
+        {
+            _sendError(exchange, 400);
+            return;
+        }
+
+        ImageFormat format = ImageUtils.getImageFormat(bytes);
+
+        if (format != null)
+        {
+            exchange.getResponseHeaders().set("Content-Type", format.getContentType());
+        }
+
+        if ("HEAD".equals(exchange.getRequestMethod()))
+        {
+            exchange.getResponseHeaders().set("Content-Length", String.valueOf(bytes.length));
+            exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+
+        exchange.sendResponseHeaders(200, bytes.length);
+
+        try (OutputStream outputStream = exchange.getResponseBody())
+        {
+            outputStream.write(bytes);
+        }
+    }
+
+    private static boolean _matches(String ifNoneMatch, String etag)
+    {
+        if (ifNoneMatch == null)
+        {
+            return false;
+        }
+
+        for (String value : ifNoneMatch.split(","))
+        {
+            String tag = value.trim();
+
+            if (tag.startsWith("W/"))
+            {
+                tag = tag.substring(2);
+            }
+
+            if (tag.equals("*") || tag.equals(etag))
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static String _etag(String source)
+    {
+        try
+        {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(source.getBytes(StandardCharsets.UTF_8));
+
+            StringBuilder etag = new StringBuilder("\"");
+
+            for (int i = 0; i < 12; i++)
+            {
+                etag.append(String.format("%02x", digest[i]));
+            }
+
+            return etag.append("\"").toString();
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void _sendError(HttpExchange exchange, int status) throws IOException
+    {
+        exchange.sendResponseHeaders(status, -1);
+    }
+}
@@ -1,25 +1,23 @@
 package jp.aibax.photoutils;
 
-import java.awt.image.BufferedImage;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Arrays;
-import java.util.regex.Pattern;
 
-import org.apache.commons.imaging.util.IoUtils;
 import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.ClassParser;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
 import org.kohsuke.args4j.spi.StringArrayOptionHandler;
 
 import jp.aibax.image.ImageUtils;
+import jp.aibax.image.codec.ImageCodecRegistry;
 
-import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 import static org.apache.commons.lang3.BooleanUtils.isTrue;
 
 public class ResizeCommand
@@ -47,11 +45,39 @@ public class ResizeCommand
     @Argument(metaVar = "arguments...", handler = StringArrayOptionHandler.class)
     private String[] arguments;
 
+    private final BatchOptions batchOptions = new BatchOptions();
+
+    private final PipelineOptions pipelineOptions = new PipelineOptions();
+
+    private final ManifestOptions manifestOptions = new ManifestOptions();
+
+    private final PlanOptions planOptions = new PlanOptions();
+
+    /** 画像の変換を実行するパイプライン（設定されていない場合は呼び出しごとに逐次実行のパイプラインを作成） */
+    private ImagePipeline pipeline = null;
+
     public static void main(String[] args)
+    {
+        run(args, System.out, System.err);
+    }
+
+    /**
+     * コマンドを実行します
+     *
+     * @param args 引数
+     * @param out  標準出力の出力先
+     * @param err  標準エラー出力の出力先
+     * @return 終了コード（引数が不正な場合や処理に失敗したファイルがある場合は 1）
+     */
+    static int run(String[] args, PrintStream out, PrintStream err)
     {
         ResizeCommand command = new ResizeCommand();
 
         CmdLineParser parser = new CmdLineParser(command);
+        new ClassParser().parse(command.batchOptions, parser);
+        new ClassParser().parse(command.pipelineOptions, parser);
+        new ClassParser().parse(command.manifestOptions, parser);
+        new ClassParser().parse(command.planOptions, parser);
 
         try
         {
@@ -59,22 +85,23 @@ public class ResizeCommand
         }
         catch (CmdLineException e)
         {
-            e.printStackTrace();
-            return;
+            e.printStackTrace(err);
+            return 1;
         }
 
         if (isTrue(command.versionFlag))
         {
-            System.out.println(VERSION);
-            return;
+            out.println(VERSION);
+            return 0;
         }
 
-        if (isTrue(command.usageFlag) || (command.validateArguments() == false))
+        if (isTrue(command.usageFlag) || (command.validateArguments() == false) || !command.batchOptions.validate()
+            || !command.pipelineOptions.validate())
         {
-            System.out.println("Usage of resizeimg:");
-            System.out.println("resizeimg [OPTIONS] FILES...");
-            parser.printUsage(System.out);
-            return;
+            out.println("Usage of resizeimg:");
+            out.println("resizeimg [OPTIONS] FILES...");
+            parser.printUsage(out);
+            return isTrue(command.usageFlag) ? 0 : 1;
         }
 
         int max = command.max;
@@ -82,30 +109,59 @@ public class ResizeCommand
         int height = command.height;
         boolean dryrun = isTrue(command.dryrunFlag);
 
-        Arrays.asList(command.arguments).forEach(argument -> {
+        int status = 0;
 
-            Path target = Paths.get(argument);
+        try (Manifest manifest = command.manifestOptions.open();
+            ChangePlan plan = command.planOptions.create();
+            ImagePipeline pipeline = command.pipelineOptions.newPipeline(command.batchOptions))
+        {
+            pipeline.setOutput(out, err);
+            pipeline.setManifest(manifest);
+            pipeline.setPlan(plan);
+            command.pipeline = pipeline;
 
-            try
+            for (String argument : command.arguments)
             {
-                if ((width > 0) || (height > 0))
+                Path target = Paths.get(argument);
+
+                try
                 {
-                    command.resize(target, width, height, dryrun);
-                    return;
+                    if ((width > 0) || (height > 0))
+                    {
+                        command.resize(target, width, height, dryrun);
+                    }
+                    else if (max > 0)
+                    {
+                        command.resize(target, max, dryrun);
+                    }
                 }
-
-                if (max > 0)
+                catch (Exception e)
                 {
-                    command.resize(target, max, dryrun);
-                    return;
+                    e.printStackTrace(err);
+                    status = 1;
                 }
             }
-            catch (Exception e)
+
+            pipeline.await();
+
+            if (pipeline.getErrorCount() > 0)
             {
-                e.printStackTrace();
+                status = 1;
             }
 
-        });
+            if ((plan != null) && (status == 0))
+            {
+                /* 全てのファイルの変更を記録できた場合のみ計画ファイルを置き換え */
+                plan.commit();
+            }
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace(err);
+            status = 1;
+        }
+
+        return status;
     }
 
     private boolean validateArguments()
@@ -132,6 +188,20 @@ public class ResizeCommand
     }
 
     public void resize(Path target, int max, boolean dryrun) throws IOException
+    {
+        if (pipeline != null)
+        {
+            _resize(pipeline, target, max, dryrun);
+            return;
+        }
+
+        try (ImagePipeline pipeline = new ImagePipeline(1))
+        {
+            _resize(pipeline, target, max, dryrun);
+        }
+    }
+
+    private void _resize(ImagePipeline pipeline, Path target, int max, boolean dryrun) throws IOException
     {
         if (target == null)
         {
@@ -150,55 +220,36 @@ public class ResizeCommand
 
         if (Files.isDirectory(target))
         {
-            DirectoryStream.Filter<Path> filter = new DirectoryStream.Filter<Path>()
-            {
-                @Override
-                public boolean accept(Path entry) throws IOException
-                {
-                    return Pattern.matches("(?i).*\\.(jpg|jpeg)$", entry.getFileName().toString());
-                }
-            };
+            DirectoryStream.Filter<Path> filter = ImageCodecRegistry.newFileFilter();
 
-            try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(target, filter))
-            {
-                for (Path file : directoryStream)
-                {
-                    resize(file, max, dryrun);
-                }
-            }
+            pipeline.walk(target, filter, file -> _resize(pipeline, file, max, dryrun));
 
             return;
         }
 
         Path _target = target.toRealPath();
 
-        _resize(_target, max, dryrun);
+        pipeline.submit(_target, "resize:" + max,
+            (image, size) -> ImageUtils.readImage(image, null), image -> ImageUtils.resizeImage(image, max),
+            (out, file, source, resized) -> out.printf("[RESIZE] %s : %dx%d => %dx%d\n", file.getFileName(),
+                source.width, source.height, resized.width, resized.height), dryrun);
     }
 
-    private void _resize(Path target, int max, boolean dryrun) throws IOException
+    public void resize(Path target, int width, int height, boolean dryrun) throws IOException
     {
-        /*
-         * リサイズ
-         */
-        byte[] bytes = ImageUtils.resize(target, max);
-
-        BufferedImage original = ImageUtils.readImage(target);
-        BufferedImage resized = ImageUtils.readImage(bytes);
-        System.out.printf("[RESIZE] %s : %dx%d => %dx%d\n", target.getFileName(), original.getWidth(),
-            original.getHeight(), resized.getWidth(), resized.getHeight());
-
-        /*
-         * ファイル出力
-         */
-        if (!dryrun)
+        if (pipeline != null)
+        {
+            _resize(pipeline, target, width, height, dryrun);
+            return;
+        }
+
+        try (ImagePipeline pipeline = new ImagePipeline(1))
         {
-            Path tmpfile = Files.createTempFile(target.getParent(), ".", "");
-            IoUtils.writeToFile(bytes, tmpfile.toFile());
-            Files.move(tmpfile, target, REPLACE_EXISTING);
+            _resize(pipeline, target, width, height, dryrun);
         }
     }
 
-    public void resize(Path target, int width, int height, boolean dryrun) throws IOException
+    private void _resize(ImagePipeline pipeline, Path target, int width, int height, boolean dryrun) throws IOException
     {
         if (target == null)
         {
@@ -222,51 +273,18 @@ public class ResizeCommand
 
         if (Files.isDirectory(target))
         {
-            DirectoryStream.Filter<Path> filter = new DirectoryStream.Filter<Path>()
-            {
-                @Override
-                public boolean accept(Path entry) throws IOException
-                {
-                    return Pattern.matches("(?i).*\\.(jpg|jpeg)$", entry.getFileName().toString());
-                }
-            };
+            DirectoryStream.Filter<Path> filter = ImageCodecRegistry.newFileFilter();
 
-            try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(target, filter))
-            {
-                for (Path file : directoryStream)
-                {
-                    resize(file, width, height, dryrun);
-                }
-            }
+            pipeline.walk(target, filter, file -> _resize(pipeline, file, width, height, dryrun));
 
             return;
         }
 
         Path _target = target.toRealPath();
 
-        _resize(_target, width, height, dryrun);
-    }
-
-    private void _resize(Path target, int width, int height, boolean dryrun) throws IOException
-    {
-        /*
-         * リサイズ
-         */
-        byte[] bytes = ImageUtils.resize(target, width, height);
-
-        BufferedImage original = ImageUtils.readImage(target);
-        BufferedImage resized = ImageUtils.readImage(bytes);
-        System.out.printf("[RESIZE] %s : (%dx%d) => (%dx%d)\n", target.getFileName(), original.getWidth(),
-            original.getHeight(), resized.getWidth(), resized.getHeight());
-
-        /*
-         * ファイル出力
-         */
-        if (!dryrun)
-        {
-            Path tmpfile = Files.createTempFile(target.getParent(), ".", "");
-            IoUtils.writeToFile(bytes, tmpfile.toFile());
-            Files.move(tmpfile, target, REPLACE_EXISTING);
-        }
+        pipeline.submit(_target, "resize:" + width + "x" + height,
+            (image, size) -> ImageUtils.readImage(image, null), image -> ImageUtils.resizeImage(image, width, height),
+            (out, file, source, resized) -> out.printf("[RESIZE] %s : (%dx%d) => (%dx%d)\n", file.getFileName(),
+                source.width, source.height, resized.width, resized.height), dryrun);
     }
 }
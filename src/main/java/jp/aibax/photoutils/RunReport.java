@@ -0,0 +1,660 @@
+package jp.aibax.photoutils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * コマンドの実行結果（段階ごとの処理時間・スループット・メモリ使用量）を集計して JSON で出力します
+ *
+ * ファイルごとの処理時間は段階ごとに記録し、全体の集計には対数で区切ったヒストグラムを使用するため、
+ * ファイル数が多くても集計のコストとメモリ使用量は一定です。ファイルごとの記録は出力先と同じディレクトリの
+ * 一時ファイルに書き出し、最後にレポートに含めます。
+ *
+ * 処理中のスレッドに対応するファイルの記録を設定しておくと、{@link #start(Stage)} で処理の段階の計測を開始できます。
+ */
+class RunReport implements Closeable
+{
+    /**
+     * 処理の段階
+     */
+    enum Stage
+    {
+        /** ファイルの読み込み */
+        READ,
+
+        /** 画像フォーマットとサイズの判定 */
+        SNIFF,
+
+        /** 画像のデコード */
+        DECODE,
+
+        /** 画像の変換 */
+        TRANSFORM,
+
+        /** 画像のエンコード */
+        ENCODE,
+
+        /** ファイルの書き込み */
+        WRITE,
+
+        /** EXIFの解析 */
+        EXIF;
+
+        String key()
+        {
+            return name().toLowerCase(Locale.ENGLISH);
+        }
+    }
+
+    private static final ThreadLocal<FileRecord> CURRENT = new ThreadLocal<>();
+
+    private static final Span NOOP = new Span(null, null);
+
+    private final Path file;
+
+    private final Path spillFile;
+
+    private final BufferedWriter spill;
+
+    private final Date started = new Date();
+
+    private final long startNanos = System.nanoTime();
+
+    private final Histogram latency = new Histogram();
+
+    private final Histogram[] stages = new Histogram[Stage.values().length];
+
+    private final AtomicLongArray allocated = new AtomicLongArray(Stage.values().length);
+
+    private final AtomicLong files = new AtomicLong();
+
+    private final AtomicLong errors = new AtomicLong();
+
+    private final AtomicLong bytesIn = new AtomicLong();
+
+    private final AtomicLong bytesOut = new AtomicLong();
+
+    private int jobs = 1;
+
+    private List<ImagePipeline.Stage> pipeline = Collections.emptyList();
+
+    private MemoryBudget memoryBudget = null;
+
+    private RunReport(Path file) throws IOException
+    {
+        this.file = file.toAbsolutePath();
+        this.spillFile = Files.createTempFile(this.file.getParent(), ".", "");
+        this.spill = Files.newBufferedWriter(spillFile, StandardCharsets.UTF_8);
+
+        for (int i = 0; i < stages.length; i++)
+        {
+            stages[i] = new Histogram();
+        }
+
+        /* ピーク時のヒープ使用量を計測開始時点から記録 */
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            if (pool.getType() == MemoryType.HEAP)
+            {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    /**
+     * レポートの集計を開始します
+     *
+     * @param file 出力先のファイル
+     * @return レポート
+     * @throws IOException
+     */
+    static RunReport open(Path file) throws IOException
+    {
+        if (file == null)
+        {
+            throw new IllegalArgumentException("File is not defined");
+        }
+
+        return new RunReport(file);
+    }
+
+    void setJobs(int jobs)
+    {
+        this.jobs = jobs;
+    }
+
+    void setPipeline(List<ImagePipeline.Stage> pipeline)
+    {
+        this.pipeline = pipeline;
+    }
+
+    void setMemoryBudget(MemoryBudget memoryBudget)
+    {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * ファイルの処理を開始します
+     *
+     * @param target 処理するファイル
+     * @return ファイルごとの記録
+     */
+    FileRecord begin(Path target)
+    {
+        return new FileRecord(this, target);
+    }
+
+    /**
+     * 現在のスレッドで処理しているファイルの記録を設定します
+     *
+     * @param record ファイルごとの記録（nullの場合は解除）
+     */
+    static void attach(FileRecord record)
+    {
+        if (record != null)
+        {
+            CURRENT.set(record);
+        }
+        else
+        {
+            CURRENT.remove();
+        }
+    }
+
+    /**
+     * 現在のスレッドで処理しているファイルの段階の計測を開始します（ファイルの記録が設定されていない場合は何もしません）
+     *
+     * @param stage 処理の段階
+     * @return 計測中の段階（{@link Span#stop()} で終了）
+     */
+    static Span start(Stage stage)
+    {
+        FileRecord record = CURRENT.get();
+
+        return (record != null) ? record.start(stage) : NOOP;
+    }
+
+    /**
+     * 現在のスレッドで処理しているファイルの入力データのバイト数を加算します
+     *
+     * @param bytes バイト数
+     */
+    static void addBytesIn(long bytes)
+    {
+        FileRecord record = CURRENT.get();
+
+        if (record != null)
+        {
+            record.addBytesIn(bytes);
+        }
+    }
+
+    /**
+     * 現在のスレッドで処理しているファイルの出力データのバイト数を加算します
+     *
+     * @param bytes バイト数
+     */
+    static void addBytesOut(long bytes)
+    {
+        FileRecord record = CURRENT.get();
+
+        if (record != null)
+        {
+            record.addBytesOut(bytes);
+        }
+    }
+
+    private void _end(FileRecord record, Throwable error)
+    {
+        long nanos = System.nanoTime() - record.startNanos;
+
+        files.incrementAndGet();
+        latency.record(nanos);
+        bytesIn.addAndGet(record.bytesIn.get());
+        bytesOut.addAndGet(record.bytesOut.get());
+
+        if (error != null)
+        {
+            errors.incrementAndGet();
+        }
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\"file\":").append(_quote(record.target.toString()));
+        json.append(",\"millis\":").append(_millis(nanos));
+        json.append(",\"bytesIn\":").append(record.bytesIn.get());
+        json.append(",\"bytesOut\":").append(record.bytesOut.get());
+        json.append(",\"stages\":{");
+
+        String separator = "";
+
+        for (Stage stage : Stage.values())
+        {
+            long stageNanos = record.nanos.get(stage.ordinal());
+
+            if (stageNanos > 0)
+            {
+                json.append(separator).append(_quote(stage.key())).append(':').append(_millis(stageNanos));
+                separator = ",";
+            }
+        }
+
+        json.append('}');
+
+        if (error != null)
+        {
+            json.append(",\"error\":").append(_quote(String.valueOf(error)));
+        }
+
+        json.append('}');
+
+        synchronized (spill)
+        {
+            try
+            {
+                spill.write(json.toString());
+                spill.newLine();
+            }
+            catch (IOException e)
+            {
+                /* ファイルごとの記録が書き込めない場合も集計は継続 */
+            }
+        }
+    }
+
+    /**
+     * 集計結果を JSON で出力します
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException
+    {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+
+        synchronized (spill)
+        {
+            spill.close();
+        }
+
+        long peakHeap = 0;
+
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            if ((pool.getType() == MemoryType.HEAP) && (pool.getPeakUsage() != null))
+            {
+                peakHeap += pool.getPeakUsage().getUsed();
+            }
+        }
+
+        long totalAllocated = 0;
+
+        for (int i = 0; i < allocated.length(); i++)
+        {
+            totalAllocated += allocated.get(i);
+        }
+
+        Path tmpfile = Files.createTempFile(file.getParent(), ".", "");
+
+        try (BufferedWriter writer = Files.newBufferedWriter(tmpfile, StandardCharsets.UTF_8))
+        {
+            SimpleDateFormat iso8601 = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX");
+
+            writer.write("{\n");
+            writer.write("  \"started\": " + _quote(iso8601.format(started)) + ",\n");
+            writer.write("  \"elapsedSeconds\": " + _format(seconds) + ",\n");
+            writer.write("  \"jobs\": " + jobs + ",\n");
+            writer.write("  \"files\": " + files.get() + ",\n");
+            writer.write("  \"errors\": " + errors.get() + ",\n");
+            writer.write("  \"imagesPerSecond\": " + _format(files.get() / seconds) + ",\n");
+            writer.write("  \"bytesIn\": " + bytesIn.get() + ",\n");
+            writer.write("  \"bytesOut\": " + bytesOut.get() + ",\n");
+            writer.write("  \"mbPerSecondIn\": " + _format(bytesIn.get() / (1024.0 * 1024.0) / seconds) + ",\n");
+            writer.write("  \"mbPerSecondOut\": " + _format(bytesOut.get() / (1024.0 * 1024.0) / seconds) + ",\n");
+            writer.write("  \"memory\": {\"peakHeapBytes\": " + peakHeap + ", \"maxHeapBytes\": "
+                + Runtime.getRuntime().maxMemory() + ", \"allocatedBytes\": " + totalAllocated + "},\n");
+            writer.write("  \"latency\": " + latency.toJson() + ",\n");
+            writer.write("  \"stages\": {");
+
+            String separator = "\n";
+
+            for (Stage stage : Stage.values())
+            {
+                Histogram histogram = stages[stage.ordinal()];
+
+                if (histogram.getCount() == 0)
+                {
+                    continue;
+                }
+
+                writer.write(separator + "    " + _quote(stage.key()) + ": " + histogram.toJson(
+                    ", \"allocatedBytes\": " + allocated.get(stage.ordinal())));
+                separator = ",\n";
+            }
+
+            writer.write("\n  },\n");
+            writer.write("  \"pipeline\": [");
+
+            separator = "\n";
+
+            for (ImagePipeline.Stage stage : pipeline)
+            {
+                writer.write(separator + "    {\"name\": " + _quote(stage.getName()) + ", \"count\": " + stage
+                    .getCount() + ", \"bytes\": " + stage.getBytes() + ", \"busyMillis\": " + _millis(stage
+                    .getBusyNanos()) + ", \"blockedMillis\": " + _millis(stage.getBlockedNanos()) + "}");
+                separator = ",\n";
+            }
+
+            writer.write("\n  ],\n");
+
+            if (memoryBudget != null)
+            {
+                writer.write("  \"memoryBudget\": {\"capacityBytes\": " + memoryBudget.getCapacity() + ", \"waits\": "
+                    + memoryBudget.getWaits() + ", \"waitMillis\": " + _millis(memoryBudget.getWaitNanos()) + "},\n");
+            }
+
+            writer.write("  \"perFile\": [");
+
+            separator = "\n";
+
+            try (BufferedReader reader = Files.newBufferedReader(spillFile, StandardCharsets.UTF_8))
+            {
+                String line;
+
+                while ((line = reader.readLine()) != null)
+                {
+                    writer.write(separator + "    " + line);
+                    separator = ",\n";
+                }
+            }
+
+            writer.write("\n  ]\n");
+            writer.write("}\n");
+        }
+        finally
+        {
+            Files.deleteIfExists(spillFile);
+        }
+
+        Files.move(tmpfile, file, REPLACE_EXISTING);
+    }
+
+    private static String _millis(long nanos)
+    {
+        return _format(nanos / 1e6);
+    }
+
+    private static String _format(double value)
+    {
+        if (Double.isNaN(value) || Double.isInfinite(value))
+        {
+            return "0";
+        }
+
+        return String.format(Locale.ENGLISH, "%.3f", value);
+    }
+
+    private static String _quote(String value)
+    {
+        StringBuilder quoted = new StringBuilder("\"");
+
+        for (char c : value.toCharArray())
+        {
+            switch (c)
+            {
+                case '"':
+                    quoted.append("\\\"");
+                    break;
+
+                case '\\':
+                    quoted.append("\\\\");
+                    break;
+
+                default:
+                    if (c < 0x20)
+                    {
+                        quoted.append(String.format("\\u%04x", (int)c));
+                    }
+                    else
+                    {
+                        quoted.append(c);
+                    }
+            }
+        }
+
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * ファイルごとの記録
+     */
+    static class FileRecord
+    {
+        private final RunReport report;
+
+        private final Path target;
+
+        private final long startNanos = System.nanoTime();
+
+        private final AtomicLongArray nanos = new AtomicLongArray(Stage.values().length);
+
+        private final AtomicLong bytesIn = new AtomicLong();
+
+        private final AtomicLong bytesOut = new AtomicLong();
+
+        private FileRecord(RunReport report, Path target)
+        {
+            this.report = report;
+            this.target = target;
+        }
+
+        /**
+         * 段階の計測を開始します
+         *
+         * @param stage 処理の段階
+         * @return 計測中の段階（{@link Span#stop()} で終了）
+         */
+        Span start(Stage stage)
+        {
+            return new Span(this, stage);
+        }
+
+        void addBytesIn(long bytes)
+        {
+            bytesIn.addAndGet(bytes);
+        }
+
+        void addBytesOut(long bytes)
+        {
+            bytesOut.addAndGet(bytes);
+        }
+
+        /**
+         * ファイルの処理を終了します
+         *
+         * @param error 処理中に発生した例外（正常に終了した場合はnull）
+         */
+        void end(Throwable error)
+        {
+            report._end(this, error);
+        }
+    }
+
+    /**
+     * 計測中の段階（処理時間とスレッドが確保したメモリのバイト数を計測）
+     */
+    static class Span
+    {
+        private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+        private final FileRecord record;
+
+        private final Stage stage;
+
+        private final long startNanos;
+
+        private final long startAllocated;
+
+        private Span(FileRecord record, Stage stage)
+        {
+            this.record = record;
+            this.stage = stage;
+            this.startNanos = (record != null) ? System.nanoTime() : 0;
+            this.startAllocated = (record != null) ? _allocatedBytes() : 0;
+        }
+
+        private static long _allocatedBytes()
+        {
+            if (THREADS instanceof com.sun.management.ThreadMXBean)
+            {
+                com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)THREADS;
+
+                if (threads.isThreadAllocatedMemoryEnabled())
+                {
+                    return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+                }
+            }
+
+            return 0;
+        }
+
+        /**
+         * 段階の計測を終了します
+         */
+        void stop()
+        {
+            if (record == null)
+            {
+                return;
+            }
+
+            long nanos = System.nanoTime() - startNanos;
+
+            record.nanos.addAndGet(stage.ordinal(), nanos);
+            record.report.stages[stage.ordinal()].record(nanos);
+            record.report.allocated.addAndGet(stage.ordinal(), Math.max(_allocatedBytes() - startAllocated, 0));
+        }
+    }
+
+    /**
+     * 処理時間のヒストグラム
+     *
+     * 2のべき乗ごとの区間をさらに8つに分割して件数を数えるため、パーセンタイルの誤差は約12%以内です。
+     */
+    static class Histogram
+    {
+        private static final int SUB_BUCKETS = 8;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+
+        private final AtomicLong count = new AtomicLong();
+
+        private final AtomicLong sum = new AtomicLong();
+
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long nanos)
+        {
+            long value = Math.max(nanos, 0);
+
+            buckets.incrementAndGet(_index(value));
+            count.incrementAndGet();
+            sum.addAndGet(value);
+            max.accumulateAndGet(value, Math::max);
+        }
+
+        private static int _index(long value)
+        {
+            if (value < SUB_BUCKETS)
+            {
+                return (int)value;
+            }
+
+            int msb = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int)(value >>> (msb - 3)) & (SUB_BUCKETS - 1);
+
+            return (msb - 2) * SUB_BUCKETS + sub;
+        }
+
+        /**
+         * 区間の上限の値を返します
+         */
+        private static long _upperBound(int index)
+        {
+            if (index < SUB_BUCKETS)
+            {
+                return index;
+            }
+
+            int msb = index / SUB_BUCKETS + 2;
+            long lower = (long)(SUB_BUCKETS + index % SUB_BUCKETS) << (msb - 3);
+
+            return lower + (1L << (msb - 3)) - 1;
+        }
+
+        long getCount()
+        {
+            return count.get();
+        }
+
+        /**
+         * パーセンタイルの値を返します
+         *
+         * @param percentile パーセンタイル（0～100）
+         * @return 値（ナノ秒）
+         */
+        long getPercentile(double percentile)
+        {
+            long total = count.get();
+
+            if (total == 0)
+            {
+                return 0;
+            }
+
+            long rank = Math.max((long)Math.ceil(total * percentile / 100.0), 1);
+            long cumulative = 0;
+
+            for (int i = 0; i < buckets.length(); i++)
+            {
+                cumulative += buckets.get(i);
+
+                if (cumulative >= rank)
+                {
+                    return Math.min(_upperBound(i), max.get());
+                }
+            }
+
+            return max.get();
+        }
+
+        String toJson()
+        {
+            return toJson("");
+        }
+
+        String toJson(String extra)
+        {
+            return "{\"count\": " + count.get() + ", \"totalMillis\": " + _millis(sum.get()) + ", \"p50Millis\": "
+                + _millis(getPercentile(50)) + ", \"p95Millis\": " + _millis(getPercentile(95)) + ", \"p99Millis\": "
+                + _millis(getPercentile(99)) + ", \"maxMillis\": " + _millis(max.get()) + extra + "}";
+        }
+    }
+}
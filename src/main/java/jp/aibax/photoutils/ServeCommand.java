@@ -0,0 +1,143 @@
+package jp.aibax.photoutils;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+
+import jp.aibax.image.ImageLimits;
+
+import static org.apache.commons.lang3.BooleanUtils.isTrue;
+import static org.apache.commons.lang3.StringUtils.isEmpty;
+
+public class ServeCommand
+{
+    private static final String VERSION = "serveimg version 1.0.0-SNAPSHOT";
+
+    @Option(name = "-?", aliases = "--help", help = true, usage = "このメッセージを表示")
+    private Boolean usageFlag;
+
+    @Option(name = "-v", aliases = "--version", usage = "バージョンを表示")
+    private Boolean versionFlag;
+
+    @Option(name = "-r", aliases = "--root", usage = "公開するディレクトリ")
+    private String root;
+
+    @Option(name = "-p", aliases = "--port", usage = "待ち受けるポート番号")
+    private int port = 8080;
+
+    @Option(name = "-t", aliases = "--threads", usage = "画像を処理するスレッド数")
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    @Option(name = "-q", aliases = "--queue-size", usage = "処理待ちの要求の最大数")
+    private int queueSize = 64;
+
+    @Option(name = "--max-pixels", usage = "デコードする画像のピクセル数の上限 (0の場合は制限なし)")
+    private long maxPixels = ImageLimits.DEFAULT.getMaxPixels();
+
+    @Option(name = "--max-dimension", usage = "デコードする画像の幅と高さの上限 (0の場合は制限なし)")
+    private int maxDimension = ImageLimits.DEFAULT.getMaxDimension();
+
+    @Option(name = "--max-decoded-size", usage = "デコードした画像のサイズの上限 (MB / 0の場合は制限なし)")
+    private int maxDecodedSize = 0;
+
+    @Option(name = "--decode-timeout", usage = "1枚の画像のデコードの制限時間 (ミリ秒 / 0の場合は制限なし)")
+    private long decodeTimeout = 0;
+
+    public static void main(String[] args)
+    {
+        run(args, System.out, System.err);
+    }
+
+    /**
+     * コマンドを実行します（サーバーを起動して戻ります）
+     *
+     * @param args 引数
+     * @param out  標準出力の出力先
+     * @param err  標準エラー出力の出力先
+     * @return 終了コード（引数が不正な場合やサーバーを起動できない場合は 1）
+     */
+    static int run(String[] args, PrintStream out, PrintStream err)
+    {
+        ServeCommand command = new ServeCommand();
+
+        CmdLineParser parser = new CmdLineParser(command);
+
+        try
+        {
+            parser.parseArgument(args);
+        }
+        catch (CmdLineException e)
+        {
+            e.printStackTrace(err);
+            return 1;
+        }
+
+        if (isTrue(command.versionFlag))
+        {
+            out.println(VERSION);
+            return 0;
+        }
+
+        if (isTrue(command.usageFlag) || (command.validateArguments() == false))
+        {
+            out.println("Usage of serveimg:");
+            out.println("serveimg [OPTIONS]");
+            parser.printUsage(out);
+            return isTrue(command.usageFlag) ? 0 : 1;
+        }
+
+        ImageLimits.setDefault(new ImageLimits(command.maxPixels, command.maxDimension,
+            command.maxDecodedSize * 1024L * 1024L, command.decodeTimeout));
+
+        try
+        {
+            RenditionServer server = new RenditionServer(Paths.get(command.root), command.port, command.threads,
+                command.queueSize);
+            server.start();
+
+            out.printf("[SERVE] %s => http://localhost:%d/\n", Paths.get(command.root).toRealPath(),
+                server.getPort());
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace(err);
+            return 1;
+        }
+
+        return 0;
+    }
+
+    private boolean validateArguments()
+    {
+        if (isEmpty(root))
+        {
+            /* 公開するディレクトリの指定なし */
+            return false;
+        }
+
+        Path path = Paths.get(root);
+
+        if (!Files.isDirectory(path))
+        {
+            return false;
+        }
+
+        if ((port < 0) || (threads <= 0) || (queueSize <= 0))
+        {
+            return false;
+        }
+
+        if ((maxPixels < 0) || (maxDimension < 0) || (maxDecodedSize < 0) || (decodeTimeout < 0))
+        {
+            return false;
+        }
+
+        return true;
+    }
+}
@@ -1,25 +1,24 @@
 package jp.aibax.photoutils;
 
-import java.awt.image.BufferedImage;
+import java.awt.Rectangle;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Arrays;
-import java.util.regex.Pattern;
 
-import org.apache.commons.imaging.util.IoUtils;
 import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.ClassParser;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
 import org.kohsuke.args4j.spi.StringArrayOptionHandler;
 
 import jp.aibax.image.ImageUtils;
+import jp.aibax.image.codec.ImageCodecRegistry;
 
-import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 import static org.apache.commons.lang3.BooleanUtils.isTrue;
 import static org.apache.commons.lang3.StringUtils.isEmpty;
 
@@ -42,11 +41,39 @@ public class TrimCommand
     @Argument(metaVar = "arguments...", handler = StringArrayOptionHandler.class)
     private String[] arguments;
 
+    private final BatchOptions batchOptions = new BatchOptions();
+
+    private final PipelineOptions pipelineOptions = new PipelineOptions();
+
+    private final ManifestOptions manifestOptions = new ManifestOptions();
+
+    private final PlanOptions planOptions = new PlanOptions();
+
+    /** 画像の変換を実行するパイプライン（設定されていない場合は呼び出しごとに逐次実行のパイプラインを作成） */
+    private ImagePipeline pipeline = null;
+
     public static void main(String[] args)
+    {
+        run(args, System.out, System.err);
+    }
+
+    /**
+     * コマンドを実行します
+     *
+     * @param args 引数
+     * @param out  標準出力の出力先
+     * @param err  標準エラー出力の出力先
+     * @return 終了コード（引数が不正な場合や処理に失敗したファイルがある場合は 1）
+     */
+    static int run(String[] args, PrintStream out, PrintStream err)
     {
         TrimCommand command = new TrimCommand();
 
         CmdLineParser parser = new CmdLineParser(command);
+        new ClassParser().parse(command.batchOptions, parser);
+        new ClassParser().parse(command.pipelineOptions, parser);
+        new ClassParser().parse(command.manifestOptions, parser);
+        new ClassParser().parse(command.planOptions, parser);
 
         try
         {
@@ -54,41 +81,74 @@ public class TrimCommand
         }
         catch (CmdLineException e)
         {
-            e.printStackTrace();
-            return;
+            e.printStackTrace(err);
+            return 1;
         }
 
         if (isTrue(command.versionFlag))
         {
-            System.out.println(VERSION);
-            return;
+            out.println(VERSION);
+            return 0;
         }
 
-        if (isTrue(command.usageFlag) || (command.validateArguments() == false))
+        if (isTrue(command.usageFlag) || (command.validateArguments() == false) || !command.batchOptions.validate()
+            || !command.pipelineOptions.validate())
         {
-            System.out.println("Usage of resizeimg:");
-            System.out.println("trimimg [OPTIONS] FILES...");
-            parser.printUsage(System.out);
-            return;
+            out.println("Usage of resizeimg:");
+            out.println("trimimg [OPTIONS] FILES...");
+            parser.printUsage(out);
+            return isTrue(command.usageFlag) ? 0 : 1;
         }
 
         float aspectRatio = Float.parseFloat(command.aspectRatio);
         boolean dryrun = isTrue(command.dryrunFlag);
 
-        Arrays.asList(command.arguments).forEach(argument -> {
+        int status = 0;
 
-            Path target = Paths.get(argument);
+        try (Manifest manifest = command.manifestOptions.open();
+            ChangePlan plan = command.planOptions.create();
+            ImagePipeline pipeline = command.pipelineOptions.newPipeline(command.batchOptions))
+        {
+            pipeline.setOutput(out, err);
+            pipeline.setManifest(manifest);
+            pipeline.setPlan(plan);
+            command.pipeline = pipeline;
 
-            try
+            for (String argument : command.arguments)
             {
-                command.trim(target, aspectRatio, dryrun);
+                Path target = Paths.get(argument);
+
+                try
+                {
+                    command.trim(target, aspectRatio, dryrun);
+                }
+                catch (Exception e)
+                {
+                    e.printStackTrace(err);
+                    status = 1;
+                }
             }
-            catch (Exception e)
+
+            pipeline.await();
+
+            if (pipeline.getErrorCount() > 0)
             {
-                e.printStackTrace();
+                status = 1;
             }
 
-        });
+            if ((plan != null) && (status == 0))
+            {
+                /* 全てのファイルの変更を記録できた場合のみ計画ファイルを置き換え */
+                plan.commit();
+            }
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace(err);
+            status = 1;
+        }
+
+        return status;
     }
 
     private boolean validateArguments()
@@ -120,6 +180,20 @@ public class TrimCommand
     }
 
     public void trim(Path target, float aspectRatio, boolean dryrun) throws IOException
+    {
+        if (pipeline != null)
+        {
+            _trim(pipeline, target, aspectRatio, dryrun);
+            return;
+        }
+
+        try (ImagePipeline pipeline = new ImagePipeline(1))
+        {
+            _trim(pipeline, target, aspectRatio, dryrun);
+        }
+    }
+
+    private void _trim(ImagePipeline pipeline, Path target, float aspectRatio, boolean dryrun) throws IOException
     {
         if (target == null)
         {
@@ -138,52 +212,23 @@ public class TrimCommand
 
         if (Files.isDirectory(target))
         {
-            DirectoryStream.Filter<Path> filter = new DirectoryStream.Filter<Path>()
-            {
-                @Override
-                public boolean accept(Path entry) throws IOException
-                {
-                    return Pattern.matches("(?i).*\\.(jpg|jpeg)$", entry.getFileName().toString());
-                }
-            };
+            DirectoryStream.Filter<Path> filter = ImageCodecRegistry.newFileFilter();
 
-            try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(target, filter))
-            {
-                for (Path file : directoryStream)
-                {
-                    trim(file, aspectRatio, dryrun);
-                }
-            }
+            pipeline.walk(target, filter, file -> _trim(pipeline, file, aspectRatio, dryrun));
 
             return;
         }
 
         Path _target = target.toRealPath();
 
-        _trim(_target, aspectRatio, dryrun);
-    }
+        pipeline.submit(_target, "trim:" + aspectRatio, (image, size) -> {
 
-    private void _trim(Path target, float aspectRatio, boolean dryrun) throws IOException
-    {
-        /*
-         * トリミング
-         */
-        byte[] bytes = ImageUtils.trim(target, aspectRatio);
-
-        BufferedImage original = ImageUtils.readImage(target);
-        BufferedImage trimmed = ImageUtils.readImage(bytes);
-        System.out
-            .printf("[TRIM] %s : %dx%d => %dx%d\n", target.getFileName(), original.getWidth(), original.getHeight(),
-                trimmed.getWidth(), trimmed.getHeight());
-
-        /*
-         * ファイル出力
-         */
-        if (!dryrun)
-        {
-            Path tmpfile = Files.createTempFile(target.getParent(), ".", "");
-            IoUtils.writeToFile(bytes, tmpfile.toFile());
-            Files.move(tmpfile, target, REPLACE_EXISTING);
-        }
+            /* 画像全体をデコードせずにトリミングする領域のみをデコード */
+            Rectangle region = ImageUtils.getTrimRegion(size, aspectRatio);
+
+            return (region != null) ? ImageUtils.readImage(image, region) : null;
+
+        }, image -> image, (out, file, source, trimmed) -> out.printf("[TRIM] %s : %dx%d => %dx%d\n",
+            file.getFileName(), source.width, source.height, trimmed.width, trimmed.height), dryrun);
     }
 }
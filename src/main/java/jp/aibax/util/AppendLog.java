@@ -0,0 +1,196 @@
+package jp.aibax.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+
+/**
+ * キーごとの記録を1行ずつ追記するログ（マニフェスト・EXIFデータのキャッシュで使用）
+ *
+ * 開いたときにファイル全体をメモリ上のハッシュテーブルに読み込みます。同じキーの記録は後に追記した行が優先され、
+ * 古い行が記録の数の2倍を超えた場合は開いたときに整理します。記録は1件ごとにファイルへ書き出すため、
+ * 途中で強制終了した場合もそれまでの記録は失われません（書き込み途中の行は次に開いたときに無視されます）。
+ * 空行と # で始まる行は読み込みません。
+ *
+ * @param <R> 記録の型
+ */
+public final class AppendLog<R> implements Closeable
+{
+    private final Path file;
+
+    private final String header;
+
+    private final Format<R> format;
+
+    private final Map<String, R> records = new ConcurrentHashMap<>();
+
+    private final BufferedWriter writer;
+
+    private AppendLog(Path file, String header, Format<R> format) throws IOException
+    {
+        this.file = file.toAbsolutePath();
+        this.header = header;
+        this.format = format;
+
+        int lines = 0;
+
+        if (Files.exists(this.file))
+        {
+            try (BufferedReader reader = Files.newBufferedReader(this.file, StandardCharsets.UTF_8))
+            {
+                String line;
+
+                while ((line = reader.readLine()) != null)
+                {
+                    R record = (line.isEmpty() || line.startsWith("#")) ? null : format.parse(line);
+
+                    if (record != null)
+                    {
+                        records.put(format.key(record), record);
+                        lines++;
+                    }
+                }
+            }
+        }
+
+        if ((lines == 0) || (lines > records.size() * 2))
+        {
+            /* 同じキーの古い記録が増えた場合は整理 */
+            _compact();
+        }
+
+        this.writer = Files.newBufferedWriter(this.file, StandardCharsets.UTF_8, CREATE, APPEND);
+    }
+
+    /**
+     * ログを開きます（ファイルが存在しない場合は作成します）
+     *
+     * @param file   ログのファイル
+     * @param header 整理したときに先頭に書き込む行（# で始まる文字列）
+     * @param format 記録の形式
+     * @return ログ
+     * @throws IOException
+     */
+    public static <R> AppendLog<R> open(Path file, String header, Format<R> format) throws IOException
+    {
+        if (file == null)
+        {
+            throw new IllegalArgumentException("File is not defined");
+        }
+
+        if (format == null)
+        {
+            throw new IllegalArgumentException("Format is not defined");
+        }
+
+        return new AppendLog<>(file, header, format);
+    }
+
+    private void _compact() throws IOException
+    {
+        Path tmpfile = Files.createTempFile(file.getParent(), ".", "");
+
+        try (BufferedWriter compacted = Files.newBufferedWriter(tmpfile, StandardCharsets.UTF_8))
+        {
+            compacted.write(header);
+            compacted.newLine();
+
+            for (R record : records.values())
+            {
+                compacted.write(format.format(record));
+                compacted.newLine();
+            }
+        }
+
+        Files.move(tmpfile, file, REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+
+    /**
+     * @param key キー
+     * @return 最後に追記した記録（記録がない場合はnull）
+     */
+    public R get(String key)
+    {
+        return records.get(key);
+    }
+
+    /**
+     * 記録を追記します（1件ごとにファイルへ書き出します）
+     *
+     * @param record 記録
+     * @throws IOException
+     */
+    public void append(R record) throws IOException
+    {
+        records.put(format.key(record), record);
+
+        synchronized (writer)
+        {
+            writer.write(format.format(record));
+            writer.newLine();
+            writer.flush();
+        }
+    }
+
+    /**
+     * @return 記録されているキーの数
+     */
+    public int size()
+    {
+        return records.size();
+    }
+
+    /**
+     * @return ログのファイル（絶対パス）
+     */
+    public Path getFile()
+    {
+        return file;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        synchronized (writer)
+        {
+            writer.close();
+        }
+    }
+
+    /**
+     * 記録と1行の文字列の変換
+     *
+     * @param <R> 記録の型
+     */
+    public interface Format<R>
+    {
+        /**
+         * @param line 行（空行と # で始まる行は渡されない）
+         * @return 記録（書き込み途中で終了した行など、解析できない場合はnull）
+         */
+        R parse(String line);
+
+        /**
+         * @param record 記録
+         * @return 行（改行を含まない文字列）
+         */
+        String format(R record);
+
+        /**
+         * @param record 記録
+         * @return 記録のキー（同じキーの記録は後に追記したものが優先される）
+         */
+        String key(R record);
+    }
+}
@@ -0,0 +1,145 @@
+package jp.aibax.photoutils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import jp.aibax.util.AppendLog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class AppendLogTest
+{
+    private static final String HEADER = "# test log 1";
+
+    /** キー TAB 値 */
+    private static final AppendLog.Format<String[]> FORMAT = new AppendLog.Format<String[]>()
+    {
+        @Override
+        public String[] parse(String line)
+        {
+            String[] fields = line.split("\t", 2);
+
+            return (fields.length == 2) ? fields : null;
+        }
+
+        @Override
+        public String format(String[] record)
+        {
+            return record[0] + "\t" + record[1];
+        }
+
+        @Override
+        public String key(String[] record)
+        {
+            return record[0];
+        }
+    };
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        directory = Files.createTempDirectory(Paths.get("testdata"), ".appendlog");
+    }
+
+    @After
+    public void tearDown()
+    {
+        try (Stream<Path> paths = Files.walk(directory))
+        {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 追記した記録が閉じる前にファイルに書き出され、後に追記した記録が優先されるテスト
+     */
+    @Test
+    public void testAppend()
+    {
+        try
+        {
+            Path file = directory.resolve("test.log");
+
+            try (AppendLog<String[]> log = AppendLog.open(file, HEADER, FORMAT))
+            {
+                log.append(new String[] { "a", "1" });
+                log.append(new String[] { "b", "2" });
+                log.append(new String[] { "a", "3" });
+
+                assertEquals(4, Files.readAllLines(file, StandardCharsets.UTF_8).size());
+                assertEquals(2, log.size());
+                assertEquals("3", log.get("a")[1]);
+                assertNull(log.get("c"));
+            }
+
+            /* 書き込み途中で終了した行は無視 */
+            Files.write(file, "c".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+            try (AppendLog<String[]> log = AppendLog.open(file, HEADER, FORMAT))
+            {
+                assertEquals(2, log.size());
+                assertEquals("3", log.get("a")[1]);
+                assertEquals("2", log.get("b")[1]);
+                assertNull(log.get("c"));
+            }
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    /**
+     * 古い記録が増えた場合に開いたときに整理するテスト
+     */
+    @Test
+    public void testCompact()
+    {
+        try
+        {
+            Path file = directory.resolve("test.log");
+
+            try (AppendLog<String[]> log = AppendLog.open(file, HEADER, FORMAT))
+            {
+                for (int i = 0; i < 10; i++)
+                {
+                    log.append(new String[] { "a", String.valueOf(i) });
+                }
+            }
+
+            try (AppendLog<String[]> log = AppendLog.open(file, HEADER, FORMAT))
+            {
+                List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+
+                assertEquals(2, lines.size());
+                assertEquals(HEADER, lines.get(0));
+                assertEquals("9", log.get("a")[1]);
+            }
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package jp.aibax.photoutils;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import jp.aibax.image.Exif;
+import jp.aibax.image.ImageUtils;
+
+import static java.util.Calendar.JANUARY;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ApplyCommandTest
+{
+    private Path directory;
+
+    private Path plan;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        directory = Files.createTempDirectory(Paths.get("testdata"), ".apply");
+        plan = directory.resolve("plan.bin");
+    }
+
+    @After
+    public void tearDown()
+    {
+        try (Stream<Path> paths = Files.walk(directory))
+        {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 計画したリサイズをエンコードし直さずに実行するテスト
+     */
+    @Test
+    public void testApply_Resize()
+    {
+        try
+        {
+            Path file = directory.resolve("1440x1080.png");
+            Files.copy(Paths.get("testdata/1440x1080.png"), file);
+            byte[] original = Files.readAllBytes(file);
+
+            ResizeCommand.main(new String[] { "-m", "640", "--plan", plan.toString(), file.toString() });
+
+            /* 計画のみ */
+            assertTrue(Files.exists(plan));
+            assertArrayEquals(original, Files.readAllBytes(file));
+
+            ApplyCommand.main(new String[] { plan.toString() });
+
+            BufferedImage resizedImage = ImageUtils.readImage(file);
+            assertEquals(640, resizedImage.getWidth());
+            assertEquals(480, resizedImage.getHeight());
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    /**
+     * 計画したEXIFタグの変更とリネームを実行するテスト
+     */
+    @Test
+    public void testApply_ModifyExif()
+    {
+        try
+        {
+            Path file = directory.resolve("sample_exif.jpg");
+            Files.copy(Paths.get("testdata/sample_exif.jpg"), file);
+            Date original = Exif.decode(file).getDateTimeOriginal();
+
+            ModifyExifCommand.main(new String[] { "-t", "20170102030405", "-h", "1", "--plan", plan.toString(),
+                file.toString() });
+            assertEquals(original, Exif.decode(file).getDateTimeOriginal());
+
+            ApplyCommand.main(new String[] { plan.toString() });
+
+            /* 時刻設定と時刻補正の両方を反映 */
+            Exif exif = Exif.decode(file);
+            assertEquals(new GregorianCalendar(2017, JANUARY, 2, 4, 4, 5).getTime(), exif.getDateTimeOriginal());
+
+            ExifRenameCommand.main(new String[] { "--plan", plan.toString(), file.toString() });
+            assertTrue(Files.exists(file));
+
+            ApplyCommand.main(new String[] { plan.toString() });
+            assertFalse(Files.exists(file));
+            assertTrue(Files.exists(directory.resolve("20170102_040405_00.jpg")));
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    /**
+     * 計画の作成後に変更されたファイルには適用しないテスト
+     */
+    @Test
+    public void testApply_Modified()
+    {
+        try
+        {
+            Path file = directory.resolve("1440x1080.png");
+            Files.copy(Paths.get("testdata/1440x1080.png"), file);
+
+            ResizeCommand.main(new String[] { "-m", "640", "--plan", plan.toString(), file.toString() });
+
+            Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() - 60000));
+            byte[] modified = Files.readAllBytes(file);
+
+            ApplyCommand.main(new String[] { plan.toString() });
+            assertArrayEquals(modified, Files.readAllBytes(file));
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    /**
+     * 計画の作成に失敗した場合に、計画ファイルを作成・変更せずに一時ファイルを削除するテスト
+     */
+    @Test
+    public void testPlan_NotCommitted()
+    {
+        try
+        {
+            Path file = directory.resolve("1440x1080.png");
+            Files.copy(Paths.get("testdata/1440x1080.png"), file);
+
+            String missing = directory.resolve("missing.png").toString();
+
+            assertEquals(1, ResizeCommand.run(new String[] { "-m", "640", "--plan", plan.toString(), file.toString(),
+                missing }, System.out, System.err));
+            assertFalse(Files.exists(plan));
+
+            /* commit() せずに閉じた場合は既存の計画ファイルを変更しない */
+            Files.write(plan, new byte[] { 1, 2, 3 });
+
+            try (ChangePlan changePlan = ChangePlan.create(plan))
+            {
+                changePlan.write(file, Files.readAttributes(file, BasicFileAttributes.class), "resize:640", null);
+            }
+
+            assertArrayEquals(new byte[] { 1, 2, 3 }, Files.readAllBytes(plan));
+
+            try (Stream<Path> paths = Files.list(directory))
+            {
+                assertEquals(2, paths.count());
+            }
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
+}
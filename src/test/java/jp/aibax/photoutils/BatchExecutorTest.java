@@ -0,0 +1,278 @@
+package jp.aibax.photoutils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import jp.aibax.image.codec.ImageCodecRegistry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static jp.aibax.image.ImageFormat.JPEG;
+
+public class BatchExecutorTest
+{
+    private PrintStream stdout;
+
+    private PrintStream stderr;
+
+    private ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    @Before
+    public void setUp()
+    {
+        stdout = System.out;
+        stderr = System.err;
+
+        output.reset();
+        System.setOut(new PrintStream(output, true));
+        System.setErr(new PrintStream(new ByteArrayOutputStream(), true));
+    }
+
+    @After
+    public void tearDown()
+    {
+        System.setOut(stdout);
+        System.setErr(stderr);
+    }
+
+    /**
+     * 並列に処理した結果が登録した順に出力され、例外が発生したファイル以外の処理が継続されるテスト
+     */
+    @Test
+    public void testOrderedOutput()
+    {
+        StringBuilder expected = new StringBuilder();
+
+        try (BatchExecutor executor = new BatchExecutor(4))
+        {
+            for (int i = 0; i < 100; i++)
+            {
+                int index = i;
+
+                if (index % 10 != 0)
+                {
+                    expected.append(index).append("\n");
+                }
+
+                executor.submit(Paths.get(index + ".jpg"), out -> {
+
+                    Thread.sleep(ThreadLocalRandom.current().nextInt(5));
+
+                    if (index % 10 == 0)
+                    {
+                        throw new IOException("error " + index);
+                    }
+
+                    out.printf("%d\n", index);
+
+                });
+            }
+
+            executor.await();
+
+            assertEquals(10, executor.getErrorCount());
+            assertEquals(expected.toString(), output.toString());
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    /**
+     * 先頭のファイルの処理が終わらない間は出力待ちのファイルの数が上限を超えないテスト
+     */
+    @Test
+    public void testBoundedPending()
+    {
+        try (BatchExecutor executor = new BatchExecutor(2))
+        {
+            CountDownLatch head = new CountDownLatch(1);
+            AtomicInteger submitted = new AtomicInteger();
+            StringBuilder expected = new StringBuilder();
+            List<IOException> errors = Collections.synchronizedList(new ArrayList<>());
+
+            for (int i = 0; i < 20; i++)
+            {
+                expected.append(i).append("\n");
+            }
+
+            Thread submitter = new Thread(() -> {
+
+                try
+                {
+                    for (int i = 0; i < 20; i++)
+                    {
+                        int index = i;
+
+                        executor.submit(Paths.get(index + ".jpg"), out -> {
+
+                            if (index == 0)
+                            {
+                                head.await();
+                            }
+
+                            out.printf("%d\n", index);
+
+                        });
+
+                        submitted.incrementAndGet();
+                    }
+                }
+                catch (IOException e)
+                {
+                    errors.add(e);
+                }
+
+            });
+            submitter.start();
+
+            /* 出力待ちが上限（並列数の4倍）に達すると登録が待たされる */
+            while (submitter.isAlive() && (submitter.getState() != Thread.State.WAITING))
+            {
+                Thread.yield();
+            }
+
+            assertTrue(submitter.isAlive());
+            assertTrue(submitted.get() <= 8);
+
+            head.countDown();
+            submitter.join();
+            executor.await();
+
+            assertEquals(20, submitted.get());
+            assertTrue(errors.isEmpty());
+            assertEquals(expected.toString(), output.toString());
+        }
+        catch (IOException | InterruptedException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    /**
+     * 並列数が1の場合は呼び出し元のスレッドで実行され、例外が送出されるテスト
+     */
+    @Test
+    public void testSerial()
+    {
+        try (BatchExecutor executor = new BatchExecutor(1))
+        {
+            Thread caller = Thread.currentThread();
+
+            executor.submit(Paths.get("a.jpg"), out -> assertEquals(caller, Thread.currentThread()));
+
+            try
+            {
+                executor.submit(Paths.get("b.jpg"), out -> {
+                    throw new IOException("error");
+                });
+
+                fail();
+            }
+            catch (IOException e)
+            {
+                assertEquals("error", e.getMessage());
+            }
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    /**
+     * サブディレクトリのファイルを再帰的に走査するテスト
+     */
+    @Test
+    public void testWalk()
+    {
+        Path directory = null;
+
+        try
+        {
+            directory = Files.createTempDirectory("batch");
+            Files.createDirectories(directory.resolve("2018/01"));
+            Files.createFile(directory.resolve("a.jpg"));
+            Files.createFile(directory.resolve("2018/01/b.JPG"));
+            Files.createFile(directory.resolve("2018/01/c.txt"));
+
+            List<String> files = new ArrayList<>();
+
+            try (BatchExecutor executor = new BatchExecutor(1, false))
+            {
+                executor.walk(directory, ImageCodecRegistry.newFileFilter(JPEG),
+                    file -> files.add(file.getFileName().toString()));
+            }
+
+            assertEquals(Arrays.asList("a.jpg"), files);
+
+            files.clear();
+
+            try (BatchExecutor executor = new BatchExecutor(1, true))
+            {
+                executor.walk(directory, ImageCodecRegistry.newFileFilter(JPEG),
+                    file -> files.add(file.getFileName().toString()));
+            }
+
+            Collections.sort(files);
+            assertEquals(Arrays.asList("a.jpg", "b.JPG"), files);
+
+            /* 読み込めないファイル・ディレクトリはエラーとして走査を続ける */
+            try (BatchExecutor executor = new BatchExecutor(1, true))
+            {
+                executor.walk(directory.resolve("missing"), ImageCodecRegistry.newFileFilter(JPEG),
+                    file -> files.add(file.getFileName().toString()));
+
+                assertEquals(1, executor.getErrorCount());
+            }
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+        finally
+        {
+            _delete(directory);
+        }
+    }
+
+    private static void _delete(Path directory)
+    {
+        if (directory == null)
+        {
+            return;
+        }
+
+        try (Stream<Path> paths = Files.walk(directory))
+        {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
+}
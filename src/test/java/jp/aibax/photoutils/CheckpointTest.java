@@ -0,0 +1,228 @@
+package jp.aibax.photoutils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CheckpointTest
+{
+    private PrintStream stdout;
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        stdout = System.out;
+        System.setOut(new PrintStream(new ByteArrayOutputStream(), true));
+
+        directory = Files.createTempDirectory(Paths.get("testdata"), ".checkpoint");
+    }
+
+    @After
+    public void tearDown()
+    {
+        System.setOut(stdout);
+
+        try (Stream<Path> paths = Files.walk(directory))
+        {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 再開する場合はジャーナルに記録したファイルが完了済みとなり、再開しない場合はジャーナルが空になるテスト
+     */
+    @Test
+    public void testResume()
+    {
+        Path journal = directory.resolve("journal");
+        Path file = directory.resolve("image.jpg");
+
+        try
+        {
+            try (Checkpoint checkpoint = Checkpoint.open(journal, false))
+            {
+                assertFalse(checkpoint.isFinished(file, "resize:640"));
+                checkpoint.finish(file, "resize:640");
+            }
+
+            try (Checkpoint checkpoint = Checkpoint.open(journal, true))
+            {
+                assertTrue(checkpoint.isFinished(file, "resize:640"));
+                assertFalse(checkpoint.isFinished(file, "resize:320"));
+            }
+
+            try (Checkpoint checkpoint = Checkpoint.open(journal, false))
+            {
+                assertFalse(checkpoint.isFinished(file, "resize:640"));
+            }
+
+            assertEquals(0, Files.size(journal));
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    /**
+     * 書き込み途中で終了した行があるジャーナルから再開するテスト
+     */
+    @Test
+    public void testResume_TornLine()
+    {
+        Path journal = directory.resolve("journal");
+        Path file = directory.resolve("image.jpg").toAbsolutePath();
+
+        try
+        {
+            String content = "resize:640\t" + file + "\nresize:640\t" + directory;
+            Files.write(journal, content.getBytes(StandardCharsets.UTF_8));
+
+            try (Checkpoint checkpoint = Checkpoint.open(journal, true))
+            {
+                assertTrue(checkpoint.isFinished(file, "resize:640"));
+                checkpoint.finish(file, "trim:1.0");
+            }
+
+            try (Checkpoint checkpoint = Checkpoint.open(journal, true))
+            {
+                assertTrue(checkpoint.isFinished(file, "resize:640"));
+                assertTrue(checkpoint.isFinished(file, "trim:1.0"));
+            }
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    /**
+     * 再開する場合に中断された処理が残した一時ファイルのみが削除されるテスト
+     */
+    @Test
+    public void testCleanup()
+    {
+        try
+        {
+            Path orphan = Files.createTempFile(directory, ".", "");
+            Files.setLastModifiedTime(orphan, FileTime.fromMillis(System.currentTimeMillis() - 60000));
+
+            Path image = Files.copy(Paths.get("testdata/image.jpg"), directory.resolve(".image.jpg"));
+            Files.setLastModifiedTime(image, FileTime.fromMillis(System.currentTimeMillis() - 60000));
+
+            try (Checkpoint checkpoint = Checkpoint.open(directory.resolve("journal"), false))
+            {
+                checkpoint.cleanup(directory, System.out);
+            }
+
+            assertTrue(Files.exists(orphan));
+
+            try (Checkpoint checkpoint = Checkpoint.open(directory.resolve("journal"), true))
+            {
+                /* 再開後に作成された一時ファイルは削除しない */
+                Path current = Files.createTempFile(directory, ".", "");
+                Files.setLastModifiedTime(current, FileTime.fromMillis(System.currentTimeMillis() + 60000));
+
+                checkpoint.cleanup(directory, System.out);
+
+                assertFalse(Files.exists(orphan));
+                assertTrue(Files.exists(current));
+                assertTrue(Files.exists(image));
+            }
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    /**
+     * チェックポイントを指定して中断した処理を再開した場合に、完了済みのファイルが再度リサイズされないテスト
+     */
+    @Test
+    public void testResizeCommand()
+    {
+        try
+        {
+            Path file = directory.resolve("1920x1080.png");
+            Files.copy(Paths.get("testdata/1920x1080.png"), file);
+
+            String journal = directory.resolve("journal").toString();
+
+            ResizeCommand.main(new String[] { "--checkpoint", journal, "-m", "960", file.toString() });
+
+            Files.setLastModifiedTime(file, FileTime.fromMillis(0));
+
+            ResizeCommand.main(new String[] { "--checkpoint", journal, "--resume", "-m", "960", file.toString() });
+
+            assertEquals(0, Files.getLastModifiedTime(file).toMillis());
+
+            ResizeCommand.main(new String[] { "--checkpoint", journal, "-m", "960", file.toString() });
+
+            assertTrue(Files.getLastModifiedTime(file).toMillis() > 0);
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    /**
+     * チェックポイントにマニフェスト・計画と同じ処理内容を記録し、再開した場合に完了済みのファイルを変更しないテスト
+     */
+    @Test
+    public void testModifyExifCommand()
+    {
+        try
+        {
+            Path file = directory.resolve("sample_exif.jpg");
+            Files.copy(Paths.get("testdata/sample_exif.jpg"), file);
+
+            String journal = directory.resolve("journal").toString();
+            String[] args = { "--checkpoint", journal, "-t", "20170102030405", "-h", "1", file.toString() };
+
+            ModifyExifCommand.main(args);
+
+            assertTrue(new String(Files.readAllBytes(Paths.get(journal)), StandardCharsets.UTF_8).contains(
+                "modexif:set=20170102030405;adjust=0d1h0m0s"));
+
+            Files.setLastModifiedTime(file, FileTime.fromMillis(0));
+
+            ModifyExifCommand.main(new String[] { "--checkpoint", journal, "--resume", "-t", "20170102030405", "-h",
+                "1", file.toString() });
+
+            assertEquals(0, Files.getLastModifiedTime(file).toMillis());
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package jp.aibax.photoutils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.TimeZone;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import jp.aibax.image.Exif;
+import jp.aibax.image.ExifCache;
+import jp.aibax.image.ExifDates;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ExifCacheTest
+{
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        directory = Files.createTempDirectory(Paths.get("testdata"), ".exifcache");
+    }
+
+    @After
+    public void tearDown()
+    {
+        try (Stream<Path> paths = Files.walk(directory))
+        {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 変更されていないファイルはキャッシュした値を返すテスト
+     */
+    @Test
+    public void testDecode()
+    {
+        try
+        {
+            Path file = directory.resolve("sample_exif.jpg");
+            Files.copy(Paths.get("testdata/sample_exif.jpg"), file);
+
+            Path noexif = directory.resolve("sample_noexif.jpg");
+            Files.copy(Paths.get("testdata/sample_noexif.jpg"), noexif);
+
+            Exif expected = Exif.decode(file);
+            Path cacheFile = directory.resolve("exif.cache");
+
+            try (ExifCache cache = ExifCache.open(cacheFile))
+            {
+                Exif.decode(file, cache);
+                Exif.decode(noexif, cache);
+                assertEquals(0, cache.getHits());
+                assertEquals(2, cache.getMisses());
+
+                _assertEquals(expected, Exif.decode(file, cache));
+                assertEquals(1, cache.getHits());
+            }
+
+            /* 開き直してもキャッシュした値を返す */
+            try (ExifCache cache = ExifCache.open(cacheFile))
+            {
+                assertEquals(2, cache.size());
+
+                _assertEquals(expected, Exif.decode(file, cache));
+
+                Exif exif = Exif.decode(noexif, cache);
+                assertNull(exif.getMake());
+                assertNull(exif.getDateTimeOriginal());
+                assertEquals(2, cache.getHits());
+
+                /* 更新時刻を変更 → デコードし直す */
+                long lastModified = Files.getLastModifiedTime(file).toMillis();
+                Files.setLastModifiedTime(file, FileTime.fromMillis(lastModified - 60000));
+
+                exif = Exif.decode(file, cache);
+                assertEquals(1, cache.getMisses());
+                assertEquals(expected.getDateTimeOriginal(), exif.getDateTimeOriginal());
+                assertEquals(Files.getLastModifiedTime(file).toMillis(), exif.getLastModified().getTime());
+            }
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    /**
+     * キャッシュしていないタグはファイルから読み込むテスト
+     */
+    @Test
+    public void testDecode_Uncached()
+    {
+        try
+        {
+            Path file = directory.resolve("sample_exif.jpg");
+            Files.copy(Paths.get("testdata/sample_exif.jpg"), file);
+
+            Exif expected = Exif.decode(file);
+
+            try (ExifCache cache = ExifCache.open(directory.resolve("exif.cache")))
+            {
+                Exif.decode(file, cache);
+
+                Exif exif = Exif.decode(file, cache);
+                assertEquals(1, cache.getHits());
+                assertEquals(expected.getSoftware(), exif.getSoftware());
+                assertEquals(expected.getOrientation(), exif.getOrientation());
+                assertEquals(expected.getExposureTime(), exif.getExposureTime(), 0);
+            }
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    /**
+     * 撮影時刻をタイムゾーンに依存しない形式で記録するテスト（異なるタイムゾーンで開き直しても同じ日時を返す）
+     */
+    @Test
+    public void testDecode_TimeZone()
+    {
+        TimeZone timeZone = TimeZone.getDefault();
+
+        try
+        {
+            Path file = directory.resolve("sample_exif.jpg");
+            Files.copy(Paths.get("testdata/sample_exif.jpg"), file);
+
+            Path cacheFile = directory.resolve("exif.cache");
+
+            TimeZone.setDefault(TimeZone.getTimeZone("Asia/Tokyo"));
+
+            try (ExifCache cache = ExifCache.open(cacheFile))
+            {
+                Exif.decode(file, cache);
+            }
+
+            String log = new String(Files.readAllBytes(cacheFile), StandardCharsets.UTF_8);
+            assertTrue(log.contains("\t2015:10:29 11:08:57\t"));
+
+            TimeZone.setDefault(TimeZone.getTimeZone("America/New_York"));
+
+            try (ExifCache cache = ExifCache.open(cacheFile))
+            {
+                Exif exif = Exif.decode(file, cache);
+                assertEquals(1, cache.getHits());
+                assertEquals("2015:10:29 11:08:57", ExifDates.format(exif.getDateTimeOriginal()));
+            }
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+        finally
+        {
+            TimeZone.setDefault(timeZone);
+        }
+    }
+
+    private static void _assertEquals(Exif expected, Exif actual)
+    {
+        assertEquals(expected.getMake(), actual.getMake());
+        assertEquals(expected.getModel(), actual.getModel());
+        assertEquals(expected.getDateTimeOriginal(), actual.getDateTimeOriginal());
+        assertEquals(expected.getSubSecTimeOriginal(), actual.getSubSecTimeOriginal());
+        assertEquals(expected.getLastModified(), actual.getLastModified());
+    }
+}
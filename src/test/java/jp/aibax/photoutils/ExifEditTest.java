@@ -0,0 +1,164 @@
+package jp.aibax.photoutils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+
+import jp.aibax.image.Exif;
+
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.Calendar.JANUARY;
+import static org.apache.commons.imaging.formats.tiff.constants.ExifTagConstants.EXIF_TAG_DATE_TIME_DIGITIZED;
+import static org.apache.commons.imaging.formats.tiff.constants.ExifTagConstants.EXIF_TAG_DATE_TIME_ORIGINAL;
+import static org.apache.commons.imaging.formats.tiff.constants.ExifTagConstants.EXIF_TAG_SUB_SEC_TIME_ORIGINAL;
+import static org.apache.commons.imaging.formats.tiff.constants.TiffTagConstants.TIFF_TAG_DATE_TIME;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import static jp.aibax.photoutils.ExifEdit.EXIF_TAG_OFFSET_TIME_ORIGINAL;
+
+public class ExifEditTest
+{
+    private static final Date DATE = new GregorianCalendar(2017, JANUARY, 2, 3, 4, 5).getTime();
+
+    private List<Path> testfiles = new ArrayList<>();
+
+    @After
+    public void tearDown()
+    {
+        testfiles.forEach(testfile -> {
+            try
+            {
+                Files.deleteIfExists(testfile);
+            }
+            catch (IOException e)
+            {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * IFD0 と EXIF IFD の既存の日時のタグをまとめてファイル内で書き換えるテスト
+     */
+    @Test
+    public void testApply_InPlace()
+    {
+        try
+        {
+            Path testfile = _prepareTestFile(Paths.get("./testdata/sample_exif.jpg"));
+            BasicFileAttributes attributes = Files.readAttributes(testfile, BasicFileAttributes.class);
+
+            new ExifEdit(testfile).set(TIFF_TAG_DATE_TIME, DATE).set(EXIF_TAG_DATE_TIME_ORIGINAL, DATE)
+                .set(EXIF_TAG_DATE_TIME_DIGITIZED, DATE).apply();
+
+            /* 同じファイル（inode）の同じサイズのまま */
+            BasicFileAttributes modified = Files.readAttributes(testfile, BasicFileAttributes.class);
+            assertEquals(attributes.size(), modified.size());
+            assertEquals(attributes.fileKey(), modified.fileKey());
+
+            /* SubSecTimeOriginal は変更しない */
+            Exif exif = Exif.decode(testfile);
+            assertEquals("2017:01:02 03:04:05", exif.getString(Exif.Directory.EXIF, EXIF_TAG_DATE_TIME_ORIGINAL.tag));
+            assertEquals("2017:01:02 03:04:05", exif.getString(Exif.Directory.IFD0, TIFF_TAG_DATE_TIME.tag));
+            assertEquals("2017:01:02 03:04:05", exif.getString(Exif.Directory.EXIF, EXIF_TAG_DATE_TIME_DIGITIZED.tag));
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    /**
+     * タグの追加・削除を含む変更を1回の書き換えで適用するテスト
+     */
+    @Test
+    public void testApply_Rewrite()
+    {
+        try
+        {
+            Path testfile = _prepareTestFile(Paths.get("./testdata/sample_exif.jpg"));
+
+            ExifEdit edit = new ExifEdit(testfile).set(EXIF_TAG_DATE_TIME_ORIGINAL, DATE)
+                .set(EXIF_TAG_SUB_SEC_TIME_ORIGINAL, (Integer)null).set(EXIF_TAG_OFFSET_TIME_ORIGINAL, "+09:00");
+
+            /* 計画ファイルに記録したタグ番号と値から同じ変更を作成 */
+            ExifEdit.of(testfile, edit.getTags()).apply();
+
+            Exif exif = Exif.decode(testfile);
+            assertEquals(DATE, exif.getDateTimeOriginal());
+            assertNull(exif.getSubSecTimeOriginal());
+            assertFalse(exif.hasTag(Exif.Directory.EXIF, EXIF_TAG_SUB_SEC_TIME_ORIGINAL.tag));
+            assertEquals("+09:00", exif.getString(Exif.Directory.EXIF, EXIF_TAG_OFFSET_TIME_ORIGINAL.tag));
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    /**
+     * 一部の IFD のタグのみ上書きできる場合に、ファイルを変更しないテスト
+     */
+    @Test
+    public void testPatch_Partial()
+    {
+        try
+        {
+            Path testfile = _prepareTestFile(Paths.get("./testdata/sample_exif.jpg"));
+            byte[] original = Files.readAllBytes(testfile);
+            long lastModified = Files.getLastModifiedTime(testfile).toMillis();
+
+            /* IFD0 の DateTime は上書きできるが、EXIF IFD の OffsetTimeOriginal は存在しない */
+            Map<Exif.Directory, Map<Integer, String>> values = new EnumMap<>(Exif.Directory.class);
+            values.put(Exif.Directory.IFD0, Collections.singletonMap(TIFF_TAG_DATE_TIME.tag, "2017:01:02 03:04:05"));
+            values.put(Exif.Directory.EXIF, Collections.singletonMap(EXIF_TAG_OFFSET_TIME_ORIGINAL.tag, "+09:00"));
+
+            assertFalse(Exif.patch(testfile, values));
+            assertArrayEquals(original, Files.readAllBytes(testfile));
+            assertEquals(lastModified, Files.getLastModifiedTime(testfile).toMillis());
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    /**
+     * 変更できないタグ番号を指定した場合のテスト
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testFindTag_Unsupported()
+    {
+        ExifEdit.findTag(0x010f);
+    }
+
+    /**
+     * テスト用画像データをコピーして、ユニットテストで使用する画像ファイルのパスを返します
+     */
+    private Path _prepareTestFile(Path original) throws IOException
+    {
+        Path testfile = Files.createTempFile(original.toRealPath().getParent(), ".", "");
+        Files.copy(original, testfile, REPLACE_EXISTING);
+        testfiles.add(testfile);
+
+        return testfile;
+    }
+}
@@ -0,0 +1,179 @@
+package jp.aibax.photoutils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import jp.aibax.image.Exif;
+
+import static java.util.Calendar.MILLISECOND;
+import static java.util.Calendar.NOVEMBER;
+import static java.util.Calendar.OCTOBER;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ExifIndexTest
+{
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        directory = Files.createTempDirectory(Paths.get("testdata"), ".exifindex");
+
+        Files.createDirectories(directory.resolve("2015"));
+        Files.copy(Paths.get("testdata/sample_exif.jpg"), directory.resolve("2015/sample_exif.jpg"));
+        Files.copy(Paths.get("testdata/dog.jpg"), directory.resolve("dog.jpg"));
+        Files.copy(Paths.get("testdata/sample_noexif.jpg"), directory.resolve("sample_noexif.jpg"));
+        Files.copy(Paths.get("testdata/image.png"), directory.resolve("image.png"));
+    }
+
+    @After
+    public void tearDown()
+    {
+        try (Stream<Path> paths = Files.walk(directory))
+        {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 索引の作成と各列の値のテスト
+     */
+    @Test
+    public void testUpdate()
+    {
+        try (ExifIndex index = ExifIndex.update(directory, null))
+        {
+            assertTrue(Files.exists(directory.resolve(ExifIndex.DEFAULT_FILENAME)));
+
+            /* JPEG のみ */
+            assertEquals(3, index.size());
+            assertEquals(3, index.getParsedCount());
+            assertEquals(0, index.getReusedCount());
+
+            Path file = directory.resolve("2015/sample_exif.jpg");
+            Exif exif = Exif.decode(file);
+
+            int row = index.find(file);
+            assertEquals(file.toRealPath(), index.getPath(row));
+            assertEquals(Files.size(file), index.getSize(row));
+            assertEquals(Files.getLastModifiedTime(file).toMillis(), index.getLastModified(row));
+            assertEquals(exif.getDateTimeOriginal().getTime(), index.getDateTimeOriginal(row));
+            assertEquals("Apple", index.getMake(row));
+            assertEquals("iPhone 6", index.getModel(row));
+            assertEquals(1, index.getOrientation(row));
+            assertEquals(3264, index.getWidth(row));
+            assertEquals(2448, index.getHeight(row));
+            assertEquals(exif.getGpsLatitude(), index.getLatitude(row), 0);
+            assertEquals(exif.getGpsLongitude(), index.getLongitude(row), 0);
+
+            /* EXIFデータなし */
+            row = index.find(directory.resolve("sample_noexif.jpg"));
+            assertEquals(ExifIndex.NO_DATE, index.getDateTimeOriginal(row));
+            assertNull(index.getMake(row));
+            assertTrue(Double.isNaN(index.getLatitude(row)));
+
+            /* 索引にないファイル */
+            assertEquals(-1, index.find(directory.resolve("image.png")));
+            assertEquals(-1, index.find(Paths.get("testdata/dog.jpg")));
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    /**
+     * サイズ・更新時刻が変わったファイルのみを読み込むテスト
+     */
+    @Test
+    public void testUpdate_Incremental()
+    {
+        try
+        {
+            ExifIndex.update(directory, null).close();
+
+            Path file = directory.resolve("dog.jpg");
+            Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() - 60000));
+            Files.copy(Paths.get("testdata/image.jpg"), directory.resolve("image.jpg"));
+            Files.delete(directory.resolve("sample_noexif.jpg"));
+
+            try (ExifIndex index = ExifIndex.update(directory, null))
+            {
+                assertEquals(3, index.size());
+                assertEquals(2, index.getParsedCount());
+                assertEquals(1, index.getReusedCount());
+
+                int row = index.find(file);
+                assertEquals(Files.getLastModifiedTime(file).toMillis(), index.getLastModified(row));
+                assertEquals(-1, index.find(directory.resolve("sample_noexif.jpg")));
+            }
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    /**
+     * 撮影時刻の範囲・メーカー・機種による検索のテスト
+     */
+    @Test
+    public void testSelect()
+    {
+        try (ExifIndex index = ExifIndex.update(directory, directory.resolve("photos.idx")))
+        {
+            int sample = index.find(directory.resolve("2015/sample_exif.jpg"));
+            int dog = index.find(directory.resolve("dog.jpg"));
+
+            assertEquals(2, index.select(new ExifIndex.Query().make("Apple")).length);
+            assertArrayEquals(new int[] { sample }, index.select(new ExifIndex.Query().model("iPhone 6")));
+            assertArrayEquals(new int[0], index.select(new ExifIndex.Query().make("Canon")));
+            assertEquals(2, index.select(new ExifIndex.Query().hasGpsLocation()).length);
+            assertEquals(3, index.select(new ExifIndex.Query()).length);
+
+            /* 撮影時刻の範囲（開始を含み、終了を含まない / 撮影時刻順） */
+            Date from = new GregorianCalendar(2015, OCTOBER, 29).getTime();
+            Date to = new GregorianCalendar(2015, NOVEMBER, 1).getTime();
+            assertArrayEquals(new int[] { sample }, index.select(new ExifIndex.Query().dateTimeOriginal(from, to)));
+
+            long time = index.getDateTimeOriginal(sample);
+            assertArrayEquals(new int[0], index.select(new ExifIndex.Query().dateTimeOriginal(from, new Date(time))));
+
+            int[] all = index.select(new ExifIndex.Query().dateTimeOriginal(new Date(0), null));
+            assertEquals(2, all.length);
+            assertTrue(index.getDateTimeOriginal(all[0]) <= index.getDateTimeOriginal(all[1]));
+            assertTrue((all[0] == dog) || (all[1] == dog));
+
+            /* 日時の単位はミリ秒 */
+            GregorianCalendar calendar = new GregorianCalendar();
+            calendar.setTimeInMillis(time);
+            assertEquals(789, calendar.get(MILLISECOND));
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
+}
@@ -1,20 +1,43 @@
 package jp.aibax.photoutils;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import org.apache.commons.imaging.ImageReadException;
+import org.apache.commons.imaging.Imaging;
+import org.apache.commons.imaging.formats.jpeg.JpegImageMetadata;
+import org.apache.commons.imaging.formats.tiff.TiffField;
 import org.junit.Test;
 
 import jp.aibax.image.Exif;
+import jp.aibax.image.ExifDates;
 
 import static java.util.Calendar.MILLISECOND;
 import static java.util.Calendar.OCTOBER;
+import static org.apache.commons.imaging.formats.tiff.constants.ExifTagConstants.EXIF_TAG_EXPOSURE_PROGRAM;
+import static org.apache.commons.imaging.formats.tiff.constants.ExifTagConstants.EXIF_TAG_EXPOSURE_TIME;
+import static org.apache.commons.imaging.formats.tiff.constants.ExifTagConstants.EXIF_TAG_GAIN_CONTROL;
+import static org.apache.commons.imaging.formats.tiff.constants.GpsTagConstants.GPS_TAG_GPS_DATE_STAMP;
+import static org.apache.commons.imaging.formats.tiff.constants.TiffTagConstants.TIFF_TAG_MAKE;
+import static org.apache.commons.imaging.formats.tiff.constants.TiffTagConstants.TIFF_TAG_MODEL;
+import static org.apache.commons.imaging.formats.tiff.constants.TiffTagConstants.TIFF_TAG_ORIENTATION;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -87,4 +110,274 @@ public class ExifTest
             fail();
         }
     }
+
+    /**
+     * APP1 セグメントのみを読み込んで解析した結果が commons-imaging で解析した結果と一致するテスト
+     */
+    @Test
+    public void testDecode_MatchesImaging()
+    {
+        for (String name : new String[] { "sample_exif.jpg", "dog.jpg", "sample_noexif.jpg", "image.jpg" })
+        {
+            Path path = Paths.get("./testdata", name);
+
+            try
+            {
+                Exif exif = Exif.decode(path);
+
+                JpegImageMetadata metadata = (JpegImageMetadata)Imaging.getMetadata(path.toFile());
+                TiffField make = (metadata != null) ? metadata.findEXIFValue(TIFF_TAG_MAKE) : null;
+                TiffField model = (metadata != null) ? metadata.findEXIFValue(TIFF_TAG_MODEL) : null;
+
+                assertEquals(name, (make != null) ? make.getStringValue().trim() : null, exif.getMake());
+                assertEquals(name, (model != null) ? model.getStringValue().trim() : null, exif.getModel());
+            }
+            catch (ImageReadException | IOException e)
+            {
+                e.printStackTrace();
+                fail();
+            }
+        }
+    }
+
+    /**
+     * JPEG 以外の画像は commons-imaging で解析され、EXIFデータがない場合は各値がnullとなるテスト
+     */
+    @Test
+    public void testDecode_NotJPEG()
+    {
+        Path path = Paths.get("./testdata/image.png");
+
+        try
+        {
+            Exif exif = Exif.decode(path);
+
+            assertNull(exif.getMake());
+            assertNull(exif.getModel());
+            assertNull(exif.getDateTimeOriginal());
+            assertNotNull(exif.getLastModified());
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void testDecode_AllDirectories()
+    {
+        try
+        {
+            Exif exif = Exif.decode(Paths.get("./testdata/sample_exif.jpg"));
+
+            /* IFD0 */
+            assertEquals(1, exif.getOrientation());
+            assertEquals("9.1", exif.getSoftware());
+
+            /* EXIF IFD */
+            assertEquals(1.0 / 40, exif.getExposureTime(), 1e-9);
+            assertEquals(2.2, exif.getFNumber(), 1e-9);
+            assertEquals(32, exif.getIsoSpeed());
+            assertEquals(16, exif.getFlash());
+            assertEquals(4.15, exif.getFocalLength(), 1e-9);
+            assertEquals(29, exif.getFocalLengthIn35mm());
+            assertEquals(3264, exif.getPixelXDimension());
+            assertEquals(2448, exif.getPixelYDimension());
+            assertEquals("Apple", exif.getLensMake());
+            assertEquals("iPhone 6 back camera 4.15mm f/2.2", exif.getLensModel());
+
+            /* GPS IFD */
+            assertTrue(exif.hasGpsLocation());
+            assertEquals(36 + 34 / 60.0 + 40.41 / 3600, exif.getGpsLatitude(), 1e-9);
+            assertEquals(136 + 38 / 60.0 + 56.19 / 3600, exif.getGpsLongitude(), 1e-9);
+            assertEquals(9416.0 / 459, exif.getGpsAltitude(), 1e-9);
+            assertEquals("2015:10:29", exif.getString(Exif.Directory.GPS, GPS_TAG_GPS_DATE_STAMP.tag));
+
+            /* Interoperability IFD（なし） */
+            assertNull(exif.getInteroperabilityIndex());
+
+            /* IFD1 */
+            byte[] thumbnail = exif.getThumbnail();
+            assertEquals(10477, thumbnail.length);
+            assertEquals(0xFF, thumbnail[0] & 0xFF);
+            assertEquals(0xD8, thumbnail[1] & 0xFF);
+
+            /* 任意のタグ */
+            assertEquals(2, exif.getLong(Exif.Directory.EXIF, EXIF_TAG_EXPOSURE_PROGRAM.tag, -1));
+            assertEquals(-1, exif.getLong(Exif.Directory.EXIF, EXIF_TAG_GAIN_CONTROL.tag, -1));
+            assertFalse(exif.hasTag(Exif.Directory.INTEROP, EXIF_TAG_GAIN_CONTROL.tag));
+
+            /* EXIFデータなし */
+            exif = Exif.decode(Paths.get("./testdata/sample_noexif.jpg"));
+            assertEquals(0, exif.getIsoSpeed());
+            assertTrue(Double.isNaN(exif.getExposureTime()));
+            assertFalse(exif.hasGpsLocation());
+            assertTrue(Double.isNaN(exif.getGpsLatitude()));
+            assertNull(exif.getThumbnail());
+
+            /* commons-imaging で解析した画像 */
+            exif = Exif.decode(Paths.get("./testdata/image.png"));
+            assertEquals(0, exif.getOrientation());
+            assertNull(exif.getThumbnail());
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    @Test
+    public void testDecode_InMemory()
+    {
+        try
+        {
+            byte[] image = Files.readAllBytes(Paths.get("./testdata/sample_exif.jpg"));
+            Date d20151029110857789 = d(2015, OCTOBER, 29, 11, 8, 57, 789);
+
+            /* byte[] */
+            Exif exif = Exif.decode(image);
+            assertEquals("Apple", exif.getMake());
+            assertEquals("iPhone 6", exif.getModel());
+            assertEquals(d20151029110857789, exif.getDateTimeOriginal());
+            assertNull(exif.getLastModified());
+            assertNotNull(exif.toString());
+
+            /* ByteBuffer（position と limit は変更しない） */
+            ByteBuffer buffer = ByteBuffer.allocate(image.length + 10);
+            buffer.position(5);
+            buffer.put(image);
+            buffer.position(5).limit(5 + image.length);
+
+            exif = Exif.decode(buffer);
+            assertEquals("iPhone 6", exif.getModel());
+            assertEquals(d20151029110857789, exif.getDateTimeOriginal());
+            assertEquals(5, buffer.position());
+            assertEquals(5 + image.length, buffer.limit());
+
+            /* InputStream（APP1 (Exif) セグメントまでのみを読み込み、ストリームは閉じない） */
+            ByteArrayInputStream inputStream = new ByteArrayInputStream(image);
+
+            exif = Exif.decode(inputStream);
+            assertEquals("Apple", exif.getMake());
+            assertEquals(d20151029110857789, exif.getDateTimeOriginal());
+            assertNull(exif.getLastModified());
+            assertTrue(inputStream.available() > 0);
+
+            /* JPEG 以外 → commons-imaging で解析 */
+            byte[] png = Files.readAllBytes(Paths.get("./testdata/image.png"));
+            assertNull(Exif.decode(png).getMake());
+            assertNull(Exif.decode(new ByteArrayInputStream(png)).getMake());
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    /**
+     * 整数型ではないタグを整数として読み込んだ場合は例外を投げるテスト
+     */
+    @Test
+    public void testGetLong_InvalidType()
+    {
+        try
+        {
+            Exif exif = Exif.decode(Paths.get("./testdata/sample_exif.jpg"));
+            assertEquals(exif.getOrientation(), exif.getLong(Exif.Directory.IFD0, TIFF_TAG_ORIENTATION.tag, 0));
+
+            /* ASCII */
+            try
+            {
+                exif.getLong(Exif.Directory.IFD0, TIFF_TAG_MAKE.tag, 0);
+                fail();
+            }
+            catch (RuntimeException e)
+            {
+                assertTrue(e.getCause() instanceof ImageReadException);
+            }
+
+            /* RATIONAL */
+            try
+            {
+                exif.getLong(Exif.Directory.EXIF, EXIF_TAG_EXPOSURE_TIME.tag, 0);
+                fail();
+            }
+            catch (RuntimeException e)
+            {
+                assertTrue(e.getCause() instanceof ImageReadException);
+            }
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    /**
+     * EXIFの日時の文字列の変換と、複数のスレッドから同時に変換した場合に結果が壊れないテスト
+     */
+    @Test
+    public void testExifDates()
+    {
+        assertEquals(d(2015, OCTOBER, 29, 11, 8, 57), ExifDates.parse("2015:10:29 11:08:57"));
+        assertEquals("2015:10:29 11:08:57", ExifDates.format(d(2015, OCTOBER, 29, 11, 8, 57, 789)));
+        assertNull(ExifDates.parse("0000:00:00 00:00:00"));
+        assertNull(ExifDates.parse("    "));
+
+        try
+        {
+            ExifDates.parse("2015-10-29 11:08:57");
+            fail();
+        }
+        catch (IllegalArgumentException e)
+        {
+            /* OK */
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try
+        {
+            List<Future<Boolean>> futures = new ArrayList<>();
+
+            for (int i = 0; i < 4; i++)
+            {
+                int day = i + 1;
+
+                futures.add(executor.submit(() -> {
+
+                    String value = "2015:10:0" + day + " 11:08:57";
+
+                    for (int j = 0; j < 10000; j++)
+                    {
+                        if (!value.equals(ExifDates.format(ExifDates.parse(value))))
+                        {
+                            return false;
+                        }
+                    }
+
+                    return true;
+
+                }));
+            }
+
+            for (Future<Boolean> future : futures)
+            {
+                assertTrue(future.get());
+            }
+        }
+        catch (InterruptedException | ExecutionException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
 }
@@ -0,0 +1,154 @@
+package jp.aibax.photoutils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.imaging.ImageReadException;
+import org.apache.commons.imaging.Imaging;
+import org.apache.commons.imaging.formats.jpeg.JpegImageMetadata;
+import org.apache.commons.imaging.formats.tiff.write.TiffOutputSet;
+import org.junit.After;
+import org.junit.Test;
+
+import jp.aibax.image.Exif;
+import jp.aibax.image.ExifDates;
+import jp.aibax.image.ExifWriter;
+
+import static org.apache.commons.imaging.formats.tiff.constants.ExifTagConstants.EXIF_TAG_DATE_TIME_ORIGINAL;
+import static org.apache.commons.imaging.formats.tiff.constants.TiffTagConstants.TIFF_TAG_SOFTWARE;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class ExifWriterTest
+{
+    private List<Path> testfiles = new ArrayList<>();
+
+    @After
+    public void tearDown()
+    {
+        testfiles.forEach(testfile -> {
+            try
+            {
+                Files.deleteIfExists(testfile);
+            }
+            catch (IOException e)
+            {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * 既存の APP1 (Exif) セグメントを置き換え、画像データはそのままコピーするテスト
+     */
+    @Test
+    public void testWrite_ReplaceExif()
+    {
+        try
+        {
+            Path original = Paths.get("./testdata/sample_exif.jpg");
+            Exif exif = Exif.decode(original);
+
+            TiffOutputSet outputSet = ((JpegImageMetadata)Imaging.getMetadata(original.toFile())).getExif()
+                .getOutputSet();
+            outputSet.getOrCreateRootDirectory().removeField(TIFF_TAG_SOFTWARE);
+            outputSet.getOrCreateRootDirectory().add(TIFF_TAG_SOFTWARE, "photoutils");
+
+            Path target = _createTempFile();
+            long length = ExifWriter.write(original, target, outputSet);
+            assertEquals(Files.size(target), length);
+
+            Exif modified = Exif.decode(target);
+            assertEquals("photoutils", modified.getSoftware());
+            assertEquals(exif.getMake(), modified.getMake());
+            assertEquals(exif.getDateTimeOriginal(), modified.getDateTimeOriginal());
+
+            _assertImageDataEquals(original, target);
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    /**
+     * EXIFデータがないファイルに APP1 (Exif) セグメントを追加するテスト
+     */
+    @Test
+    public void testWrite_NoExif()
+    {
+        try
+        {
+            Path original = Paths.get("./testdata/sample_noexif.jpg");
+            assertNull(Exif.decode(original).getDateTimeOriginal());
+
+            TiffOutputSet outputSet = new TiffOutputSet();
+            outputSet.getOrCreateExifDirectory().add(EXIF_TAG_DATE_TIME_ORIGINAL, "2017:01:02 03:04:05");
+
+            Path target = _createTempFile();
+            ExifWriter.write(original, target, outputSet);
+
+            assertEquals(ExifDates.parse("2017:01:02 03:04:05"), Exif.decode(target).getDateTimeOriginal());
+
+            _assertImageDataEquals(original, target);
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    /**
+     * JPEG 以外のファイルのテスト
+     */
+    @Test(expected = ImageReadException.class)
+    public void testWrite_NotJpeg() throws Exception
+    {
+        ExifWriter.write(Paths.get("./testdata/image.png"), _createTempFile(), new TiffOutputSet());
+    }
+
+    private Path _createTempFile() throws IOException
+    {
+        Path testfile = Files.createTempFile(Paths.get("./testdata").toRealPath(), ".", "");
+        testfiles.add(testfile);
+
+        return testfile;
+    }
+
+    /**
+     * 最初の DQT セグメントから EOI までが同一であることを確認します
+     */
+    private static void _assertImageDataEquals(Path expected, Path actual) throws IOException
+    {
+        byte[] expectedBytes = Files.readAllBytes(expected);
+        byte[] actualBytes = Files.readAllBytes(actual);
+
+        int expectedOffset = _indexOfDQT(expectedBytes);
+        int actualOffset = _indexOfDQT(actualBytes);
+
+        assertArrayEquals(Arrays.copyOfRange(expectedBytes, expectedOffset, expectedBytes.length),
+            Arrays.copyOfRange(actualBytes, actualOffset, actualBytes.length));
+    }
+
+    private static int _indexOfDQT(byte[] image)
+    {
+        int position = 2;
+
+        /* 画像データの前の APPn・COM セグメントを読み飛ばす */
+        while (((image[position + 1] & 0xFF) >= 0xE0) && ((image[position + 1] & 0xFF) != 0xFF))
+        {
+            position += 2 + (((image[position + 2] & 0xFF) << 8) | (image[position + 3] & 0xFF));
+        }
+
+        return position;
+    }
+}
@@ -0,0 +1,222 @@
+package jp.aibax.photoutils;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import jp.aibax.image.ImageUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class ImagePipelineTest
+{
+    private PrintStream stdout;
+
+    private PrintStream stderr;
+
+    private ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    @Before
+    public void setUp()
+    {
+        stdout = System.out;
+        stderr = System.err;
+
+        output.reset();
+        System.setOut(new PrintStream(output, true));
+        System.setErr(new PrintStream(new ByteArrayOutputStream(), true));
+    }
+
+    @After
+    public void tearDown()
+    {
+        System.setOut(stdout);
+        System.setErr(stderr);
+    }
+
+    /**
+     * 待ち行列の容量が画像より小さい場合でも全ての画像が変換され、結果が登録した順に出力されるテスト
+     */
+    @Test
+    public void testBackpressure()
+    {
+        Path directory = null;
+
+        try
+        {
+            directory = Files.createTempDirectory(Paths.get("testdata"), ".pipeline");
+
+            StringBuilder expected = new StringBuilder();
+
+            /* 待ち行列の容量 1KB（常に1件ずつ次の段階に渡される） */
+            try (ImagePipeline pipeline = new ImagePipeline(4, false, 2, 1024))
+            {
+                for (int i = 0; i < 8; i++)
+                {
+                    Path file = directory.resolve(i + ".jpg");
+                    Files.copy(Paths.get("testdata/image.jpg"), file);
+
+                    expected.append(file.getFileName()).append("\n");
+
+                    pipeline.submit(file, "resize:64",
+                        (image, size) -> ImageUtils.readImage(image, null), image -> ImageUtils.resizeImage(image, 64),
+                        (out, f, source, result) -> out.println(f.getFileName()), false);
+                }
+
+                pipeline.await();
+
+                assertEquals(expected.toString(), output.toString());
+                assertEquals(0, pipeline.getErrorCount());
+
+                pipeline.getStages().forEach(stage -> assertEquals(stage.getName(), 8, stage.getCount()));
+            }
+
+            for (int i = 0; i < 8; i++)
+            {
+                BufferedImage image = ImageUtils.readImage(directory.resolve(i + ".jpg"));
+                assertEquals(64, Math.max(image.getWidth(), image.getHeight()));
+            }
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+        finally
+        {
+            _delete(directory);
+        }
+    }
+
+    /**
+     * メモリ使用量の上限より大きな画像は1件ずつデコードされ、全ての画像が変換されるテスト
+     */
+    @Test
+    public void testHeapBudget()
+    {
+        Path directory = null;
+
+        try
+        {
+            directory = Files.createTempDirectory(Paths.get("testdata"), ".pipeline");
+
+            AtomicInteger decoding = new AtomicInteger();
+            AtomicInteger maxDecoding = new AtomicInteger();
+
+            /* メモリ使用量の上限 1KB（常に1件ずつデコードされる） */
+            try (ImagePipeline pipeline = new ImagePipeline(4, false, 2, 64 * 1024 * 1024, 1024))
+            {
+                for (int i = 0; i < 8; i++)
+                {
+                    Path file = directory.resolve(i + ".jpg");
+                    Files.copy(Paths.get("testdata/image.jpg"), file);
+
+                    pipeline.submit(file, "resize:64", (image, size) -> {
+
+                        maxDecoding.accumulateAndGet(decoding.incrementAndGet(), Math::max);
+                        return ImageUtils.readImage(image, null);
+
+                    }, image -> {
+
+                        BufferedImage resized = ImageUtils.resizeImage(image, 64);
+                        decoding.decrementAndGet();
+                        return resized;
+
+                    }, (out, f, source, result) -> out.println(f.getFileName()), false);
+                }
+
+                pipeline.await();
+
+                assertEquals(0, pipeline.getErrorCount());
+                assertEquals(1, maxDecoding.get());
+            }
+
+            for (int i = 0; i < 8; i++)
+            {
+                BufferedImage image = ImageUtils.readImage(directory.resolve(i + ".jpg"));
+                assertEquals(64, Math.max(image.getWidth(), image.getHeight()));
+            }
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+        finally
+        {
+            _delete(directory);
+        }
+    }
+
+    /**
+     * 変換できない画像があっても他の画像の処理が継続されるテスト
+     */
+    @Test
+    public void testError()
+    {
+        Path directory = null;
+
+        try
+        {
+            directory = Files.createTempDirectory(Paths.get("testdata"), ".pipeline");
+
+            Path broken = directory.resolve("broken.jpg");
+            Files.write(broken, new byte[] { 1, 2, 3, 4 });
+
+            Path file = directory.resolve("image.jpg");
+            Files.copy(Paths.get("testdata/image.jpg"), file);
+
+            try (ImagePipeline pipeline = new ImagePipeline(2))
+            {
+                for (Path target : new Path[] { broken, file })
+                {
+                    pipeline.submit(target, "test", (image, size) -> null, image -> image,
+                        (out, f, source, result) -> out.println(f.getFileName()), false);
+                }
+
+                pipeline.await();
+
+                assertEquals("image.jpg\n", output.toString());
+                assertEquals(1, pipeline.getErrorCount());
+            }
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+        finally
+        {
+            _delete(directory);
+        }
+    }
+
+    private static void _delete(Path directory)
+    {
+        if (directory == null)
+        {
+            return;
+        }
+
+        try (Stream<Path> paths = Files.walk(directory))
+        {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
+}
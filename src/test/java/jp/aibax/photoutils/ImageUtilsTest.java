@@ -1,17 +1,43 @@
 package jp.aibax.photoutils;
 
+import java.awt.Rectangle;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
 import javax.imageio.IIOException;
 import javax.imageio.ImageIO;
 
+import org.apache.commons.imaging.ImageFormats;
+import org.apache.commons.imaging.ImageWriteException;
+import org.apache.commons.imaging.Imaging;
 import org.junit.Test;
 
+import jp.aibax.exception.ImageLimitExceededException;
+import jp.aibax.exception.UnsupportedImageFormatException;
+import jp.aibax.image.ImageLimits;
 import jp.aibax.image.ImageUtils;
+import jp.aibax.image.codec.ImageCodec;
+import jp.aibax.image.codec.ImageCodecRegistry;
 
 import static java.awt.Color.BLUE;
 import static java.awt.Color.GREEN;
@@ -25,6 +51,7 @@ import static jp.aibax.image.ImageFormat.BMP;
 import static jp.aibax.image.ImageFormat.GIF;
 import static jp.aibax.image.ImageFormat.JPEG;
 import static jp.aibax.image.ImageFormat.PNG;
+import static jp.aibax.image.ImageFormat.TIFF;
 
 public class ImageUtilsTest
 {
@@ -113,6 +140,110 @@ public class ImageUtilsTest
         }
     }
 
+    @Test
+    public void testTIFF()
+    {
+        Path file = Paths.get("./testdata/1920x1080.png");
+        assertTrue(Files.exists(file));
+
+        try
+        {
+            // テストデータの準備（PNG → TIFF）
+            byte[] tiff = Imaging.writeImageToBytes(ImageUtils.readImage(file), ImageFormats.TIFF, null);
+
+            assertEquals(TIFF, ImageUtils.getImageFormat(tiff));
+
+            byte[] trimmed = ImageUtils.trim(tiff, (float)4 / (float)3);
+            assertEquals(TIFF, ImageUtils.getImageFormat(trimmed));
+
+            BufferedImage trimmedImage = ImageUtils.readImage(trimmed);
+
+            assertEquals(1440, trimmedImage.getWidth());
+            assertEquals(1080, trimmedImage.getHeight());
+            assertEquals(GREEN.getRGB(), trimmedImage.getRGB(0, 0));
+            assertEquals(WHITE.getRGB(), trimmedImage.getRGB(720, 540));
+        }
+        catch (IOException | ImageWriteException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    /**
+     * TIFF の領域・間引き間隔を指定した読み込みのテスト（全体をデコードした後に切り出し・間引き）
+     */
+    @Test
+    public void testTIFF_RegionAndSubsampling()
+    {
+        Path file = Paths.get("./testdata/1920x1080.png");
+
+        try
+        {
+            BufferedImage original = ImageUtils.readImage(file);
+            byte[] tiff = Imaging.writeImageToBytes(original, ImageFormats.TIFF, null);
+
+            ImageCodec codec = ImageCodecRegistry.getCodec(TIFF);
+            BufferedImage image = codec.read(tiff, new Rectangle(10, 20, 100, 50), 3);
+
+            assertEquals(34, image.getWidth());
+            assertEquals(17, image.getHeight());
+
+            for (int y = 0; y < image.getHeight(); y++)
+            {
+                for (int x = 0; x < image.getWidth(); x++)
+                {
+                    assertEquals(original.getRGB(10 + x * 3, 20 + y * 3), image.getRGB(x, y));
+                }
+            }
+        }
+        catch (IOException | ImageWriteException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    /**
+     * 複数のスレッドで ImageReader / ImageWriter を再利用しながら画像を処理するテスト
+     */
+    @Test
+    public void testResize_Concurrent()
+    {
+        List<Path> files = Arrays.asList(Paths.get("./testdata/1080x1440.png"), Paths.get("./testdata/1920x1080.png"),
+            Paths.get("./testdata/dog.jpg"), Paths.get("./testdata/image.bmp"));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try
+        {
+            List<Future<BufferedImage>> futures = new ArrayList<>();
+
+            for (int i = 0; i < 40; i++)
+            {
+                Path file = files.get(i % files.size());
+                futures.add(executor.submit(() -> ImageUtils.readImage(ImageUtils.resize(file, 100))));
+            }
+
+            for (Future<BufferedImage> future : futures)
+            {
+                BufferedImage resizedImage = future.get();
+
+                assertNotNull(resizedImage);
+                assertEquals(100, Math.max(resizedImage.getWidth(), resizedImage.getHeight()));
+            }
+        }
+        catch (InterruptedException | ExecutionException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
     @Test
     public void testReadImageAndSize_1080x1440()
     {
@@ -759,4 +890,160 @@ public class ImageUtilsTest
             fail();
         }
     }
+
+    /**
+     * 小さなデータで巨大なサイズを宣言した画像（解凍爆弾）がデコードされずに例外となるテスト
+     */
+    @Test
+    public void testReadImage_DecompressionBomb()
+    {
+        /* 65535x65535 の PNG のヘッダのみ */
+        ByteBuffer ihdr = ByteBuffer.allocate(17);
+        ihdr.put("IHDR".getBytes(StandardCharsets.US_ASCII));
+        ihdr.putInt(65535).putInt(65535);
+        ihdr.put(new byte[] { 8, 2, 0, 0, 0 });
+
+        CRC32 crc = new CRC32();
+        crc.update(ihdr.array());
+
+        ByteBuffer png = ByteBuffer.allocate(8 + 4 + 17 + 4);
+        png.put(new byte[] { (byte)0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' });
+        png.putInt(13).put(ihdr.array()).putInt((int)crc.getValue());
+
+        try
+        {
+            ImageUtils.readImage(png.array());
+            fail();
+        }
+        catch (ImageLimitExceededException e)
+        {
+            assertTrue(e.getMessage().contains("65535x65535"));
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+
+        try
+        {
+            ImageUtils.resize(png.array(), 640);
+            fail();
+        }
+        catch (ImageLimitExceededException e)
+        {
+            /* OK */
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    /**
+     * 上限を変更した場合に、上限を超える画像のみが例外となるテスト
+     */
+    @Test
+    public void testReadImage_Limits()
+    {
+        try
+        {
+            byte[] image = Files.readAllBytes(Paths.get("./testdata/1920x1080.png"));
+
+            ImageLimits.setDefault(new ImageLimits(1920 * 1080, 0, 0, 0));
+            assertNotNull(ImageUtils.readImage(image));
+
+            ImageLimits.setDefault(new ImageLimits(1920 * 1080 - 1, 0, 0, 0));
+            _assertLimitExceeded(image);
+
+            ImageLimits.setDefault(new ImageLimits(0, 1919, 0, 0));
+            _assertLimitExceeded(image);
+
+            ImageLimits.setDefault(new ImageLimits(0, 0, 1920 * 1080 * 4 - 1, 0));
+            _assertLimitExceeded(image);
+
+            /* デコードの制限時間 1ms（12M ピクセルの JPEG のデコードを中断） */
+            byte[] large = ImageUtils.writeImage(new BufferedImage(4000, 3000, BufferedImage.TYPE_INT_RGB), JPEG);
+
+            ImageLimits.setDefault(new ImageLimits(0, 0, 0, 1));
+            _assertLimitExceeded(large);
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+        finally
+        {
+            ImageLimits.setDefault(null);
+        }
+    }
+
+    /**
+     * TYPE_CUSTOM の画像（RGBA の順のバイト配列）をリサイズするテスト
+     */
+    @Test
+    public void testResizeImage_TypeCustom()
+    {
+        ColorModel colorModel = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB), true, false,
+            Transparency.TRANSLUCENT, DataBuffer.TYPE_BYTE);
+        WritableRaster raster = Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE, 64, 48, 64 * 4, 4,
+            new int[] { 0, 1, 2, 3 }, null);
+        BufferedImage image = new BufferedImage(colorModel, raster, false, null);
+        assertEquals(BufferedImage.TYPE_CUSTOM, image.getType());
+
+        BufferedImage resizedImage = ImageUtils.resizeImage(image, 32);
+        assertEquals(32, resizedImage.getWidth());
+        assertEquals(24, resizedImage.getHeight());
+        assertEquals(BufferedImage.TYPE_INT_ARGB, resizedImage.getType());
+    }
+
+    /**
+     * エンコードできない画像は空のデータを返さずに例外を送出するテスト
+     */
+    @Test
+    public void testWriteImage_CannotEncode()
+    {
+        try
+        {
+            /* BMP はアルファチャンネルをエンコードできない */
+            ImageUtils.writeImage(new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB), BMP);
+            fail();
+        }
+        catch (UnsupportedImageFormatException e)
+        {
+            /* OK */
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+
+        try
+        {
+            /* 同じスレッドの ImageWriter は引き続き使用できる */
+            byte[] image = ImageUtils.writeImage(new BufferedImage(16, 16, BufferedImage.TYPE_INT_RGB), BMP);
+            assertEquals(16, ImageUtils.readImage(image).getWidth());
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    private static void _assertLimitExceeded(byte[] image) throws IOException
+    {
+        try
+        {
+            ImageUtils.readImage(image);
+            fail();
+        }
+        catch (ImageLimitExceededException e)
+        {
+            /* OK */
+        }
+    }
 }
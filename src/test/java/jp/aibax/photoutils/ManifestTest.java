@@ -0,0 +1,265 @@
+package jp.aibax.photoutils;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import jp.aibax.image.ImageUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ManifestTest
+{
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        directory = Files.createTempDirectory(Paths.get("testdata"), ".manifest");
+    }
+
+    @After
+    public void tearDown()
+    {
+        try (Stream<Path> paths = Files.walk(directory))
+        {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 記録したファイルの変更の有無と処理内容を判定するテスト
+     */
+    @Test
+    public void testIsUpToDate()
+    {
+        try
+        {
+            Path file = directory.resolve("image.jpg");
+            Files.copy(Paths.get("testdata/image.jpg"), file);
+
+            Path manifestFile = directory.resolve("manifest.txt");
+
+            try (Manifest manifest = Manifest.open(manifestFile))
+            {
+                assertFalse(manifest.isUpToDate(file, "resize:640"));
+
+                manifest.record(file, "resize:640");
+
+                assertTrue(manifest.isUpToDate(file, "resize:640"));
+                assertFalse(manifest.isUpToDate(file, "resize:320"));
+            }
+
+            /* 更新時刻のみ変更 → 内容が同じなので処理済み */
+            Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() - 60000));
+
+            try (Manifest manifest = Manifest.open(manifestFile))
+            {
+                assertEquals(1, manifest.size());
+                assertTrue(manifest.isUpToDate(file, "resize:640"));
+            }
+
+            /* 内容を変更 → 未処理 */
+            byte[] bytes = Files.readAllBytes(file);
+            bytes[bytes.length / 2] ^= 0xFF;
+            Files.write(file, bytes);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() - 60000));
+
+            try (Manifest manifest = Manifest.open(manifestFile))
+            {
+                assertFalse(manifest.isUpToDate(file, "resize:640"));
+            }
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    /**
+     * 大きなファイルの途中を同じサイズのまま書き換えた場合に未処理と判定するテスト
+     */
+    @Test
+    public void testIsUpToDate_ModifiedInPlace()
+    {
+        try
+        {
+            Path file = directory.resolve("image.bmp");
+            Files.copy(Paths.get("testdata/image.bmp"), file);
+
+            try (Manifest manifest = Manifest.open(directory.resolve("manifest.txt")))
+            {
+                manifest.record(file, "resize:640");
+
+                /* 先頭・末尾から離れた位置の画素を書き換え（サイズは同じ） */
+                byte[] bytes = Files.readAllBytes(file);
+                bytes[bytes.length / 2] ^= 0xFF;
+                Files.write(file, bytes);
+                Files.setLastModifiedTime(file,
+                    FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 60000));
+
+                assertEquals(Files.size(Paths.get("testdata/image.bmp")), Files.size(file));
+                assertFalse(manifest.isUpToDate(file, "resize:640"));
+            }
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    /**
+     * 複数のコマンドで同じマニフェストを共有した場合に、それぞれの処理内容を保持するテスト
+     */
+    @Test
+    public void testIsUpToDate_MultipleOperations()
+    {
+        try
+        {
+            Path file = directory.resolve("image.jpg");
+            Files.copy(Paths.get("testdata/image.jpg"), file);
+
+            Path manifestFile = directory.resolve("manifest.txt");
+
+            try (Manifest manifest = Manifest.open(manifestFile))
+            {
+                assertFalse(manifest.isUpToDate(file, "resize:640"));
+                manifest.record(file, "resize:640");
+
+                /* 別の処理でファイルを変更 */
+                assertFalse(manifest.isUpToDate(file, "trim:1.5"));
+                _modify(file);
+                manifest.record(file, "trim:1.5");
+
+                assertTrue(manifest.isUpToDate(file, "resize:640"));
+                assertTrue(manifest.isUpToDate(file, "trim:1.5"));
+
+                /* 同じコマンドの処理内容は置き換え */
+                assertFalse(manifest.isUpToDate(file, "resize:320"));
+                _modify(file);
+                manifest.record(file, "resize:320");
+
+                assertFalse(manifest.isUpToDate(file, "resize:640"));
+                assertTrue(manifest.isUpToDate(file, "resize:320"));
+                assertTrue(manifest.isUpToDate(file, "trim:1.5"));
+            }
+
+            try (Manifest manifest = Manifest.open(manifestFile))
+            {
+                assertEquals(1, manifest.size());
+                assertTrue(manifest.isUpToDate(file, "resize:320"));
+                assertTrue(manifest.isUpToDate(file, "trim:1.5"));
+
+                /* 記録後に外部で変更されたファイルは処理内容を引き継がない */
+                _modify(file);
+                assertFalse(manifest.isUpToDate(file, "exifrename"));
+                manifest.record(file, "exifrename");
+
+                assertTrue(manifest.isUpToDate(file, "exifrename"));
+                assertFalse(manifest.isUpToDate(file, "resize:320"));
+                assertFalse(manifest.isUpToDate(file, "trim:1.5"));
+            }
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    /**
+     * 閉じる前に記録がファイルに書き出されるテスト（強制終了した場合も記録が失われない）
+     */
+    @Test
+    public void testRecord_Durability()
+    {
+        try
+        {
+            Path file = directory.resolve("image.jpg");
+            Files.copy(Paths.get("testdata/image.jpg"), file);
+
+            Path manifestFile = directory.resolve("manifest.txt");
+
+            try (Manifest manifest = Manifest.open(manifestFile))
+            {
+                manifest.record(file, "resize:640");
+
+                try (Manifest reopened = Manifest.open(manifestFile))
+                {
+                    assertEquals(1, reopened.size());
+                    assertTrue(reopened.isUpToDate(file, "resize:640"));
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    private static void _modify(Path file) throws IOException
+    {
+        long lastModified = Files.getLastModifiedTime(file).toMillis();
+
+        Files.write(file, new byte[] { 0 }, StandardOpenOption.APPEND);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(lastModified + 60000));
+    }
+
+    /**
+     * マニフェストを指定して同じ処理を繰り返した場合に、処理済みのファイルが再度リサイズされないテスト
+     */
+    @Test
+    public void testResizeCommand()
+    {
+        try
+        {
+            Path file = directory.resolve("1920x1080.png");
+            Files.copy(Paths.get("testdata/1920x1080.png"), file);
+
+            String manifest = directory.resolve("manifest.txt").toString();
+
+            ResizeCommand.main(new String[] { "--manifest", manifest, "-w", "960", file.toString() });
+
+            BufferedImage resized = ImageUtils.readImage(file);
+            assertEquals(960, resized.getWidth());
+            assertEquals(540, resized.getHeight());
+
+            long lastModified = Files.getLastModifiedTime(file).toMillis();
+
+            /* 処理済みのためスキップ（指定したサイズで再度リサイズしない） */
+            ResizeCommand.main(new String[] { "--manifest", manifest, "-w", "960", file.toString() });
+
+            assertEquals(lastModified, Files.getLastModifiedTime(file).toMillis());
+
+            /* 処理内容が異なる場合はリサイズ */
+            ResizeCommand.main(new String[] { "--manifest", manifest, "-w", "480", file.toString() });
+
+            assertEquals(480, ImageUtils.readImage(file).getWidth());
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
+}
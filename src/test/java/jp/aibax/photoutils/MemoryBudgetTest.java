@@ -0,0 +1,82 @@
+package jp.aibax.photoutils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MemoryBudgetTest
+{
+    /**
+     * 先に待っている大きな画像より後の小さな画像が、空き容量があっても先に確保しないテスト
+     */
+    @Test
+    public void testAcquire_Order()
+    {
+        MemoryBudget budget = new MemoryBudget(10 * 1024);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+
+        try
+        {
+            int held = budget.acquire(6 * 1024);
+
+            Thread large = _start(budget, 10 * 1024, "large", order);
+            _awaitWaiting(large);
+
+            /* 空き容量 (4KiB) は足りるが、先に待っている大きな画像の後に確保 */
+            Thread small = _start(budget, 2 * 1024, "small", order);
+            _awaitWaiting(small);
+            assertTrue(order.isEmpty());
+
+            budget.release(held);
+
+            large.join(10000);
+            small.join(10000);
+
+            assertEquals(Arrays.asList("large", "small"), order);
+            assertEquals(2, budget.getWaits());
+        }
+        catch (IOException | InterruptedException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    private static Thread _start(MemoryBudget budget, long bytes, String name, List<String> order)
+    {
+        Thread thread = new Thread(() -> {
+            try
+            {
+                int size = budget.acquire(bytes);
+                order.add(name);
+                budget.release(size);
+            }
+            catch (IOException e)
+            {
+                e.printStackTrace();
+            }
+        });
+        thread.start();
+
+        return thread;
+    }
+
+    /**
+     * スレッドが容量の確保を待つ状態になるまで待ちます
+     */
+    private static void _awaitWaiting(Thread thread)
+    {
+        while ((thread.getState() != Thread.State.WAITING) && thread.isAlive())
+        {
+            Thread.yield();
+        }
+    }
+}
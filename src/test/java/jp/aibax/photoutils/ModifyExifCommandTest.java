@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -16,6 +17,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import jp.aibax.image.Exif;
+import jp.aibax.image.ExifCache;
 
 import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 import static java.util.Calendar.DATE;
@@ -492,4 +494,61 @@ public class ModifyExifCommandTest
             fail();
         }
     }
+
+    /**
+     * 同じ長さの値で撮影時刻を補正する場合はファイルを書き換えずに値のみを書き込むテスト
+     */
+    @Test
+    public void testAdjust_InPlace()
+    {
+        Path original = Paths.get("./testdata/sample_exif.jpg");
+
+        ModifyExifCommand command = new ModifyExifCommand();
+
+        try
+        {
+            Path testfile = _prepareTestFile(original);
+            testfiles.add(testfile);
+
+            Path cacheFile = Files.createTempFile(testfile.getParent(), ".", "");
+            testfiles.add(cacheFile);
+
+            try (ExifCache cache = ExifCache.open(cacheFile))
+            {
+                command.setExifCache(cache);
+
+                Exif exif = Exif.decode(testfile, cache);
+                byte[] before = Files.readAllBytes(testfile);
+                BasicFileAttributes attributes = Files.readAttributes(testfile, BasicFileAttributes.class);
+
+                command.adjust(testfile, 0, 1, 0, 0, false);
+
+                /* 同じファイル（inode）の同じサイズのまま */
+                byte[] after = Files.readAllBytes(testfile);
+                assertEquals(before.length, after.length);
+                assertEquals(attributes.fileKey(), Files.readAttributes(testfile, BasicFileAttributes.class).fileKey());
+
+                int changed = 0;
+
+                for (int i = 0; i < before.length; i++)
+                {
+                    changed += (before[i] != after[i]) ? 1 : 0;
+                }
+
+                assertTrue(changed <= "yyyy:MM:dd HH:mm:ss".length());
+
+                /* 補正時の読み込みはキャッシュから、補正後はキャッシュが変更を検出して読み込み直す */
+                Exif modified = Exif.decode(testfile, cache);
+                assertEquals(_addDateField(exif.getDateTimeOriginal(), HOUR, 1), modified.getDateTimeOriginal());
+                assertEquals(exif.getSubSecTimeOriginal(), modified.getSubSecTimeOriginal());
+                assertEquals(1, cache.getHits());
+                assertEquals(2, cache.getMisses());
+            }
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
 }
@@ -0,0 +1,304 @@
+package jp.aibax.photoutils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PhotoUtilsCommandTest
+{
+    private PhotoUtilsDaemon daemon;
+
+    private Thread thread;
+
+    private Path directory;
+
+    private Path tokenFile;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        directory = Files.createTempDirectory("photoutils");
+        tokenFile = directory.resolve("daemon.token");
+        daemon = new PhotoUtilsDaemon(0, tokenFile);
+
+        thread = new Thread(() -> {
+            try
+            {
+                daemon.serve();
+            }
+            catch (IOException e)
+            {
+                e.printStackTrace();
+            }
+        });
+        thread.start();
+    }
+
+    @After
+    public void tearDown() throws IOException, InterruptedException
+    {
+        daemon.close();
+        thread.join();
+
+        Files.deleteIfExists(tokenFile);
+        Files.deleteIfExists(directory);
+    }
+
+    /**
+     * デーモンでサブコマンドを実行して標準出力を受け取るテスト
+     */
+    @Test
+    public void testRemoteExecute()
+    {
+        try
+        {
+            ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+            ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+
+            int status = PhotoUtilsCommand
+                .execute(daemon.getPort(), tokenFile, new String[] { "resizeimg", "-v" }, stdout, stderr);
+
+            assertEquals(0, status);
+            assertTrue(stdout.toString().startsWith("resizeimg version"));
+
+            stdout.reset();
+
+            status = PhotoUtilsCommand.execute(daemon.getPort(), tokenFile,
+                new String[] { "resizeimg", "-m", "100", "--dry-run", "./testdata/dog.jpg" }, stdout, stderr);
+
+            assertEquals(0, status);
+            assertTrue(stdout.toString().startsWith("[RESIZE] dog.jpg"));
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    /**
+     * 失敗したコマンドの終了コードが 0 以外になるテスト
+     */
+    @Test
+    public void testRemoteExecute_Error()
+    {
+        try
+        {
+            ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+            ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+
+            int status = PhotoUtilsCommand.execute(daemon.getPort(), tokenFile,
+                new String[] { "resizeimg", "-m", "100", "./testdata/notfound.jpg" }, stdout, stderr);
+
+            assertEquals(1, status);
+            assertTrue(stderr.size() > 0);
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    /**
+     * 途中で切断したクライアントや不正な要求の後もデーモンが要求を受け付けるテスト
+     */
+    @Test
+    public void testRemoteExecute_Disconnected()
+    {
+        try
+        {
+            String token = new String(Files.readAllBytes(tokenFile), StandardCharsets.US_ASCII);
+
+            /* トークンの途中で切断 */
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), daemon.getPort()))
+            {
+                socket.getOutputStream().write(new byte[] { 0, 10, 'a' });
+            }
+
+            /* 引数の数が不正 */
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), daemon.getPort()))
+            {
+                DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                out.writeUTF(token);
+                out.writeUTF("/");
+                out.writeInt(-1);
+                out.flush();
+
+                assertEquals(-1, socket.getInputStream().read());
+            }
+
+            ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+            ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+
+            assertEquals(0, PhotoUtilsCommand.execute(daemon.getPort(), tokenFile, new String[] { "resizeimg", "-v" },
+                stdout, stderr));
+            assertTrue(stdout.toString().startsWith("resizeimg version"));
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    /**
+     * トークンが一致しない要求を実行しないテスト
+     */
+    @Test
+    public void testRemoteExecute_InvalidToken()
+    {
+        try
+        {
+            /* 所有者のみが読み書きできる */
+            if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix"))
+            {
+                assertEquals(PosixFilePermissions.fromString("rw-------"), Files.getPosixFilePermissions(tokenFile));
+            }
+
+            Path invalidTokenFile = directory.resolve("invalid.token");
+            Files.write(invalidTokenFile, "invalid".getBytes(StandardCharsets.US_ASCII));
+
+            try
+            {
+                PhotoUtilsCommand.execute(daemon.getPort(), invalidTokenFile, new String[] { PhotoUtilsDaemon.STOP },
+                    new ByteArrayOutputStream(), new ByteArrayOutputStream());
+                fail();
+            }
+            catch (IOException e)
+            {
+                /* 応答せずに切断 */
+            }
+            finally
+            {
+                Files.delete(invalidTokenFile);
+            }
+
+            assertTrue(thread.isAlive());
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    /**
+     * 要求を送らないクライアントが制限時間で切断され、他の要求を妨げないテスト
+     */
+    @Test
+    public void testRemoteExecute_Timeout()
+    {
+        daemon.setRequestTimeout(500);
+
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), daemon.getPort()))
+        {
+            ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+            ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+
+            assertEquals(0, PhotoUtilsCommand.execute(daemon.getPort(), tokenFile, new String[] { "resizeimg", "-v" },
+                stdout, stderr));
+            assertTrue(stdout.toString().startsWith("resizeimg version"));
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    /**
+     * 例外を出力せずにエラーを表示したコマンドと、デーモンでは実行できないコマンドの終了コードのテスト
+     */
+    @Test
+    public void testRemoteExecute_Status()
+    {
+        try
+        {
+            ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+            ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+
+            int status = PhotoUtilsCommand.execute(daemon.getPort(), tokenFile,
+                new String[] { "exifindex", "--from", "invalid", "./testdata" }, stdout, stderr);
+
+            assertEquals(1, status);
+            assertTrue(stderr.toString().startsWith("Invalid date"));
+
+            stderr.reset();
+
+            status = PhotoUtilsCommand.execute(daemon.getPort(), tokenFile,
+                new String[] { PhotoUtilsCommand.SERVE, "-r", "./testdata", "-p", "0" }, stdout, stderr);
+
+            assertEquals(1, status);
+            assertTrue(stderr.toString().startsWith(PhotoUtilsCommand.SERVE + " cannot be run"));
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    /**
+     * 相対パスの引数をクライアントの作業ディレクトリを基準に解決するテスト
+     */
+    @Test
+    public void testResolve()
+    {
+        Path workingDirectory = Paths.get("/work");
+
+        String[] args = PhotoUtilsDaemon.resolve(workingDirectory,
+            new String[] { "resizeimg", "-m", "640", "--plan", "plan.bin", "--report=report.json", "/photos/a.jpg",
+                "missing.jpg" });
+
+        /* ファイルを値とするオプションは存在しないファイルも解決し、それ以外は存在しない場合はそのまま */
+        String plan = workingDirectory.resolve("plan.bin").toString();
+        String report = workingDirectory.resolve("report.json").toString();
+
+        assertArrayEquals(new String[] { "resizeimg", "-m", "640", "--plan", plan, "--report=" + report,
+            "/photos/a.jpg", "missing.jpg" }, args);
+    }
+
+    /**
+     * デーモンを停止するテスト
+     */
+    @Test
+    public void testStop()
+    {
+        try
+        {
+            ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+            ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+
+            int status = PhotoUtilsCommand
+                .execute(daemon.getPort(), tokenFile, new String[] { PhotoUtilsDaemon.STOP }, stdout, stderr);
+
+            assertEquals(0, status);
+
+            thread.join(10000);
+            assertTrue(!thread.isAlive());
+        }
+        catch (IOException | InterruptedException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
+}
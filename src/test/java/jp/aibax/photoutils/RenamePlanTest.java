@@ -0,0 +1,148 @@
+package jp.aibax.photoutils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RenamePlanTest
+{
+    /** 撮影時刻（秒）と連番のファイル名 */
+    private static final RenamePlan.Namer NAMER = (candidate, count) -> (candidate.time / 1000) + "_" + count
+        + candidate.extension;
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        directory = Files.createTempDirectory(Paths.get("testdata"), ".renameplan");
+    }
+
+    @After
+    public void tearDown()
+    {
+        try (Stream<Path> paths = Files.walk(directory))
+        {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 同じ秒に撮影したファイルは撮影時刻（ミリ秒）順に連番を割り当て、既存のファイル名は使用しないテスト
+     */
+    @Test
+    public void testCreate()
+    {
+        try
+        {
+            RenamePlan.Candidate a = _candidate("a.jpg", 1000900);
+            RenamePlan.Candidate b = _candidate("b.jpg", 1000100);
+            RenamePlan.Candidate c = _candidate("c.jpg", 1000500);
+            RenamePlan.Candidate d = _candidate("d.jpg", 2000000);
+
+            /* リネームしないファイル */
+            Files.write(directory.resolve("1000_1.jpg"), "other".getBytes(UTF_8));
+
+            RenamePlan plan = RenamePlan.create(Arrays.asList(a, b, c, d), NAMER);
+
+            /* 入力の順序によらず同じ結果 */
+            List<String> expected = Arrays.asList("b.jpg => 1000_0.jpg", "c.jpg => 1000_2.jpg", "a.jpg => 1000_3.jpg",
+                "d.jpg => 2000_0.jpg");
+            assertEquals(expected, _toString(plan));
+            assertEquals(expected, _toString(RenamePlan.create(Arrays.asList(d, c, b, a), NAMER)));
+
+            assertEquals(4, plan.execute(move -> {}));
+            assertEquals("other", new String(Files.readAllBytes(directory.resolve("1000_1.jpg")), UTF_8));
+            assertEquals("a.jpg", new String(Files.readAllBytes(directory.resolve("1000_3.jpg")), UTF_8));
+            assertFalse(Files.exists(directory.resolve("a.jpg")));
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    /**
+     * ファイル名の入れ替えは一時的なファイル名を1回だけ経由し、変更のないファイルはリネームしないテスト
+     */
+    @Test
+    public void testExecute_Cycle()
+    {
+        try
+        {
+            /* 1000_0.jpg と 1000_1.jpg の撮影時刻の順序が逆 → 入れ替え */
+            RenamePlan.Candidate first = _candidate("1000_0.jpg", 1000900);
+            RenamePlan.Candidate second = _candidate("1000_1.jpg", 1000100);
+            RenamePlan.Candidate third = _candidate("2000_0.jpg", 2000000);
+
+            RenamePlan plan = RenamePlan.create(Arrays.asList(first, second, third), NAMER);
+
+            List<RenamePlan.Move> moved = new ArrayList<>();
+            assertEquals(3, plan.execute(moved::add));
+            assertEquals(3, moved.size());
+            assertTrue(moved.stream().anyMatch(RenamePlan.Move::isNoop));
+
+            assertEquals("1000_1.jpg", new String(Files.readAllBytes(directory.resolve("1000_0.jpg")), UTF_8));
+            assertEquals("1000_0.jpg", new String(Files.readAllBytes(directory.resolve("1000_1.jpg")), UTF_8));
+            assertEquals("2000_0.jpg", new String(Files.readAllBytes(directory.resolve("2000_0.jpg")), UTF_8));
+
+            try (Stream<Path> files = Files.list(directory))
+            {
+                assertEquals(3, files.count());
+            }
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    /**
+     * ファイル名を内容とするファイルを作成します
+     */
+    private RenamePlan.Candidate _candidate(String filename, long time) throws IOException
+    {
+        Path file = directory.resolve(filename);
+
+        if (!Files.exists(file))
+        {
+            Files.write(file, filename.getBytes(UTF_8));
+        }
+
+        return new RenamePlan.Candidate(file, time, null, ".jpg");
+    }
+
+    private static List<String> _toString(RenamePlan plan)
+    {
+        List<String> result = new ArrayList<>();
+
+        for (RenamePlan.Move move : plan.getMoves())
+        {
+            result.add(move.source.getFileName() + " => " + move.target.getFileName());
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,147 @@
+package jp.aibax.photoutils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import jp.aibax.image.ImageUtils;
+import jp.aibax.image.RenditionCoalescer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RenditionCoalescerTest
+{
+    /**
+     * 同時に要求された同じ処理が1回だけ実行されるテスト
+     */
+    @Test
+    public void testCoalesce()
+    {
+        Path original = Paths.get("./testdata/1920x1080.png");
+
+        RenditionCoalescer coalescer = new RenditionCoalescer();
+        AtomicInteger count = new AtomicInteger();
+        CountDownLatch arrived = new CountDownLatch(8);
+        List<Thread> requesters = new CopyOnWriteArrayList<>();
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        try
+        {
+            List<Future<byte[]>> futures = new ArrayList<>();
+
+            for (int i = 0; i < 8; i++)
+            {
+                futures.add(executor.submit(() -> {
+
+                    requesters.add(Thread.currentThread());
+                    arrived.countDown();
+
+                    return coalescer.render(original, "resize:640", file -> {
+
+                        count.incrementAndGet();
+
+                        /* 他の全ての要求が処理中の要求の結果を待つまで完了しない */
+                        _awaitOthers(arrived, requesters);
+
+                        return ImageUtils.resize(file, 640);
+
+                    });
+
+                }));
+            }
+
+            byte[] first = futures.get(0).get();
+
+            for (Future<byte[]> future : futures)
+            {
+                assertSame(first, future.get());
+            }
+
+            assertEquals(1, count.get());
+            assertEquals(0, coalescer.getInflightCount());
+        }
+        catch (InterruptedException | ExecutionException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * 処理が完了した後の要求は再度実行されるテスト
+     */
+    @Test
+    public void testNotCached()
+    {
+        Path original = Paths.get("./testdata/1920x1080.png");
+
+        RenditionCoalescer coalescer = new RenditionCoalescer();
+
+        try
+        {
+            byte[] first = coalescer.trim(original, 1);
+            byte[] second = coalescer.trim(original, 1);
+
+            assertTrue(first != second);
+            assertEquals(first.length, second.length);
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    /**
+     * 他の全ての要求のスレッドが処理中の要求の結果を待つ（WAITING になる）まで待機します
+     */
+    private static void _awaitOthers(CountDownLatch arrived, List<Thread> requesters) throws IOException
+    {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+
+        try
+        {
+            if (!arrived.await(10, TimeUnit.SECONDS))
+            {
+                throw new IOException("Requests did not arrive");
+            }
+        }
+        catch (InterruptedException e)
+        {
+            throw new IOException(e);
+        }
+
+        for (Thread thread : requesters)
+        {
+            while ((thread != Thread.currentThread()) && (thread.getState() != Thread.State.WAITING))
+            {
+                if (System.nanoTime() > deadline)
+                {
+                    throw new IOException("Requests did not wait for the running rendition");
+                }
+
+                Thread.yield();
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package jp.aibax.photoutils;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+public class RenditionServerTest
+{
+    private RenditionServer server;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        server = new RenditionServer(Paths.get("./testdata"), 0, 2, 4);
+        server.start();
+    }
+
+    @After
+    public void tearDown()
+    {
+        server.close();
+    }
+
+    private HttpURLConnection _open(String path) throws IOException
+    {
+        return (HttpURLConnection)new URL("http://localhost:" + server.getPort() + path).openConnection();
+    }
+
+    /**
+     * 幅と高さを指定してリサイズした画像を取得するテスト
+     */
+    @Test
+    public void testResize()
+    {
+        try
+        {
+            HttpURLConnection connection = _open("/r/320x0/1920x1080.png");
+
+            assertEquals(200, connection.getResponseCode());
+            assertEquals("image/png", connection.getContentType());
+            assertNotNull(connection.getHeaderField("ETag"));
+
+            try (InputStream inputStream = connection.getInputStream())
+            {
+                BufferedImage image = ImageIO.read(inputStream);
+
+                assertEquals(320, image.getWidth());
+                assertEquals(180, image.getHeight());
+            }
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    /**
+     * If-None-Match に一致する場合は 304 を返すテスト
+     */
+    @Test
+    public void testNotModified()
+    {
+        try
+        {
+            HttpURLConnection connection = _open("/t/1/1920x1080.png");
+
+            assertEquals(200, connection.getResponseCode());
+
+            String etag = connection.getHeaderField("ETag");
+            connection.getInputStream().close();
+
+            connection = _open("/t/1/1920x1080.png");
+            connection.setRequestProperty("If-None-Match", etag);
+
+            assertEquals(304, connection.getResponseCode());
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
+    /**
+     * 壊れた画像の場合は接続を切断せずに 500 を返すテスト
+     */
+    @Test
+    public void testBrokenImage()
+    {
+        Path file = null;
+
+        try
+        {
+            /* JPEG のヘッダのみで画像データが壊れている */
+            file = Files.createTempFile(Paths.get("./testdata"), ".", ".jpg");
+            Files.write(file, new byte[] { (byte)0xFF, (byte)0xD8, (byte)0xFF, (byte)0xDB, 0, 1, 2, 3 });
+
+            assertEquals(500, _open("/r/100/" + file.getFileName()).getResponseCode());
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+        finally
+        {
+            if (file != null)
+            {
+                file.toFile().delete();
+            }
+        }
+    }
+
+    /**
+     * 公開するディレクトリの外のファイルは取得できないテスト
+     */
+    @Test
+    public void testNotFound()
+    {
+        try
+        {
+            assertEquals(404, _open("/r/100/../build.gradle").getResponseCode());
+            assertEquals(404, _open("/r/100/notfound.jpg").getResponseCode());
+            assertEquals(404, _open("/x/100/1920x1080.png").getResponseCode());
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package jp.aibax.photoutils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RunReportTest
+{
+    private PrintStream stdout;
+
+    private PrintStream stderr;
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        stdout = System.out;
+        stderr = System.err;
+
+        System.setOut(new PrintStream(new ByteArrayOutputStream(), true));
+        System.setErr(new PrintStream(new ByteArrayOutputStream(), true));
+
+        directory = Files.createTempDirectory(Paths.get("testdata"), ".report");
+    }
+
+    @After
+    public void tearDown()
+    {
+        System.setOut(stdout);
+        System.setErr(stderr);
+
+        try (Stream<Path> paths = Files.walk(directory))
+        {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * ヒストグラムから求めたパーセンタイルの誤差が区間の幅（約12%）以内となるテスト
+     */
+    @Test
+    public void testHistogram()
+    {
+        RunReport.Histogram histogram = new RunReport.Histogram();
+
+        for (long i = 1; i <= 1000; i++)
+        {
+            histogram.record(i * 1000000);
+        }
+
+        assertEquals(1000, histogram.getCount());
+
+        long p50 = histogram.getPercentile(50);
+        long p99 = histogram.getPercentile(99);
+
+        assertTrue(Math.abs(p50 - 500000000L) <= 500000000L * 0.125);
+        assertTrue(Math.abs(p99 - 990000000L) <= 990000000L * 0.125);
+    }
+
+    /**
+     * レポートを指定してリサイズした場合に、ファイル数と段階ごとの処理時間が出力されるテスト
+     */
+    @Test
+    public void testResizeCommand()
+    {
+        try
+        {
+            Path file = directory.resolve("1920x1080.png");
+            Files.copy(Paths.get("testdata/1920x1080.png"), file);
+
+            Path report = directory.resolve("report.json");
+
+            ResizeCommand.main(new String[] { "--report", report.toString(), "-m", "960", file.toString() });
+
+            String json = new String(Files.readAllBytes(report), StandardCharsets.UTF_8);
+
+            assertTrue(json.contains("\"files\": 1,"));
+            assertTrue(json.contains("\"errors\": 0,"));
+            assertTrue(json.contains("\"decode\": "));
+            assertTrue(json.contains("\"write\": "));
+            assertTrue(json.contains("1920x1080.png"));
+
+            /* 各段階の待ち行列とメモリ使用量の上限による待ち時間もレポートに出力 */
+            assertTrue(json.contains("\"blockedMillis\": "));
+            assertTrue(json.contains("\"memoryBudget\": {\"capacityBytes\": "));
+
+            /* ファイルごとの記録の一時ファイルが残らない */
+            try (Stream<Path> files = Files.list(directory))
+            {
+                assertEquals(2, files.count());
+            }
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            fail();
+        }
+    }
+}